@@ -16,3 +16,94 @@
 -- If not, see http://www.gnu.org/licenses/.
 --
 
+-- QUERY START:
+create index tig_pubsub_items_node_id_creation_date on tig_pubsub_items ( node_id, creation_date );
+-- QUERY END:
+
+-- QUERY START:
+create index tig_pubsub_items_node_id_update_date on tig_pubsub_items ( node_id, update_date );
+-- QUERY END:
+
+-- QUERY START:
+create index tig_pubsub_items_node_id_creation_date_id on tig_pubsub_items ( node_id, creation_date, id );
+-- QUERY END:
+
+-- QUERY START:
+create index tig_pubsub_items_node_id_update_date_id on tig_pubsub_items ( node_id, update_date, id );
+-- QUERY END:
+
+-- QUERY START:
+create index tig_pubsub_mam_node_id_ts_uuid on tig_pubsub_mam ( node_id, ts, uuid );
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubGetNodeLastItem(node_id bigint, itemsOrder int)
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	READS SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubGetNodeLastItem';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubTrimItems(node_id bigint, maxItems int, itemsOrder int)
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	MODIFIES SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubTrimItems';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubPurgeItems(node_id bigint, before timestamp, maxItems int)
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	MODIFIES SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubPurgeItems';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubGetNodeMetas(service_jid varchar(2049), nodes_names varchar(32672))
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	READS SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubGetNodeMetas';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubGetItems(node_id bigint, items_ids varchar(32672))
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	READS SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubGetItems';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubQueryItemsSeek(nodes_ids varchar(32672), since timestamp, "to" timestamp, "order" int, node_id bigint, item_id varchar(1024), backward int, "limit" int)
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	READS SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubQueryItemsSeek';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubMamQueryItemsSeek(node_id bigint, since timestamp, "to" timestamp, after_uuid varchar(36), before_uuid varchar(36), backward int, "limit" int)
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	READS SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubMamQueryItemsSeek';
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubGetBlobReferences(prefix varchar(32))
+	PARAMETER STYLE JAVA
+	LANGUAGE JAVA
+	READS SQL DATA
+	DYNAMIC RESULT SETS 1
+	EXTERNAL NAME 'tigase.pubsub.repository.derby.StoredProcedures.tigPubSubGetBlobReferences';
+-- QUERY END:
@@ -16,3 +16,423 @@
 -- If not, see http://www.gnu.org/licenses/.
 --
 
+
+-- QUERY START:
+drop procedure if exists TigPubSubUpgrade;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubUpgrade()
+begin
+    if not exists (SELECT 1 FROM information_schema.statistics s1 WHERE s1.table_schema = database() AND s1.table_name = 'tig_pubsub_items' AND s1.index_name = 'node_id_creation_date') then
+        create index node_id_creation_date on tig_pubsub_items ( node_id, creation_date );
+    end if;
+
+    if not exists (SELECT 1 FROM information_schema.statistics s1 WHERE s1.table_schema = database() AND s1.table_name = 'tig_pubsub_items' AND s1.index_name = 'node_id_update_date') then
+        create index node_id_update_date on tig_pubsub_items ( node_id, update_date );
+    end if;
+
+    if not exists (SELECT 1 FROM information_schema.statistics s1 WHERE s1.table_schema = database() AND s1.table_name = 'tig_pubsub_items' AND s1.index_name = 'node_id_creation_date_id') then
+        create index node_id_creation_date_id on tig_pubsub_items ( node_id, creation_date, id_sha1 );
+    end if;
+
+    if not exists (SELECT 1 FROM information_schema.statistics s1 WHERE s1.table_schema = database() AND s1.table_name = 'tig_pubsub_items' AND s1.index_name = 'node_id_update_date_id') then
+        create index node_id_update_date_id on tig_pubsub_items ( node_id, update_date, id_sha1 );
+    end if;
+
+    if not exists (SELECT 1 FROM information_schema.statistics s1 WHERE s1.table_schema = database() AND s1.table_name = 'tig_pubsub_mam' AND s1.index_name = 'node_id_ts_uuid') then
+        create index node_id_ts_uuid on tig_pubsub_mam ( node_id, ts, uuid );
+    end if;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+call TigPubSubUpgrade();
+-- QUERY END:
+
+-- QUERY START:
+drop procedure if exists TigPubSubUpgrade;
+-- QUERY END:
+
+-- QUERY START:
+drop procedure if exists TigPubSubGetNodeLastItem;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubGetNodeLastItem(_node_id bigint, _order int)
+begin
+    if _order = 1 then
+        select pi.id, pi.`data`, pn.name, TigPubSubOrderedToUuid(pi.uuid)
+            from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+            where pi.node_id = _node_id
+            order by pi.creation_date desc
+            limit 1;
+    else
+        select pi.id, pi.`data`, pn.name, TigPubSubOrderedToUuid(pi.uuid)
+            from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+            where pi.node_id = _node_id
+            order by pi.update_date desc
+            limit 1;
+    end if;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubTrimItems;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubTrimItems(_node_id bigint, _max_items int, _order int)
+begin
+    drop temporary table if exists tig_pubsub_trimmed_items;
+    create temporary table tig_pubsub_trimmed_items (
+        id_sha1 char(40) not null,
+        id varchar(1024) character set utf8mb4 collate utf8mb4_bin not null
+    );
+
+    if _order = 1 then
+        insert into tig_pubsub_trimmed_items (id_sha1, id)
+            select pi.id_sha1, pi.id from tig_pubsub_items pi
+            where pi.node_id = _node_id
+            order by pi.creation_date desc
+            limit 18446744073709551615 offset _max_items;
+    else
+        insert into tig_pubsub_trimmed_items (id_sha1, id)
+            select pi.id_sha1, pi.id from tig_pubsub_items pi
+            where pi.node_id = _node_id
+            order by pi.update_date desc
+            limit 18446744073709551615 offset _max_items;
+    end if;
+
+    delete pi from tig_pubsub_items pi
+        inner join tig_pubsub_trimmed_items t on t.id_sha1 = pi.id_sha1 and t.id = pi.id
+        where pi.node_id = _node_id;
+    update tig_pubsub_mam pm
+        inner join tig_pubsub_trimmed_items t on t.id_sha1 = pm.item_id_sha1 and t.id = pm.item_id
+        set pm.data = null
+        where pm.node_id = _node_id;
+
+    select id from tig_pubsub_trimmed_items;
+    drop temporary table tig_pubsub_trimmed_items;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubPurgeItems;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubPurgeItems(_node_id bigint, _before timestamp(6), _limit int)
+begin
+    drop temporary table if exists tig_pubsub_purged_items;
+    create temporary table tig_pubsub_purged_items (
+        id_sha1 char(40) not null,
+        id varchar(1024) character set utf8mb4 collate utf8mb4_bin not null
+    );
+
+    insert into tig_pubsub_purged_items (id_sha1, id)
+        select pi.id_sha1, pi.id from tig_pubsub_items pi
+        where pi.node_id = _node_id and pi.update_date <= _before
+        limit _limit;
+
+    delete pi from tig_pubsub_items pi
+        inner join tig_pubsub_purged_items t on t.id_sha1 = pi.id_sha1 and t.id = pi.id
+        where pi.node_id = _node_id;
+    update tig_pubsub_mam pm
+        inner join tig_pubsub_purged_items t on t.id_sha1 = pm.item_id_sha1 and t.id = pm.item_id
+        set pm.data = null
+        where pm.node_id = _node_id;
+
+    select id from tig_pubsub_purged_items;
+    drop temporary table tig_pubsub_purged_items;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubWriteItemInTransaction;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubWriteItemInTransaction(_node_id bigint, _item_id varchar(1024) charset utf8mb4 collate utf8mb4_bin, _publisher varchar(2049),
+	 _item_data mediumtext charset utf8mb4, _ts timestamp(6), _uuid varchar(36))
+begin
+	-- same as TigPubSubWriteItem but without own transactions as it is executed
+	-- in a batch within transaction started and committed by the caller
+	declare _publisher_id bigint;
+
+	call TigPubSubEnsureJid(_publisher, _publisher_id);
+
+	insert into tig_pubsub_items (node_id, id_sha1, id, creation_date, update_date, publisher_id, data, uuid)
+		values (_node_id, SHA1(_item_id), _item_id, _ts, _ts, _publisher_id, _item_data, TigPubSubUuidToOrdered(_uuid))
+		on duplicate key update publisher_id = _publisher_id, data = _item_data, update_date = _ts, uuid = TigPubSubUuidToOrdered(_uuid);
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubGetNodeMetas;
+-- QUERY END:
+
+-- QUERY START:
+drop procedure if exists TigPubSubGetItems;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubGetNodeMetas(_service_jid varchar(2049), _nodes_names mediumtext charset utf8mb4 collate utf8mb4_bin)
+begin
+    -- names are separated with char(1), which is not allowed in XML
+    declare _rest mediumtext charset utf8mb4 collate utf8mb4_bin default _nodes_names;
+    declare _name varchar(1024) charset utf8mb4 collate utf8mb4_bin;
+    declare _pos int;
+    declare _service_id bigint;
+
+    select service_id into _service_id from tig_pubsub_service_jids where service_jid_sha1 = SHA1(LOWER(_service_jid));
+
+    drop temporary table if exists tig_pubsub_requested_nodes;
+    create temporary table tig_pubsub_requested_nodes (
+        name_sha1 char(40) not null,
+        name varchar(1024) character set utf8mb4 collate utf8mb4_bin not null
+    );
+
+    while _rest is not null do
+        set _pos = locate(char(1 using utf8mb4), _rest);
+        if _pos = 0 then
+            set _name = _rest;
+            set _rest = null;
+        else
+            set _name = substring(_rest, 1, _pos - 1);
+            set _rest = substring(_rest, _pos + 1);
+        end if;
+        insert into tig_pubsub_requested_nodes (name_sha1, name) values (SHA1(_name), _name);
+    end while;
+
+    select n.node_id, n.name, n.configuration, cj.jid, n.creation_date
+        from tig_pubsub_requested_nodes t
+        inner join tig_pubsub_nodes n on n.service_id = _service_id and n.name_sha1 = t.name_sha1 and n.name = t.name
+        inner join tig_pubsub_jids cj on cj.jid_id = n.creator_id;
+
+    drop temporary table tig_pubsub_requested_nodes;
+end //
+-- QUERY END:
+
+-- QUERY START:
+create procedure TigPubSubGetItems(_node_id bigint, _items_ids mediumtext charset utf8mb4 collate utf8mb4_bin)
+begin
+    -- ids are separated with char(1), which is not allowed in XML
+    declare _rest mediumtext charset utf8mb4 collate utf8mb4_bin default _items_ids;
+    declare _item_id varchar(1024) charset utf8mb4 collate utf8mb4_bin;
+    declare _pos int;
+
+    drop temporary table if exists tig_pubsub_requested_items;
+    create temporary table tig_pubsub_requested_items (
+        id_sha1 char(40) not null,
+        id varchar(1024) character set utf8mb4 collate utf8mb4_bin not null
+    );
+
+    while _rest is not null do
+        set _pos = locate(char(1 using utf8mb4), _rest);
+        if _pos = 0 then
+            set _item_id = _rest;
+            set _rest = null;
+        else
+            set _item_id = substring(_rest, 1, _pos - 1);
+            set _rest = substring(_rest, _pos + 1);
+        end if;
+        insert into tig_pubsub_requested_items (id_sha1, id) values (SHA1(_item_id), _item_id);
+    end while;
+
+    select pi.id, pi.`data`, pn.name, TigPubSubOrderedToUuid(pi.uuid)
+        from tig_pubsub_requested_items t
+        inner join tig_pubsub_items pi on pi.node_id = _node_id and pi.id_sha1 = t.id_sha1 and pi.id = t.id
+        inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id;
+
+    drop temporary table tig_pubsub_requested_items;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubQueryItemsSeek;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubQueryItemsSeek(_nodes_ids text, _since timestamp(6), _to timestamp(6), _order int, _node_id bigint, _item_id varchar(1024) charset utf8mb4 collate utf8mb4_bin, _backward int, _limit int)
+begin
+    set @since = _since;
+    set @to = _to;
+    set @limit = _limit;
+    set @cursor_node_id = _node_id;
+    set @cursor_sha1 = SHA1(_item_id);
+    set @cursor_ts = null;
+
+    set @ts = 'creation_date';
+    if _order = 2 then
+        set @ts = 'update_date';
+    end if;
+
+    set @cmp = '>';
+    set @dir = 'asc';
+    if _backward = 1 then
+        set @cmp = '<';
+        set @dir = 'desc';
+    end if;
+
+    if _item_id is not null then
+        select if(_order = 2, update_date, creation_date) into @cursor_ts
+            from tig_pubsub_items
+            where node_id = _node_id and id_sha1 = @cursor_sha1 and id = _item_id;
+    end if;
+
+    -- if cursor item does not exist, comparison with null cursor returns no rows
+    set @query = CONCAT('select pn.name, pi.node_id, pi.id, TigPubSubOrderedToUuid(pi.uuid), pi.data
+        from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pi.node_id = pn.node_id
+        where
+            pi.node_id in (', _nodes_ids, ')
+            and (? is null or pi.', @ts, ' >= ?)
+            and (? is null or pi.', @ts, ' <= ?)',
+            if(_item_id is null, '', CONCAT('
+            and (pi.', @ts, ', pi.node_id, pi.id_sha1) ', @cmp, ' (?, ?, ?)')), '
+        order by pi.', @ts, ' ', @dir, ', pi.node_id ', @dir, ', pi.id_sha1 ', @dir, '
+        limit ?;');
+
+    prepare stmt from @query;
+    if _item_id is null then
+        execute stmt using @since, @since, @to, @to, @limit;
+    else
+        execute stmt using @since, @since, @to, @to, @cursor_ts, @cursor_node_id, @cursor_sha1, @limit;
+    end if;
+    deallocate prepare stmt;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubMamQueryItemsSeek;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubMamQueryItemsSeek(_node_id bigint, _since timestamp(6), _to timestamp(6), _after_uuid varchar(36), _before_uuid varchar(36), _backward int, _limit int)
+begin
+    declare _after_ordered binary(16) default TigPubSubUuidToOrdered(_after_uuid);
+    declare _before_ordered binary(16) default TigPubSubUuidToOrdered(_before_uuid);
+    declare _after_ts datetime(6) default null;
+    declare _before_ts datetime(6) default null;
+
+    if _after_uuid is not null then
+        select ts into _after_ts from tig_pubsub_mam where node_id = _node_id and uuid = _after_ordered;
+    end if;
+    if _before_uuid is not null then
+        select ts into _before_ts from tig_pubsub_mam where node_id = _node_id and uuid = _before_ordered;
+    end if;
+
+    -- if after or before item does not exist, comparison with null timestamp returns no rows
+    if _backward = 1 then
+        select TigPubSubOrderedToUuid(pm.uuid), pm.ts, pm.data
+            from tig_pubsub_mam pm
+            where
+                pm.node_id = _node_id
+                and (_since is null or pm.ts >= _since)
+                and (_to is null or pm.ts <= _to)
+                and (_after_uuid is null or pm.ts > _after_ts or (pm.ts = _after_ts and pm.uuid > _after_ordered))
+                and (_before_uuid is null or pm.ts < _before_ts or (pm.ts = _before_ts and pm.uuid < _before_ordered))
+            order by pm.ts desc, pm.uuid desc
+            limit _limit;
+    else
+        select TigPubSubOrderedToUuid(pm.uuid), pm.ts, pm.data
+            from tig_pubsub_mam pm
+            where
+                pm.node_id = _node_id
+                and (_since is null or pm.ts >= _since)
+                and (_to is null or pm.ts <= _to)
+                and (_after_uuid is null or pm.ts > _after_ts or (pm.ts = _after_ts and pm.uuid > _after_ordered))
+                and (_before_uuid is null or pm.ts < _before_ts or (pm.ts = _before_ts and pm.uuid < _before_ordered))
+            order by pm.ts, pm.uuid
+            limit _limit;
+    end if;
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop function if exists TigPubSubUuidToOrdered;
+-- QUERY END:
+
+-- QUERY START:
+drop function if exists TigPubSubOrderedToUuid;
+-- QUERY END:
+
+delimiter //
+
+-- time-ordered (version 7) ids are stored as they are, so they are ordered by time and appended to indexes,
+-- other ids are stored with version and time fields moved to the front, as before
+-- QUERY START:
+create function TigPubSubUuidToOrdered(_uuid varchar(36)) returns binary(16) deterministic
+    return if(substr(_uuid, 15, 1) = '7',
+        unhex(replace(_uuid, '-', '')),
+        unhex(concat(substr(_uuid, 15, 4), substr(_uuid, 10, 4), substr(_uuid, 1, 8), substr(_uuid, 20, 4), substr(_uuid, 25))));
+-- QUERY END:
+
+-- stored time-ordered ids start with the highest bits of the timestamp, which are 0,
+-- while other ids start with the version, which is never 0
+-- QUERY START:
+create function TigPubSubOrderedToUuid(_uuid binary(16)) returns varchar(36) deterministic
+begin
+    declare hexed varchar(36);
+    select hex(_uuid) into hexed;
+
+    if substr(hexed, 1, 1) = '0' then
+        return concat(substr(hexed, 1, 8), '-', substr(hexed, 9, 4), '-', substr(hexed, 13, 4), '-', substr(hexed, 17, 4), '-', substr(hexed, 21));
+    end if;
+    return concat(substr(hexed, 9, 8), '-', substr(hexed, 5, 4), '-', substr(hexed, 1, 4), '-', substr(hexed, 17, 4), '-', substr(hexed, 21));
+end //
+-- QUERY END:
+
+delimiter ;
+
+-- QUERY START:
+drop procedure if exists TigPubSubGetBlobReferences;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+create procedure TigPubSubGetBlobReferences(_prefix varchar(32) charset utf8mb4)
+begin
+    select pi.data from tig_pubsub_items pi where pi.data like _prefix collate utf8mb4_bin
+    union all
+    select pm.data from tig_pubsub_mam pm where pm.data like _prefix collate utf8mb4_bin;
+end //
+-- QUERY END:
+
+delimiter ;
@@ -16,3 +16,265 @@
 -- If not, see http://www.gnu.org/licenses/.
 --
 
+
+-- QUERY START:
+do $$
+begin
+if exists (select 1 where (select to_regclass('tig_pubsub_items_node_id_creation_date')) is null) then
+    create index tig_pubsub_items_node_id_creation_date on tig_pubsub_items ( node_id, creation_date );
+end if;
+end$$;
+-- QUERY END:
+
+-- QUERY START:
+do $$
+begin
+if exists (select 1 where (select to_regclass('tig_pubsub_items_node_id_update_date')) is null) then
+    create index tig_pubsub_items_node_id_update_date on tig_pubsub_items ( node_id, update_date );
+end if;
+end$$;
+-- QUERY END:
+
+-- QUERY START:
+do $$
+begin
+if exists (select 1 where (select to_regclass('tig_pubsub_items_node_id_creation_date_id')) is null) then
+    create index tig_pubsub_items_node_id_creation_date_id on tig_pubsub_items ( node_id, creation_date, id );
+end if;
+end$$;
+-- QUERY END:
+
+-- QUERY START:
+do $$
+begin
+if exists (select 1 where (select to_regclass('tig_pubsub_items_node_id_update_date_id')) is null) then
+    create index tig_pubsub_items_node_id_update_date_id on tig_pubsub_items ( node_id, update_date, id );
+end if;
+end$$;
+-- QUERY END:
+
+-- QUERY START:
+do $$
+begin
+if exists (select 1 where (select to_regclass('tig_pubsub_mam_node_id_uuid')) is null) then
+    create index tig_pubsub_mam_node_id_uuid on tig_pubsub_mam ( node_id, uuid );
+end if;
+end$$;
+-- QUERY END:
+
+-- QUERY START:
+do $$
+begin
+if exists (select 1 where (select to_regclass('tig_pubsub_mam_node_id_ts_uuid')) is null) then
+    create index tig_pubsub_mam_node_id_ts_uuid on tig_pubsub_mam ( node_id, ts, uuid );
+end if;
+end$$;
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubGetNodeLastItem(bigint, int) returns table (
+	id varchar(1024), "data" text, jid varchar(2049), uuid varchar(36)
+) as $$
+declare
+    _node_id alias for $1;
+    _order alias for $2;
+begin
+    if _order = 1 then
+        return query select pi.id, pi."data", pn.name, cast(pi.uuid::text as varchar(36))
+            from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+            where pi.node_id = _node_id
+            order by pi.creation_date desc
+            limit 1;
+    else
+        return query select pi.id, pi."data", pn.name, cast(pi.uuid::text as varchar(36))
+            from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+            where pi.node_id = _node_id
+            order by pi.update_date desc
+            limit 1;
+    end if;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubTrimItems(bigint, int, int) returns table (id varchar(1024)) as $$
+declare
+    _node_id alias for $1;
+    _max_items alias for $2;
+    _order alias for $3;
+begin
+    if _order = 1 then
+        return query with removed as (
+            delete from tig_pubsub_items pi
+            where pi.node_id = _node_id and pi.id in (
+                select i.id from tig_pubsub_items i where i.node_id = _node_id
+                order by i.creation_date desc offset _max_items)
+            returning pi.id
+        ), mam as (
+            update tig_pubsub_mam pm set data = null
+            from removed r where pm.node_id = _node_id and pm.item_id = r.id
+        )
+        select r.id from removed r;
+    else
+        return query with removed as (
+            delete from tig_pubsub_items pi
+            where pi.node_id = _node_id and pi.id in (
+                select i.id from tig_pubsub_items i where i.node_id = _node_id
+                order by i.update_date desc offset _max_items)
+            returning pi.id
+        ), mam as (
+            update tig_pubsub_mam pm set data = null
+            from removed r where pm.node_id = _node_id and pm.item_id = r.id
+        )
+        select r.id from removed r;
+    end if;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubPurgeItems(bigint, timestamp with time zone, int) returns table (id varchar(1024)) as $$
+declare
+    _node_id alias for $1;
+    _before alias for $2;
+    _limit alias for $3;
+begin
+    return query with removed as (
+        delete from tig_pubsub_items pi
+        where pi.node_id = _node_id and pi.id in (
+            select i.id from tig_pubsub_items i where i.node_id = _node_id and i.update_date <= _before
+            limit _limit)
+        returning pi.id
+    ), mam as (
+        update tig_pubsub_mam pm set data = null
+        from removed r where pm.node_id = _node_id and pm.item_id = r.id
+    )
+    select r.id from removed r;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubGetNodeMetas(varchar(2049), text) returns table (
+    node_id bigint, node_name varchar(1024), configuration text, creator varchar(2049), creation_date timestamp with time zone
+) as $$
+    -- names are separated with chr(1), which is not allowed in XML
+    select n.node_id, n.name, n.configuration, cj.jid, n.creation_date
+        from tig_pubsub_nodes n
+            inner join tig_pubsub_service_jids sj on n.service_id = sj.service_id
+            inner join tig_pubsub_jids cj on cj.jid_id = n.creator_id
+        where lower(sj.service_jid) = lower($1) and n.name = any(string_to_array($2, chr(1)))
+$$ LANGUAGE SQL;
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubGetItems(bigint, text) returns table (
+    item_id varchar(1024), "data" text, node_name varchar(1024), uuid varchar(36)
+) as $$
+    -- ids are separated with chr(1), which is not allowed in XML
+    select pi.id, pi."data", pn.name, pi.uuid::text
+        from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+        where pi.node_id = $1 and pi.id = any(string_to_array($2, chr(1)))
+$$ LANGUAGE SQL;
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubQueryItemsSeek(_nodes_ids text, _since timestamp with time zone, _to timestamp with time zone, _order int, _node_id bigint, _item_id varchar(1024), _backward int, _limit int) returns table (
+    node_name varchar(1024),
+    node_id bigint,
+    item_id varchar(1024),
+    uuid varchar(36),
+    payload text
+) as $$
+declare
+    _ts text := 'creation_date';
+    _cmp text := '>';
+    _dir text := 'asc';
+    _cursor_filter text := '';
+    _cursor_ts timestamp with time zone;
+begin
+    if _order = 2 then
+        _ts := 'update_date';
+    end if;
+    if _backward = 1 then
+        _cmp := '<';
+        _dir := 'desc';
+    end if;
+
+    if _item_id is not null then
+        execute format('select %I from tig_pubsub_items where node_id = $1 and id = $2', _ts)
+            into _cursor_ts using _node_id, _item_id;
+        -- if cursor item does not exist, comparison with null cursor returns no rows
+        _cursor_filter := format(' and (pi.%1$I, pi.node_id, pi.id) %2$s ($4, $5, $6)', _ts, _cmp);
+    end if;
+
+    return query execute format('select pn.name, pi.node_id, pi.id, cast(pi.uuid::text as varchar(36)) as uuid, pi.data
+        from tig_pubsub_items pi
+            inner join tig_pubsub_nodes pn on pi.node_id = pn.node_id
+        where
+            pi.node_id = any($1::bigint[])
+            and ($2 is null or pi.%1$I >= $2)
+            and ($3 is null or pi.%1$I <= $3)%2$s
+        order by pi.%1$I %3$s, pi.node_id %3$s, pi.id %3$s
+        limit $7', _ts, _cursor_filter, _dir)
+        using '{' || _nodes_ids || '}', _since, _to, _cursor_ts, _node_id, _item_id, _limit;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubMamQueryItemsSeek(_node_id bigint, _since timestamp with time zone, _to timestamp with time zone, _after_uuid varchar(36), _before_uuid varchar(36), _backward int, _limit int) returns table (
+    uuid varchar(36),
+    ts timestamp with time zone,
+    payload text
+) as $$
+declare
+    _dir text := 'asc';
+    _filter text := '';
+    _after_ts timestamp with time zone;
+    _before_ts timestamp with time zone;
+begin
+    if _backward = 1 then
+        _dir := 'desc';
+    end if;
+    if _since is not null then
+        _filter := _filter || ' and pm.ts >= $2';
+    end if;
+    if _to is not null then
+        _filter := _filter || ' and pm.ts <= $3';
+    end if;
+    -- if after or before item does not exist, comparison with null timestamp returns no rows
+    if _after_uuid is not null then
+        select pm.ts into _after_ts from tig_pubsub_mam pm where pm.node_id = _node_id and pm.uuid = cast(_after_uuid as uuid);
+        _filter := _filter || ' and (pm.ts, pm.uuid) > ($4, cast($5 as uuid))';
+    end if;
+    if _before_uuid is not null then
+        select pm.ts into _before_ts from tig_pubsub_mam pm where pm.node_id = _node_id and pm.uuid = cast(_before_uuid as uuid);
+        _filter := _filter || ' and (pm.ts, pm.uuid) < ($6, cast($7 as uuid))';
+    end if;
+
+    return query execute format('select cast(pm.uuid::text as varchar(36)), pm.ts, pm.data
+        from tig_pubsub_mam pm
+        where
+            pm.node_id = $1%1$s
+        order by pm.ts %2$s, pm.uuid %2$s
+        limit $8', _filter, _dir)
+        using _node_id, _since, _to, _after_ts, _after_uuid, _before_ts, _before_uuid, _limit;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
+
+-- QUERY START:
+create or replace function TigPubSubGetBlobReferences(varchar(32)) returns table (data text) as $$
+declare
+    _prefix alias for $1;
+begin
+    return query select pi.data from tig_pubsub_items pi where pi.data like _prefix
+        union all
+        select pm.data from tig_pubsub_mam pm where pm.data like _prefix;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
@@ -16,3 +16,337 @@
 -- If not, see http://www.gnu.org/licenses/.
 --
 
+
+-- QUERY START:
+IF NOT EXISTS(SELECT * FROM sys.indexes WHERE object_id = object_id('dbo.tig_pubsub_items') AND NAME ='IX_tig_pubsub_items_node_id_creation_date')
+	CREATE INDEX IX_tig_pubsub_items_node_id_creation_date ON [dbo].[tig_pubsub_items](node_id, creation_date);
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF NOT EXISTS(SELECT * FROM sys.indexes WHERE object_id = object_id('dbo.tig_pubsub_items') AND NAME ='IX_tig_pubsub_items_node_id_update_date')
+	CREATE INDEX IX_tig_pubsub_items_node_id_update_date ON [dbo].[tig_pubsub_items](node_id, update_date);
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF NOT EXISTS(SELECT * FROM sys.indexes WHERE object_id = object_id('dbo.tig_pubsub_items') AND NAME ='IX_tig_pubsub_items_node_id_creation_date_id')
+	CREATE INDEX IX_tig_pubsub_items_node_id_creation_date_id ON [dbo].[tig_pubsub_items](node_id, creation_date, id_sha1);
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF NOT EXISTS(SELECT * FROM sys.indexes WHERE object_id = object_id('dbo.tig_pubsub_items') AND NAME ='IX_tig_pubsub_items_node_id_update_date_id')
+	CREATE INDEX IX_tig_pubsub_items_node_id_update_date_id ON [dbo].[tig_pubsub_items](node_id, update_date, id_sha1);
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF NOT EXISTS(SELECT * FROM sys.indexes WHERE object_id = object_id('dbo.tig_pubsub_mam') AND NAME ='IX_tig_pubsub_mam_node_id_ts_uuid')
+	CREATE INDEX IX_tig_pubsub_mam_node_id_ts_uuid ON [dbo].[tig_pubsub_mam](node_id, ts, uuid);
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubGetNodeLastItem')
+	DROP PROCEDURE TigPubSubGetNodeLastItem
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubGetNodeLastItem
+	@_node_id bigint,
+	@_order int
+AS
+begin
+	if @_order = 1
+		select top 1 pi.id, pi.data, pn.name, convert(nvarchar(36), pi.uuid)
+			from dbo.tig_pubsub_items pi
+			inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+			where pi.node_id = @_node_id
+			order by pi.creation_date desc;
+	else
+		select top 1 pi.id, pi.data, pn.name, convert(nvarchar(36), pi.uuid)
+			from dbo.tig_pubsub_items pi
+			inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id
+			where pi.node_id = @_node_id
+			order by pi.update_date desc;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubTrimItems')
+	DROP PROCEDURE TigPubSubTrimItems
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubTrimItems
+	@_node_id bigint,
+	@_max_items int,
+	@_order int
+AS
+begin
+	SET NOCOUNT ON;
+	declare @removed table (id nvarchar(1024), id_sha1 varbinary(40));
+
+	if @_order = 1
+		delete from tig_pubsub_items
+			output deleted.id, deleted.id_sha1 into @removed
+			where node_id = @_node_id and id_sha1 in (
+				select i.id_sha1 from tig_pubsub_items i where i.node_id = @_node_id
+				order by i.creation_date desc offset @_max_items rows);
+	else
+		delete from tig_pubsub_items
+			output deleted.id, deleted.id_sha1 into @removed
+			where node_id = @_node_id and id_sha1 in (
+				select i.id_sha1 from tig_pubsub_items i where i.node_id = @_node_id
+				order by i.update_date desc offset @_max_items rows);
+
+	update pm set pm.data = null
+		from tig_pubsub_mam pm
+		inner join @removed r on r.id_sha1 = pm.item_id_sha1 and r.id = pm.item_id
+		where pm.node_id = @_node_id;
+
+	select id from @removed;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubPurgeItems')
+	DROP PROCEDURE TigPubSubPurgeItems
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubPurgeItems
+	@_node_id bigint,
+	@_before datetime,
+	@_limit int
+AS
+begin
+	SET NOCOUNT ON;
+	declare @removed table (id nvarchar(1024), id_sha1 varbinary(40));
+
+	delete top (@_limit) from tig_pubsub_items
+		output deleted.id, deleted.id_sha1 into @removed
+		where node_id = @_node_id and update_date <= @_before;
+
+	update pm set pm.data = null
+		from tig_pubsub_mam pm
+		inner join @removed r on r.id_sha1 = pm.item_id_sha1 and r.id = pm.item_id
+		where pm.node_id = @_node_id;
+
+	select id from @removed;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubGetNodeMetas')
+	DROP PROCEDURE TigPubSubGetNodeMetas
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubGetNodeMetas
+	@_service_jid nvarchar(2049),
+	@_nodes_names nvarchar(max)
+AS
+begin
+	-- names are separated with nchar(1), which is not allowed in XML
+	select n.node_id, n.name, n.configuration, cj.jid, n.creation_date
+		from string_split(@_nodes_names, nchar(1)) r
+		inner join tig_pubsub_nodes n on n.name_sha1 = HASHBYTES('SHA1', r.value) and n.name = r.value
+		inner join tig_pubsub_service_jids sj on n.service_id = sj.service_id
+		inner join tig_pubsub_jids cj on cj.jid_id = n.creator_id
+		where sj.service_jid_sha1 = HASHBYTES('SHA1', LOWER(@_service_jid));
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubGetItems')
+	DROP PROCEDURE TigPubSubGetItems
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubGetItems
+	@_node_id bigint,
+	@_items_ids nvarchar(max)
+AS
+begin
+	-- ids are separated with nchar(1), which is not allowed in XML
+	select pi.id, pi.data, pn.name, convert(nvarchar(36), pi.uuid)
+		from string_split(@_items_ids, nchar(1)) r
+		inner join dbo.tig_pubsub_items pi on pi.node_id = @_node_id and pi.id_sha1 = HASHBYTES('SHA1', r.value) and pi.id = r.value
+		inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubQueryItemsSeek')
+	DROP PROCEDURE TigPubSubQueryItemsSeek
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubQueryItemsSeek
+	@_nodes_ids nvarchar(max),
+	@_since datetime,
+	@_to datetime,
+	@_order int,
+	@_node_id bigint,
+	@_item_id nvarchar(1024),
+	@_backward int,
+	@_limit int
+AS
+begin
+	SET NOCOUNT ON;
+	declare
+		@_ts nvarchar(20),
+		@_cmp nvarchar(2),
+		@_dir nvarchar(4),
+		@_cursor_filter nvarchar(max),
+		@_cursor_ts datetime,
+		@_cursor_sha1 varbinary(40),
+		@params_def nvarchar(max),
+		@query_sql nvarchar(max);
+
+	set @_ts = N'creation_date';
+	if @_order = 2
+		begin
+		set @_ts = N'update_date';
+		end
+
+	set @_cmp = N'>';
+	set @_dir = N'asc';
+	if @_backward = 1
+		begin
+		set @_cmp = N'<';
+		set @_dir = N'desc';
+		end
+
+	set @_cursor_filter = N'';
+	if @_item_id is not null
+		begin
+		set @_cursor_sha1 = HASHBYTES('SHA1', @_item_id);
+		select @_cursor_ts = case when @_order = 2 then update_date else creation_date end
+			from tig_pubsub_items
+			where node_id = @_node_id and id_sha1 = @_cursor_sha1 and id = @_item_id;
+		-- if cursor item does not exist, comparison with null cursor returns no rows
+		set @_cursor_filter = N'
+			and (pi.' + @_ts + ' ' + @_cmp + ' @_cursor_ts
+				or (pi.' + @_ts + ' = @_cursor_ts and (pi.node_id ' + @_cmp + ' @_node_id
+					or (pi.node_id = @_node_id and pi.id_sha1 ' + @_cmp + ' @_cursor_sha1))))';
+		end
+
+	set @params_def = N'@_since datetime, @_to datetime, @_cursor_ts datetime, @_node_id bigint, @_cursor_sha1 varbinary(40), @_limit int';
+
+	set @query_sql = N'select top (@_limit) pn.name, pi.node_id, pi.id, convert(nvarchar(36), pi.uuid), pi.data
+		from tig_pubsub_items pi
+			inner join tig_pubsub_nodes pn on pi.node_id = pn.node_id
+		where
+			pi.node_id in (' + @_nodes_ids + ')
+			and (@_since is null or pi.' + @_ts + ' >= @_since)
+			and (@_to is null or pi.' + @_ts + ' <= @_to)' + @_cursor_filter + '
+		order by pi.' + @_ts + ' ' + @_dir + ', pi.node_id ' + @_dir + ', pi.id_sha1 ' + @_dir;
+
+	execute sp_executesql @query_sql, @params_def, @_since=@_since, @_to=@_to, @_cursor_ts=@_cursor_ts,
+		@_node_id=@_node_id, @_cursor_sha1=@_cursor_sha1, @_limit=@_limit;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubMamQueryItemsSeek')
+	DROP PROCEDURE TigPubSubMamQueryItemsSeek
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubMamQueryItemsSeek
+	@_node_id bigint,
+	@_since datetime,
+	@_to datetime,
+	@_after_uuid nvarchar(36),
+	@_before_uuid nvarchar(36),
+	@_backward int,
+	@_limit int
+AS
+begin
+	SET NOCOUNT ON;
+	declare
+		@_dir nvarchar(4),
+		@_filter nvarchar(max),
+		@_after uniqueidentifier,
+		@_before uniqueidentifier,
+		@_after_ts datetime,
+		@_before_ts datetime,
+		@params_def nvarchar(max),
+		@query_sql nvarchar(max);
+
+	set @_dir = N'asc';
+	if @_backward = 1
+		begin
+		set @_dir = N'desc';
+		end
+
+	set @_filter = N'';
+	if @_since is not null
+		begin
+		set @_filter = @_filter + N' and pm.ts >= @_since';
+		end
+	if @_to is not null
+		begin
+		set @_filter = @_filter + N' and pm.ts <= @_to';
+		end
+	-- if after or before item does not exist, comparison with null timestamp returns no rows
+	if @_after_uuid is not null
+		begin
+		set @_after = convert(uniqueidentifier, @_after_uuid);
+		select @_after_ts = ts from tig_pubsub_mam where node_id = @_node_id and uuid = @_after;
+		set @_filter = @_filter + N' and (pm.ts > @_after_ts or (pm.ts = @_after_ts and pm.uuid > @_after))';
+		end
+	if @_before_uuid is not null
+		begin
+		set @_before = convert(uniqueidentifier, @_before_uuid);
+		select @_before_ts = ts from tig_pubsub_mam where node_id = @_node_id and uuid = @_before;
+		set @_filter = @_filter + N' and (pm.ts < @_before_ts or (pm.ts = @_before_ts and pm.uuid < @_before))';
+		end
+
+	set @params_def = N'@_node_id bigint, @_since datetime, @_to datetime, @_after_ts datetime, @_after uniqueidentifier, @_before_ts datetime, @_before uniqueidentifier, @_limit int';
+
+	set @query_sql = N'select top (@_limit) convert(nvarchar(36), pm.uuid), pm.ts, pm.data
+		from tig_pubsub_mam pm
+		where
+			pm.node_id = @_node_id' + @_filter + '
+		order by pm.ts ' + @_dir + ', pm.uuid ' + @_dir;
+
+	execute sp_executesql @query_sql, @params_def, @_node_id=@_node_id, @_since=@_since, @_to=@_to,
+		@_after_ts=@_after_ts, @_after=@_after, @_before_ts=@_before_ts, @_before=@_before, @_limit=@_limit;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+IF EXISTS (SELECT * FROM sys.objects WHERE type = 'P' AND name = 'TigPubSubGetBlobReferences')
+	DROP PROCEDURE TigPubSubGetBlobReferences
+-- QUERY END:
+GO
+
+-- QUERY START:
+create procedure dbo.TigPubSubGetBlobReferences
+	@_prefix nvarchar(32)
+AS
+begin
+	select data from tig_pubsub_items where data like @_prefix
+	union all
+	select data from tig_pubsub_mam where data like @_prefix;
+end
+-- QUERY END:
+GO
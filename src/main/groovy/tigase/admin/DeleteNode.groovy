@@ -112,6 +112,7 @@ Packet process(Kernel kernel, PubSubComponent component, Iq p, EventBus eventBus
 						AbstractNodeConfig childNodeConfig = pubsubRepository.getNodeConfig(toJid, childNodeName);
 
 						if (childNodeConfig != null) {
+							childNodeConfig = childNodeConfig.copy();
 							childNodeConfig.setCollection(parentNodeName);
 							pubsubRepository.update(toJid, childNodeName, childNodeConfig);
 						}
@@ -44,6 +44,8 @@ public abstract class AbstractNodeConfig {
 	 */
 	protected final Form form = new Form("form", null, null);
 	private final String nodeName;
+	private volatile boolean readOnly = false;
+	private volatile NodeConfigSnapshot snapshot;
 
 	public AbstractNodeConfig(final String nodeName) {
 		this.nodeName = nodeName;
@@ -57,47 +59,49 @@ public abstract class AbstractNodeConfig {
 	}
 
 	public void add(Field f) {
+		checkModifiable();
 		form.addField(f);
+		invalidateSnapshot();
 	}
 
 	@Override
 	public AbstractNodeConfig clone() throws CloneNotSupportedException {
-		AbstractNodeConfig clone = getInstance(nodeName);
+		return copy();
+	}
+
+	/**
+	 * Creates modifiable copy of this node configuration.
+	 * @return copy of the configuration
+	 */
+	public AbstractNodeConfig copy() {
+		AbstractNodeConfig copy = getInstance(nodeName);
 
-		clone.copyFrom(this);
+		copy.copyFrom(this);
 
-		return clone;
+		return copy;
 	}
 
 	public void copyFrom(AbstractNodeConfig c) {
+		checkModifiable();
 		form.copyValuesFrom(c.form);
 		if (form.getAsString(PUBSUB + "max_items") == null) {
 			setValue(PUBSUB + "max_items", IntegerOrMax.MAX);
 		}
+		invalidateSnapshot();
 	}
 
 	public void copyFromForm(Form f) {
+		checkModifiable();
 		form.copyValuesFrom(f);
+		invalidateSnapshot();
 	}
 
 	public String getBodyXslt() {
-		return form.getAsString("pubsub#body_xslt");
+		return getSnapshot().getBodyXslt();
 	}
 
 	public String getBodyXsltEmbedded() {
-		String[] r = form.getAsStrings("pubsub#embedded_body_xslt");
-
-		if (r == null) {
-			return null;
-		}
-
-		StringBuilder sb = new StringBuilder();
-
-		for (String string : r) {
-			sb.append(string);
-		}
-
-		return sb.toString();
+		return getSnapshot().getBodyXsltEmbedded();
 	}
 
 	public void setBodyXsltEmbedded(String xslt) {
@@ -109,9 +113,7 @@ public abstract class AbstractNodeConfig {
 	}
 
 	public String getCollection() {
-		String d = form.getAsString("pubsub#collection");
-
-		return (d == null) ? "" : d;
+		return getSnapshot().getCollection();
 	}
 
 	public void setCollection(String collectionNew) {
@@ -119,30 +121,27 @@ public abstract class AbstractNodeConfig {
 	}
 
 	public CollectionItemsOrdering getCollectionItemsOrdering() {
-		String tmp = form.getAsString(TIGASE + "collection_items_odering");
-
-		if (tmp == null) {
-			return CollectionItemsOrdering.byUpdateDate;
-		} else {
-			try {
-				return CollectionItemsOrdering.valueOf(tmp);
-			} catch (Throwable ex) {
-				return CollectionItemsOrdering.byUpdateDate;
-			}
-		}
+		return getSnapshot().getCollectionItemsOrdering();
 	}
 
 	public String[] getDomains() {
-		String[] v = form.getAsStrings(PUBSUB + "domains");
-
-		return (v == null) ? new String[]{} : v;
+		return getSnapshot().getDomains();
 	}
 
 	public void setDomains(String... domains) {
 		setValues(PUBSUB + "domains", domains);
 	}
 
+	/**
+	 * Returns data form of the node configuration. As the returned form may be modified by the caller, cached
+	 * snapshot of the configuration is dropped. Form of read-only configuration is not available, use {@link #copy()}
+	 * to get modifiable configuration first.
+	 * @return data form
+	 * @throws UnsupportedOperationException if configuration is read-only
+	 */
 	public Form getForm() {
+		checkModifiable();
+		invalidateSnapshot();
 		return form;
 	}
 
@@ -151,13 +150,7 @@ public abstract class AbstractNodeConfig {
 	}
 
 	public AccessModel getNodeAccessModel() {
-		String tmp = form.getAsString("pubsub#access_model");
-
-		if (tmp == null) {
-			return null;
-		} else {
-			return AccessModel.valueOf(tmp);
-		}
+		return getSnapshot().getNodeAccessModel();
 	}
 
 	public String getNodeName() {
@@ -165,90 +158,96 @@ public abstract class AbstractNodeConfig {
 	}
 
 	public NodeType getNodeType() {
-		String tmp = form.getAsString("pubsub#node_type");
-
-		if (tmp == null) {
-			return null;
-		} else {
-			return NodeType.valueOf(tmp);
-		}
+		return getSnapshot().getNodeType();
 	}
 
 	public void setNodeType(NodeType nodeType) {
+		checkModifiable();
 		form.get("pubsub#node_type").setValues(new String[]{nodeType.name()});
+		invalidateSnapshot();
 	}
 
 	public StanzaType getNotificationType() {
-		String type = form.getAsString("pubsub#notification_type");
-		if (type == null) {
-			return StanzaType.headline;
-		}
-		return StanzaType.valueOf(type);
+		return getSnapshot().getNotificationType();
 	}
 
 	public PublisherModel getPublisherModel() {
-		String tmp = form.getAsString("pubsub#publish_model");
-
-		if (tmp == null) {
-			return null;
-		} else {
-			try {
-				return PublisherModel.valueOf(tmp);
-			} catch (Throwable ex) {
-				return null;
-			}
-		}
+		return getSnapshot().getPublisherModel();
 	}
 
 	public String[] getRosterGroupsAllowed() {
-		return form.getAsStrings("pubsub#roster_groups_allowed");
+		return getSnapshot().getRosterGroupsAllowed();
 	}
 
 	public SendLastPublishedItem getSendLastPublishedItem() {
-		String s = form.getAsString(PUBSUB + "send_last_published_item");
-		try {
-			return s == null ? SendLastPublishedItem.never : SendLastPublishedItem.valueOf(s);
-		} catch (Exception e) {
-			return SendLastPublishedItem.never;
+		return getSnapshot().getSendLastPublishedItem();
+	}
+
+	/**
+	 * Returns typed snapshot of the node configuration. Snapshot is created on first use after the configuration was
+	 * modified and shared by following calls.
+	 * @return snapshot of the configuration
+	 */
+	public NodeConfigSnapshot getSnapshot() {
+		NodeConfigSnapshot result = snapshot;
+		if (result == null) {
+			result = new NodeConfigSnapshot(form);
+			snapshot = result;
 		}
+		return result;
 	}
 
 	public String getTitle() {
-		return form.getAsString("pubsub#title");
+		return getSnapshot().getTitle();
 	}
 
 	public String getDescription() {
-		return form.getAsString("pubsub#description");
+		return getSnapshot().getDescription();
 	}
 
 	public boolean isAllowToViewSubscribers() {
-		return form.getAsBoolean(TIGASE + "allow_view_subscribers");
+		return getSnapshot().isAllowToViewSubscribers();
 	}
 
 	public boolean isCollectionSet() {
-		return form.get(PUBSUB + "collection") != null;
+		return getSnapshot().isCollectionSet();
 	}
 
 	public boolean isDeliver_payloads() {
-		return form.getAsBoolean("pubsub#deliver_payloads");
+		return getSnapshot().isDeliverPayloads();
 	}
 
 	public boolean isDeliverPresenceBased() {
-		return form.getAsBoolean("pubsub#presence_based_delivery");
+		return getSnapshot().isDeliverPresenceBased();
 	}
 
 	public boolean isNotify_config() {
-		return form.getAsBoolean("pubsub#notify_config");
+		return getSnapshot().isNotifyConfig();
 	}
 
-	public boolean isPresenceExpired() {
-		Boolean x = form.getAsBoolean(TIGASE + "presence_expired");
+	/**
+	 * Checks if configuration is read-only. Read-only configuration is shared by all users of the cached node and
+	 * needs to be copied using {@link #copy()} before modification.
+	 * @return <code>true</code> if configuration cannot be modified
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Marks configuration as read-only, so it can be safely shared between threads.
+	 */
+	public void setReadOnly() {
+		getSnapshot();
+		readOnly = true;
+	}
 
-		return (x == null) ? false : x.booleanValue();
+	public boolean isPresenceExpired() {
+		return getSnapshot().isPresenceExpired();
 	}
 
 	public boolean isTigaseNotifyChangeSubscriptionAffiliationState() {
-		return form.getAsBoolean(PUBSUB + "notify_sub_aff_state");
+		return getSnapshot().isTigaseNotifyChangeSubscriptionAffiliationState();
 	}
 
 	public void read(final UserRepository repository, final IPubSubConfig config, final String subnode)
@@ -269,8 +268,10 @@ public abstract class AbstractNodeConfig {
 	}
 
 	public void reset() {
+		checkModifiable();
 		form.clear();
 		init();
+		invalidateSnapshot();
 	}
 
 	public void setValue(String var, boolean data) {
@@ -283,6 +284,8 @@ public abstract class AbstractNodeConfig {
 		if (f == null) {
 			return;
 		} else {
+			checkModifiable();
+			invalidateSnapshot();
 			if (data == null) {
 				f.setValues(new String[]{});
 			} else {
@@ -361,6 +364,16 @@ public abstract class AbstractNodeConfig {
 
 	protected abstract AbstractNodeConfig getInstance(String nodeName);
 
+	protected void checkModifiable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Configuration of node " + nodeName + " is read-only");
+		}
+	}
+
+	protected void invalidateSnapshot() {
+		snapshot = null;
+	}
+
 	protected void init() {
 		form.addField(Field.fieldHidden("FORM_TYPE", "http://jabber.org/protocol/pubsub#node_config"));
 		form.addField(Field.fieldListSingle(PUBSUB + "node_type", null, null, null,
@@ -32,16 +32,11 @@ public class LeafNodeConfig
 	}
 
 	public IntegerOrMax getMaxItems() {
-		IntegerOrMax value = IntegerOrMax.valueOf(form.getAsString(PUBSUB + "max_items"));
-		if (value == null) {
-			return IntegerOrMax.MAX;
-		}
-		return value;
+		return getSnapshot().getMaxItems();
 	}
 
 	public boolean isPersistItem() {
-		Boolean x = form.getAsBoolean("pubsub#persist_items");
-		return x == null ? false : x;
+		return getSnapshot().isPersistItem();
 	}
 
 	@Override
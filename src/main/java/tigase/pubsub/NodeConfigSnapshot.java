@@ -0,0 +1,207 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub;
+
+import tigase.form.Form;
+import tigase.pubsub.utils.IntegerOrMax;
+import tigase.xmpp.StanzaType;
+
+/**
+ * Immutable, typed view of the node configuration.
+ * <br>
+ * Values of node configuration are kept in the data form as strings, so reading them requires lookup of the field and
+ * parsing of its value. Snapshot is created once from the data form of the node configuration and then reused until
+ * configuration is modified, so getters of {@link AbstractNodeConfig} used for every publication and permission check
+ * do not need to parse the form.
+ */
+public final class NodeConfigSnapshot {
+
+	private final boolean allowToViewSubscribers;
+	private final String bodyXslt;
+	private final String bodyXsltEmbedded;
+	private final String collection;
+	private final CollectionItemsOrdering collectionItemsOrdering;
+	private final boolean collectionSet;
+	private final boolean deliverPayloads;
+	private final boolean deliverPresenceBased;
+	private final String description;
+	private final String[] domains;
+	private final IntegerOrMax maxItems;
+	private final AccessModel nodeAccessModel;
+	private final NodeType nodeType;
+	private final boolean notifyConfig;
+	private final StanzaType notificationType;
+	private final boolean persistItem;
+	private final boolean presenceExpired;
+	private final PublisherModel publisherModel;
+	private final String[] rosterGroupsAllowed;
+	private final SendLastPublishedItem sendLastPublishedItem;
+	private final boolean tigaseNotifyChangeSubscriptionAffiliationState;
+	private final String title;
+
+	private static <E extends Enum<E>> E valueOf(Class<E> enumClass, String value, E defValue) {
+		if (value == null) {
+			return defValue;
+		}
+		try {
+			return Enum.valueOf(enumClass, value);
+		} catch (IllegalArgumentException ex) {
+			return defValue;
+		}
+	}
+
+	private static boolean isTrue(Boolean value) {
+		return value != null && value;
+	}
+
+	public NodeConfigSnapshot(Form form) {
+		allowToViewSubscribers = isTrue(form.getAsBoolean(AbstractNodeConfig.TIGASE + "allow_view_subscribers"));
+		bodyXslt = form.getAsString(AbstractNodeConfig.PUBSUB + "body_xslt");
+		String[] xslt = form.getAsStrings(AbstractNodeConfig.PUBSUB + "embedded_body_xslt");
+		bodyXsltEmbedded = xslt == null ? null : String.join("", xslt);
+		String col = form.getAsString(AbstractNodeConfig.PUBSUB + "collection");
+		collection = col == null ? "" : col;
+		collectionSet = form.get(AbstractNodeConfig.PUBSUB + "collection") != null;
+		collectionItemsOrdering = valueOf(CollectionItemsOrdering.class,
+										  form.getAsString(AbstractNodeConfig.TIGASE + "collection_items_odering"),
+										  CollectionItemsOrdering.byUpdateDate);
+		deliverPayloads = isTrue(form.getAsBoolean(AbstractNodeConfig.PUBSUB + "deliver_payloads"));
+		deliverPresenceBased = isTrue(form.getAsBoolean(AbstractNodeConfig.PUBSUB + "presence_based_delivery"));
+		description = form.getAsString(AbstractNodeConfig.PUBSUB + "description");
+		String[] d = form.getAsStrings(AbstractNodeConfig.PUBSUB + "domains");
+		domains = d == null ? new String[]{} : d;
+		IntegerOrMax max;
+		try {
+			max = IntegerOrMax.valueOf(form.getAsString(AbstractNodeConfig.PUBSUB + "max_items"));
+		} catch (IllegalArgumentException ex) {
+			max = null;
+		}
+		maxItems = max == null ? IntegerOrMax.MAX : max;
+		nodeAccessModel = valueOf(AccessModel.class, form.getAsString(AbstractNodeConfig.PUBSUB + "access_model"), null);
+		nodeType = valueOf(NodeType.class, form.getAsString(AbstractNodeConfig.PUBSUB + "node_type"), null);
+		notifyConfig = isTrue(form.getAsBoolean(AbstractNodeConfig.PUBSUB + "notify_config"));
+		notificationType = valueOf(StanzaType.class,
+								   form.getAsString(AbstractNodeConfig.PUBSUB + "notification_type"),
+								   StanzaType.headline);
+		persistItem = isTrue(form.getAsBoolean(AbstractNodeConfig.PUBSUB + "persist_items"));
+		presenceExpired = isTrue(form.getAsBoolean(AbstractNodeConfig.TIGASE + "presence_expired"));
+		publisherModel = valueOf(PublisherModel.class, form.getAsString(AbstractNodeConfig.PUBSUB + "publish_model"),
+								 null);
+		rosterGroupsAllowed = form.getAsStrings(AbstractNodeConfig.PUBSUB + "roster_groups_allowed");
+		sendLastPublishedItem = valueOf(SendLastPublishedItem.class,
+										form.getAsString(AbstractNodeConfig.PUBSUB + "send_last_published_item"),
+										SendLastPublishedItem.never);
+		tigaseNotifyChangeSubscriptionAffiliationState = isTrue(
+				form.getAsBoolean(AbstractNodeConfig.PUBSUB + "notify_sub_aff_state"));
+		title = form.getAsString(AbstractNodeConfig.PUBSUB + "title");
+	}
+
+	public String getBodyXslt() {
+		return bodyXslt;
+	}
+
+	public String getBodyXsltEmbedded() {
+		return bodyXsltEmbedded;
+	}
+
+	public String getCollection() {
+		return collection;
+	}
+
+	public CollectionItemsOrdering getCollectionItemsOrdering() {
+		return collectionItemsOrdering;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Returns copy of allowed domains, as snapshot is shared between threads.
+	 */
+	public String[] getDomains() {
+		return domains.clone();
+	}
+
+	public IntegerOrMax getMaxItems() {
+		return maxItems;
+	}
+
+	public AccessModel getNodeAccessModel() {
+		return nodeAccessModel;
+	}
+
+	public NodeType getNodeType() {
+		return nodeType;
+	}
+
+	public StanzaType getNotificationType() {
+		return notificationType;
+	}
+
+	public PublisherModel getPublisherModel() {
+		return publisherModel;
+	}
+
+	/**
+	 * Returns copy of allowed roster groups, as snapshot is shared between threads.
+	 */
+	public String[] getRosterGroupsAllowed() {
+		return rosterGroupsAllowed == null ? null : rosterGroupsAllowed.clone();
+	}
+
+	public SendLastPublishedItem getSendLastPublishedItem() {
+		return sendLastPublishedItem;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public boolean isAllowToViewSubscribers() {
+		return allowToViewSubscribers;
+	}
+
+	public boolean isCollectionSet() {
+		return collectionSet;
+	}
+
+	public boolean isDeliverPayloads() {
+		return deliverPayloads;
+	}
+
+	public boolean isDeliverPresenceBased() {
+		return deliverPresenceBased;
+	}
+
+	public boolean isNotifyConfig() {
+		return notifyConfig;
+	}
+
+	public boolean isPersistItem() {
+		return persistItem;
+	}
+
+	public boolean isPresenceExpired() {
+		return presenceExpired;
+	}
+
+	public boolean isTigaseNotifyChangeSubscriptionAffiliationState() {
+		return tigaseNotifyChangeSubscriptionAffiliationState;
+	}
+}
@@ -21,6 +21,8 @@ import tigase.component.PacketWriter;
 import tigase.component.exceptions.RepositoryException;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.pubsub.utils.ElementSize;
 import tigase.pubsub.utils.PubSubLogic;
 import tigase.pubsub.utils.executors.Executor;
 import tigase.server.Packet;
@@ -28,6 +30,10 @@ import tigase.xml.Element;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
 @Bean(name = "notificationBroadcaster", parent = PubSubComponent.class, active = true)
 public class NotificationBroadcaster {
 
@@ -37,16 +43,155 @@ public class NotificationBroadcaster {
     private PubSubLogic pubSubLogic;
     @Inject(bean = "publishExecutor")
     private Executor publishExecutor;
-    
+    @ConfigField(desc = "Share notification payload between recipients instead of cloning it", alias = "shared-notification-payload")
+    private boolean sharedPayload = true;
+    @ConfigField(desc = "Number of recipients of a notification handled by a single task", alias = "fan-out-chunk-size")
+    private int fanOutChunkSize = 100;
+    @ConfigField(desc = "Number of groups of recipients of a notification which may be handled concurrently", alias = "fan-out-lanes")
+    private int fanOutLanes = Runtime.getRuntime().availableProcessors();
+
     public void broadcastNotification(Executor.Priority priority, BareJID serviceJID, String nodeName, Element message)
             throws RepositoryException {
         JID senderJid = prepareSender(serviceJID, message.getAttributeStaticStr("from"));
-        pubSubLogic.subscribersOfNotifications(serviceJID, nodeName).filter(this::shouldBroadcast).forEach(subscriberJid -> {
-            publishExecutor.submit(Executor.Priority.normal, () -> {
-                Element clone = message.clone();
-                packetWriter.write(Packet.packetInstance(clone, senderJid, subscriberJid));
-            });
-        });
+        JID[] recipients = pubSubLogic.subscribersOfNotifications(serviceJID, nodeName)
+                .filter(this::shouldBroadcast)
+                .toArray(JID[]::new);
+        if (recipients.length == 0) {
+            return;
+        }
+        JID[][] lanes = splitIntoLanes(recipients);
+        // message is shared by all lanes, so it is estimated only once
+        long messageSize = estimateSize(message);
+        for (int lane = 0; lane < lanes.length; lane++) {
+            if (lanes[lane].length == 0) {
+                continue;
+            }
+            publishExecutor.submit(Executor.Priority.normal,
+                                   new FanOutTask(Executor.Priority.normal, Objects.hash(serviceJID, nodeName, lane),
+                                                  message, messageSize, senderJid, lanes[lane]));
+        }
+    }
+
+    public int getFanOutLanes() {
+        return fanOutLanes;
+    }
+
+    public void setFanOutLanes(int fanOutLanes) {
+        this.fanOutLanes = fanOutLanes;
+    }
+
+    public int getFanOutChunkSize() {
+        return fanOutChunkSize;
+    }
+
+    public void setFanOutChunkSize(int fanOutChunkSize) {
+        this.fanOutChunkSize = fanOutChunkSize;
+    }
+
+    public boolean isSharedPayload() {
+        return sharedPayload;
+    }
+
+    public void setSharedPayload(boolean sharedPayload) {
+        this.sharedPayload = sharedPayload;
+    }
+
+    /**
+     * Creates instance of notification message for a single recipient.
+     * <br>
+     * Packet addressing modifies attributes of the top level element, so each recipient needs its own
+     * <code>message</code> element. If payload sharing is enabled, only this element is copied and its children
+     * (event, headers, etc.) are shared by all recipients, otherwise the whole message is cloned.
+     * <br>
+     * With shared payload, children of the returned element <strong>must not be modified</strong>, as the change
+     * would be visible in packets of all recipients of the notification (and in the MAM entry and events created
+     * from the same message). Code modifying payload of the notification (ie. subclass overriding
+     * {@link #deliver(Element, JID, JID)}, packet filter or plugin processing notifications) has to replace
+     * the modified child with its clone or sharing of the payload has to be disabled with
+     * <code>shared-notification-payload</code> option. Attributes and list of children of the returned element
+     * may be changed freely.
+     *
+     * @param message notification message prepared for broadcast
+     *
+     * @return instance of notification message which may be addressed to a recipient
+     */
+    protected Element prepareMessage(Element message) {
+        if (!sharedPayload) {
+            return message.clone();
+        }
+        return shallowCopy(message);
+    }
+
+    /**
+     * Creates copy of the element with copied attributes and shared (not cloned) children.
+     * <br>
+     * Children of the copy are the same instances as children of the original element, so they have to be treated
+     * as immutable by the code using any of the elements.
+     *
+     * @param message element to copy
+     *
+     * @return copy of the element
+     */
+    public static Element shallowCopy(Element message) {
+        Element copy = new Element(message.getName());
+        Map<String, String> attributes = message.getAttributes();
+        if (attributes != null) {
+            attributes.forEach(copy::setAttribute);
+        }
+        List<Element> children = message.getChildren();
+        if (children != null) {
+            copy.addChildren(children);
+        }
+        return copy;
+    }
+
+    protected void deliver(Element message, JID senderJid, JID recipientJid) {
+        packetWriter.write(Packet.packetInstance(prepareMessage(message), senderJid, recipientJid));
+    }
+
+    /**
+     * Estimates amount of memory used by the notification message, without serializing it.
+     *
+     * @param message notification message
+     *
+     * @return estimated size in bytes
+     */
+    protected long estimateSize(Element message) {
+        return ElementSize.estimate(message);
+    }
+
+    /**
+     * Splits recipients of a notification into <code>fan-out-lanes</code> groups, which are delivered by separate
+     * tasks, so broadcast to a node with many subscribers may be executed by many threads concurrently.
+     * <br>
+     * Lane of a recipient depends only on its JID, so all notifications published to the same node are delivered
+     * to the recipient by tasks with the same ordering key and are received in order of publication.
+     *
+     * @param recipients of the notification
+     *
+     * @return array of recipients for each lane (some may be empty)
+     */
+    protected JID[][] splitIntoLanes(JID[] recipients) {
+        int lanesCount = Math.max(1, fanOutLanes);
+        if (lanesCount == 1) {
+            return new JID[][]{recipients};
+        }
+        int[] laneOf = new int[recipients.length];
+        int[] sizes = new int[lanesCount];
+        for (int i = 0; i < recipients.length; i++) {
+            laneOf[i] = Math.floorMod(recipients[i].hashCode(), lanesCount);
+            sizes[laneOf[i]]++;
+        }
+        JID[][] lanes = new JID[lanesCount][];
+        for (int lane = 0; lane < lanesCount; lane++) {
+            lanes[lane] = new JID[sizes[lane]];
+            sizes[lane] = 0;
+        }
+        for (int i = 0; i < recipients.length; i++) {
+            int lane = laneOf[i];
+            lanes[lane][sizes[lane]++] = recipients[i];
+        }
+        return lanes;
     }
 
     protected boolean shouldBroadcast(JID jid) {
@@ -61,4 +206,78 @@ public class NotificationBroadcaster {
         }
     }
 
+    /**
+     * Task delivering notification to recipients in chunks.
+     * <br>
+     * Each execution delivers notification to a single chunk of recipients and resubmits the task to the executor
+     * if there are any recipients left. Thanks to that broadcast to a node with many subscribers occupies only one
+     * place in the executor queue at a time and notifications from other nodes are interleaved with it.
+     * Ordering key of the task is based on the node and the lane of recipients, so concurrent executors keep order
+     * of notifications published to the same node for each recipient, while different lanes of the same broadcast
+     * may be delivered concurrently.
+     */
+    protected class FanOutTask implements Executor.WeightedTask, Executor.OrderedTask, Executor.SizedTask {
+
+        private final Executor.Priority priority;
+        private final Object orderingKey;
+        private final Element message;
+        private final JID senderJid;
+        private final JID[] recipients;
+        private final int chunkSize;
+        private final long messageSize;
+        private int offset = 0;
+
+        public FanOutTask(Executor.Priority priority, Object orderingKey, Element message, JID senderJid,
+                          JID[] recipients) {
+            this(priority, orderingKey, message, estimateSize(message), senderJid, recipients);
+        }
+
+        /**
+         * @param messageSize estimated size of the message, passed as it is the same for all lanes of the broadcast
+         */
+        public FanOutTask(Executor.Priority priority, Object orderingKey, Element message, long messageSize,
+                          JID senderJid, JID[] recipients) {
+            this.priority = priority;
+            this.orderingKey = orderingKey;
+            this.message = message;
+            this.messageSize = messageSize;
+            this.senderJid = senderJid;
+            this.recipients = recipients;
+            this.chunkSize = Math.max(1, fanOutChunkSize);
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            // shared message and references to remaining recipients
+            return messageSize + 8L * (recipients.length - offset);
+        }
+
+        @Override
+        public Object getOrderingKey() {
+            return orderingKey;
+        }
+
+        @Override
+        public int getWeight() {
+            return Math.min(chunkSize, recipients.length - offset);
+        }
+
+        @Override
+        public long getRemainingWeight() {
+            return recipients.length - offset;
+        }
+
+        @Override
+        public void run() {
+            int end = Math.min(offset + chunkSize, recipients.length);
+            for (int i = offset; i < end; i++) {
+                deliver(message, senderJid, recipients[i]);
+            }
+            offset = end;
+            if (offset < recipients.length) {
+                publishExecutor.submit(priority, this);
+            }
+        }
+    }
+
 }
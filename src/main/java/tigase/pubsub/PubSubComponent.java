@@ -33,7 +33,9 @@ import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
 import tigase.pubsub.modules.XsltTool;
 import tigase.pubsub.modules.commands.DefaultConfigCommand;
+import tigase.pubsub.repository.GroupCommitStatistics;
 import tigase.pubsub.repository.IPubSubRepository;
+import tigase.pubsub.utils.executors.AdmissionController;
 import tigase.server.DisableDisco;
 import tigase.server.Packet;
 import tigase.stats.StatisticHolder;
@@ -73,6 +75,10 @@ public class PubSubComponent
 	private IPubSubRepository pubsubRepository;
 	@Inject
 	private PacketHashCodeGenerator packetHashCodeGenerator;
+	@Inject(nullAllowed = true)
+	private AdmissionController admissionController;
+	@Inject(nullAllowed = true)
+	private GroupCommitStatistics groupCommitStatistics;
 
 	// ~--- methods
 	// --------------------------------------------------------------
@@ -87,6 +93,12 @@ public class PubSubComponent
 		if (pubsubRepository instanceof StatisticHolder) {
 			((StatisticHolder) pubsubRepository).everyHour();
 		}
+		if (admissionController != null) {
+			admissionController.everyHour();
+		}
+		if (groupCommitStatistics != null) {
+			groupCommitStatistics.everyHour();
+		}
 	}
 
 	@Override
@@ -95,6 +107,12 @@ public class PubSubComponent
 		if (pubsubRepository instanceof StatisticHolder) {
 			((StatisticHolder) pubsubRepository).everyMinute();
 		}
+		if (admissionController != null) {
+			admissionController.everyMinute();
+		}
+		if (groupCommitStatistics != null) {
+			groupCommitStatistics.everyMinute();
+		}
 	}
 
 	@Override
@@ -103,6 +121,12 @@ public class PubSubComponent
 		if (pubsubRepository instanceof StatisticHolder) {
 			((StatisticHolder) pubsubRepository).everySecond();
 		}
+		if (admissionController != null) {
+			admissionController.everySecond();
+		}
+		if (groupCommitStatistics != null) {
+			groupCommitStatistics.everySecond();
+		}
 	}
 
 	@Override
@@ -133,6 +157,12 @@ public class PubSubComponent
 		if (pubsubRepository instanceof StatisticHolder) {
 			((StatisticHolder) pubsubRepository).getStatistics(getName(), list);
 		}
+		if (admissionController != null) {
+			admissionController.getStatistics(getName(), list);
+		}
+		if (groupCommitStatistics != null) {
+			groupCommitStatistics.getStatistics(getName(), list);
+		}
 	}
 
 	@Override
@@ -241,8 +241,10 @@ public class DiscoveryModule
 				}
 
 				List<Element> results = new ArrayList<>();
+				Map<String, AbstractNodeConfig> childNodeConfigs = this.repository.getNodeConfigs(toJid.getBareJID(),
+																								 Arrays.asList(nodes));
 				for (String node : nodes) {
-					AbstractNodeConfig childNodeConfig = this.repository.getNodeConfig(toJid.getBareJID(), node);
+					AbstractNodeConfig childNodeConfig = childNodeConfigs.get(node);
 
 					if (childNodeConfig != null) {
 						boolean allowed = ((senderJid == null) || (childNodeConfig == null))
@@ -125,12 +125,15 @@ public class NodeConfigModule
 				throw new PubSubException(element, Authorization.BAD_REQUEST, PubSubErrorCondition.NODEID_REQUIRED);
 			}
 
-			final AbstractNodeConfig nodeConfig = getRepository().getNodeConfig(toJid, nodeName);
+			final AbstractNodeConfig currentNodeConfig = getRepository().getNodeConfig(toJid, nodeName);
 
-			if (nodeConfig == null) {
+			if (currentNodeConfig == null) {
 				throw new PubSubException(element, Authorization.ITEM_NOT_FOUND);
 			}
 
+			// configuration returned by repository is read-only
+			final AbstractNodeConfig nodeConfig = currentNodeConfig.copy();
+
 			JID jid = packet.getStanzaFrom();
 
 			pubSubLogic.checkPermission(toJid, nodeName, jid, PubSubLogic.Action.manageNode);
@@ -207,6 +210,7 @@ public class NodeConfigModule
 							throw new PubSubException(Authorization.ITEM_NOT_FOUND,
 													  "(#2) Node '" + ann + "' doesn't exists");
 						}
+						nc = nc.copy();
 						if (nc.getCollection().equals("")) {
 							getRepository().removeFromRootCollection(toJid, nc.getNodeName());
 						}
@@ -221,6 +225,7 @@ public class NodeConfigModule
 						AbstractNodeConfig nc = getRepository().getNodeConfig(toJid, rnn);
 
 						if (nc != null) {
+							nc = nc.copy();
 							nc.setCollection("");
 							getRepository().update(toJid, nc.getNodeName(), nc);
 						}
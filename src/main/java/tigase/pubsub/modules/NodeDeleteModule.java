@@ -98,6 +98,7 @@ public class NodeDeleteModule
 						AbstractNodeConfig childNodeConfig = getRepository().getNodeConfig(toJid, childNodeName);
 
 						if (childNodeConfig != null) {
+							childNodeConfig = childNodeConfig.copy();
 							childNodeConfig.setCollection(parentNodeName);
 							getRepository().update(toJid, childNodeName, childNodeConfig);
 						}
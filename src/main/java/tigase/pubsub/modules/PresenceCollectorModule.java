@@ -107,7 +107,7 @@ public class PresenceCollectorModule
 
 	public List<JID> getAllAvailableJidsWithFeature(final BareJID serviceJid, final String feature) {
 		Set<String> nodesWithFeature = PresenceCapabilitiesManager.getNodesWithFeature(feature);
-		return presenceByService.getAllAvailableJids(serviceJid, nodesWithFeature::contains)
+		return presenceByService.getAllAvailableJidsWithCaps(serviceJid, nodesWithFeature)
 				.collect(Collectors.toList());
 	}
 
@@ -175,6 +175,7 @@ public class PresenceCollectorModule
 			}
 		} else if (StanzaType.subscribe == type) {
 			log.finest("Contact " + jid + " wants to subscribe PubSub");
+			invalidateRosters(toJid.getBareJID(), jid);
 
 			Packet presence = preparePresence(packet, StanzaType.subscribed);
 
@@ -187,6 +188,7 @@ public class PresenceCollectorModule
 			}
 		} else if (StanzaType.unsubscribe == type || StanzaType.unsubscribed == type) {
 			log.finest("Contact " + jid + " wants to unsubscribe PubSub");
+			invalidateRosters(toJid.getBareJID(), jid);
 
 			Packet presence = preparePresence(packet, StanzaType.unsubscribed);
 
@@ -215,6 +217,12 @@ public class PresenceCollectorModule
 		return removed;
 	}
 
+	private void invalidateRosters(BareJID serviceJid, JID jid) {
+		// presence subscription changes roster of both parties, so cached rosters are no longer valid
+		getRepository().invalidateUserRoster(serviceJid);
+		getRepository().invalidateUserRoster(jid.getBareJID());
+	}
+
 	private void fireCapsChangeEvent(BareJID serviceJid, JID jid, String caps, String oldCaps,
 									 Set<String> newFeatures) {
 		eventBus.fire(new CapsChangeEvent(config.getComponentName(), serviceJid, jid, caps, oldCaps, newFeatures));
@@ -24,19 +24,24 @@ import tigase.db.util.SchemaManager;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.HandleEvent;
 import tigase.form.Field;
+import tigase.form.Form;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.pubsub.*;
 import tigase.pubsub.exceptions.PubSubErrorCondition;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.repository.IAffiliations;
+import tigase.pubsub.repository.IAsyncPubSubRepository;
 import tigase.pubsub.repository.IItems;
 import tigase.pubsub.repository.IPubSubRepository;
 import tigase.pubsub.repository.ISubscriptions;
 import tigase.pubsub.repository.stateless.UsersSubscription;
 import tigase.pubsub.utils.PubSubLogic;
+import tigase.pubsub.utils.TimeOrderedUuidGenerator;
+import tigase.pubsub.utils.executors.AdmissionController;
 import tigase.pubsub.utils.executors.Executor;
 import tigase.server.Packet;
 import tigase.util.datetime.TimestampHelper;
@@ -52,7 +57,8 @@ import tigase.xmpp.jid.JID;
 import java.text.ParseException;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 
 /**
@@ -87,9 +93,18 @@ public class PublishItemModule
 	private PresenceCollectorModule presenceCollector;
 	@Inject(nullAllowed = false)
 	private IPubSubRepository repository;
-	@Inject(bean = "publishExecutor")
-	private Executor publishExecutor;
-	private java.util.concurrent.ExecutorService eventExecutor;
+	@Inject
+	private AdmissionController admissionController;
+	@Inject(bean = "lastPublishedItemExecutor")
+	private Executor eventExecutor;
+	@Inject(nullAllowed = true)
+	private XsltTool xslTransformer;
+	@Inject(nullAllowed = true)
+	private IAsyncPubSubRepository asyncRepository;
+	@ConfigField(desc = "Store published items and generate notifications using database executor", alias = "async-publish")
+	private boolean asyncPublish = false;
+	// ids of MAM entries are ordered by time of publication, so new entries are appended to indexes
+	private final TimeOrderedUuidGenerator mamIdGenerator = new TimeOrderedUuidGenerator();
 
 	private static Collection<String> extractCDataItems(Element event, String[] path) {
 		ArrayList<String> result = new ArrayList<>();
@@ -124,7 +139,7 @@ public class PublishItemModule
 		String uuid = null;
 		if (leafNodeConfig.isPersistItem()) {
 			if (pubSubLogic.isMAMEnabled(serviceJID, nodeName)) {
-				uuid = UUID.randomUUID().toString().toLowerCase();
+				uuid = mamIdGenerator.generateString();
 			}
 			IItems nodeItems = getRepository().getNodeItems(serviceJID, nodeName);
 
@@ -155,6 +170,11 @@ public class PublishItemModule
 			}
 		}
 
+		itemsPublished(serviceJID, nodeName, publisher, itemsToSend, uuid);
+	}
+
+	private void itemsPublished(BareJID serviceJID, String nodeName, String publisher, List<Element> itemsToSend,
+								String uuid) throws RepositoryException {
 		eventBus.fire(new ItemPublishedEvent(config.getComponentName(), serviceJID, nodeName, publisher, uuid, itemsToSend));
 		generateItemsNotifications(serviceJID, nodeName, itemsToSend, uuid, pubSubLogic.isMAMEnabled(serviceJID, nodeName));
 	}
@@ -176,7 +196,25 @@ public class PublishItemModule
 	}
 
 	private void generateNotifications(BareJID serviceJID, String nodeName, Element payload, String itemId, String expireAt, String uuid, boolean persistInMAM) throws RepositoryException {
-		for (SchemaManager.Pair<String, StanzaType> pair : getCollectionsForNotification(serviceJID, nodeName)) {
+		List<SchemaManager.Pair<String, StanzaType>> collections = getCollectionsForNotification(serviceJID, nodeName);
+		// the same items are transformed for each collection, so result of the transformation may be reused
+		boolean memoize = xslTransformer != null && collections.size() > 1;
+		if (memoize) {
+			xslTransformer.startMemoization();
+		}
+		try {
+			generateNotifications(collections, serviceJID, nodeName, payload, itemId, expireAt, uuid, persistInMAM);
+		} finally {
+			if (memoize) {
+				xslTransformer.stopMemoization();
+			}
+		}
+	}
+
+	private void generateNotifications(List<SchemaManager.Pair<String, StanzaType>> collections, BareJID serviceJID,
+									   String nodeName, Element payload, String itemId, String expireAt, String uuid,
+									   boolean persistInMAM) throws RepositoryException {
+		for (SchemaManager.Pair<String, StanzaType> pair : collections) {
 			Map<String, String> headers = null;
 			if (pair.getKey() != null) {
 				headers = new HashMap<>();
@@ -271,7 +309,10 @@ public class PublishItemModule
 		} else {
 			log.warning("EventBus is not injected!");
 		}
-		eventExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+		if (asyncPublish && asyncRepository == null) {
+			log.warning("async-publish is enabled but asyncRepository bean is not active, publications will be " +
+								"processed synchronously");
+		}
 	}
 
 	public boolean isPEPNodeName(String nodeName) {
@@ -284,9 +325,7 @@ public class PublishItemModule
 
 	@Override
 	public void process(Packet packet) throws PubSubException {
-		if (publishExecutor.isOverloaded()) {
-			throw new PubSubException(Authorization.RESOURCE_CONSTRAINT);
-		}
+		admissionController.checkAdmission();
 
 		final BareJID toJid = packet.getStanzaTo().getBareJID();
 		final Element element = packet.getElement();
@@ -303,25 +342,17 @@ public class PublishItemModule
 				return;
 			}
 
+			if (asyncPublish && asyncRepository != null) {
+				processAsync(packet, toJid, nodeName, publish, publishOptions);
+				return;
+			}
+
 			pubSubLogic.checkPermission(toJid, nodeName, packet.getStanzaFrom(), PubSubLogic.Action.publishItems);
 
 			List<Element> itemsToSend = makeItemsToSend(publish);
 			List<String> itemIds = publishItems(toJid, nodeName, packet.getStanzaFrom(), itemsToSend, publishOptions);
 
-			final Packet resultIq = packet.okResult((Element) null, 0);
-
-			if (itemIds != null) {
-				Element resPubsub = new Element("pubsub", new String[]{"xmlns"},
-												new String[]{"http://jabber.org/protocol/pubsub"});
-
-				resultIq.getElement().addChild(resPubsub);
-
-				Element resPublish = new Element("publish", new String[]{"node"}, new String[]{nodeName});
-
-				resPubsub.addChild(resPublish);
-				itemIds.stream().map(id -> new Element("item", new String[]{"id"}, new String[]{id})).forEach(resPublish::addChild);
-			}
-			packetWriter.write(resultIq);
+			packetWriter.write(prepareResult(packet, nodeName, itemIds));
 		} catch (PubSubException e1) {
 			throw e1;
 		} catch (RepositoryException e1) {
@@ -335,7 +366,96 @@ public class PublishItemModule
 	}
 
 
+	/**
+	 * Processes publication asynchronously. Permissions and publish options are checked by the thread of the
+	 * component, items are stored and trimmed by <code>asyncRepository</code> and notifications are generated by
+	 * <code>lastPublishedItemExecutor</code>, so no thread is blocked while waiting for the database. Response is sent
+	 * when processing is completed.
+	 */
+	protected void processAsync(Packet packet, BareJID toJid, String nodeName, Element publish,
+								Element publishOptions) throws PubSubException, RepositoryException {
+		final JID publisher = packet.getStanzaFrom();
+		final List<Element> itemsToSend = makeItemsToSend(publish);
+		pubSubLogic.checkPermission(toJid, nodeName, publisher, PubSubLogic.Action.publishItems);
+		final LeafNodeConfig leafNodeConfig = getNodeConfigForPublication(toJid, nodeName, publisher, itemsToSend,
+																		   publishOptions);
+		final List<String> itemIds = assignItemIds(toJid, nodeName, leafNodeConfig, itemsToSend);
+		final String uuid = leafNodeConfig.isPersistItem() && pubSubLogic.isMAMEnabled(toJid, nodeName)
+							? mamIdGenerator.generateString()
+							: null;
+
+		storeItemsAsync(toJid, nodeName, leafNodeConfig, publisher.toString(), itemsToSend, uuid).thenRunAsync(() -> {
+			try {
+				itemsPublished(toJid, nodeName, publisher.toString(), itemsToSend, uuid);
+			} catch (RepositoryException ex) {
+				throw new CompletionException(ex);
+			}
+		}, task -> eventExecutor.submit(Executor.Priority.normal, task)).whenComplete((result, ex) -> {
+			if (ex == null) {
+				packetWriter.write(prepareResult(packet, nodeName, itemIds));
+				return;
+			}
+			Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+			PubSubException pubSubException;
+			if (cause instanceof PubSubException) {
+				pubSubException = (PubSubException) cause;
+			} else {
+				log.log(Level.FINE, "Error processing publish packet", cause);
+				pubSubException = new PubSubException(Authorization.INTERNAL_SERVER_ERROR,
+													  "Error processing publish packet");
+			}
+			packetWriter.write(Packet.packetInstance(pubSubException.makeElement(packet.getElement()),
+													 packet.getStanzaTo(), packet.getStanzaFrom()));
+		});
+	}
+
+	/**
+	 * Submits writes of items and trimming of the node to <code>asyncRepository</code>. All calls are submitted at
+	 * once with the ordering key of the node, so they are executed in the order of publications.
+	 */
+	private CompletableFuture<Void> storeItemsAsync(BareJID serviceJID, String nodeName, LeafNodeConfig leafNodeConfig,
+													String publisher, List<Element> itemsToSend, String uuid) {
+		if (!leafNodeConfig.isPersistItem()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		for (Element item : itemsToSend) {
+			final String id = item.getAttributeStaticStr("id");
+			Element geoloc = config.isPepRemoveEmptyGeoloc()
+							 ? item.findChildStaticStr(new String[]{"item", "geoloc"})
+							 : null;
+			if (geoloc != null && (geoloc.getChildren() == null || geoloc.getChildren().size() == 0)) {
+				futures.add(asyncRepository.deleteItem(serviceJID, nodeName, id));
+			} else {
+				futures.add(asyncRepository.writeItem(serviceJID, nodeName, id, publisher, item, uuid));
+			}
+		}
+		Integer maxItems = leafNodeConfig.getMaxItems().getOrNull();
+		if (maxItems != null) {
+			futures.add(asyncRepository.trimItems(serviceJID, nodeName, maxItems,
+												  leafNodeConfig.getCollectionItemsOrdering()).thenAccept(removed -> {
+				if (removed != null && removed.length > 0 && log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Removed {0} items from node {1} at {2}",
+							new Object[]{removed.length, nodeName, serviceJID});
+				}
+			}));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+	}
+
 	public List<String> publishItems(BareJID toJid, String nodeName, JID publisher, List<Element> itemsToPublish, Element publishOptions) throws RepositoryException, PubSubException {
+		LeafNodeConfig leafNodeConfig = getNodeConfigForPublication(toJid, nodeName, publisher, itemsToPublish,
+																	publishOptions);
+		List<String> itemIds = assignItemIds(toJid, nodeName, leafNodeConfig, itemsToPublish);
+
+		doPublishItems(toJid, nodeName, leafNodeConfig, publisher.toString(), itemsToPublish);
+
+		return itemIds;
+	}
+
+	private LeafNodeConfig getNodeConfigForPublication(BareJID toJid, String nodeName, JID publisher,
+													   List<Element> itemsToPublish, Element publishOptions)
+			throws RepositoryException, PubSubException {
 		AbstractNodeConfig nodeConfig = getRepository().getNodeConfig(toJid, nodeName);
 
 		if (nodeConfig == null) {
@@ -358,13 +478,14 @@ public class PublishItemModule
 					el -> el.getName() == "field" && "FORM_TYPE" == el.getAttributeStaticStr("var") &&
 							"http://jabber.org/protocol/pubsub#publish-option".equals(
 									el.getCData(FIELD_VALUE_PATH))) == null) {
+				final Form nodeConfigForm = nodeConfig.copy().getForm();
 				for (Element field : publishOptions.getChildren()) {
 					String key = field.getAttributeStaticStr("var");
 					if ("FORM_TYPE".equals(key)) {
 						continue;
 					}
 
-					Field f = nodeConfig.getForm().get(key);
+					Field f = nodeConfigForm.get(key);
 					if (f == null) {
 						throw new PubSubException(Authorization.CONFLICT,
 												  PubSubErrorCondition.PRECONDITION_NOT_MET);
@@ -417,11 +538,14 @@ public class PublishItemModule
 			}
 		}
 
-		LeafNodeConfig leafNodeConfig = (LeafNodeConfig) nodeConfig;
 		if (pubSubLogic.isMAMEnabled(toJid, nodeName) && itemsToPublish.size() > 1) {
 			throw new PubSubException(Authorization.NOT_ALLOWED, "Bulk publication not allowed");
 		}
+		return (LeafNodeConfig) nodeConfig;
+	}
 
+	private List<String> assignItemIds(BareJID toJid, String nodeName, LeafNodeConfig leafNodeConfig,
+									   List<Element> itemsToPublish) {
 		List<String> itemIds = null;
 		if (leafNodeConfig.isPersistItem()) {
 			itemIds = new ArrayList<>();
@@ -434,9 +558,6 @@ public class PublishItemModule
 				itemIds.add(id);
 			}
 		}
-		
-		doPublishItems(toJid, nodeName, leafNodeConfig, publisher.toString(), itemsToPublish);
-
 		return itemIds;
 	}
 
@@ -450,16 +571,14 @@ public class PublishItemModule
 
 		IItems nodeItems = this.getRepository().getNodeItems(serviceJid, nodeConfig.getNodeName());
 		if (nodeItems != null) {
-			String[] ids = nodeItems.getItemsIds(nodeConfig.getCollectionItemsOrdering());
+			IItems.IItem item = nodeItems.getLastItem(nodeConfig.getCollectionItemsOrdering());
 
-			if (ids != null && ids.length > 0) {
-				String lastID = ids[ids.length - 1];
-				IItems.IItem item = nodeItems.getItem(lastID);
-				if (item != null && item.getItem() != null) {
+			if (item != null) {
+				if (item.getItem() != null) {
 					sendNotification(serviceJid, nodeConfig.getNodeName(), item.getItem(), item.getUUID(), null, destinationJID, nodeConfig.getNotificationType());
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "There is no payload for item with id '" + lastID + "' at '" + nodeConfig.getNodeName() +
+						log.log(Level.FINEST, "There is no payload for item with id '" + item.getId() + "' at '" + nodeConfig.getNodeName() +
 								"' for '" + serviceJid + "'");
 					}
 				}
@@ -469,24 +588,16 @@ public class PublishItemModule
 	
 	public void trimItems(final BareJID serviceJid, final String nodeName, final Integer maxItems, CollectionItemsOrdering collectionItemsOrdering) throws RepositoryException {
 		IItems nodeItems = getRepository().getNodeItems(serviceJid, nodeName);
-		final String[] ids = nodeItems.getItemsIds(collectionItemsOrdering);
-
-		if ((ids == null) || (ids.length <= maxItems)) {
-			return;
-		}
-		
-		for (int i = 0; i < (ids.length - maxItems); i++) {
-			String id = ids[i];
+		String[] removed = nodeItems.trimItems(maxItems, collectionItemsOrdering);
 
-			nodeItems.deleteItem(id);
+		if (removed != null && removed.length > 0 && log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Removed {0} items from node {1} at {2}",
+					new Object[]{removed.length, nodeName, serviceJid});
 		}
 	}
 
 	@Override
 	public void beforeUnregister() {
-		if (eventExecutor != null) {
-			eventExecutor.shutdown();
-		}
 		if (eventBus != null) {
 			eventBus.unregisterAll(this);
 		}
@@ -535,7 +646,7 @@ public class PublishItemModule
 	}
 
 	private void capsSendLastPublishedItem(BareJID serviceJid, String nodeName, JID buddyJid) {
-		eventExecutor.execute(() -> {
+		eventExecutor.submit(Executor.Priority.normal, () -> {
 			try {
 				ISubscriptions subscriptions = getRepository().getNodeSubscriptions(serviceJid, nodeName);
 				if (subscriptions != null) {
@@ -603,7 +714,7 @@ public class PublishItemModule
 	}
 
 	private void sendLastPublishedItemFromSubscribedNodes(BareJID serviceJid, JID userJid) {
-		eventExecutor.execute(() -> {
+		eventExecutor.submit(Executor.Priority.normal, () -> {
 			try {
 				// sending last published items for subscribed nodes
 				Map<String, UsersSubscription> subscrs = repository.getUserSubscriptions(serviceJid,
@@ -669,6 +780,23 @@ public class PublishItemModule
 		return nodeConfig;
 	}
 
+	private Packet prepareResult(Packet packet, String nodeName, List<String> itemIds) {
+		final Packet resultIq = packet.okResult((Element) null, 0);
+
+		if (itemIds != null) {
+			Element resPubsub = new Element("pubsub", new String[]{"xmlns"},
+											new String[]{"http://jabber.org/protocol/pubsub"});
+
+			resultIq.getElement().addChild(resPubsub);
+
+			Element resPublish = new Element("publish", new String[]{"node"}, new String[]{nodeName});
+
+			resPubsub.addChild(resPublish);
+			itemIds.stream().map(id -> new Element("item", new String[]{"id"}, new String[]{id})).forEach(resPublish::addChild);
+		}
+		return resultIq;
+	}
+
 	private List<Element> makeItemsToSend(Element publish) throws PubSubException {
 		List<Element> items = new ArrayList<Element>();
 
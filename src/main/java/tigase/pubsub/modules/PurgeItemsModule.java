@@ -17,20 +17,25 @@
  */
 package tigase.pubsub.modules;
 
+import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
 import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.pubsub.*;
 import tigase.pubsub.exceptions.PubSubErrorCondition;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.repository.IItems;
 import tigase.pubsub.utils.PubSubLogic;
+import tigase.pubsub.utils.executors.Executor;
 import tigase.server.Packet;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.jid.BareJID;
 
+import java.time.Duration;
+import java.util.Date;
 import java.util.logging.Level;
 
 @Bean(name = "purgeItemsModule", parent = PubSubComponent.class, active = true)
@@ -43,6 +48,16 @@ public class PurgeItemsModule
 
 	@Inject
 	private PublishItemModule publishModule;
+	@Inject(bean = "purgeItemsExecutor")
+	private Executor purgeExecutor;
+	@ConfigField(desc = "Max number of items removed by a single database request (0 - unlimited)", alias = "purge-batch-size")
+	private int purgeBatchSize = 1000;
+	@ConfigField(desc = "Remove items of purged node in background", alias = "purge-in-background")
+	private boolean purgeInBackground = false;
+	@ConfigField(desc = "Max number of retries of failed removal of items in background", alias = "purge-max-retries")
+	private int purgeMaxRetries = 5;
+	@ConfigField(desc = "Delay before first retry of failed removal of items in background, doubled for each next retry", alias = "purge-retry-delay")
+	private Duration purgeRetryDelay = Duration.ofSeconds(1);
 
 	@Override
 	public String[] getFeatures() {
@@ -87,17 +102,22 @@ public class PurgeItemsModule
 			Packet result = packet.okResult((Element) null, 0);
 
 			final IItems nodeItems = this.getRepository().getNodeItems(toJid, nodeName);
-			String[] itemsToDelete = nodeItems.getItemsIds(CollectionItemsOrdering.byUpdateDate);
+			final Date before = new Date();
 
 			publishModule.generateNodeNotifications(packet.getStanzaTo().getBareJID(), nodeName,
 													new Element("purge", new String[]{"node"}, new String[]{nodeName}),
 													null, false);
 
 			log.log(Level.CONFIG, "Purging node " + nodeName);
-			if (itemsToDelete != null) {
-				for (String id : itemsToDelete) {
-					nodeItems.deleteItem(id);
-				}
+			if (purgeInBackground) {
+				// items are hidden before the result is sent, as removing them may take a while
+				nodeItems.purgeStarted(before);
+				purgeExecutor.submit(Executor.Priority.low, () -> purgeItemsInBackground(toJid, nodeName, nodeItems, before, 0));
+			} else {
+				boolean hasMore;
+				do {
+					hasMore = purgeItems(nodeItems, before);
+				} while (hasMore);
 			}
 
 			packetWriter.write(result);
@@ -109,4 +129,53 @@ public class PurgeItemsModule
 			throw new RuntimeException(e);
 		}
 	}
+
+	/**
+	 * Removes next batch of items of the purged node.
+	 * @return true if there may be more items to remove
+	 */
+	protected boolean purgeItems(IItems nodeItems, Date before) throws RepositoryException {
+		int limit = purgeBatchSize > 0 ? purgeBatchSize : Integer.MAX_VALUE;
+		String[] removed = nodeItems.purgeItems(before, limit);
+		return removed != null && removed.length >= limit;
+	}
+
+	/**
+	 * Removes next batch of items of the purged node in background. Failed removal is retried with increasing delay,
+	 * and if it still fails, items which were not removed become visible again.
+	 * <br>
+	 * State of the background purge is kept only in memory, so if the server is restarted before it is finished,
+	 * remaining items are not removed and become visible again.
+	 */
+	private void purgeItemsInBackground(BareJID serviceJid, String nodeName, IItems nodeItems, Date before,
+										int retry) {
+		try {
+			if (purgeItems(nodeItems, before)) {
+				// next batch is submitted as a new task to not block executor for a long time
+				purgeExecutor.submit(Executor.Priority.low,
+									 () -> purgeItemsInBackground(serviceJid, nodeName, nodeItems, before, 0));
+			} else {
+				log.log(Level.CONFIG, "Purging node " + nodeName + " at " + serviceJid + " finished");
+			}
+		} catch (RepositoryException ex) {
+			if (retry < purgeMaxRetries) {
+				long delay = purgeRetryDelay.toMillis() << retry;
+				log.log(Level.FINE, "Failed to purge items of node " + nodeName + " at " + serviceJid +
+						", retrying in " + delay + "ms", ex);
+				try {
+					// executor is dedicated to purging, so waiting here delays only other purges
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					log.log(Level.WARNING, "Purging items of node " + nodeName + " at " + serviceJid + " interrupted");
+					nodeItems.purgeAborted(before);
+					return;
+				}
+				purgeExecutor.submit(Executor.Priority.low,
+									 () -> purgeItemsInBackground(serviceJid, nodeName, nodeItems, before, retry + 1));
+			} else {
+				log.log(Level.WARNING, "Failed to purge items of node " + nodeName + " at " + serviceJid, ex);
+				nodeItems.purgeAborted(before);
+			}
+		}
+	}
 }
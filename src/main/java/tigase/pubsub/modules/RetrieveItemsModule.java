@@ -20,6 +20,7 @@ package tigase.pubsub.modules;
 import tigase.criteria.Criteria;
 import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.PubSubComponent;
 import tigase.pubsub.exceptions.PubSubErrorCondition;
@@ -49,6 +50,8 @@ public class RetrieveItemsModule
 			.add(ElementCriteria.name("items"));
 
 	private final TimestampHelper timestampHelper = new TimestampHelper();
+	@ConfigField(desc = "Copy retrieved items to results in the stored form without parsing them", alias = "raw-items-pass-through")
+	private boolean rawItemsPassThrough = false;
 
 	@Override
 	public String[] getFeatures() {
@@ -60,6 +63,24 @@ public class RetrieveItemsModule
 		return CRIT;
 	}
 
+	/**
+	 * Adds item to results. If raw items pass-through is enabled, item XML is appended as is, so items loaded from
+	 * the repository are not parsed and serialized again, but are also not visible as child elements of results.
+	 */
+	protected void addItem(Element ritems, IItems.IItem item) {
+		if (rawItemsPassThrough) {
+			String xml = item.getItemXml();
+			if (xml != null) {
+				ritems.addCData(xml);
+			}
+		} else {
+			Element itemEl = item.getItem();
+			if (itemEl != null) {
+				ritems.addChild(itemEl);
+			}
+		}
+	}
+
 	@Override
 	public void process(final Packet packet) throws PubSubException {
 		try {
@@ -83,11 +104,8 @@ public class RetrieveItemsModule
 			if (requestedId != null) {
 				final Element ritems = new Element("items", new String[]{"node"}, new String[]{nodeName});
 				IItems nodeItems = getRepository().getNodeItems(toJid, nodeName);
-				for (String id : requestedId) {
-					IItems.IItem item = nodeItems.getItem(id);
-					if (item != null && item.getItem() != null) {
-						ritems.addChild(item.getItem());
-					}
+				for (IItems.IItem item : nodeItems.getItems(requestedId)) {
+					addItem(ritems, item);
 				}
 				rpubsub.addChild(ritems);
 			} else {
@@ -122,12 +140,13 @@ public class RetrieveItemsModule
 						.forEach((rnodeName, rnodeItems) -> {
 							final Element ritems = new Element("items", new String[]{"node"}, new String[]{rnodeName});
 							for (IItems.IItem ritem : rnodeItems) {
-								ritems.addChild(ritem.getItem());
+								addItem(ritems, ritem);
 							}
 							rpubsub.addChild(ritems);
 						});
 
-				if (rsm.getCount() > 0) {
+				// count is not set when items were retrieved with keyset pagination
+				if (rsm.getCount() != null ? rsm.getCount() > 0 : !queryResults.isEmpty()) {
 					if (maxItems == null) {
 						rpubsub.addChild(rsm.toElement());
 					}
@@ -17,72 +17,247 @@
  */
 package tigase.pubsub.modules;
 
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.pubsub.AbstractNodeConfig;
 import tigase.pubsub.PubSubComponent;
+import tigase.pubsub.utils.Cache;
+import tigase.pubsub.utils.LRUCache;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
-import tigase.xml.SimpleParser;
-import tigase.xml.SingletonFactory;
+import tigase.xml.XMLUtils;
 
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.InputStream;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.net.URL;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 
 @Bean(name = "xslTransformer", parent = PubSubComponent.class, active = true)
 public class XsltTool {
 
-	private final SimpleParser parser = SingletonFactory.getParserInstance();
-
+	private final ThreadLocal<Map<Element, MemoizedResult>> memoizedResults = new ThreadLocal<>();
+	@ConfigField(desc = "Max number of cached compiled XSL transformations")
+	private int templatesCacheSize = 100;
+	@ConfigField(desc = "Time after which XSL transformation loaded from URL is reloaded")
+	private Duration templatesCacheExpiration = Duration.ofMinutes(5);
+	private volatile Cache<String, CachedTemplates> templatesCache = new LRUCache<>(templatesCacheSize);
 	private TransformerFactory tFactory = TransformerFactory.newInstance();
 
 	public XsltTool() {
 
 	}
 
+	public int getTemplatesCacheSize() {
+		return templatesCacheSize;
+	}
+
+	public void setTemplatesCacheSize(int templatesCacheSize) {
+		this.templatesCacheSize = templatesCacheSize;
+		this.templatesCache = new LRUCache<>(Math.max(1, templatesCacheSize));
+	}
+
+	public Duration getTemplatesCacheExpiration() {
+		return templatesCacheExpiration;
+	}
+
+	public void setTemplatesCacheExpiration(Duration templatesCacheExpiration) {
+		this.templatesCacheExpiration = templatesCacheExpiration;
+	}
+
+	/**
+	 * Starts memoization of transformation results for the current thread. Until
+	 * {@link #stopMemoization()} is called, transformation of the same item element with the same XSL transformation
+	 * is executed only once, ie. when notifications are prepared for each collection of the node.
+	 * <br>
+	 * Elements returned for memoized transformation are shared by all notifications, so they must not be modified.
+	 */
+	public void startMemoization() {
+		memoizedResults.set(new IdentityHashMap<>());
+	}
+
+	public void stopMemoization() {
+		memoizedResults.remove();
+	}
+
 	public List<Element> transform(final Element item, AbstractNodeConfig nodeConfig)
 			throws TransformerException, IOException {
-		Source xsltSource;
+		Templates templates = getTemplates(nodeConfig);
+		if (templates == null) {
+			return null;
+		}
+
+		Map<Element, MemoizedResult> memoized = memoizedResults.get();
+		if (memoized != null) {
+			MemoizedResult result = memoized.get(item);
+			if (result != null && result.templates == templates) {
+				return new ArrayList<>(result.elements);
+			}
+		}
+
+		List<Element> elements = transform(item, templates);
+		if (memoized != null) {
+			memoized.put(item, new MemoizedResult(templates, elements));
+			return new ArrayList<>(elements);
+		}
+		return elements;
+	}
+
+	protected Templates getTemplates(AbstractNodeConfig nodeConfig) throws TransformerException, IOException {
 		final String bodyXsltUrl = nodeConfig.getBodyXslt();
 		final String bodyXsltEmbedded = nodeConfig.getBodyXsltEmbedded();
 		if (bodyXsltEmbedded != null && bodyXsltEmbedded.length() > 1) {
-			Reader reader = new StringReader(bodyXsltEmbedded);
-			xsltSource = new StreamSource(reader);
+			// embedded transformation is used as a key, so it never changes
+			return getTemplates(bodyXsltEmbedded, Long.MAX_VALUE,
+								() -> new StreamSource(new StringReader(bodyXsltEmbedded)));
 		} else if (bodyXsltUrl != null && bodyXsltUrl.length() > 1) {
-			URL x = new URL(bodyXsltUrl);
-			xsltSource = new StreamSource(x.openStream());
+			// transformation loaded from URL may be changed, so it needs to be reloaded from time to time
+			return getTemplates(bodyXsltUrl, System.currentTimeMillis() + templatesCacheExpiration.toMillis(),
+								() -> new StreamSource(new URL(bodyXsltUrl).openStream(), bodyXsltUrl));
 		} else {
 			return null;
 		}
-		return transform(item, xsltSource);
 	}
 
-	private List<Element> transform(final Element item, Source xslt) throws TransformerException {
-		Transformer transformer = tFactory.newTransformer(xslt);
-		Reader reader = new StringReader(item.toString());
-
-		StringWriter writer = new StringWriter();
-		transformer.transform(new StreamSource(reader), new StreamResult(writer));
-		char[] data = writer.toString().toCharArray();
+	private Templates getTemplates(String key, long expiresAt, SourceSupplier sourceSupplier)
+			throws TransformerException, IOException {
+		Cache<String, CachedTemplates> cache = templatesCache;
+		CachedTemplates cached = cache.get(key);
+		if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+			return cached.templates;
+		}
+		Templates templates;
+		Source source = sourceSupplier.get();
+		try {
+			synchronized (tFactory) {
+				templates = tFactory.newTemplates(source);
+			}
+		} finally {
+			if (source instanceof StreamSource && ((StreamSource) source).getInputStream() != null) {
+				((StreamSource) source).getInputStream().close();
+			}
+		}
+		cache.put(key, new CachedTemplates(templates, expiresAt));
+		return templates;
+	}
 
+	private List<Element> transform(final Element item, Templates templates) throws TransformerException {
 		DomBuilderHandler domHandler = new DomBuilderHandler();
-		parser.parse(domHandler, data, 0, data.length);
-		Queue<Element> q = domHandler.getParsedElements();
+		// serialized item is used as input, but result is passed directly to the DOM builder without serialization
+		templates.newTransformer()
+				.transform(new StreamSource(new StringReader(item.toString())),
+						   new SAXResult(new DomBuilderContentHandler(domHandler)));
+
+		return new ArrayList<>(domHandler.getParsedElements());
+	}
 
-		ArrayList<Element> result = new ArrayList<Element>();
-		result.addAll(q);
-		return result;
+	@FunctionalInterface
+	private interface SourceSupplier {
+
+		Source get() throws IOException, TransformerConfigurationException;
+
+	}
+
+	private static class CachedTemplates {
+
+		private final long expiresAt;
+		private final Templates templates;
+
+		CachedTemplates(Templates templates, long expiresAt) {
+			this.templates = templates;
+			this.expiresAt = expiresAt;
+		}
 	}
 
+	private static class MemoizedResult {
+
+		private final List<Element> elements;
+		private final Templates templates;
+
+		MemoizedResult(Templates templates, List<Element> elements) {
+			this.templates = templates;
+			this.elements = elements;
+		}
+	}
+
+	/**
+	 * Passes SAX events generated by the transformation to the <code>DomBuilderHandler</code>.
+	 */
+	private static class DomBuilderContentHandler
+			extends DefaultHandler {
+
+		private final StringBuilder cdata = new StringBuilder();
+		private final DomBuilderHandler domHandler;
+		private final List<String[]> namespaces = new ArrayList<>();
+		private int depth = 0;
+
+		DomBuilderContentHandler(DomBuilderHandler domHandler) {
+			this.domHandler = domHandler;
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (depth > 0) {
+				cdata.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			flushCData();
+			domHandler.endElement(new StringBuilder(name(localName, qName)));
+			depth--;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			flushCData();
+			int count = namespaces.size() + attributes.getLength();
+			StringBuilder[] names = new StringBuilder[count];
+			StringBuilder[] values = new StringBuilder[count];
+			int i = 0;
+			for (String[] ns : namespaces) {
+				names[i] = new StringBuilder(ns[0].isEmpty() ? "xmlns" : ("xmlns:" + ns[0]));
+				values[i] = new StringBuilder(XMLUtils.escape(ns[1]));
+				i++;
+			}
+			namespaces.clear();
+			for (int j = 0; j < attributes.getLength(); j++) {
+				names[i] = new StringBuilder(name(attributes.getLocalName(j), attributes.getQName(j)));
+				values[i] = new StringBuilder(XMLUtils.escape(attributes.getValue(j)));
+				i++;
+			}
+			depth++;
+			domHandler.startElement(new StringBuilder(name(localName, qName)), names, values);
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) {
+			namespaces.add(new String[]{prefix == null ? "" : prefix, uri});
+		}
+
+		private void flushCData() {
+			if (cdata.length() > 0) {
+				domHandler.elementCData(new StringBuilder(XMLUtils.escape(cdata.toString())));
+				cdata.setLength(0);
+			}
+		}
+
+		private static String name(String localName, String qName) {
+			return (qName == null || qName.isEmpty()) ? localName : qName;
+		}
+	}
 }
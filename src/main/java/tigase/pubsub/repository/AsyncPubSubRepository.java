@@ -0,0 +1,149 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.pubsub.AbstractNodeConfig;
+import tigase.pubsub.CollectionItemsOrdering;
+import tigase.pubsub.PubSubComponent;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.pubsub.repository.cached.CachedPubSubRepository;
+import tigase.pubsub.utils.executors.Executor;
+import tigase.xml.Element;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementation of {@link IAsyncPubSubRepository} executing calls to {@link IPubSubRepository} on
+ * <code>databaseExecutor</code>. Calls related to the same node are executed in order of submission.
+ * <br>
+ * It is not active by default and has to be enabled (together with <code>databaseExecutor</code>) when
+ * <code>async-publish</code> of <code>publishItemModule</code> is set.
+ */
+@Bean(name = "asyncRepository", parent = PubSubComponent.class, active = false)
+public class AsyncPubSubRepository
+		implements IAsyncPubSubRepository {
+
+	@Inject(bean = "databaseExecutor")
+	private Executor executor;
+	@Inject
+	private IPubSubRepository repository;
+
+	public AsyncPubSubRepository() {
+	}
+
+	public AsyncPubSubRepository(IPubSubRepository repository, Executor executor) {
+		this.repository = repository;
+		this.executor = executor;
+	}
+
+	@Override
+	public <R> CompletableFuture<R> execute(Object orderingKey, RepositoryCall<R> call) {
+		CompletableFuture<R> future = new CompletableFuture<>();
+		if (executor.isOverloaded()) {
+			future.completeExceptionally(
+					new PubSubException(Authorization.RESOURCE_CONSTRAINT, "Database executor is overloaded"));
+			return future;
+		}
+		executor.submit(Executor.Priority.normal, new RepositoryTask<>(orderingKey, call, future));
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<AbstractNodeConfig> getNodeConfig(BareJID serviceJid, String nodeName) {
+		return execute(nodeKey(serviceJid, nodeName), repository -> repository.getNodeConfig(serviceJid, nodeName));
+	}
+
+	@Override
+	public CompletableFuture<IItems.IItem> getItem(BareJID serviceJid, String nodeName, String id) {
+		return execute(nodeKey(serviceJid, nodeName),
+					   repository -> getNodeItems(repository, serviceJid, nodeName).getItem(id));
+	}
+
+	@Override
+	public CompletableFuture<Void> writeItem(BareJID serviceJid, String nodeName, String id, String publisher,
+											 Element item, String uuid) {
+		return execute(nodeKey(serviceJid, nodeName), repository -> {
+			getNodeItems(repository, serviceJid, nodeName).writeItem(id, publisher, item, uuid);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteItem(BareJID serviceJid, String nodeName, String id) {
+		return execute(nodeKey(serviceJid, nodeName), repository -> {
+			getNodeItems(repository, serviceJid, nodeName).deleteItem(id);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<String[]> trimItems(BareJID serviceJid, String nodeName, int maxItems,
+												 CollectionItemsOrdering order) {
+		return execute(nodeKey(serviceJid, nodeName),
+					   repository -> getNodeItems(repository, serviceJid, nodeName).trimItems(maxItems, order));
+	}
+
+	/**
+	 * Creates ordering key for calls related to the node.
+	 */
+	public static Object nodeKey(BareJID serviceJid, String nodeName) {
+		return new CachedPubSubRepository.NodeKey(serviceJid, nodeName);
+	}
+
+	private static IItems getNodeItems(IPubSubRepository repository, BareJID serviceJid, String nodeName)
+			throws PubSubException, RepositoryException {
+		IItems nodeItems = repository.getNodeItems(serviceJid, nodeName);
+		if (nodeItems == null) {
+			throw new PubSubException(Authorization.ITEM_NOT_FOUND);
+		}
+		return nodeItems;
+	}
+
+	private class RepositoryTask<R>
+			implements Executor.OrderedTask {
+
+		private final RepositoryCall<R> call;
+		private final CompletableFuture<R> future;
+		private final Object orderingKey;
+
+		private RepositoryTask(Object orderingKey, RepositoryCall<R> call, CompletableFuture<R> future) {
+			this.orderingKey = orderingKey;
+			this.call = call;
+			this.future = future;
+		}
+
+		@Override
+		public Object getOrderingKey() {
+			return orderingKey;
+		}
+
+		@Override
+		public void run() {
+			try {
+				future.complete(call.call(repository));
+			} catch (Throwable ex) {
+				future.completeExceptionally(ex);
+			}
+		}
+	}
+}
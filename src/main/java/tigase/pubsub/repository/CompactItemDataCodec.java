@@ -0,0 +1,264 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import tigase.xml.Element;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact encoding of stored items and MAM entries.
+ * <br>
+ * Element is encoded as a sequence of tokens, element and attribute names (including names of namespaces) are
+ * replaced with references to a static dictionary of names commonly used in payloads or to names which already
+ * appeared in the same document, while values of attributes and character data are stored as length prefixed
+ * strings. Thanks to that, encoded data is shorter than XML and decoding does not require parsing of XML.
+ * <br>
+ * Encoded data is still a string, so it may be stored in the existing <code>data</code> columns, and it starts with
+ * a format marker which never appears in XML, so items stored as XML are still readable. Encoded data contains only
+ * characters from the BMP, excluding <code>\u0000</code> and surrogates.
+ * <br>
+ * Elements with mixed content (character data and child elements) are not supported as order of character data and
+ * child elements would not be preserved. For such elements {@link #encode(Element)} returns <code>null</code> and
+ * XML should be stored instead.
+ */
+public class CompactItemDataCodec {
+
+	/**
+	 * Prefix of encoded data (format marker and version of the encoding).
+	 */
+	public static final String MARKER = "\u0001" + "1";
+
+	private static final char START_ELEMENT = '\u0002';
+	private static final char ATTRIBUTE = '\u0003';
+	private static final char CDATA = '\u0004';
+	private static final char END_ELEMENT = '\u0005';
+	private static final char NEW_NAME = '\u0006';
+	private static final char NAME_REF_BASE = '\u0100';
+	private static final int VARINT_BITS = 14;
+	private static final int VARINT_MASK = (1 << VARINT_BITS) - 1;
+	private static final char VARINT_CONTINUATION = '\u4000';
+
+	// order of names must not be changed as indexes are stored, new names may be only appended
+	private static final String[] DICTIONARY = {"item", "id", "xmlns", "message", "event", "items", "node", "from",
+												"to", "type", "publisher", "entry", "title", "content", "author",
+												"name", "uri", "published", "updated", "link", "href", "rel",
+												"summary", "data", "info", "bytes", "height", "width", "url",
+												"metadata", "geoloc", "lat", "lon", "accuracy", "timestamp", "mood",
+												"text", "tune", "artist", "length", "source", "track", "activity",
+												"nick", "bundle", "signedPreKeyPublic", "signedPreKeySignature",
+												"identityKey", "prekeys", "preKeyPublic", "preKeyId",
+												"signedPreKeyId", "list", "device", "label", "x", "field", "value",
+												"var", "jid", "delay", "stamp", "stanza-id", "by", "body", "subject",
+												"thread", "lang", "xml:lang", "http://jabber.org/protocol/pubsub",
+												"http://jabber.org/protocol/pubsub#event",
+												"http://www.w3.org/2005/Atom", "urn:xmpp:avatar:data",
+												"urn:xmpp:avatar:metadata", "http://jabber.org/protocol/geoloc",
+												"http://jabber.org/protocol/mood", "http://jabber.org/protocol/tune",
+												"http://jabber.org/protocol/activity",
+												"http://jabber.org/protocol/nick", "eu.siacs.conversations.axolotl",
+												"urn:xmpp:omemo:2", "urn:xmpp:delay", "urn:xmpp:sid:0",
+												"jabber:x:data", "jabber:client", "urn:xmpp:bookmarks:1",
+												"conference", "autojoin", "password", "extensions"};
+	private static final Map<String, Integer> DICTIONARY_INDEXES = new HashMap<>();
+
+	static {
+		for (int i = 0; i < DICTIONARY.length; i++) {
+			DICTIONARY_INDEXES.put(DICTIONARY[i], i);
+		}
+	}
+
+	public static boolean isEncoded(String data) {
+		return data != null && data.startsWith(MARKER);
+	}
+
+	/**
+	 * Encodes element.
+	 *
+	 * @return encoded element or <code>null</code> if element cannot be encoded
+	 */
+	public static String encode(Element element) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(MARKER);
+		Map<String, Integer> names = new HashMap<>();
+		return encode(sb, element, names) ? sb.toString() : null;
+	}
+
+	/**
+	 * Decodes element encoded by {@link #encode(Element)}.
+	 *
+	 * @throws IllegalArgumentException if data is not properly encoded
+	 */
+	public static Element decode(String data) {
+		if (!isEncoded(data)) {
+			throw new IllegalArgumentException("Data is not encoded in compact format");
+		}
+		try {
+			Decoder decoder = new Decoder(data, MARKER.length());
+			if (decoder.next() != START_ELEMENT) {
+				throw new IllegalArgumentException("Missing root element");
+			}
+			return decoder.readElement();
+		} catch (IndexOutOfBoundsException ex) {
+			throw new IllegalArgumentException("Encoded data is truncated", ex);
+		}
+	}
+
+	private static boolean encode(StringBuilder sb, Element element, Map<String, Integer> names) {
+		List<Element> children = element.getChildren();
+		String cdata = element.getCData();
+		boolean hasChildren = children != null && !children.isEmpty();
+		if (hasChildren && cdata != null && !cdata.isEmpty()) {
+			return false;
+		}
+		sb.append(START_ELEMENT);
+		writeName(sb, element.getName(), names);
+		Map<String, String> attributes = element.getAttributes();
+		if (attributes != null) {
+			for (Map.Entry<String, String> e : attributes.entrySet()) {
+				sb.append(ATTRIBUTE);
+				writeName(sb, e.getKey(), names);
+				writeString(sb, e.getValue());
+			}
+		}
+		if (hasChildren) {
+			for (Element child : children) {
+				if (!encode(sb, child, names)) {
+					return false;
+				}
+			}
+		} else if (cdata != null) {
+			sb.append(CDATA);
+			writeString(sb, cdata);
+		}
+		sb.append(END_ELEMENT);
+		return true;
+	}
+
+	private static void writeName(StringBuilder sb, String name, Map<String, Integer> names) {
+		Integer idx = DICTIONARY_INDEXES.get(name);
+		if (idx == null) {
+			idx = names.get(name);
+			if (idx == null) {
+				names.put(name, DICTIONARY.length + names.size());
+				sb.append(NEW_NAME);
+				writeString(sb, name);
+				return;
+			}
+		}
+		writeInt(sb, idx);
+	}
+
+	private static void writeString(StringBuilder sb, String value) {
+		writeInt(sb, value.length());
+		sb.append(value);
+	}
+
+	private static void writeInt(StringBuilder sb, int value) {
+		// each char holds 14 bits, offset by NAME_REF_BASE to never produce control chars or surrogates
+		while (value > VARINT_MASK) {
+			sb.append((char) (NAME_REF_BASE + VARINT_CONTINUATION + (value & VARINT_MASK)));
+			value >>>= VARINT_BITS;
+		}
+		sb.append((char) (NAME_REF_BASE + value));
+	}
+
+	private static class Decoder {
+
+		private final String data;
+		private final List<String> names = new ArrayList<>();
+		private int pos;
+
+		private Decoder(String data, int pos) {
+			this.data = data;
+			this.pos = pos;
+		}
+
+		private char next() {
+			return data.charAt(pos++);
+		}
+
+		private Element readElement() {
+			Element element = new Element(readName());
+			while (true) {
+				char token = next();
+				switch (token) {
+					case ATTRIBUTE:
+						String name = readName();
+						String value = readString();
+						if (name == "xmlns") {
+							element.setXMLNS(value);
+						} else {
+							element.setAttribute(name, value);
+						}
+						break;
+					case CDATA:
+						element.setCData(readString());
+						break;
+					case START_ELEMENT:
+						element.addChild(readElement());
+						break;
+					case END_ELEMENT:
+						return element;
+					default:
+						throw new IllegalArgumentException("Unexpected token at position " + (pos - 1));
+				}
+			}
+		}
+
+		private String readName() {
+			if (data.charAt(pos) == NEW_NAME) {
+				pos++;
+				String name = readString().intern();
+				names.add(name);
+				return name;
+			}
+			int idx = readInt();
+			if (idx < DICTIONARY.length) {
+				return DICTIONARY[idx];
+			}
+			return names.get(idx - DICTIONARY.length);
+		}
+
+		private String readString() {
+			int length = readInt();
+			String value = data.substring(pos, pos + length);
+			pos += length;
+			return value;
+		}
+
+		private int readInt() {
+			int value = 0;
+			int shift = 0;
+			while (true) {
+				int c = next() - NAME_REF_BASE;
+				if (c < 0) {
+					throw new IllegalArgumentException("Invalid number at position " + (pos - 1));
+				}
+				value |= (c & VARINT_MASK) << shift;
+				if ((c & VARINT_CONTINUATION) == 0) {
+					return value;
+				}
+				shift += VARINT_BITS;
+			}
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store of large items and MAM entries kept in the local filesystem.
+ * <br>
+ * Data is stored in a file named after SHA-256 hash of its content, so identical payloads (ie. the same avatar
+ * published to many nodes or stored in MAM) are stored only once. Instead of the data, a reference containing format
+ * marker and the hash is stored in the <code>data</code> column. Marker never appears in XML nor in data stored
+ * using {@link CompactItemDataCodec}, so data stored inline is still readable.
+ * <br>
+ * As files may be referenced by many items, they are not removed when items are removed. Instead, files which are
+ * not referenced by any item nor MAM entry are removed periodically by {@link #removeUnreferenced(Set, long)}, with
+ * references listed from the database. To not remove a file which is reused concurrently, file is first renamed to
+ * a tombstone and removed only if it was not reused before it was renamed.
+ * <br>
+ * Hash of the content is calculated when data is stored, but it is not verified when data is loaded.
+ * <br>
+ * Store is kept in the local filesystem, so in clustered deployments its directory has to be shared by all cluster
+ * nodes (ie. using network filesystem), as items stored by one cluster node are read by other ones.
+ */
+public class FileSystemBlobStore {
+
+	/**
+	 * Prefix of a reference to data kept in the blob store.
+	 */
+	public static final String MARKER = "\u0001" + "B";
+
+	private static final String TOMBSTONE_SUFFIX = ".deleted";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Path root;
+
+	public static boolean isReference(String data) {
+		return data != null && data.startsWith(MARKER);
+	}
+
+	private static boolean isHash(String hash) {
+		return hash.length() == 64 && hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+	}
+
+	public static String hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			char[] result = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				result[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+				result[i * 2 + 1] = HEX[digest[i] & 0x0F];
+			}
+			return new String(result);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported", ex);
+		}
+	}
+
+	public FileSystemBlobStore(Path root) {
+		this.root = root;
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Stores data, if it is not stored already.
+	 *
+	 * @return reference to be stored instead of data
+	 */
+	public String store(String data) throws IOException {
+		byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+		String hash = hash(bytes);
+		Path path = getPath(hash);
+		if (Files.exists(path)) {
+			try {
+				// file is marked as recently used, so it is not removed before the item referencing it is committed
+				Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+				// file could be renamed to a tombstone just before it was marked, in which case it will be restored
+				// by the garbage collector, but it is stored again to not depend on it
+				if (Files.exists(path)) {
+					return MARKER + hash;
+				}
+			} catch (NoSuchFileException ex) {
+				// file was removed in the meantime, so it has to be stored again
+			}
+		}
+		Files.createDirectories(path.getParent());
+		Path tmp = Files.createTempFile(path.getParent(), hash, ".tmp");
+		try {
+			Files.write(tmp, bytes);
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException ex) {
+			// stored concurrently with the same content
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return MARKER + hash;
+	}
+
+	/**
+	 * Loads data for the reference.
+	 *
+	 * @throws IOException if data cannot be read
+	 */
+	public String load(String reference) throws IOException {
+		if (!isReference(reference)) {
+			throw new IllegalArgumentException("Not a blob reference: " + reference);
+		}
+		String hash = reference.substring(MARKER.length());
+		Path path = getPath(hash);
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(path);
+		} catch (NoSuchFileException ex) {
+			// file may be restored from the tombstone in a moment
+			try {
+				bytes = Files.readAllBytes(getTombstonePath(path));
+			} catch (NoSuchFileException ex1) {
+				throw ex;
+			}
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Removes files which are not referenced and were not stored nor reused since <code>storedBefore</code>. Temporary
+	 * files left by interrupted writes are removed as well.
+	 *
+	 * @param referencedHashes hashes of all referenced files
+	 * @param storedBefore time (in milliseconds) before which unreferenced files were last stored
+	 *
+	 * @return number of removed files
+	 */
+	public int removeUnreferenced(Set<String> referencedHashes, long storedBefore) throws IOException {
+		if (!Files.isDirectory(root)) {
+			return 0;
+		}
+		List<Path> candidates = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(root)) {
+			Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+			while (it.hasNext()) {
+				Path path = it.next();
+				String name = path.getFileName().toString();
+				if (name.endsWith(TOMBSTONE_SUFFIX)) {
+					// left by interrupted removal
+					Path original = path.resolveSibling(name.substring(0, name.length() - TOMBSTONE_SUFFIX.length()));
+					if (isHash(original.getFileName().toString())) {
+						candidates.add(original);
+					}
+				} else if (name.endsWith(".tmp") || (isHash(name) && !referencedHashes.contains(name))) {
+					candidates.add(path);
+				}
+			}
+		}
+		int removed = 0;
+		for (Path path : candidates) {
+			try {
+				if (path.getFileName().toString().endsWith(".tmp")) {
+					if (Files.getLastModifiedTime(path).toMillis() < storedBefore && Files.deleteIfExists(path)) {
+						removed++;
+					}
+				} else if (remove(path, !referencedHashes.contains(path.getFileName().toString()), storedBefore)) {
+					removed++;
+				}
+			} catch (NoSuchFileException ex) {
+				// removed in the meantime
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes file by renaming it to a tombstone first. If the file was reused before it was renamed, it is restored.
+	 *
+	 * @return true if file was removed
+	 */
+	protected boolean remove(Path path, boolean unreferenced, long storedBefore) throws IOException {
+		Path tombstone = getTombstonePath(path);
+		if (Files.exists(path)) {
+			if (!unreferenced || Files.getLastModifiedTime(path).toMillis() >= storedBefore) {
+				// tombstone, if any, is left by interrupted removal and file is available anyway
+				Files.deleteIfExists(tombstone);
+				return false;
+			}
+			Files.move(path, tombstone, StandardCopyOption.ATOMIC_MOVE);
+		}
+		// modification time is kept by rename, so reuse of the file just before it was renamed is visible here
+		if (unreferenced && Files.getLastModifiedTime(tombstone).toMillis() < storedBefore) {
+			return Files.deleteIfExists(tombstone);
+		}
+		try {
+			// not replacing file which could be stored again in the meantime
+			Files.move(tombstone, path);
+		} catch (FileAlreadyExistsException ex) {
+			Files.deleteIfExists(tombstone);
+		}
+		return false;
+	}
+
+	protected Path getTombstonePath(Path path) {
+		return path.resolveSibling(path.getFileName().toString() + TOMBSTONE_SUFFIX);
+	}
+
+	protected Path getPath(String hash) {
+		if (!isHash(hash)) {
+			throw new IllegalArgumentException("Invalid blob hash: " + hash);
+		}
+		return root.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queue collecting write requests submitted concurrently by many threads and passing them in groups to the
+ * <code>Flusher</code>, so that all of them may be stored in a single transaction.
+ * <br>
+ * The first request waits for at most <code>maxDelay</code> milliseconds for other requests to join its group. Group
+ * is flushed earlier if it reaches <code>maxSize</code> requests. Future returned for each request is completed after
+ * the whole group is flushed. If flushing of the group fails, its requests are flushed again one by one, so a single
+ * invalid request does not fail the other requests of its group, and future of each request which still cannot be
+ * flushed is completed exceptionally.
+ */
+public class GroupCommitQueue<E> {
+
+	private static final Logger log = Logger.getLogger(GroupCommitQueue.class.getCanonicalName());
+
+	private final Flusher<E> flusher;
+	private final Listener listener;
+	private final long maxDelay;
+	private final int maxSize;
+	private final BlockingQueue<Request<E>> queue = new LinkedBlockingQueue<>();
+	// guards submission against concurrent stop, so no request is queued after the worker thread exited
+	private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+	private volatile boolean stopped = false;
+	private Thread thread;
+
+	public GroupCommitQueue(long maxDelay, int maxSize, Flusher<E> flusher, Listener listener) {
+		this.maxDelay = maxDelay;
+		this.maxSize = Math.max(1, maxSize);
+		this.flusher = flusher;
+		this.listener = listener;
+	}
+
+	public synchronized void start(String name) {
+		if (thread != null) {
+			return;
+		}
+		stopped = false;
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops processing of requests. Requests already waiting in the queue (including the group being collected) are
+	 * flushed before the worker thread exits, requests submitted later are rejected.
+	 */
+	public synchronized void stop() {
+		stopLock.writeLock().lock();
+		try {
+			stopped = true;
+		} finally {
+			stopLock.writeLock().unlock();
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public CompletableFuture<Void> submit(E entry) {
+		Request<E> request = new Request<>(entry);
+		stopLock.readLock().lock();
+		try {
+			if (stopped) {
+				request.future.completeExceptionally(new IllegalStateException("Group commit queue is stopped"));
+			} else {
+				queue.offer(request);
+			}
+		} finally {
+			stopLock.readLock().unlock();
+		}
+		return request.future;
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	protected void run() {
+		try {
+			while (!stopped || !queue.isEmpty()) {
+				List<Request<E>> group = new ArrayList<>();
+				try {
+					Request<E> first = stopped ? queue.poll() : queue.take();
+					if (first == null) {
+						break;
+					}
+					group.add(first);
+					long deadline = first.createdAt + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+					while (group.size() < maxSize) {
+						queue.drainTo(group, maxSize - group.size());
+						long timeout = deadline - System.nanoTime();
+						if (group.size() >= maxSize || timeout <= 0 || stopped) {
+							break;
+						}
+						Request<E> next = queue.poll(timeout, TimeUnit.NANOSECONDS);
+						if (next == null) {
+							break;
+						}
+						group.add(next);
+					}
+				} catch (InterruptedException ex) {
+					if (!stopped) {
+						log.log(Level.FINEST, "group commit thread interrupted", ex);
+					}
+				}
+				// group collected before the interruption is flushed as well
+				if (!group.isEmpty()) {
+					flush(group);
+				}
+			}
+		} finally {
+			failRemaining();
+		}
+	}
+
+	/**
+	 * Completes exceptionally requests left in the queue after the worker thread exited, so that no submitter waits
+	 * for them forever.
+	 */
+	protected void failRemaining() {
+		List<Request<E>> remaining = new ArrayList<>();
+		queue.drainTo(remaining);
+		for (Request<E> request : remaining) {
+			request.future.completeExceptionally(new IllegalStateException("Group commit queue is stopped"));
+		}
+	}
+
+	protected void flush(List<Request<E>> group) {
+		List<E> entries = new ArrayList<>(group.size());
+		for (Request<E> request : group) {
+			entries.add(request.entry);
+		}
+		try {
+			flusher.flush(entries);
+			for (Request<E> request : group) {
+				request.future.complete(null);
+			}
+		} catch (Throwable ex) {
+			log.log(Level.FINE, "flushing group of " + group.size() + " requests failed", ex);
+			if (group.size() == 1) {
+				group.get(0).future.completeExceptionally(ex);
+			} else {
+				flushOneByOne(group);
+			}
+		}
+		if (listener != null) {
+			listener.flushed(group.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - group.get(0).createdAt));
+		}
+	}
+
+	/**
+	 * Flushes requests of the failed group separately to find the ones which caused the failure.
+	 */
+	protected void flushOneByOne(List<Request<E>> group) {
+		for (Request<E> request : group) {
+			try {
+				flusher.flush(Collections.singletonList(request.entry));
+				request.future.complete(null);
+			} catch (Throwable ex) {
+				log.log(Level.FINE, "flushing request failed", ex);
+				request.future.completeExceptionally(ex);
+			}
+		}
+	}
+
+	public interface Flusher<E> {
+
+		/**
+		 * Stores all entries at once, ie. in a single transaction.
+		 */
+		void flush(List<E> entries) throws Exception;
+
+	}
+
+	public interface Listener {
+
+		/**
+		 * Called after group of requests was flushed.
+		 *
+		 * @param size number of requests in the group
+		 * @param latency time (in milliseconds) between submission of the oldest request in the group and
+		 * completion of the flush
+		 */
+		void flushed(int size, long latency);
+
+	}
+
+	private static class Request<E> {
+
+		private final long createdAt = System.nanoTime();
+		private final E entry;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private Request(E entry) {
+			this.entry = entry;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import tigase.kernel.beans.Bean;
+import tigase.pubsub.PubSubComponent;
+import tigase.stats.Counter;
+import tigase.stats.StatisticHolder;
+import tigase.stats.StatisticsList;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Collects statistics of group commits of published items, ie. number of items stored within a single transaction
+ * and time for which publishers had to wait for their items to be stored.
+ */
+@Bean(name = "groupCommitStatistics", parent = PubSubComponent.class, active = true, exportable = true)
+public class GroupCommitStatistics
+		implements StatisticHolder {
+
+	private final Counter flushesCounter = new Counter("group commit/flushes", Level.FINE);
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong totalFlushes = new AtomicLong();
+	private final AtomicLong totalItems = new AtomicLong();
+	private volatile long maxFlushSize = 0;
+	private volatile long maxLatency = 0;
+
+	public GroupCommitStatistics() {
+	}
+
+	public void flushed(int size, long latency) {
+		flushesCounter.inc();
+		totalFlushes.incrementAndGet();
+		totalItems.addAndGet(size);
+		totalLatency.addAndGet(latency);
+		if (size > maxFlushSize) {
+			maxFlushSize = size;
+		}
+		if (latency > maxLatency) {
+			maxLatency = latency;
+		}
+	}
+
+	public long getTotalFlushes() {
+		return totalFlushes.get();
+	}
+
+	public long getTotalItems() {
+		return totalItems.get();
+	}
+
+	@Override
+	public void everyHour() {
+		flushesCounter.everyHour();
+	}
+
+	@Override
+	public void everyMinute() {
+		flushesCounter.everyMinute();
+	}
+
+	@Override
+	public void everySecond() {
+		flushesCounter.everySecond();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		long flushes = totalFlushes.get();
+		if (flushes == 0) {
+			return;
+		}
+		flushesCounter.getStatistics(compName, list);
+		list.add(compName, "group commit/items", totalItems.get(), Level.FINE);
+		list.add(compName, "group commit/avg flush size", (float) totalItems.get() / flushes, Level.FINE);
+		list.add(compName, "group commit/max flush size", maxFlushSize, Level.FINE);
+		list.add(compName, "group commit/avg latency [ms]", (float) totalLatency.get() / flushes, Level.FINE);
+		list.add(compName, "group commit/max latency [ms]", maxLatency, Level.FINE);
+	}
+
+	@Override
+	public void setStatisticsPrefix(String prefix) {
+	}
+
+	@Override
+	public void statisticExecutedIn(long executionTime) {
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.AbstractNodeConfig;
+import tigase.pubsub.CollectionItemsOrdering;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link IPubSubRepository}. Calls are executed on a dedicated executor and their results
+ * are returned as <code>CompletableFuture</code>s, so that the calling thread is not blocked by the database.
+ * <br>
+ * Futures are completed on threads of the executor, so dependent actions should not block for a long time.
+ */
+public interface IAsyncPubSubRepository {
+
+	/**
+	 * Executes any set of calls to the repository asynchronously. Calls submitted with equal ordering keys are
+	 * executed in order of submission.
+	 *
+	 * @param orderingKey key of ordering or <code>null</code> if calls may be executed in any order
+	 * @param call calls to execute
+	 *
+	 * @return future completed with the result of the call
+	 */
+	<R> CompletableFuture<R> execute(Object orderingKey, RepositoryCall<R> call);
+
+	CompletableFuture<AbstractNodeConfig> getNodeConfig(BareJID serviceJid, String nodeName);
+
+	CompletableFuture<IItems.IItem> getItem(BareJID serviceJid, String nodeName, String id);
+
+	CompletableFuture<Void> writeItem(BareJID serviceJid, String nodeName, String id, String publisher, Element item,
+									  String uuid);
+
+	CompletableFuture<Void> deleteItem(BareJID serviceJid, String nodeName, String id);
+
+	CompletableFuture<String[]> trimItems(BareJID serviceJid, String nodeName, int maxItems,
+										  CollectionItemsOrdering order);
+
+	interface RepositoryCall<R> {
+
+		R call(IPubSubRepository repository) throws RepositoryException, PubSubException;
+
+	}
+}
@@ -23,14 +23,34 @@ import tigase.pubsub.exceptions.PubSubException;
 import tigase.xml.Element;
 import tigase.xmpp.jid.BareJID;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Function;
 
 public interface IItems {
 
 	public abstract void deleteItem(String id) throws RepositoryException;
 
 	public abstract IItem getItem(String id) throws RepositoryException;
+
+	/**
+	 * Retrieves items with passed ids.
+	 *
+	 * @param ids ids of items
+	 *
+	 * @return list of found items in order of passed ids
+	 */
+	default List<IItem> getItems(List<String> ids) throws RepositoryException {
+		List<IItem> result = new ArrayList<>();
+		for (String id : ids) {
+			IItem item = getItem(id);
+			if (item != null) {
+				result.add(item);
+			}
+		}
+		return result;
+	}
 	
 	public abstract String[] getItemsIds(CollectionItemsOrdering order) throws RepositoryException;
 	
@@ -40,6 +60,29 @@ public interface IItems {
 
 	public abstract List<ItemMeta> getItemsMeta() throws RepositoryException;
 
+	public abstract String[] trimItems(int maxItems, CollectionItemsOrdering order) throws RepositoryException;
+
+	public abstract String[] purgeItems(Date before, int limit) throws RepositoryException;
+
+	/**
+	 * Marks items published before <code>before</code> as removed, before they are removed from the database by
+	 * subsequent calls to {@link #purgeItems(Date, int)}, so they are no longer returned by this instance. Items
+	 * stay hidden until a call to {@link #purgeItems(Date, int)} with the same date removes the last of them.
+	 * <br>
+	 * Implementations which do not keep state of the node may ignore this call.
+	 */
+	default void purgeStarted(Date before) {
+	}
+
+	/**
+	 * Makes items hidden by {@link #purgeStarted(Date)} visible again, when their removal was abandoned and they are
+	 * still stored in the database.
+	 * <br>
+	 * Implementations which do not keep state of the node may ignore this call.
+	 */
+	default void purgeAborted(Date before) {
+	}
+
 	public abstract void writeItem(String id, String publisher, Element item, String uuid)
 			throws RepositoryException, PubSubException;
 
@@ -57,6 +100,17 @@ public interface IItems {
 
 		Element getItem();
 
+		/**
+		 * Returns item serialized to XML. Implementations holding item in the stored form may return it without
+		 * parsing.
+		 *
+		 * @return item as XML or <code>null</code> if there is no item
+		 */
+		default String getItemXml() {
+			Element item = getItem();
+			return item == null ? null : item.toString();
+		}
+
 	}
 
 	public static class ItemBase {
@@ -103,6 +157,59 @@ public interface IItems {
 
 	}
 
+	/**
+	 * Item keeping data in the form in which it was stored in the repository and parsing it only when element of the
+	 * item is requested.
+	 */
+	public static class LazyItem extends ItemBase implements IItem {
+
+		private final String data;
+		private final Function<String, Element> parser;
+		private final Function<String, String> xmlReader;
+		private volatile Element item;
+
+		public LazyItem(String node, String id, String uuid, String data, Function<String, Element> parser) {
+			this(node, id, uuid, data, parser, d -> CompactItemDataCodec.isEncoded(d) ? null : d);
+		}
+
+		/**
+		 * @param xmlReader returns item XML for the stored data or <code>null</code> if it is not available without
+		 * parsing
+		 */
+		public LazyItem(String node, String id, String uuid, String data, Function<String, Element> parser,
+						Function<String, String> xmlReader) {
+			super(node, id, uuid);
+			this.data = data;
+			this.parser = parser;
+			this.xmlReader = xmlReader;
+		}
+
+		@Override
+		public Element getItem() {
+			Element item = this.item;
+			if (item == null && data != null) {
+				synchronized (this) {
+					item = this.item;
+					if (item == null) {
+						item = parser.apply(data);
+						this.item = item;
+					}
+				}
+			}
+			return item;
+		}
+
+		@Override
+		public String getItemXml() {
+			String xml = data == null ? null : xmlReader.apply(data);
+			if (xml == null) {
+				return IItem.super.getItemXml();
+			}
+			return xml;
+		}
+
+	}
+
 	public static class ItemMeta extends ItemBase {
 
 		private final Date creationDate;
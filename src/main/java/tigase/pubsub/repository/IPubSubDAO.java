@@ -35,6 +35,7 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.mam.MAMRepository;
 import tigase.xmpp.rsm.RSM;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -69,7 +70,23 @@ public interface IPubSubDAO<T, S extends DataSource, Q extends PubSubQuery>
 
 	IItems.IItem getItem(BareJID serviceJid, T nodeId, String id) throws RepositoryException;
 
-	List<IItems.IItem> getItems(BareJID serviceJid, List<T> nodeIds, Date after, Date before, RSM rsm, CollectionItemsOrdering ordering) throws RepositoryException;
+	/**
+	 * Retrieves items of the node with passed ids, using single request to the database.
+	 *
+	 * @param serviceJid service jid
+	 * @param nodeId id of the node
+	 * @param itemIds ids of items to retrieve
+	 *
+	 * @return list of found items (in no particular order)
+	 */
+	List<IItems.IItem> getItems(BareJID serviceJid, T nodeId, Collection<String> itemIds) throws RepositoryException;
+
+	/**
+	 * Retrieves page of items of the nodes.
+	 *
+	 * @throws ComponentException with <code>item-not-found</code> if item passed as after or before does not exist
+	 */
+	List<IItems.IItem> getItems(BareJID serviceJid, List<T> nodeIds, Date after, Date before, RSM rsm, CollectionItemsOrdering ordering) throws RepositoryException, ComponentException;
 
 	String[] getItemsIds(BareJID serviceJid, T nodeId, CollectionItemsOrdering order) throws RepositoryException;
 	
@@ -77,10 +94,58 @@ public interface IPubSubDAO<T, S extends DataSource, Q extends PubSubQuery>
 
 	List<IItems.ItemMeta> getItemsMeta(BareJID serviceJid, T nodeId, String nodeName) throws RepositoryException;
 
+	/**
+	 * Retrieves the most recent item of the node, using single request to the database.
+	 *
+	 * @param serviceJid service jid
+	 * @param nodeId id of the node
+	 * @param order ordering of items used to find the most recent item
+	 *
+	 * @return last item or <code>null</code> if node has no items
+	 */
+	IItems.IItem getLastItem(BareJID serviceJid, T nodeId, CollectionItemsOrdering order) throws RepositoryException;
+
+	/**
+	 * Removes the oldest items of the node, leaving only <code>maxItems</code> most recent items, using single request
+	 * to the database.
+	 *
+	 * @param serviceJid service jid
+	 * @param nodeId id of the node
+	 * @param maxItems number of items to keep
+	 * @param order ordering of items used to find the oldest items
+	 *
+	 * @return ids of removed items
+	 */
+	String[] trimItems(BareJID serviceJid, T nodeId, int maxItems, CollectionItemsOrdering order)
+			throws RepositoryException;
+
+	/**
+	 * Removes items of the node last updated before the passed timestamp, using single request to the database.
+	 *
+	 * @param serviceJid service jid
+	 * @param nodeId id of the node
+	 * @param before only items last updated at or before this time will be removed
+	 * @param limit max number of items to remove
+	 *
+	 * @return ids of removed items (if fewer than <code>limit</code>, there are no more items to remove)
+	 */
+	String[] purgeItems(BareJID serviceJid, T nodeId, Date before, int limit) throws RepositoryException;
+
 	Map<BareJID, UsersAffiliation> getNodeAffiliations(BareJID serviceJid, T nodeId) throws RepositoryException;
 	
 	INodeMeta<T> getNodeMeta(BareJID serviceJid, String nodeName) throws RepositoryException;
 
+	/**
+	 * Retrieves meta data of nodes with passed names, using single request to the database.
+	 *
+	 * @param serviceJid service jid
+	 * @param nodeNames names of nodes
+	 *
+	 * @return map of node names to meta data of nodes (nodes which do not exist are not included)
+	 */
+	Map<String, INodeMeta<T>> getNodeMetas(BareJID serviceJid, Collection<String> nodeNames)
+			throws RepositoryException;
+
 	long getNodesCount(BareJID serviceJid) throws RepositoryException;
 
 	String[] getNodesList(BareJID serviceJid, String nodeName) throws RepositoryException;
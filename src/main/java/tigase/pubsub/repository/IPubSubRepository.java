@@ -32,10 +32,7 @@ import tigase.xmpp.jid.JID;
 import tigase.xmpp.mam.MAMRepository;
 import tigase.xmpp.rsm.RSM;
 
-import java.util.Date;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Interface description
@@ -65,6 +62,26 @@ public interface IPubSubRepository
 
 	AbstractNodeConfig getNodeConfig(BareJID serviceJid, String nodeName) throws RepositoryException;
 
+	/**
+	 * Retrieves configurations of many nodes at once.
+	 *
+	 * @param serviceJid service jid
+	 * @param nodeNames names of nodes
+	 *
+	 * @return map of node names to configurations of nodes (nodes which do not exist are not included)
+	 */
+	default Map<String, AbstractNodeConfig> getNodeConfigs(BareJID serviceJid, Collection<String> nodeNames)
+			throws RepositoryException {
+		Map<String, AbstractNodeConfig> result = new HashMap<>();
+		for (String nodeName : nodeNames) {
+			AbstractNodeConfig nodeConfig = getNodeConfig(serviceJid, nodeName);
+			if (nodeConfig != null) {
+				result.put(nodeName, nodeConfig);
+			}
+		}
+		return result;
+	}
+
 	IItems getNodeItems(BareJID serviceJid, String nodeName) throws RepositoryException;
 	
 	List<IItems.IItem> getNodeItems(BareJID serviceJid, String nodeName, JID requester, Date after, Date before, RSM rsm)
@@ -74,6 +91,20 @@ public interface IPubSubRepository
 
 	ISubscriptions getNodeSubscriptions(BareJID serviceJid, String nodeName) throws RepositoryException;
 
+	/**
+	 * Returns list of JIDs which are subscribed to the node and are not outcasts, if repository is able to provide
+	 * a precomputed list of them.
+	 *
+	 * @param serviceJid
+	 * @param nodeName
+	 *
+	 * @return array of subscribers JIDs or <code>null</code> if list needs to be calculated from node subscriptions
+	 * and affiliations
+	 */
+	default JID[] getNodeDeliveryList(BareJID serviceJid, String nodeName) throws RepositoryException {
+		return null;
+	}
+
 	long getNodesCount(BareJID serviceJid) throws RepositoryException;
 
 	IPubSubDAO getPubSubDAO();
@@ -84,6 +115,13 @@ public interface IPubSubRepository
 		
 	Map<BareJID, RosterElement> getUserRoster(BareJID owner) throws RepositoryException;
 
+	/**
+	 * Method called when roster of the user was modified, to drop any cached copy of it.
+	 * @param owner jid of the roster owner
+	 */
+	default void invalidateUserRoster(BareJID owner) {
+	}
+
 	Map<String, UsersSubscription> getUserSubscriptions(BareJID serviceJid, BareJID userJid) throws RepositoryException;
 
 	void init();
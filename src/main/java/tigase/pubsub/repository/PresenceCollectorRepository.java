@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -74,6 +75,22 @@ public class PresenceCollectorRepository {
 		return resultStream.map(UserResourceEntry::getJid);
 	}
 
+	/**
+	 * Returns available resources which announced any of the passed CAPS nodes. Resources are looked up in the index
+	 * of resources by CAPS node, so the cost depends on the number of matching resources and not on the number of
+	 * available users.
+	 * @param serviceJid service jid
+	 * @param capsNodes CAPS nodes (ie. all CAPS nodes with particular feature)
+	 * @return stream of matching jids
+	 */
+	public Stream<JID> getAllAvailableJidsWithCaps(final BareJID serviceJid, final Set<String> capsNodes) {
+		ServiceEntry entriesByUser = entriesByService.get(serviceJid);
+		if (entriesByUser == null || capsNodes == null || capsNodes.isEmpty()) {
+			return Stream.empty();
+		}
+		return entriesByUser.userResourceEntriesStream(capsNodes).map(UserResourceEntry::getJid);
+	}
+
 	public List<JID> getAllAvailableResources(final BareJID serviceJid, final BareJID bareJid) {
 		ServiceEntry entriesByUser = entriesByService.get(serviceJid);
 		if (entriesByUser == null) {
@@ -140,6 +157,8 @@ public class PresenceCollectorRepository {
 	public class ServiceEntry {
 		private final BareJID serviceJid;
 		private final ConcurrentHashMap<BareJID, UserEntry> usersEntries = new ConcurrentHashMap<>();
+		// index of available resources by announced CAPS node
+		private final ConcurrentHashMap<String, Set<UserResourceEntry>> resourceEntriesByCaps = new ConcurrentHashMap<>();
 
 		public ServiceEntry(BareJID serviceJid) {
 			this.serviceJid = serviceJid;
@@ -150,7 +169,7 @@ public class PresenceCollectorRepository {
 		}
 
 		public String add(JID jid, String caps) {
-			return synchronizeOnUserJID(jid.getBareJID(), () -> usersEntries.computeIfAbsent(jid.getBareJID(), k -> new UserEntry(serviceJid, k))
+			return synchronizeOnUserJID(jid.getBareJID(), () -> usersEntries.computeIfAbsent(jid.getBareJID(), k -> new UserEntry(this, k))
 					.add(jid.getResource(), caps));
 		}
 
@@ -162,7 +181,8 @@ public class PresenceCollectorRepository {
 				}
 				if (jid.getResource() == null) {
 					boolean result = !entries.isEmpty();
-					usersEntries.clear();
+					entries.clear();
+					usersEntries.remove(jid.getBareJID());
 					return result;
 				} else {
 					boolean result = entries.remove(jid.getResource());
@@ -186,6 +206,41 @@ public class PresenceCollectorRepository {
 			return usersEntries.values().stream();
 		}
 
+		public Stream<UserResourceEntry> userResourceEntriesStream(Set<String> capsNodes) {
+			if (capsNodes.size() <= resourceEntriesByCaps.size()) {
+				return capsNodes.stream()
+						.map(resourceEntriesByCaps::get)
+						.filter(entries -> entries != null)
+						.flatMap(Set::stream);
+			} else {
+				return resourceEntriesByCaps.entrySet()
+						.stream()
+						.filter(e -> capsNodes.contains(e.getKey()))
+						.flatMap(e -> e.getValue().stream());
+			}
+		}
+
+		protected void indexAdd(UserResourceEntry entry) {
+			if (entry.caps != null) {
+				resourceEntriesByCaps.compute(entry.caps, (caps, entries) -> {
+					if (entries == null) {
+						entries = ConcurrentHashMap.newKeySet();
+					}
+					entries.add(entry);
+					return entries;
+				});
+			}
+		}
+
+		protected void indexRemove(UserResourceEntry entry) {
+			if (entry.caps != null) {
+				resourceEntriesByCaps.computeIfPresent(entry.caps, (caps, entries) -> {
+					entries.remove(entry);
+					return entries.isEmpty() ? null : entries;
+				});
+			}
+		}
+
 		protected <T> T synchronizeOnUserJID(BareJID jid, Supplier<T> run) {
 			synchronized (JID_LOCKS[Math.abs(jid.hashCode()) % JID_LOCKS.length]) {
 				return run.get();
@@ -195,12 +250,12 @@ public class PresenceCollectorRepository {
 
 	public class UserEntry {
 
-		private final BareJID serviceJid;
+		private final ServiceEntry serviceEntry;
 		private final BareJID jid;
 		private final CopyOnWriteArrayList<UserResourceEntry> entries = new CopyOnWriteArrayList<>();
 
-		public UserEntry(BareJID serviceJid, BareJID jid)  {
-			this.serviceJid = serviceJid;
+		public UserEntry(ServiceEntry serviceEntry, BareJID jid)  {
+			this.serviceEntry = serviceEntry;
 			this.jid = jid;
 		}
 
@@ -209,7 +264,7 @@ public class PresenceCollectorRepository {
 		}
 
 		public BareJID getServiceJid() {
-			return serviceJid;
+			return serviceEntry.getServiceJid();
 		}
 
 		public synchronized String add(String resource, String caps) {
@@ -217,32 +272,44 @@ public class PresenceCollectorRepository {
 			for (int i=0; i<entries.size(); i++) {
 				UserResourceEntry e = entries.get(i);
 				if (e.matches(resource)) {
-					oldCaps = entries.remove(i).caps;
+					oldCaps = e.caps;
+					serviceEntry.indexRemove(entries.remove(i));
 					break;
 				}
 			}
 			// limit number of kept last available resources
 			while (entries.size() >= maximumNoOfResources) {
 				// we are doing this in a synchronized block, so we are adding only one resource at once
-				entries.remove(0);
+				serviceEntry.indexRemove(entries.remove(0));
 			}
-			entries.add(new UserResourceEntry(this, resource, caps == null ? null : caps.intern()));
+			UserResourceEntry entry = new UserResourceEntry(this, resource, caps == null ? null : caps.intern());
+			entries.add(entry);
+			serviceEntry.indexAdd(entry);
 			return oldCaps;
 		}
 
 		public synchronized boolean remove(String resource) {
 			for (int i=0; i<entries.size(); i++) {
 				if (entries.get(i).getResource().equals(resource)) {
-					entries.remove(i);
+					serviceEntry.indexRemove(entries.remove(i));
 					return true;
 				}
 			}
 			return false;
 		}
 
+		public synchronized void clear() {
+			for (UserResourceEntry entry : entries) {
+				serviceEntry.indexRemove(entry);
+			}
+			entries.clear();
+		}
+
 		public synchronized void markAsSeen(UserResourceEntry entry) {
-			remove(entry.resource);
-			entries.add(entry);
+			// entry is moved to the end of the list, index of resources by CAPS is not affected
+			if (entries.remove(entry)) {
+				entries.add(entry);
+			}
 		}
 
 		public List<String> getResources() {
@@ -27,7 +27,9 @@ import tigase.db.UserNotFoundException;
 import tigase.db.UserRepository;
 import tigase.form.Form;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.pubsub.AbstractNodeConfig;
+import tigase.pubsub.CollectionItemsOrdering;
 import tigase.pubsub.CollectionNodeConfig;
 import tigase.pubsub.LeafNodeConfig;
 import tigase.pubsub.NodeType;
@@ -42,7 +44,10 @@ import tigase.xmpp.mam.util.MAMUtil;
 import tigase.xmpp.mam.util.Range;
 import tigase.xmpp.rsm.RSM;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,7 +60,20 @@ public abstract class PubSubDAO<T, S extends DataSource, Q extends tigase.pubsub
 
 	protected static final Logger log = Logger.getLogger(PubSubDAO.class.getCanonicalName());
 
+	// files stored or reused within this period may belong to items which are not committed yet
+	private static final Duration BLOB_STORE_GC_GRACE_PERIOD = Duration.ofHours(1);
+
 	private final SimpleParser parser = SingletonFactory.getParserInstance();
+	@ConfigField(desc = "Store items and MAM entries using compact encoding instead of XML", alias = "compact-item-data")
+	private boolean compactItemData = false;
+	@ConfigField(desc = "Directory of the store of large items and MAM entries", alias = "blob-store-path")
+	private String blobStorePath = null;
+	@ConfigField(desc = "Minimal size of item or MAM entry kept in the blob store", alias = "blob-store-threshold")
+	private int blobStoreThreshold = 16 * 1024;
+	@ConfigField(desc = "Interval of removal of files not referenced by any item or MAM entry from the blob store (0 - disabled)", alias = "blob-store-gc-interval")
+	private Duration blobStoreGcInterval = Duration.ofDays(1);
+	private FileSystemBlobStore blobStore;
+	private Timer blobStoreGcTimer;
 	@Inject
 	private UserRepository repository;
 
@@ -69,7 +87,12 @@ public abstract class PubSubDAO<T, S extends DataSource, Q extends tigase.pubsub
 
 	@Override
 	public void destroy() {
-
+		synchronized (this) {
+			if (blobStoreGcTimer != null) {
+				blobStoreGcTimer.cancel();
+				blobStoreGcTimer = null;
+			}
+		}
 	}
 
 	@Override
@@ -91,6 +114,75 @@ public abstract class PubSubDAO<T, S extends DataSource, Q extends tigase.pubsub
 		}
 	}
 
+	@Override
+	public IItems.IItem getLastItem(BareJID serviceJid, T nodeId, CollectionItemsOrdering order)
+			throws RepositoryException {
+		String[] itemIds = getItemsIds(serviceJid, nodeId, order);
+		if (itemIds != null && itemIds.length > 0) {
+			return getItem(serviceJid, nodeId, itemIds[itemIds.length - 1]);
+		}
+		return null;
+	}
+
+	@Override
+	public List<IItems.IItem> getItems(BareJID serviceJid, T nodeId, Collection<String> itemIds)
+			throws RepositoryException {
+		List<IItems.IItem> result = new ArrayList<>();
+		for (String id : itemIds) {
+			IItems.IItem item = getItem(serviceJid, nodeId, id);
+			if (item != null) {
+				result.add(item);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, INodeMeta<T>> getNodeMetas(BareJID serviceJid, Collection<String> nodeNames)
+			throws RepositoryException {
+		Map<String, INodeMeta<T>> result = new HashMap<>();
+		for (String nodeName : nodeNames) {
+			INodeMeta<T> nodeMeta = getNodeMeta(serviceJid, nodeName);
+			if (nodeMeta != null) {
+				result.put(nodeName, nodeMeta);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String[] trimItems(BareJID serviceJid, T nodeId, int maxItems, CollectionItemsOrdering order)
+			throws RepositoryException {
+		String[] itemIds = getItemsIds(serviceJid, nodeId, order);
+		if (itemIds == null || itemIds.length <= maxItems) {
+			return new String[0];
+		}
+		String[] removed = Arrays.copyOf(itemIds, itemIds.length - maxItems);
+		for (String id : removed) {
+			deleteItem(serviceJid, nodeId, id);
+		}
+		return removed;
+	}
+
+	@Override
+	public String[] purgeItems(BareJID serviceJid, T nodeId, Date before, int limit) throws RepositoryException {
+		List<IItems.ItemMeta> metas = getItemsMeta(serviceJid, nodeId, null);
+		if (metas == null) {
+			return new String[0];
+		}
+		List<String> removed = new ArrayList<>();
+		for (IItems.ItemMeta meta : metas) {
+			if (removed.size() >= limit) {
+				break;
+			}
+			if (meta.getItemUpdateDate() == null || !meta.getItemUpdateDate().after(before)) {
+				deleteItem(serviceJid, nodeId, meta.getId());
+				removed.add(meta.getId());
+			}
+		}
+		return removed.toArray(new String[removed.size()]);
+	}
+
 	@Override
 	public AbstractNodeConfig parseConfig(String nodeName, String data) throws RepositoryException {
 
@@ -138,13 +230,180 @@ public abstract class PubSubDAO<T, S extends DataSource, Q extends tigase.pubsub
 		}
 	}
 
+	public boolean isCompactItemData() {
+		return compactItemData;
+	}
+
+	public void setCompactItemData(boolean compactItemData) {
+		this.compactItemData = compactItemData;
+	}
+
+	public String getBlobStorePath() {
+		return blobStorePath;
+	}
+
+	public void setBlobStorePath(String blobStorePath) {
+		this.blobStorePath = blobStorePath;
+		this.blobStore = blobStorePath == null ? null : new FileSystemBlobStore(Paths.get(blobStorePath));
+		scheduleBlobStoreCollection();
+	}
+
+	public Duration getBlobStoreGcInterval() {
+		return blobStoreGcInterval;
+	}
+
+	public void setBlobStoreGcInterval(Duration blobStoreGcInterval) {
+		this.blobStoreGcInterval = blobStoreGcInterval;
+		scheduleBlobStoreCollection();
+	}
+
+	public int getBlobStoreThreshold() {
+		return blobStoreThreshold;
+	}
+
+	public void setBlobStoreThreshold(int blobStoreThreshold) {
+		this.blobStoreThreshold = blobStoreThreshold;
+	}
+
+	/**
+	 * Converts item or MAM entry to the form in which it is stored, ie. XML or compact encoding, or to a reference
+	 * to the blob store if it is large.
+	 */
+	protected String elementToItemData(Element element) throws RepositoryException {
+		String data = null;
+		if (compactItemData) {
+			data = CompactItemDataCodec.encode(element);
+		}
+		if (data == null) {
+			data = element.toString();
+		}
+		FileSystemBlobStore blobStore = this.blobStore;
+		if (blobStore != null && data.length() >= blobStoreThreshold) {
+			try {
+				return blobStore.store(data);
+			} catch (IOException ex) {
+				throw new RepositoryException("Could not store item in the blob store", ex);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Parses stored item or MAM entry. Data kept in the blob store is loaded here, so items are loaded from the blob
+	 * store only when they are actually used, ie. by {@link IItems.LazyItem#getItem()}.
+	 *
+	 * @throws IllegalStateException if data kept in the blob store cannot be loaded
+	 */
 	protected Element itemDataToElement(String data) {
+		if (FileSystemBlobStore.isReference(data)) {
+			try {
+				data = resolveItemData(data);
+			} catch (RepositoryException ex) {
+				log.log(Level.WARNING, ex.getMessage(), ex);
+				throw new IllegalStateException(ex.getMessage(), ex);
+			}
+		}
 		if (data == null) {
 			return null;
 		}
+		if (CompactItemDataCodec.isEncoded(data)) {
+			return CompactItemDataCodec.decode(data);
+		}
 		return itemDataToElement(data.toCharArray());
 	}
 
+	/**
+	 * Returns stored item or MAM entry as XML if it was stored as XML, without parsing it.
+	 *
+	 * @return XML or <code>null</code> if data was stored using compact encoding or is kept in the blob store
+	 */
+	protected String itemDataToXml(String data) {
+		if (data == null || CompactItemDataCodec.isEncoded(data) || FileSystemBlobStore.isReference(data)) {
+			return null;
+		}
+		return data;
+	}
+
+	/**
+	 * Loads data from the blob store if stored data is a reference to it.
+	 */
+	protected String resolveItemData(String data) throws RepositoryException {
+		if (!FileSystemBlobStore.isReference(data)) {
+			return data;
+		}
+		FileSystemBlobStore blobStore = this.blobStore;
+		if (blobStore == null) {
+			throw new RepositoryException("Item is kept in the blob store, but blob-store-path is not set");
+		}
+		try {
+			return blobStore.load(data);
+		} catch (IOException | IllegalArgumentException ex) {
+			throw new RepositoryException("Could not load item from the blob store", ex);
+		}
+	}
+
+	/**
+	 * Returns references to the blob store of all items and MAM entries.
+	 *
+	 * @return references or <code>null</code> if they cannot be listed, so unreferenced files cannot be removed
+	 */
+	protected Set<String> getBlobStoreReferences() throws RepositoryException {
+		return null;
+	}
+
+	/**
+	 * Removes files from the blob store which are not referenced by any item or MAM entry. Files stored or reused
+	 * recently are kept, as items referencing them may not be committed yet.
+	 *
+	 * @return number of removed files
+	 */
+	public int collectBlobStoreGarbage() throws RepositoryException {
+		FileSystemBlobStore blobStore = this.blobStore;
+		if (blobStore == null) {
+			return 0;
+		}
+		long storedBefore = System.currentTimeMillis() - BLOB_STORE_GC_GRACE_PERIOD.toMillis();
+		Set<String> references = getBlobStoreReferences();
+		if (references == null) {
+			return 0;
+		}
+		Set<String> hashes = new HashSet<>();
+		for (String reference : references) {
+			if (FileSystemBlobStore.isReference(reference)) {
+				hashes.add(reference.substring(FileSystemBlobStore.MARKER.length()));
+			}
+		}
+		try {
+			return blobStore.removeUnreferenced(hashes, storedBefore);
+		} catch (IOException ex) {
+			throw new RepositoryException("Could not remove unreferenced files from the blob store", ex);
+		}
+	}
+
+	private synchronized void scheduleBlobStoreCollection() {
+		if (blobStoreGcTimer != null) {
+			blobStoreGcTimer.cancel();
+			blobStoreGcTimer = null;
+		}
+		if (blobStore == null || blobStoreGcInterval == null || blobStoreGcInterval.isZero() ||
+				blobStoreGcInterval.isNegative()) {
+			return;
+		}
+		long interval = blobStoreGcInterval.toMillis();
+		blobStoreGcTimer = new Timer("pubsub-blob-store-gc", true);
+		blobStoreGcTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					int removed = collectBlobStoreGarbage();
+					log.log(Level.FINE, "Removed " + removed + " unreferenced files from the blob store");
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "Removal of unreferenced files from the blob store failed", ex);
+				}
+			}
+		}, interval, interval);
+	}
+
 	protected Element itemDataToElement(char[] data) {
 		DomBuilderHandler domHandler = new DomBuilderHandler();
 		parser.parse(domHandler, data, 0, data.length);
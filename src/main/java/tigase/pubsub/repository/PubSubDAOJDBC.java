@@ -23,6 +23,7 @@ import tigase.db.DataRepository;
 import tigase.db.Repository;
 import tigase.db.TigaseDBException;
 import tigase.db.util.RepositoryVersionAware;
+import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.pubsub.*;
 import tigase.pubsub.modules.mam.ExtendedQueryImpl;
@@ -42,7 +43,11 @@ import tigase.xmpp.rsm.RSM;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 @Repository.Meta(supportedUris = {"jdbc:[^:]+:.*"})
@@ -58,11 +63,18 @@ public class PubSubDAOJDBC
 	private static final String GET_SERVICES_QUERY = "{ call TigPubSubGetServices(?,?) }";
 	private static final String GET_NODE_ID_QUERY = "{ call TigPubSubGetNodeId(?, ?) }";
 	private static final String GET_NODE_META_QUERY = "{ call TigPubSubGetNodeMeta(?, ?) }";
+	private static final String GET_NODE_METAS_QUERY = "{ call TigPubSubGetNodeMetas(?, ?) }";
 	private static final String GET_ITEM_QUERY = "{ call TigPubSubGetItem(?, ?) }";
+	private static final String GET_ITEMS_QUERY = "{ call TigPubSubGetItems(?, ?) }";
 	private static final String WRITE_ITEM_QUERY = "{ call TigPubSubWriteItem(?, ?, ?, ?, ?, ?) }";
+	private static final String WRITE_ITEM_IN_TRANSACTION_QUERY = "{ call TigPubSubWriteItemInTransaction(?, ?, ?, ?, ?, ?) }";
 	private static final String DELETE_ITEM_QUERY = "{ call TigPubSubDeleteItem(?, ?) }";
 	private static final String GET_NODE_ITEM_IDS_QUERY = "{ call TigPubSubGetNodeItemsIds(?,?) }";
 	private static final String GET_NODE_ITEM_IDS_SINCE_QUERY = "{ call TigPubSubGetNodeItemsIdsSince(?,?,?) }";
+	private static final String GET_NODE_LAST_ITEM_QUERY = "{ call TigPubSubGetNodeLastItem(?,?) }";
+	private static final String TRIM_ITEMS_QUERY = "{ call TigPubSubTrimItems(?,?,?) }";
+	private static final String PURGE_ITEMS_QUERY = "{ call TigPubSubPurgeItems(?,?,?) }";
+	private static final String GET_BLOB_REFERENCES_QUERY = "{ call TigPubSubGetBlobReferences(?) }";
 	private static final String GET_NODE_ITEMS_META_QUERY = "{ call TigPubSubGetNodeItemsMeta(?) }";
 	private static final String COUNT_NODES_QUERY = "{ call TigPubSubCountNodes(?) }";
 	private static final String GET_ALL_NODES_QUERY = "{ call TigPubSubGetAllNodes(?) }";
@@ -80,6 +92,13 @@ public class PubSubDAOJDBC
 	private static final String COUNT_NODES_ITEMS_QUERY = "{ call TigPubSubQueryItemsCount(?,?,?,?) }";
 	private static final String GET_NODES_ITEMS_QUERY = "{ call TigPubSubQueryItems(?,?,?,?,?,?) }";
 	private static final String GET_NODES_ITEMS_POSITION_QUERY = "{ call TigPubSubQueryItemPosition(?,?,?,?,?,?) }";
+	private static final String GET_NODES_ITEMS_SEEK_QUERY = "{ call TigPubSubQueryItemsSeek(?,?,?,?,?,?,?,?) }";
+	/**
+	 * Separator of ids or names passed to multi-get procedures, it is not allowed in XML so it never appears in ids.
+	 */
+	public static final char IDS_SEPARATOR = '\u0001';
+	// limit of length of joined ids, below max length of varchar parameter of Derby procedures
+	private static final int MAX_JOINED_IDS_LENGTH = 32000;
 
 	private DataRepository data_repo;
 	@ConfigField(desc = "Add entry to MAM repository", alias = "mam-add-item-query")
@@ -92,8 +111,27 @@ public class PubSubDAOJDBC
 	private String mamQueryItems = "{ call TigPubSubMamQueryItems(?,?,?,?,?) }";
 	@ConfigField(desc = "Count number of items from repository", alias = "mam-query-items-count-query")
 	private String mamQueryItemsCount = "{ call TigPubSubMamQueryItemsCount(?,?,?) }";
+	@ConfigField(desc = "Retrieve items from repository seeking to the passed item", alias = "mam-query-items-seek-query")
+	private String mamQueryItemsSeek = "{ call TigPubSubMamQueryItemsSeek(?,?,?,?,?,?,?) }";
+	@ConfigField(desc = "Page through MAM items using item after/before as a key instead of an offset", alias = "mam-keyset-pagination")
+	private boolean mamKeysetPagination = true;
+	@ConfigField(desc = "Count all matching MAM items for every page retrieved with keyset pagination", alias = "mam-keyset-pagination-count")
+	private boolean mamKeysetPaginationCount = false;
 	@ConfigField(desc = "Update entry in MAM repository", alias = "mam-update-item-query")
 	private String mamUpdateItem = "{ call TigPubSubMamUpdateItem(?,?,?) }";
+	@ConfigField(desc = "Max time (in milliseconds) for which item writes are collected to be stored in a single transaction (0 - disabled)", alias = "write-item-group-commit-delay")
+	private long writeItemGroupCommitDelay = 0;
+	@ConfigField(desc = "Max number of item writes stored in a single transaction", alias = "write-item-group-commit-max-size")
+	private int writeItemGroupCommitMaxSize = 100;
+	@ConfigField(desc = "Max time (in milliseconds) to wait for item write stored in a single transaction with other writes", alias = "write-item-group-commit-timeout")
+	private long writeItemGroupCommitTimeout = 30000;
+	@ConfigField(desc = "Page through items using item after/before as a key instead of an offset", alias = "items-keyset-pagination")
+	private boolean itemsKeysetPagination = true;
+	@ConfigField(desc = "Count all matching items for every page retrieved with keyset pagination", alias = "items-keyset-pagination-count")
+	private boolean itemsKeysetPaginationCount = false;
+	@Inject(nullAllowed = true)
+	private GroupCommitStatistics groupCommitStatistics;
+	private GroupCommitQueue<WriteItemRequest> writeItemQueue;
 	private LinkedBlockingDeque<HashCode> pool_hashCodes = new LinkedBlockingDeque<>();
 
 	public PubSubDAOJDBC() {
@@ -203,7 +241,7 @@ public class PubSubDAOJDBC
 					if (rs.next()) {
 						String itemUuid = rs.getString(1);
 						Timestamp ts = data_repo.getTimestamp(rs, 2);
-						Element itemEl = itemDataToElement(rs.getString(3));
+						Element itemEl = itemDataToElement(resolveItemData(rs.getString(3)));
 
 						return new MAMItem(itemUuid, ts, itemEl);
 					}
@@ -225,7 +263,7 @@ public class PubSubDAOJDBC
 			synchronized (st) {
 				st.setLong(1, nodeId);
 				st.setString(2, stableId);
-				st.setString(3, message.toString());
+				st.setString(3, elementToItemData(message));
 
 				st.executeUpdate();
 			}
@@ -367,10 +405,11 @@ public class PubSubDAOJDBC
 					get_item_sp.setString(2, id);
 					rs = get_item_sp.executeQuery();
 					if (rs.next()) {
-						Element item = itemDataToElement(rs.getString(1));
+						String data = rs.getString(1);
 						String node = rs.getString(2);
 						String uuid = rs.getString(3);
-						return new IItems.Item(node, id, uuid, item);
+						return new IItems.LazyItem(node, id, uuid, data, this::itemDataToElement,
+													 this::itemDataToXml);
 					}
 					return null;
 				} finally {
@@ -383,7 +422,186 @@ public class PubSubDAOJDBC
 			offerDao(hash);
 		}
 	}
+
+	@Override
+	public List<IItems.IItem> getItems(BareJID serviceJid, Long nodeId, Collection<String> itemIds)
+			throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Getting items: serviceJid: {0}, nodeId: {1}, itemIds: {2}",
+					new Object[]{serviceJid, nodeId, itemIds});
+		}
+		Set<String> requested = new HashSet<>(itemIds);
+		List<IItems.IItem> results = new ArrayList<>();
+		if (requested.isEmpty()) {
+			return results;
+		}
+		HashCode hash = null;
+		try {
+			hash = takeDao();
+			PreparedStatement get_items_sp = data_repo.getPreparedStatement(hash.hashCode(), GET_ITEMS_QUERY);
+			for (String ids : joinIds(requested)) {
+				synchronized (get_items_sp) {
+					ResultSet rs = null;
+					try {
+						get_items_sp.setLong(1, nodeId);
+						get_items_sp.setString(2, ids);
+						rs = get_items_sp.executeQuery();
+						while (rs.next()) {
+							String id = rs.getString(1);
+							String data = rs.getString(2);
+							String node = rs.getString(3);
+							String uuid = rs.getString(4);
+							if (requested.contains(id)) {
+								results.add(new IItems.LazyItem(node, id, uuid, data, this::itemDataToElement,
+																this::itemDataToXml));
+							}
+						}
+					} finally {
+						release(null, rs);
+					}
+				}
+			}
+			return results;
+		} catch (SQLException e) {
+			throw new RepositoryException("Could not load items reading error", e);
+		} finally {
+			offerDao(hash);
+		}
+	}
 	
+	@Override
+	public IItems.IItem getLastItem(BareJID serviceJid, Long nodeId, CollectionItemsOrdering order)
+			throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Getting last item: serviceJid: {0}, nodeId: {1}, order: {2}",
+					new Object[]{serviceJid, nodeId, order});
+		}
+		HashCode hash = null;
+		try {
+			ResultSet rs = null;
+			hash = takeDao();
+			PreparedStatement get_last_item_sp = data_repo.getPreparedStatement(hash.hashCode(),
+																				 GET_NODE_LAST_ITEM_QUERY);
+			synchronized (get_last_item_sp) {
+				try {
+					get_last_item_sp.setLong(1, nodeId);
+					get_last_item_sp.setInt(2, order.value());
+					rs = get_last_item_sp.executeQuery();
+					if (rs.next()) {
+						String id = rs.getString(1);
+						String data = rs.getString(2);
+						String node = rs.getString(3);
+						String uuid = rs.getString(4);
+						return new IItems.LazyItem(node, id, uuid, data, this::itemDataToElement,
+													 this::itemDataToXml);
+					}
+					return null;
+				} finally {
+					release(null, rs);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException("Could not load last item reading error", e);
+		} finally {
+			offerDao(hash);
+		}
+	}
+
+	@Override
+	public String[] trimItems(BareJID serviceJid, Long nodeId, int maxItems, CollectionItemsOrdering order)
+			throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Trimming items: serviceJid: {0}, nodeId: {1}, maxItems: {2}",
+					new Object[]{serviceJid, nodeId, maxItems});
+		}
+		HashCode hash = null;
+		try {
+			ResultSet rs = null;
+			hash = takeDao();
+			PreparedStatement trim_items_sp = data_repo.getPreparedStatement(hash.hashCode(), TRIM_ITEMS_QUERY);
+			synchronized (trim_items_sp) {
+				try {
+					trim_items_sp.setLong(1, nodeId);
+					trim_items_sp.setInt(2, maxItems);
+					trim_items_sp.setInt(3, order.value());
+					rs = trim_items_sp.executeQuery();
+					List<String> ids = new ArrayList<String>();
+					while (rs.next()) {
+						ids.add(rs.getString(1));
+					}
+					return ids.toArray(new String[ids.size()]);
+				} finally {
+					release(null, rs);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException("Items trimming error", e);
+		} finally {
+			offerDao(hash);
+		}
+	}
+
+	@Override
+	public String[] purgeItems(BareJID serviceJid, Long nodeId, Date before, int limit) throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Purging items: serviceJid: {0}, nodeId: {1}, before: {2}, limit: {3}",
+					new Object[]{serviceJid, nodeId, before, limit});
+		}
+		HashCode hash = null;
+		try {
+			ResultSet rs = null;
+			hash = takeDao();
+			PreparedStatement purge_items_sp = data_repo.getPreparedStatement(hash.hashCode(), PURGE_ITEMS_QUERY);
+			synchronized (purge_items_sp) {
+				try {
+					purge_items_sp.setLong(1, nodeId);
+					data_repo.setTimestamp(purge_items_sp, 2, new Timestamp(before.getTime()));
+					purge_items_sp.setInt(3, limit);
+					rs = purge_items_sp.executeQuery();
+					List<String> ids = new ArrayList<String>();
+					while (rs.next()) {
+						ids.add(rs.getString(1));
+					}
+					return ids.toArray(new String[ids.size()]);
+				} finally {
+					release(null, rs);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException("Items purging error", e);
+		} finally {
+			offerDao(hash);
+		}
+	}
+
+	@Override
+	protected Set<String> getBlobStoreReferences() throws RepositoryException {
+		HashCode hash = null;
+		try {
+			ResultSet rs = null;
+			hash = takeDao();
+			PreparedStatement get_blob_references_sp = data_repo.getPreparedStatement(hash.hashCode(),
+																					  GET_BLOB_REFERENCES_QUERY);
+			synchronized (get_blob_references_sp) {
+				try {
+					get_blob_references_sp.setString(1, FileSystemBlobStore.MARKER + "%");
+					rs = get_blob_references_sp.executeQuery();
+					Set<String> references = new HashSet<>();
+					while (rs.next()) {
+						references.add(rs.getString(1));
+					}
+					return references;
+				} finally {
+					release(null, rs);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException("Could not load references to the blob store", e);
+		} finally {
+			offerDao(hash);
+		}
+	}
+
 	@Override
 	public String[] getItemsIds(BareJID serviceJid, Long nodeId, CollectionItemsOrdering order) throws RepositoryException {
 		if (log.isLoggable(Level.FINEST)) {
@@ -457,7 +675,7 @@ public class PubSubDAOJDBC
 
 	@Override
 	public List<IItems.IItem> getItems(BareJID serviceJid, List<Long> nodesIds, Date afterDate, Date beforeDate, RSM rsm, CollectionItemsOrdering ordering)
-			throws RepositoryException {
+			throws RepositoryException, ComponentException {
 		int count = 0;
 
 		StringBuilder sb = new StringBuilder();
@@ -474,24 +692,13 @@ public class PubSubDAOJDBC
 
 
 		try {
-			PreparedStatement st = data_repo.getPreparedStatement(ids.hashCode(), COUNT_NODES_ITEMS_QUERY);
-			synchronized (st) {
-				ResultSet rs = null;
-				try {
-					int i =1;
-					st.setString(i++, ids);
-					data_repo.setTimestamp(st, i++, afterDate == null ? null : new Timestamp(afterDate.getTime()));
-					data_repo.setTimestamp(st, i++, beforeDate == null ? null : new Timestamp(beforeDate.getTime()));
-					st.setInt(i++, ordering.value());
-					rs = st.executeQuery();
-					if (rs.next()) {
-						count = rs.getInt(1);
-					}
-				} finally {
-					data_repo.release(null, rs);
-				}
+			if (itemsKeysetPagination && rsm.getIndex() == null) {
+				return getItemsKeyset(serviceJid, ids, afterDate, beforeDate, rsm, ordering);
 			}
 
+			count = countItems(ids, afterDate, beforeDate, ordering);
+
+			PreparedStatement st;
 			if (rsm.getAfter() != null) {
 				st = data_repo.getPreparedStatement(ids.hashCode(), GET_NODES_ITEMS_POSITION_QUERY);
 				synchronized (st) {
@@ -562,9 +769,10 @@ public class PubSubDAOJDBC
 						long nodeId = rs.getLong(2);
 						String itemId = rs.getString(3);
 						String itemUuid = rs.getString(4);
-						Element itemEl = itemDataToElement(rs.getString(5));
+						String data = rs.getString(5);
 
-						results.add(new IItemsItem(node, nodeId, itemId, itemUuid, itemEl));
+						results.add(new IItemsItem(node, nodeId, itemId, itemUuid, data, this::itemDataToElement,
+													   this::itemDataToXml));
 					}
 				} finally {
 					data_repo.release(null, rs);
@@ -580,12 +788,105 @@ public class PubSubDAOJDBC
 		}
 	}
 
-	private static class IItemsItem extends IItems.Item {
+	private int countItems(String ids, Date afterDate, Date beforeDate, CollectionItemsOrdering ordering)
+			throws SQLException {
+		PreparedStatement st = data_repo.getPreparedStatement(ids.hashCode(), COUNT_NODES_ITEMS_QUERY);
+		synchronized (st) {
+			ResultSet rs = null;
+			try {
+				int i = 1;
+				st.setString(i++, ids);
+				data_repo.setTimestamp(st, i++, afterDate == null ? null : new Timestamp(afterDate.getTime()));
+				data_repo.setTimestamp(st, i++, beforeDate == null ? null : new Timestamp(beforeDate.getTime()));
+				st.setInt(i++, ordering.value());
+				rs = st.executeQuery();
+				if (rs.next()) {
+					return rs.getInt(1);
+				}
+				return 0;
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves page of items seeking directly to the item passed as after or before, so retrieval of each page
+	 * costs the same no matter how deep in the result set it is. Index of the first item is not known and total
+	 * number of items is only counted if requested by the client (max set to 0) or enabled in the configuration.
+	 */
+	private List<IItems.IItem> getItemsKeyset(BareJID serviceJid, String ids, Date afterDate, Date beforeDate,
+											  RSM rsm, CollectionItemsOrdering ordering)
+			throws SQLException, RepositoryException, ComponentException {
+		if (itemsKeysetPaginationCount || rsm.getMax() == 0) {
+			rsm.setCount(countItems(ids, afterDate, beforeDate, ordering));
+		}
+		if (rsm.getMax() == 0) {
+			return Collections.emptyList();
+		}
+
+		// empty before means that the last page was requested
+		boolean backward = rsm.getBefore() != null || (rsm.hasBefore() && rsm.getAfter() == null);
+		String cursor = backward ? rsm.getBefore() : rsm.getAfter();
+
+		List<IItems.IItem> results = new ArrayList<>();
+		PreparedStatement st = data_repo.getPreparedStatement(ids.hashCode(), GET_NODES_ITEMS_SEEK_QUERY);
+		synchronized (st) {
+			ResultSet rs = null;
+			try {
+				int i = 1;
+				st.setString(i++, ids);
+				data_repo.setTimestamp(st, i++, afterDate == null ? null : new Timestamp(afterDate.getTime()));
+				data_repo.setTimestamp(st, i++, beforeDate == null ? null : new Timestamp(beforeDate.getTime()));
+				st.setInt(i++, ordering.value());
+				if (cursor == null) {
+					st.setNull(i++, Types.BIGINT);
+					st.setNull(i++, Types.VARCHAR);
+				} else {
+					st.setLong(i++, IItemsItem.getNodeIdFromRsmId(cursor));
+					st.setString(i++, IItemsItem.getItemIdFromRsmId(cursor));
+				}
+				st.setInt(i++, backward ? 1 : 0);
+				st.setInt(i++, rsm.getMax());
+
+				rs = st.executeQuery();
+
+				while (rs.next()) {
+					String node = rs.getString(1);
+					long nodeId = rs.getLong(2);
+					String itemId = rs.getString(3);
+					String itemUuid = rs.getString(4);
+					String data = rs.getString(5);
+
+					results.add(new IItemsItem(node, nodeId, itemId, itemUuid, data, this::itemDataToElement,
+											   this::itemDataToXml));
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+		if (results.isEmpty() && cursor != null && getItem(serviceJid, IItemsItem.getNodeIdFromRsmId(cursor),
+														   IItemsItem.getItemIdFromRsmId(cursor)) == null) {
+			// missing after or before item results in an empty page, so report it the same way as for MAM
+			throw new ComponentException(Authorization.ITEM_NOT_FOUND, "Not found item with id = " + cursor);
+		}
+		if (backward) {
+			Collections.reverse(results);
+		}
+		if (results.size() > 0) {
+			rsm.setLast(((IItemsItem) results.get(results.size() - 1)).getRsmId());
+			rsm.setFirst(((IItemsItem) results.get(0)).getRsmId());
+		}
+		return results;
+	}
+
+	private static class IItemsItem extends IItems.LazyItem {
 
 		private final long nodeId;
 
-		public IItemsItem(String node, long nodeId, String id, String uuid, Element item) {
-			super(node, id, uuid, item);
+		public IItemsItem(String node, long nodeId, String id, String uuid, String data,
+						  Function<String, Element> parser, Function<String, String> xmlReader) {
+			super(node, id, uuid, data, parser, xmlReader);
 			this.nodeId = nodeId;
 		}
 
@@ -602,7 +903,7 @@ public class PubSubDAOJDBC
 			if (idx <= 0) {
 				return 0;
 			}
-			return Long.parseLong(rsmId.substring(0, idx-1));
+			return Long.parseLong(rsmId.substring(0, idx));
 		}
 
 		public static String getItemIdFromRsmId(String rsmId) {
@@ -767,6 +1068,56 @@ public class PubSubDAOJDBC
 		}
 	}
 
+	@Override
+	public Map<String, INodeMeta<Long>> getNodeMetas(BareJID serviceJid, Collection<String> nodeNames)
+			throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Getting nodes meta data: serviceJid: {0}, nodeNames: {1}",
+					new Object[]{serviceJid, nodeNames});
+		}
+		Set<String> requested = new HashSet<>(nodeNames);
+		Map<String, INodeMeta<Long>> results = new HashMap<>();
+		if (requested.isEmpty()) {
+			return results;
+		}
+		HashCode hash = null;
+		try {
+			hash = takeDao();
+			PreparedStatement get_node_metas_sp = data_repo.getPreparedStatement(hash.hashCode(),
+																				 GET_NODE_METAS_QUERY);
+			for (String names : joinIds(requested)) {
+				synchronized (get_node_metas_sp) {
+					ResultSet rs = null;
+					try {
+						get_node_metas_sp.setString(1, serviceJid.toString());
+						get_node_metas_sp.setString(2, names);
+						rs = get_node_metas_sp.executeQuery();
+						while (rs.next()) {
+							final long nodeId = rs.getLong(1);
+							final String nodeName = rs.getString(2);
+							final String configStr = rs.getString(3);
+							final String creator = rs.getString(4);
+							final Date creationTime = data_repo.getTimestamp(rs, 5);
+							if (requested.contains(nodeName)) {
+								results.put(nodeName, new NodeMeta(nodeId, parseConfig(nodeName, configStr),
+																   creator != null
+																   ? BareJID.bareJIDInstance(creator)
+																   : null, creationTime));
+							}
+						}
+					} finally {
+						release(null, rs);
+					}
+				}
+			}
+			return results;
+		} catch (TigaseStringprepException | SQLException e) {
+			throw new RepositoryException("Retrieving nodes meta data error", e);
+		} finally {
+			offerDao(hash);
+		}
+	}
+
 	@Override
 	public String[] getNodesList(BareJID serviceJid, String nodeName) throws RepositoryException {
 		if (log.isLoggable(Level.FINEST)) {
@@ -965,7 +1316,7 @@ public class PubSubDAOJDBC
 					write_item_sp.setLong(1, nodeId);
 					write_item_sp.setString(2, uuid);
 					data_repo.setTimestamp(write_item_sp, 3, new Timestamp(timestamp.getTime()));
-					write_item_sp.setString(4, message.toString());
+					write_item_sp.setString(4, elementToItemData(message));
 					write_item_sp.setString(5, itemId);
 					write_item_sp.execute();
 				} finally {
@@ -1003,6 +1354,8 @@ public class PubSubDAOJDBC
 				for (MAMRepository.Item item : items) {
 					itemHandler.itemFound(query, item);
 				}
+			} else if (mamKeysetPagination && query.getRsm().getIndex() == null) {
+				queryMAMItemsKeyset(query, nodeId, itemHandler);
 			} else {
 				Integer count = countMAMItems(query, nodeId);
 				if (count == null) {
@@ -1035,7 +1388,7 @@ public class PubSubDAOJDBC
 							while (rs.next()) {
 								String itemUuid = rs.getString(1);
 								Timestamp ts = data_repo.getTimestamp(rs, 2);
-								Element itemEl = itemDataToElement(rs.getString(3));
+								Element itemEl = itemDataToElement(resolveItemData(rs.getString(3)));
 
 								itemHandler.itemFound(query, new MAMItem(itemUuid, ts, itemEl));
 							}
@@ -1050,7 +1403,103 @@ public class PubSubDAOJDBC
 		}
 	}
 
-	private MAMItem getMAMItem(ExtendedQueryImpl query, Long nodeId, String stableId) throws SQLException {
+	/**
+	 * Retrieves page of MAM items seeking directly to the item passed as after or before (or after-id and
+	 * before-id), so retrieval of each page costs the same no matter how deep in the archive it is. Latest page,
+	 * requested with an empty before, is read backwards from the end of the archive. One item more than requested is
+	 * read to check if the page is the last one in the direction of paging. Index of the first item is known only for
+	 * such page, and total number of items is counted if requested by the client (max set to 0), enabled in the
+	 * configuration or needed to report index of the last page.
+	 */
+	protected void queryMAMItemsKeyset(ExtendedQueryImpl query, Long nodeId,
+									   MAMRepository.ItemHandler<ExtendedQueryImpl, IPubSubRepository.Item> itemHandler)
+			throws SQLException, RepositoryException, ComponentException {
+		RSM rsm = query.getRsm();
+		Integer count = null;
+		if (mamKeysetPaginationCount || rsm.getMax() == 0) {
+			count = countMAMItems(query, nodeId);
+			if (count == null) {
+				count = 0;
+			}
+			rsm.setCount(count);
+		}
+		if (rsm.getMax() == 0) {
+			return;
+		}
+
+		boolean backward = rsm.getBefore() != null || (rsm.hasBefore() && rsm.getAfter() == null);
+		// items of a page are always within the range set by after-id and before-id
+		String afterUuid = rsm.getAfter() != null ? rsm.getAfter() : query.getAfterId();
+		String beforeUuid = rsm.getBefore() != null ? rsm.getBefore() : query.getBeforeId();
+
+		List<MAMItem> items = new ArrayList<>();
+		PreparedStatement st = data_repo.getPreparedStatement(query.getQuestionerJID().getBareJID(),
+															  mamQueryItemsSeek);
+		synchronized (st) {
+			ResultSet rs = null;
+			try {
+				int i = setStatementParamsForMAM(st, query, nodeId);
+				if (afterUuid == null) {
+					st.setNull(i++, Types.VARCHAR);
+				} else {
+					st.setString(i++, afterUuid);
+				}
+				if (beforeUuid == null) {
+					st.setNull(i++, Types.VARCHAR);
+				} else {
+					st.setString(i++, beforeUuid);
+				}
+				st.setInt(i++, backward ? 1 : 0);
+				// additional item shows if there are more items after this page
+				st.setInt(i++, rsm.getMax() + 1);
+
+				rs = st.executeQuery();
+
+				while (rs.next()) {
+					String itemUuid = rs.getString(1);
+					Timestamp ts = data_repo.getTimestamp(rs, 2);
+					Element itemEl = itemDataToElement(resolveItemData(rs.getString(3)));
+
+					items.add(new MAMItem(itemUuid, ts, itemEl));
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+
+		boolean lastPage = items.size() <= rsm.getMax();
+		if (!lastPage) {
+			items.remove(items.size() - 1);
+		} else if (!items.isEmpty()) {
+			// page reaches the end of the archive in the direction of paging, so its position is known
+			if (count == null) {
+				count = countMAMItems(query, nodeId);
+				if (count == null) {
+					count = 0;
+				}
+			}
+			rsm.setCount(count);
+			rsm.setIndex(backward ? 0 : Math.max(0, count - items.size()));
+		}
+
+		if (items.isEmpty()) {
+			// missing after or before item results in an empty page, so report it the same way as offset pagination
+			for (String uuid : new String[]{afterUuid, beforeUuid}) {
+				if (uuid != null && getMAMItem(query, nodeId, uuid) == null) {
+					throw new ComponentException(Authorization.ITEM_NOT_FOUND, "Not found item with uuid = " + uuid);
+				}
+			}
+		}
+		if (backward) {
+			Collections.reverse(items);
+		}
+		for (MAMItem item : items) {
+			itemHandler.itemFound(query, item);
+		}
+	}
+
+	private MAMItem getMAMItem(ExtendedQueryImpl query, Long nodeId, String stableId)
+			throws SQLException, RepositoryException {
 		PreparedStatement st = data_repo.getPreparedStatement(query.getQuestionerJID().getBareJID(),
 															  mamQueryItem);
 		synchronized (st) {
@@ -1064,7 +1513,7 @@ public class PubSubDAOJDBC
 				if (rs.next()) {
 					String itemUuid = rs.getString(1);
 					Timestamp ts = data_repo.getTimestamp(rs, 2);
-					Element itemEl = itemDataToElement(rs.getString(3));
+					Element itemEl = itemDataToElement(resolveItemData(rs.getString(3)));
 
 					return new MAMItem(itemUuid, ts, itemEl);
 				}
@@ -1234,16 +1683,33 @@ public class PubSubDAOJDBC
 	@Override
 	public void writeItem(final BareJID serviceJid, final Long nodeId, long timeInMilis, final String id,
 						  final String publisher, final Element item, final String uuid) throws RepositoryException {
+		String publisherValue = publisher;
+		if (publisher != null && data_repo.getDatabaseType() == DataRepository.dbTypes.mysql) {
+			JID jid = JID.jidInstanceNS(publisher);
+			if (jid.hasResource()) {
+				String resource = Utils.removeMySQLNonUtf8mb3Codepoints(jid.getResource());
+				publisherValue = JID.jidInstanceNS(jid.getBareJID(), resource).toString();
+			}
+		}
+
+		GroupCommitQueue<WriteItemRequest> writeItemQueue = getWriteItemQueue();
+		if (writeItemQueue != null) {
+			try {
+				writeItemQueue.submit(new WriteItemRequest(nodeId, id, publisherValue, elementToItemData(item),
+														   timeInMilis, uuid))
+						.get(writeItemGroupCommitTimeout, TimeUnit.MILLISECONDS);
+			} catch (ExecutionException ex) {
+				throw new RepositoryException("Item writing error", ex.getCause());
+			} catch (InterruptedException ex) {
+				throw new RepositoryException("Item writing interrupted", ex);
+			} catch (TimeoutException ex) {
+				throw new RepositoryException("Item writing timed out", ex);
+			}
+			return;
+		}
+
 		HashCode hash = null;
 		try {
-			String publisherValue = publisher;
-			if (publisher != null && data_repo.getDatabaseType() == DataRepository.dbTypes.mysql) {
-				JID jid = JID.jidInstanceNS(publisher);
-				if (jid.hasResource()) {
-					String resource = Utils.removeMySQLNonUtf8mb3Codepoints(jid.getResource());
-					publisherValue = JID.jidInstanceNS(jid.getBareJID(), resource).toString();
-				}
-			}
 			hash = takeDao();
 			PreparedStatement write_item_sp = data_repo.getPreparedStatement(hash.hashCode(), WRITE_ITEM_QUERY);
 			ResultSet rs = null;
@@ -1252,7 +1718,7 @@ public class PubSubDAOJDBC
 					write_item_sp.setLong(1, nodeId);
 					write_item_sp.setString(2, id);
 					write_item_sp.setString(3, publisherValue);
-					write_item_sp.setString(4, item.toString());
+					write_item_sp.setString(4, elementToItemData(item));
 					data_repo.setTimestamp(write_item_sp, 5, new Timestamp(timeInMilis));
 					write_item_sp.setString(6, uuid);
 					write_item_sp.execute();
@@ -1267,6 +1733,17 @@ public class PubSubDAOJDBC
 		}
 	}
 
+	@Override
+	public void destroy() {
+		synchronized (this) {
+			if (writeItemQueue != null) {
+				writeItemQueue.stop();
+				writeItemQueue = null;
+			}
+		}
+		super.destroy();
+	}
+
 	public void setDataSource(DataRepository dataSource) {
 		try {
 			initPreparedStatements(dataSource);
@@ -1346,6 +1823,96 @@ public class PubSubDAOJDBC
 		return i;
 	}
 
+	/**
+	 * Stores all items in a single transaction using JDBC batching if possible. On PostgreSQL stored procedures are
+	 * executed one by one (still within a single transaction) as calling functions in a batch is not supported there.
+	 * If the transaction is rolled back, {@link GroupCommitQueue} calls this method again for each of the items
+	 * separately, so only the items which cannot be stored are reported as failed.
+	 */
+	protected void writeItems(List<WriteItemRequest> requests) throws SQLException {
+		boolean mysql = data_repo.getDatabaseType() == DataRepository.dbTypes.mysql;
+		boolean batch = data_repo.getDatabaseType() != DataRepository.dbTypes.postgresql;
+		HashCode hash = null;
+		try {
+			hash = takeDao();
+			PreparedStatement write_item_sp = data_repo.getPreparedStatement(hash.hashCode(), mysql
+																							  ? WRITE_ITEM_IN_TRANSACTION_QUERY
+																							  : WRITE_ITEM_QUERY);
+			synchronized (write_item_sp) {
+				Connection conn = write_item_sp.getConnection();
+				boolean autoCommit = conn.getAutoCommit();
+				conn.setAutoCommit(false);
+				try {
+					for (WriteItemRequest request : requests) {
+						write_item_sp.setLong(1, request.nodeId);
+						write_item_sp.setString(2, request.id);
+						write_item_sp.setString(3, request.publisher);
+						write_item_sp.setString(4, request.data);
+						data_repo.setTimestamp(write_item_sp, 5, new Timestamp(request.timestamp));
+						write_item_sp.setString(6, request.uuid);
+						if (batch) {
+							write_item_sp.addBatch();
+						} else {
+							write_item_sp.execute();
+						}
+					}
+					if (batch) {
+						write_item_sp.executeBatch();
+					}
+					conn.commit();
+				} catch (SQLException ex) {
+					if (batch) {
+						write_item_sp.clearBatch();
+					}
+					conn.rollback();
+					throw ex;
+				} finally {
+					conn.setAutoCommit(autoCommit);
+				}
+			}
+		} finally {
+			offerDao(hash);
+		}
+	}
+
+	protected synchronized GroupCommitQueue<WriteItemRequest> getWriteItemQueue() {
+		if (writeItemGroupCommitDelay <= 0) {
+			return null;
+		}
+		if (writeItemQueue == null) {
+			writeItemQueue = new GroupCommitQueue<>(writeItemGroupCommitDelay, writeItemGroupCommitMaxSize,
+													this::writeItems, (size, latency) -> {
+				if (groupCommitStatistics != null) {
+					groupCommitStatistics.flushed(size, latency);
+				}
+			});
+			writeItemQueue.start("pubsub-write-item-group-commit");
+		}
+		return writeItemQueue;
+	}
+
+	/**
+	 * Joins ids into strings passed to multi-get procedures, splitting them if joined ids would be too long.
+	 */
+	protected static List<String> joinIds(Collection<String> ids) {
+		List<String> result = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		for (String id : ids) {
+			if (sb.length() > 0 && sb.length() + id.length() + 1 > MAX_JOINED_IDS_LENGTH) {
+				result.add(sb.toString());
+				sb.setLength(0);
+			}
+			if (sb.length() > 0) {
+				sb.append(IDS_SEPARATOR);
+			}
+			sb.append(id);
+		}
+		if (sb.length() > 0) {
+			result.add(sb.toString());
+		}
+		return result;
+	}
+
 	protected HashCode takeDao() {
 		try {
 			return pool_hashCodes.take();
@@ -1377,11 +1944,20 @@ public class PubSubDAOJDBC
 		data_repo.initPreparedStatement(GET_SERVICES_QUERY, GET_SERVICES_QUERY);
 		data_repo.initPreparedStatement(GET_NODE_ID_QUERY, GET_NODE_ID_QUERY);
 		data_repo.initPreparedStatement(GET_NODE_META_QUERY, GET_NODE_META_QUERY);
+		data_repo.initPreparedStatement(GET_NODE_METAS_QUERY, GET_NODE_METAS_QUERY);
 		data_repo.initPreparedStatement(GET_ITEM_QUERY, GET_ITEM_QUERY);
+		data_repo.initPreparedStatement(GET_ITEMS_QUERY, GET_ITEMS_QUERY);
 		data_repo.initPreparedStatement(WRITE_ITEM_QUERY, WRITE_ITEM_QUERY);
+		if (data_repo.getDatabaseType() == DataRepository.dbTypes.mysql) {
+			data_repo.initPreparedStatement(WRITE_ITEM_IN_TRANSACTION_QUERY, WRITE_ITEM_IN_TRANSACTION_QUERY);
+		}
 		data_repo.initPreparedStatement(DELETE_ITEM_QUERY, DELETE_ITEM_QUERY);
 		data_repo.initPreparedStatement(GET_NODE_ITEM_IDS_QUERY, GET_NODE_ITEM_IDS_QUERY);
 		data_repo.initPreparedStatement(GET_NODE_ITEM_IDS_SINCE_QUERY, GET_NODE_ITEM_IDS_SINCE_QUERY);
+		data_repo.initPreparedStatement(GET_NODE_LAST_ITEM_QUERY, GET_NODE_LAST_ITEM_QUERY);
+		data_repo.initPreparedStatement(TRIM_ITEMS_QUERY, TRIM_ITEMS_QUERY);
+		data_repo.initPreparedStatement(PURGE_ITEMS_QUERY, PURGE_ITEMS_QUERY);
+		data_repo.initPreparedStatement(GET_BLOB_REFERENCES_QUERY, GET_BLOB_REFERENCES_QUERY);
 		data_repo.initPreparedStatement(GET_NODE_ITEMS_META_QUERY, GET_NODE_ITEMS_META_QUERY);
 		data_repo.initPreparedStatement(COUNT_NODES_QUERY, COUNT_NODES_QUERY);
 		data_repo.initPreparedStatement(GET_ALL_NODES_QUERY, GET_ALL_NODES_QUERY);
@@ -1399,6 +1975,7 @@ public class PubSubDAOJDBC
 		data_repo.initPreparedStatement(COUNT_NODES_ITEMS_QUERY, COUNT_NODES_ITEMS_QUERY);
 		data_repo.initPreparedStatement(GET_NODES_ITEMS_QUERY, GET_NODES_ITEMS_QUERY);
 		data_repo.initPreparedStatement(GET_NODES_ITEMS_POSITION_QUERY, GET_NODES_ITEMS_POSITION_QUERY);
+		data_repo.initPreparedStatement(GET_NODES_ITEMS_SEEK_QUERY, GET_NODES_ITEMS_SEEK_QUERY);
 
 		data_repo.initPreparedStatement(mamAddItem, mamAddItem);
 		data_repo.initPreparedStatement(mamUpdateItem,mamUpdateItem);
@@ -1406,6 +1983,7 @@ public class PubSubDAOJDBC
 		data_repo.initPreparedStatement(mamQueryItems, mamQueryItems);
 		data_repo.initPreparedStatement(mamQueryItemPosition, mamQueryItemPosition);
 		data_repo.initPreparedStatement(mamQueryItemsCount, mamQueryItemsCount);
+		data_repo.initPreparedStatement(mamQueryItemsSeek, mamQueryItemsSeek);
 	}
 
 	private void release(Statement stmt, ResultSet rs) {
@@ -1442,4 +2020,24 @@ public class PubSubDAOJDBC
 			return PubSubDAOJDBC.this.data_repo.hashCode() == repoHash;
 		}
 	}
+
+	protected static class WriteItemRequest {
+
+		private final Long nodeId;
+		private final String id;
+		private final String publisher;
+		private final String data;
+		private final long timestamp;
+		private final String uuid;
+
+		protected WriteItemRequest(Long nodeId, String id, String publisher, String data, long timestamp,
+								   String uuid) {
+			this.nodeId = nodeId;
+			this.id = id;
+			this.publisher = publisher;
+			this.data = data;
+			this.timestamp = timestamp;
+			this.uuid = uuid;
+		}
+	}
 }
@@ -40,6 +40,7 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.mam.MAMRepository;
 import tigase.xmpp.rsm.RSM;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -227,9 +228,25 @@ public class PubSubDAOPool<T, S extends DataSource, Q extends PubSubQuery>
 	}
 
 	@Override
-	public List<IItems.IItem> getItems(BareJID serviceJid, List<T> nodesIds, Date after, Date before, RSM rsm, CollectionItemsOrdering ordering)
+	public List<IItems.IItem> getItems(BareJID serviceJid, T nodeId, Collection<String> itemIds)
 			throws RepositoryException {
 		IPubSubDAO dao = takeDao(serviceJid);
+		if (dao != null) {
+			try {
+				return dao.getItems(serviceJid, nodeId, itemIds);
+			} finally {
+				offerDao(serviceJid, dao);
+			}
+		} else {
+			log.warning("dao is NULL, pool empty? - " + getPoolDetails(serviceJid));
+		}
+		return null;
+	}
+
+	@Override
+	public List<IItems.IItem> getItems(BareJID serviceJid, List<T> nodesIds, Date after, Date before, RSM rsm, CollectionItemsOrdering ordering)
+			throws RepositoryException, ComponentException {
+		IPubSubDAO dao = takeDao(serviceJid);
 		if (dao != null) {
 			try {
 				return dao.getItems(serviceJid, nodesIds, after, before, rsm, ordering);
@@ -242,6 +259,53 @@ public class PubSubDAOPool<T, S extends DataSource, Q extends PubSubQuery>
 		return null;
 	}
 
+	@Override
+	public IItems.IItem getLastItem(BareJID serviceJid, T nodeId, CollectionItemsOrdering order)
+			throws RepositoryException {
+		IPubSubDAO dao = takeDao(serviceJid);
+		if (dao != null) {
+			try {
+				return dao.getLastItem(serviceJid, nodeId, order);
+			} finally {
+				offerDao(serviceJid, dao);
+			}
+		} else {
+			log.warning("dao is NULL, pool empty? - " + getPoolDetails(serviceJid));
+		}
+		return null;
+	}
+
+	@Override
+	public String[] trimItems(BareJID serviceJid, T nodeId, int maxItems, CollectionItemsOrdering order)
+			throws RepositoryException {
+		IPubSubDAO dao = takeDao(serviceJid);
+		if (dao != null) {
+			try {
+				return dao.trimItems(serviceJid, nodeId, maxItems, order);
+			} finally {
+				offerDao(serviceJid, dao);
+			}
+		} else {
+			log.warning("dao is NULL, pool empty? - " + getPoolDetails(serviceJid));
+		}
+		return null;
+	}
+
+	@Override
+	public String[] purgeItems(BareJID serviceJid, T nodeId, Date before, int limit) throws RepositoryException {
+		IPubSubDAO dao = takeDao(serviceJid);
+		if (dao != null) {
+			try {
+				return dao.purgeItems(serviceJid, nodeId, before, limit);
+			} finally {
+				offerDao(serviceJid, dao);
+			}
+		} else {
+			log.warning("dao is NULL, pool empty? - " + getPoolDetails(serviceJid));
+		}
+		return null;
+	}
+
 	@Override
 	public String[] getItemsIds(BareJID serviceJid, T nodeId, CollectionItemsOrdering order) throws RepositoryException {
 		IPubSubDAO dao = takeDao(serviceJid);
@@ -318,6 +382,22 @@ public class PubSubDAOPool<T, S extends DataSource, Q extends PubSubQuery>
 		}
 	}
 
+	@Override
+	public Map<String, INodeMeta<T>> getNodeMetas(BareJID serviceJid, Collection<String> nodeNames)
+			throws RepositoryException {
+		IPubSubDAO<T, DataSource, Q> dao = takeDao(serviceJid);
+		if (dao != null) {
+			try {
+				return dao.getNodeMetas(serviceJid, nodeNames);
+			} finally {
+				offerDao(serviceJid, dao);
+			}
+		} else {
+			log.warning("dao is NULL, pool empty? - " + getPoolDetails(serviceJid));
+			return null;
+		}
+	}
+
 	@Override
 	public long getNodesCount(BareJID serviceJid) throws RepositoryException {
 		if (serviceJid != null) {
@@ -35,8 +35,10 @@ import tigase.pubsub.repository.*;
 import tigase.pubsub.repository.stateless.UsersAffiliation;
 import tigase.pubsub.repository.stateless.UsersSubscription;
 import tigase.pubsub.utils.Cache;
+import tigase.pubsub.utils.IntegerOrMax;
 import tigase.pubsub.utils.LRUCacheWithFuture;
 import tigase.pubsub.utils.PubSubLogic;
+import tigase.pubsub.utils.TimeOrderedUuidGenerator;
 import tigase.stats.Counter;
 import tigase.stats.StatisticHolder;
 import tigase.stats.StatisticHolderImpl;
@@ -49,6 +51,7 @@ import tigase.xmpp.jid.JID;
 import tigase.xmpp.mam.MAMRepository;
 import tigase.xmpp.rsm.RSM;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -79,6 +82,25 @@ public class CachedPubSubRepository<T>
 	private StatisticHolder cacheStats;
 	@ConfigField(desc = "Delayed load of root nodes collections", alias = "delayed-root-collection-loading")
 	private boolean delayedRootCollectionLoading = false;
+	@ConfigField(desc = "Max number of cached users rosters (0 - disabled)", alias = "roster-cache-size")
+	private int rosterCacheSize = 0;
+	@ConfigField(desc = "Time after which cached user roster is reloaded", alias = "roster-cache-expiration")
+	private Duration rosterCacheExpiration = Duration.ofMinutes(5);
+	protected Cache<BareJID, CachedRoster> rosters;
+	@ConfigField(desc = "Max number of last items of a node cached in memory (0 - disabled)", alias = "items-cache-size")
+	private int itemsCacheSize = 0;
+	@ConfigField(desc = "Max memory (in bytes) used by cached items of all nodes", alias = "items-cache-max-memory")
+	private long itemsCacheMaxMemory = Runtime.getRuntime().maxMemory() / 20;
+	protected ItemsCacheBudget itemsCacheBudget;
+	@ConfigField(desc = "Delay (in milliseconds) after which changes of affiliations and subscriptions are written to the database in background (0 - disabled)", alias = "write-behind-delay")
+	private long writeBehindDelay = 0;
+	@ConfigField(desc = "Max number of changes of affiliations and subscriptions taken by the background writer at once", alias = "write-behind-batch-size")
+	private int writeBehindBatchSize = 1000;
+	@ConfigField(desc = "Max number of retries of writing changes of affiliations and subscriptions", alias = "write-behind-max-retries")
+	private int writeBehindMaxRetries = 5;
+	protected WriteBehindQueue<T> writeBehindQueue;
+	private final Counter rosterCacheRequests = new Counter("roster cache/requests", Level.FINEST);
+	private final Counter rosterCacheHits = new Counter("roster cache/hits", Level.FINEST);
 	private long nodes_added = 0;
 	@Inject(nullAllowed = true)
 	private PresenceNotifierModule presenceNotifierModule;
@@ -144,7 +166,7 @@ public class CachedPubSubRepository<T>
 
 		IAffiliationsCached nodeAffiliations = newNodeAffiliations(serviceJid, nodeName, nodeId, ()-> null);
 		ISubscriptionsCached nodeSubscriptions = newNodeSubscriptions(serviceJid, nodeName, nodeId, ()-> null);
-		IItems nodeItems = new Items(nodeId, serviceJid, nodeName, dao, this);
+		IItems nodeItems = newNodeItems(serviceJid, nodeName, nodeId, nodeConfig);
 		
 		Node node = new Node(nodeId, serviceJid, nodeConfig, nodeAffiliations, nodeSubscriptions, nodeItems, ownerJid, new Date());
 
@@ -187,6 +209,9 @@ public class CachedPubSubRepository<T>
 		}
 
 		this.dao.deleteNode(serviceJid, node.getNodeId());
+		if (writeBehindQueue != null) {
+			writeBehindQueue.nodeRemoved(node.getNodeId());
+		}
 
 		node.setDeleted(true);
 
@@ -196,14 +221,17 @@ public class CachedPubSubRepository<T>
 	
 	@Override
 	public void destroy() {
-
-		// No resources have been allocated by the init, but some resources
-		// have been allocated in the contructor....
+		if (writeBehindQueue != null) {
+			// pending changes are written before the queue is stopped
+			writeBehindQueue.stop();
+		}
 	}
 
 	@Override
 	public void everyHour() {
 		cacheStats.everyHour();
+		rosterCacheRequests.everyHour();
+		rosterCacheHits.everyHour();
 
 		for (StatisticHolder holder : stats.values()) {
 			holder.everyHour();
@@ -213,6 +241,8 @@ public class CachedPubSubRepository<T>
 	@Override
 	public void everyMinute() {
 		cacheStats.everyMinute();
+		rosterCacheRequests.everyMinute();
+		rosterCacheHits.everyMinute();
 
 		for (StatisticHolder holder : stats.values()) {
 			holder.everyMinute();
@@ -222,6 +252,8 @@ public class CachedPubSubRepository<T>
 	@Override
 	public void everySecond() {
 		cacheStats.everySecond();
+		rosterCacheRequests.everySecond();
+		rosterCacheHits.everySecond();
 
 		for (StatisticHolder holder : stats.values()) {
 			holder.everySecond();
@@ -232,9 +264,7 @@ public class CachedPubSubRepository<T>
 		if (config != null) {
 			Node node = getNodeFromCache(serviceJID, nodeName);
 			if (node != null) {
-				synchronized (node) {
-					node.getNodeConfig().copyFromForm(config);
-				}
+				node.configCopyFromForm(config);
 			}
 		} else {
 			nodes.remove(new NodeKey(serviceJID, nodeName));
@@ -270,12 +300,18 @@ public class CachedPubSubRepository<T>
 			log.log(Level.FINEST, "Getting node config, serviceJid: {0}, nodeName: {1}, node: {2}",
 					new Object[]{serviceJid, nodeName, node});
 		}
-		try {
-			return (node == null) ? null : node.getNodeConfig().clone();
-		} catch (CloneNotSupportedException e) {
-			log.log(Level.WARNING, "Error getting node config", e);
-			return null;
+		// configuration of the cached node is read-only and shared, it is replaced on update
+		return (node == null) ? null : node.getNodeConfig();
+	}
+
+	@Override
+	public Map<String, AbstractNodeConfig> getNodeConfigs(BareJID serviceJid, Collection<String> nodeNames)
+			throws RepositoryException {
+		Map<String, AbstractNodeConfig> result = new HashMap<>();
+		for (Node<T> node : getNodes(serviceJid, nodeNames)) {
+			result.put(node.getName(), node.getNodeConfig());
 		}
+		return result;
 	}
 
 	@Override
@@ -308,7 +344,20 @@ public class CachedPubSubRepository<T>
 		}
 
 		List<T> nodeIds = nodes.stream().map(node -> node.getNodeId()).collect(Collectors.toList());
-		return dao.getItems(serviceJid, nodeIds, after, before, rsm, getNode(serviceJid, nodeName).getNodeConfig().getCollectionItemsOrdering());
+		List<IItems.IItem> items = dao.getItems(serviceJid, nodeIds, after, before, rsm, getNode(serviceJid, nodeName).getNodeConfig().getCollectionItemsOrdering());
+		if (items != null) {
+			// items of nodes being purged are still in the database until they are removed in background
+			for (Node<T> node : nodes) {
+				if (node.getNodeItems() instanceof Items) {
+					Items<T> nodeItems = (Items<T>) node.getNodeItems();
+					if (nodeItems.isPurgeInProgress()) {
+						items = new ArrayList<>(items);
+						items.removeIf(item -> node.getName().equals(item.getNode()) && nodeItems.isHidden(item.getId()));
+					}
+				}
+			}
+		}
+		return items;
 	}
 
 	@Override
@@ -334,6 +383,20 @@ public class CachedPubSubRepository<T>
 		}
 	}
 
+	@Override
+	public JID[] getNodeDeliveryList(BareJID serviceJid, String nodeName) throws RepositoryException {
+		if (presenceNotifierModule != null && presenceNotifierModule.getPresencePerNodeExtension() != null) {
+			// subscriptions are dynamic and depend on presence
+			return null;
+		}
+		Node<T> node = getNode(serviceJid, nodeName);
+		if (node == null || !(node.getNodeAffiliations() instanceof NodeAffiliations)) {
+			// affiliations provided by NodeAffiliationProvider may change without being merged
+			return null;
+		}
+		return node.getDeliveryList();
+	}
+
 	@Override
 	public long getNodesCount(BareJID serviceJID) throws RepositoryException {
 		if (serviceJID != null) {
@@ -427,6 +490,13 @@ public class CachedPubSubRepository<T>
 			stats.add(name, "Total writing time", Utils.longToTime(writingTime), Level.FINEST);
 		}
 
+		if (writeBehindQueue != null) {
+			stats.add(name, "write-behind/pending changes", writeBehindQueue.getPendingCount(), Level.FINE);
+			stats.add(name, "write-behind/written changes", writeBehindQueue.getWrittenCount(), Level.FINE);
+			stats.add(name, "write-behind/failed writes", writeBehindQueue.getFailuresCount(), Level.FINE);
+			stats.add(name, "write-behind/dropped changes", writeBehindQueue.getDroppedCount(), Level.INFO);
+		}
+
 		if (nodes_added + repo_writes > 0) {
 			if (nodes_added > 0) {
 				stats.add(name, "Average DB write time [ms]", (writingTime / (nodes_added + repo_writes)), Level.INFO);
@@ -437,6 +507,14 @@ public class CachedPubSubRepository<T>
 		}
 
 		cacheStats.getStatistics(name, stats);
+		if (rosters != null) {
+			rosterCacheRequests.getStatistics(name, stats);
+			rosterCacheHits.getStatistics(name, stats);
+			stats.add(name, "roster cache/size", rosters.size(), Level.FINEST);
+		}
+		if (itemsCacheBudget != null) {
+			stats.add(name, "items cache/used memory", itemsCacheBudget.getUsedBytes(), Level.FINEST);
+		}
 
 		for (StatisticHolder holder : this.stats.values()) {
 			holder.getStatistics(name, stats);
@@ -452,18 +530,61 @@ public class CachedPubSubRepository<T>
 				return results;
 			}
 		}
-		return this.dao.getUserAffiliations(serviceJid, jid);
+		WriteBehindQueue<T> writeBehindQueue = this.writeBehindQueue;
+		// pending changes are taken before reading, as they may be written and dropped from the queue in the meantime
+		Map<String, UsersAffiliation> pendingChanges = writeBehindQueue == null
+													   ? null
+													   : writeBehindQueue.getPendingUserAffiliations(serviceJid, jid);
+		Map<String, UsersAffiliation> affiliations = this.dao.getUserAffiliations(serviceJid, jid);
+		return pendingChanges == null ? affiliations : WriteBehindQueue.applyUserAffiliations(affiliations, pendingChanges);
 	}
 
 	@Override
 	public Map<BareJID, RosterElement> getUserRoster(BareJID owner) throws RepositoryException {
-		return this.dao.getUserRoster(owner);
+		if (rosters == null) {
+			return this.dao.getUserRoster(owner);
+		}
+		rosterCacheRequests.inc();
+		CachedRoster cached = rosters.get(owner);
+		if (cached != null && cached.isExpired()) {
+			rosters.remove(owner);
+		} else if (cached != null) {
+			rosterCacheHits.inc();
+			return cached.roster;
+		}
+		try {
+			return rosters.computeIfAbsent(owner, () -> {
+				try {
+					return new CachedRoster(this.dao.getUserRoster(owner),
+											System.currentTimeMillis() + rosterCacheExpiration.toMillis());
+				} catch (RepositoryException ex) {
+					throw new Cache.CacheException(ex);
+				}
+			}).roster;
+		} catch (Cache.CacheException ex) {
+			throw new RepositoryException(ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public void invalidateUserRoster(BareJID owner) {
+		if (rosters != null) {
+			rosters.remove(owner);
+		}
 	}
 
 	@Override
 	public Map<String, UsersSubscription> getUserSubscriptions(BareJID serviceJid, BareJID userJid)
 			throws RepositoryException {
-		return this.dao.getUserSubscriptions(serviceJid, userJid);
+		WriteBehindQueue<T> writeBehindQueue = this.writeBehindQueue;
+		// pending changes are taken before reading, as they may be written and dropped from the queue in the meantime
+		Map<String, UsersSubscription> pendingChanges = writeBehindQueue == null
+														? null
+														: writeBehindQueue.getPendingUserSubscriptions(serviceJid, userJid);
+		Map<String, UsersSubscription> subscriptions = this.dao.getUserSubscriptions(serviceJid, userJid);
+		return pendingChanges == null
+			   ? subscriptions
+			   : WriteBehindQueue.applyUserSubscriptions(subscriptions, pendingChanges);
 	}
 
 	@Override
@@ -471,6 +592,14 @@ public class CachedPubSubRepository<T>
 		log.config("Cached PubSubRepository initialising...");
 	}
 
+	protected void nodeRemovedFromCache(Node node) {
+		IItems nodeItems = node.getNodeItems();
+		if (nodeItems instanceof Items) {
+			// instance may still be used by pending requests, so its cache is disabled to keep memory released
+			((Items) nodeItems).setCacheCapacity(0);
+		}
+	}
+
 	@Override
 	public void initialize() {
 		Integer maxCacheSize = config.getMaxCacheSize();
@@ -479,6 +608,19 @@ public class CachedPubSubRepository<T>
 		cacheStats = cache;
 		nodes = cache;
 
+		if (rosterCacheSize > 0) {
+			rosters = new LRUCacheWithFuture<>(rosterCacheSize);
+		}
+		if (itemsCacheSize > 0 && itemsCacheMaxMemory > 0) {
+			itemsCacheBudget = new ItemsCacheBudget(itemsCacheMaxMemory);
+			cache.setRemovalListener((key, node) -> nodeRemovedFromCache(node));
+		}
+		if (writeBehindDelay > 0) {
+			writeBehindQueue = new WriteBehindQueue<>(dao, writeBehindDelay, writeBehindBatchSize,
+													  writeBehindMaxRetries);
+			writeBehindQueue.start();
+		}
+
 		// Runtime.getRuntime().addShutdownHook(makeLazyWriteThread(true));
 		log.config(
 				"Initializing Cached Repository with cache size = " + ((maxCacheSize == null) ? "OFF" : maxCacheSize));
@@ -541,13 +683,14 @@ public class CachedPubSubRepository<T>
 
 		if (node != null) {
 			String oldCollection = node.getNodeConfig().getCollection();
-			synchronized (node) {
-				node.configCopyFrom(nodeConfig);
+			node.configCopyFrom(nodeConfig);
+			if (node.getNodeItems() instanceof Items) {
+				((Items) node.getNodeItems()).setCacheCapacity(getItemsCacheCapacity(node.getNodeConfig()));
 			}
 
 			// node.setNodeConfigChangeTimestamp();
 			// synchronized (mutex) {
-			log.finest("Node '" + nodeName + "' added to lazy write queue (config)");
+			log.finest("Saving node '" + nodeName + "' (config)");
 			saveNode(node, 0);
 
 			String newCollection = nodeConfig.getCollection();
@@ -575,7 +718,7 @@ public class CachedPubSubRepository<T>
 
 				// node.setNodeAffiliationsChangeTimestamp();
 				// synchronized (mutex) {
-				log.finest("Node '" + nodeName + "' added to lazy write queue (affiliations), node: " + node);
+				log.finest("Saving node '" + nodeName + "' (affiliations), node: " + node);
 				saveNode(node, 0);
 
 				// }
@@ -594,7 +737,7 @@ public class CachedPubSubRepository<T>
 		if (node != null) {
 			// node.setNodeSubscriptionsChangeTimestamp();
 			// synchronized (mutex) {
-			log.finest("Node '" + nodeName + "' added to lazy write queue (subscriptions)");
+			log.finest("Saving node '" + nodeName + "' (subscriptions)");
 			saveNode(node, 0);
 			// }
 		}
@@ -611,7 +754,10 @@ public class CachedPubSubRepository<T>
 			throws RepositoryException {
 		Node<T> node = getNode(serviceJid, nodeName);
 		if (node != null) {
-			dao.addMAMItem(serviceJid, node.getNodeId(), uuid, message, itemId);
+			// entry with time-ordered id is stored with time of creation of its id, so ids are ordered as entries
+			Date timestamp = TimeOrderedUuidGenerator.getTimestamp(uuid);
+			dao.addMAMItem(serviceJid, node.getNodeId(), uuid, message, timestamp == null ? new Date() : timestamp,
+						   itemId);
 		}
 	}
 
@@ -688,8 +834,64 @@ public class CachedPubSubRepository<T>
 		}
 	}
 
+	/**
+	 * Returns nodes with passed names, loading meta data of nodes which are not cached using a single request to the
+	 * database.
+	 *
+	 * @return list of existing nodes in order of passed names
+	 */
+	protected List<Node<T>> getNodes(BareJID serviceJid, Collection<String> nodeNames) throws RepositoryException {
+		Map<String, Node<T>> found = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String nodeName : nodeNames) {
+			Node<T> node = this.nodes.get(createKey(serviceJid, nodeName));
+			if (node != null) {
+				found.put(nodeName, node);
+			} else {
+				missing.add(nodeName);
+			}
+		}
+		if (missing.size() == 1) {
+			Node<T> node = getNode(serviceJid, missing.get(0));
+			if (node != null) {
+				found.put(node.getName(), node);
+			}
+		} else if (!missing.isEmpty()) {
+			Map<String, INodeMeta<T>> nodeMetas = this.dao.getNodeMetas(serviceJid, missing);
+			if (nodeMetas != null) {
+				for (Map.Entry<String, INodeMeta<T>> e : nodeMetas.entrySet()) {
+					Node<T> loaded = newNode(serviceJid, e.getKey(), e.getValue());
+					if (loaded == null) {
+						continue;
+					}
+					try {
+						// node loaded in the meantime by other thread takes precedence
+						Node<T> node = this.nodes.computeIfAbsent(createKey(serviceJid, e.getKey()), () -> loaded);
+						if (node != null) {
+							found.put(e.getKey(), node);
+						}
+					} catch (Cache.CacheException ex) {
+						throw new RepositoryException(ex.getMessage(), ex);
+					}
+				}
+			}
+		}
+		List<Node<T>> result = new ArrayList<>();
+		for (String nodeName : nodeNames) {
+			Node<T> node = found.get(nodeName);
+			if (node != null) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
 	protected Node loadNode(BareJID serviceJid, String nodeName) throws RepositoryException {
 		INodeMeta<T> nodeMeta = this.dao.getNodeMeta(serviceJid, nodeName);
+		return newNode(serviceJid, nodeName, nodeMeta);
+	}
+
+	protected Node newNode(BareJID serviceJid, String nodeName, INodeMeta<T> nodeMeta) throws RepositoryException {
 		if (nodeMeta == null) {
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Getting node[1] -- nodeId null! serviceJid: {0}, nodeName: {1}, nodeId: {2}",
@@ -708,9 +910,20 @@ public class CachedPubSubRepository<T>
 			return null;
 		}
 
-		IAffiliationsCached nodeAffiliations = newNodeAffiliations(serviceJid, nodeName, nodeMeta.getNodeId(), ()-> this.dao.getNodeAffiliations(serviceJid, nodeMeta.getNodeId()));
-		ISubscriptionsCached nodeSubscriptions = newNodeSubscriptions(serviceJid, nodeName, nodeMeta.getNodeId(), ()-> this.dao.getNodeSubscriptions(serviceJid, nodeMeta.getNodeId()));
-		Items nodeItems = new Items(nodeMeta.getNodeId(), serviceJid, nodeName, dao, this);
+		// pending changes are taken before reading, as they may be written and dropped from the queue in the meantime
+		IAffiliationsCached nodeAffiliations = newNodeAffiliations(serviceJid, nodeName, nodeMeta.getNodeId(), ()-> {
+			WriteBehindQueue<T> writeBehindQueue = this.writeBehindQueue;
+			Map<BareJID, UsersAffiliation> pendingChanges = writeBehindQueue == null ? null : writeBehindQueue.getPendingAffiliations(nodeMeta.getNodeId());
+			Map<BareJID, UsersAffiliation> affiliations = this.dao.getNodeAffiliations(serviceJid, nodeMeta.getNodeId());
+			return pendingChanges == null ? affiliations : WriteBehindQueue.applyAffiliations(affiliations, pendingChanges);
+		});
+		ISubscriptionsCached nodeSubscriptions = newNodeSubscriptions(serviceJid, nodeName, nodeMeta.getNodeId(), ()-> {
+			WriteBehindQueue<T> writeBehindQueue = this.writeBehindQueue;
+			Map<BareJID, UsersSubscription> pendingChanges = writeBehindQueue == null ? null : writeBehindQueue.getPendingSubscriptions(nodeMeta.getNodeId());
+			Map<BareJID, UsersSubscription> subscriptions = this.dao.getNodeSubscriptions(serviceJid, nodeMeta.getNodeId());
+			return pendingChanges == null ? subscriptions : WriteBehindQueue.applySubscriptions(subscriptions, pendingChanges);
+		});
+		IItems nodeItems = newNodeItems(serviceJid, nodeName, nodeMeta.getNodeId(), nodeConfig);
 
 
 		Node node = new Node(nodeMeta.getNodeId(), serviceJid, nodeConfig, nodeAffiliations, nodeSubscriptions,
@@ -734,6 +947,25 @@ public class CachedPubSubRepository<T>
 		return new NodeAffiliations(affiliationSupplier.get());
 	}
 
+	protected IItems newNodeItems(BareJID serviceJid, String nodeName, T nodeId, AbstractNodeConfig nodeConfig) {
+		return new Items(nodeId, serviceJid, nodeName, dao, this, itemsCacheBudget, getItemsCacheCapacity(nodeConfig));
+	}
+
+	protected int getItemsCacheCapacity(AbstractNodeConfig nodeConfig) {
+		if (itemsCacheBudget == null || !(nodeConfig instanceof LeafNodeConfig)) {
+			return 0;
+		}
+		LeafNodeConfig leafNodeConfig = (LeafNodeConfig) nodeConfig;
+		if (!leafNodeConfig.isPersistItem()) {
+			return 0;
+		}
+		IntegerOrMax maxItems = leafNodeConfig.getMaxItems();
+		if (maxItems == null) {
+			return itemsCacheSize;
+		}
+		return Math.max(0, Math.min(itemsCacheSize, maxItems.getOrMax(itemsCacheSize)));
+	}
+
 	protected ISubscriptionsCached newNodeSubscriptions(BareJID serviceJid, String nodeName, T nodeId, RepositorySupplier<Map<BareJID, UsersSubscription>> subscriptionsSupplier) throws RepositoryException {
 		return new NodeSubscriptions(subscriptionsSupplier.get());
 	}
@@ -793,6 +1025,8 @@ public class CachedPubSubRepository<T>
 		if (nodeConfig instanceof CollectionNodeConfig) {
 			String[] childNodes = getChildNodes(serviceJid, nodeName);
 			if (childNodes != null) {
+				// load all child nodes which are not cached at once
+				getNodes(serviceJid, Arrays.asList(childNodes));
 				for (String child : childNodes) {
 					result.addAll(getNodeAndSubnodes(serviceJid, child, filterWithSubnodes, filter));
 				}
@@ -812,6 +1046,9 @@ public class CachedPubSubRepository<T>
 	}
 
 	protected void serviceRemoved(BareJID userJid) {
+		if (writeBehindQueue != null) {
+			writeBehindQueue.serviceRemoved(userJid);
+		}
 		// clearing in memory caches
 		if (listener != null) {
 			listener.serviceRemoved(userJid);
@@ -834,10 +1071,10 @@ public class CachedPubSubRepository<T>
 				if (node != null) {
 					ISubscriptionsCached nodeSubscriptions = node.getNodeSubscriptions();
 					nodeSubscriptions.changeSubscription(userJid, Subscription.none);
-					nodeSubscriptions.merge();
+					node.subscriptionsMerge();
 					IAffiliationsCached nodeAffiliations = node.getNodeAffiliations();
 					nodeAffiliations.changeAffiliation(userJid, Affiliation.none);
-					nodeAffiliations.merge();
+					node.affiliationsMerge();
 				}
 			}
 		}
@@ -894,9 +1131,14 @@ public class CachedPubSubRepository<T>
 
 			if (node.affiliationsNeedsWriting()) {
 				Map<BareJID, UsersAffiliation> changedAffiliations = node.getNodeAffiliations().getChanged();
-				for (Map.Entry<BareJID, UsersAffiliation> entry : changedAffiliations.entrySet()) {
-					dao.updateNodeAffiliation(node.getServiceJid(), node.getNodeId(), node.getName(),
-											  entry.getValue());
+				if (writeBehindQueue != null) {
+					writeBehindQueue.addAffiliations(node.getServiceJid(), node.getNodeId(), node.getName(),
+													 changedAffiliations);
+				} else {
+					for (Map.Entry<BareJID, UsersAffiliation> entry : changedAffiliations.entrySet()) {
+						dao.updateNodeAffiliation(node.getServiceJid(), node.getNodeId(), node.getName(),
+												  entry.getValue());
+					}
 				}
 				node.affiliationsSaved();
 			}
@@ -918,13 +1160,19 @@ public class CachedPubSubRepository<T>
 				// node.getNodeSubscriptions().serialize(ft));
 				// }
 				Map<BareJID, UsersSubscription> changedSubscriptions = node.getNodeSubscriptions().getChanged();
-				for (Map.Entry<BareJID, UsersSubscription> entry : changedSubscriptions.entrySet()) {
-					UsersSubscription subscription = entry.getValue();
-					if (subscription.getSubscription() == Subscription.none) {
-						dao.removeNodeSubscription(node.getServiceJid(), node.getNodeId(), subscription.getJid());
-					} else {
-						dao.updateNodeSubscription(node.getServiceJid(), node.getNodeId(), node.getName(),
-												   subscription);
+				if (writeBehindQueue != null) {
+					writeBehindQueue.addSubscriptions(node.getServiceJid(), node.getNodeId(), node.getName(),
+													  changedSubscriptions);
+				} else {
+					for (Map.Entry<BareJID, UsersSubscription> entry : changedSubscriptions.entrySet()) {
+						UsersSubscription subscription = entry.getValue();
+						if (subscription.getSubscription() == Subscription.none) {
+							dao.removeNodeSubscription(node.getServiceJid(), node.getNodeId(),
+													   subscription.getJid());
+						} else {
+							dao.updateNodeSubscription(node.getServiceJid(), node.getNodeId(), node.getName(),
+													   subscription);
+						}
 					}
 				}
 				node.subscriptionsSaved();
@@ -1130,6 +1378,21 @@ public class CachedPubSubRepository<T>
 		}
 	}
 	
+	protected static class CachedRoster {
+
+		private final long expiresAt;
+		private final Map<BareJID, RosterElement> roster;
+
+		CachedRoster(Map<BareJID, RosterElement> roster, long expiresAt) {
+			this.roster = Collections.unmodifiableMap(roster);
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired() {
+			return expiresAt < System.currentTimeMillis();
+		}
+	}
+
 	public static class SizedCache<V>
 			extends LinkedHashMap<NodeKey, V>
 			implements StatisticHolder {
@@ -17,20 +17,37 @@
  */
 package tigase.pubsub.repository.cached;
 
+import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.pubsub.CollectionItemsOrdering;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.repository.IItems;
 import tigase.pubsub.repository.IPubSubDAO;
+import tigase.pubsub.utils.ElementSize;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.rsm.RSM;
 
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Items of the cached node.
+ * <br>
+ * Optionally, the most recently published items of the node are kept in memory (up to <code>cacheCapacity</code>
+ * items, within limit of the shared memory budget), so requests for the last item or for recent items of the node
+ * are served without accessing the database. Cache is loaded with a single query for the most recent items on first
+ * read (concurrent reads wait for the same load) or started with the written item if it was not loaded yet, and it is
+ * updated on every write and removal of an item done using this instance.
+ * <br>
+ * When purge of the node is started, all items existing at that time are hidden from reads until they are removed
+ * from the database.
+ */
 public class Items<T>
 		implements IItems {
 
@@ -46,7 +63,31 @@ public class Items<T>
 
 	private final IListnener itemsListener;
 
+	private final ItemsCacheBudget cacheBudget;
+	private volatile int cacheCapacity;
+	// items ordered by update date, guarded by this
+	private LinkedHashMap<String, CachedItem> cachedItems;
+	// true if all items of the node are cached, guarded by this
+	private boolean allItemsCached;
+	// number of cached items loaded from the database, for which creation time is not known, guarded by this
+	private int unknownCreationTimes = 0;
+	// load of the cache in progress, guarded by this
+	private CompletableFuture<Void> cacheLoading;
+	private long cachedBytes = 0;
+	private long modificationsCounter = 0;
+	// value of modificationsCounter when loading of the cache failed due to exhausted memory budget
+	private long cacheLoadFailedAt = -1;
+	// items published before this date are being purged and are hidden, guarded by this
+	private Date purgeBefore;
+	// ids of items written after purge was started, guarded by this
+	private Set<String> purgeSurvivors;
+
 	public Items(T nodeId, BareJID serviceJid, String nodeName, IPubSubDAO dao, IListnener listnener) {
+		this(nodeId, serviceJid, nodeName, dao, listnener, null, 0);
+	}
+
+	public Items(T nodeId, BareJID serviceJid, String nodeName, IPubSubDAO dao, IListnener listnener,
+				 ItemsCacheBudget cacheBudget, int cacheCapacity) {
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Constructing Items, serviceJid: {0}, nodeName: {1}, nodeId: {2}, dao: {3}",
 					new Object[]{serviceJid, nodeName, nodeId, dao});
@@ -56,6 +97,27 @@ public class Items<T>
 		this.nodeName = nodeName;
 		this.serviceJid = serviceJid;
 		this.itemsListener = listnener;
+		this.cacheBudget = cacheBudget;
+		this.cacheCapacity = cacheCapacity;
+	}
+
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	public int getCacheCapacity() {
+		return cacheCapacity;
+	}
+
+	/**
+	 * Changes number of items cached in memory, ie. after change of <code>pubsub#max_items</code>.
+	 * @param cacheCapacity max number of cached items (0 disables the cache)
+	 */
+	public synchronized void setCacheCapacity(int cacheCapacity) {
+		if (this.cacheCapacity != cacheCapacity) {
+			this.cacheCapacity = cacheCapacity;
+			invalidateCache();
+		}
 	}
 
 	@Override
@@ -65,6 +127,7 @@ public class Items<T>
 					new Object[]{serviceJid, id, nodeId, dao});
 		}
 		this.dao.deleteItem(serviceJid, nodeId, id);
+		itemDeletedFromCache(id);
 		itemsListener.itemDeleted(serviceJid, nodeName, id);
 	}
 
@@ -74,8 +137,67 @@ public class Items<T>
 			log.log(Level.FINEST, "getItem, serviceJid: {0}, id: {1}, nodeId: {2}, dao: {3}",
 					new Object[]{serviceJid, id, nodeId, dao});
 		}
+		if (isHidden(id)) {
+			return null;
+		}
+		if (isCacheEnabled()) {
+			synchronized (this) {
+				if (cachedItems != null) {
+					CachedItem cached = cachedItems.get(id);
+					if (cached != null) {
+						return cached.toItem(nodeName);
+					}
+					if (allItemsCached) {
+						return null;
+					}
+				}
+			}
+		}
 		return this.dao.getItem(serviceJid, nodeId, id);
 	}
+
+	@Override
+	public List<IItem> getItems(List<String> ids) throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "getItems, serviceJid: {0}, ids: {1}, nodeId: {2}, dao: {3}",
+					new Object[]{serviceJid, ids, nodeId, dao});
+		}
+		Map<String, IItem> found = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		if (isCacheEnabled()) {
+			synchronized (this) {
+				for (String id : ids) {
+					CachedItem cached = cachedItems == null ? null : cachedItems.get(id);
+					if (cached != null) {
+						found.put(id, cached.toItem(nodeName));
+					} else if (cachedItems == null || !allItemsCached) {
+						missing.add(id);
+					}
+				}
+			}
+		} else {
+			missing.addAll(ids);
+		}
+		if (!missing.isEmpty()) {
+			List<IItem> loaded = this.dao.getItems(serviceJid, nodeId, missing);
+			if (loaded != null) {
+				for (IItem item : loaded) {
+					if (isHidden(item.getId())) {
+						continue;
+					}
+					found.put(item.getId(), item);
+				}
+			}
+		}
+		List<IItem> result = new ArrayList<>();
+		for (String id : ids) {
+			IItem item = found.get(id);
+			if (item != null) {
+				result.add(item);
+			}
+		}
+		return result;
+	}
 	
 	@Override
 	public String[] getItemsIds(CollectionItemsOrdering order) throws RepositoryException {
@@ -83,7 +205,14 @@ public class Items<T>
 			log.log(Level.FINEST, "getItemsIds, serviceJid: {0}, nodeId: {1}, dao: {2}, order: {3}",
 					new Object[]{serviceJid, nodeId, dao, order});
 		}
-		return this.dao.getItemsIds(serviceJid, nodeId, order);
+		if (isCacheEnabled()) {
+			synchronized (this) {
+				if (cachedItems != null && allItemsCached && isOrderKnown(order)) {
+					return getCachedItemsIds(order);
+				}
+			}
+		}
+		return filterHidden(this.dao.getItemsIds(serviceJid, nodeId, order));
 	}
 
 	@Override
@@ -92,7 +221,7 @@ public class Items<T>
 			log.log(Level.FINEST, "getItemsIdsSince, serviceJid: {0}, nodeId: {1}, dao: {2}, order: {3}, since: {4}",
 					new Object[]{serviceJid, nodeId, dao, order, since});
 		}
-		return this.dao.getItemsIdsSince(serviceJid, nodeId, order, since);
+		return filterHidden(this.dao.getItemsIdsSince(serviceJid, nodeId, order, since));
 	}
 
 	@Override
@@ -101,18 +230,112 @@ public class Items<T>
 			log.log(Level.FINEST, "getItemsIdsSince, serviceJid: {0}, nodeId: {1}, dao: {2}",
 					new Object[]{serviceJid, nodeId, dao});
 		}
-		return this.dao.getItemsMeta(serviceJid, nodeId, nodeName);
+		List<IItems.ItemMeta> meta = this.dao.getItemsMeta(serviceJid, nodeId, nodeName);
+		if (meta != null && isPurgeInProgress()) {
+			meta = new ArrayList<>(meta);
+			meta.removeIf(item -> isHidden(item.getId()));
+		}
+		return meta;
 	}
 
 	@Override
 	public IItem getLastItem(CollectionItemsOrdering order) throws RepositoryException {
-		String[] itemIds = this.getItemsIds(order);
-		if (itemIds != null && itemIds.length > 0) {
-			return getItem(itemIds[itemIds.length - 1]);
+		if (isCacheEnabled()) {
+			synchronized (this) {
+				if (cachedItems != null) {
+					if (allItemsCached && isOrderKnown(order)) {
+						String[] itemIds = getCachedItemsIds(order);
+						return itemIds.length == 0 ? null : cachedItems.get(itemIds[itemIds.length - 1]).toItem(nodeName);
+					}
+					if (order == CollectionItemsOrdering.byUpdateDate && !cachedItems.isEmpty()) {
+						CachedItem last = null;
+						for (CachedItem item : cachedItems.values()) {
+							last = item;
+						}
+						return last.toItem(nodeName);
+					}
+				}
+			}
+		}
+		IItem last = this.dao.getLastItem(serviceJid, nodeId, order);
+		if (last != null && isHidden(last.getId())) {
+			// items being purged are still in the database, so the last item has to be found among the remaining ones
+			String[] itemIds = getItemsIds(order);
+			return itemIds == null || itemIds.length == 0 ? null : getItem(itemIds[itemIds.length - 1]);
 		}
-		return null;
+		return last;
 	}
 	
+	@Override
+	public String[] trimItems(int maxItems, CollectionItemsOrdering order) throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Trimming items, serviceJid: {0}, maxItems: {1}, nodeId: {2}, dao: {3}",
+					new Object[]{serviceJid, maxItems, nodeId, dao});
+		}
+		String[] removed = this.dao.trimItems(serviceJid, nodeId, maxItems, order);
+		if (removed != null) {
+			for (String id : removed) {
+				itemDeletedFromCache(id);
+				itemsListener.itemDeleted(serviceJid, nodeName, id);
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public String[] purgeItems(Date before, int limit) throws RepositoryException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Purging items, serviceJid: {0}, before: {1}, nodeId: {2}, dao: {3}",
+					new Object[]{serviceJid, before, nodeId, dao});
+		}
+		String[] removed = this.dao.purgeItems(serviceJid, nodeId, before, limit);
+		if (removed != null) {
+			for (String id : removed) {
+				itemDeletedFromCache(id);
+				itemsListener.itemDeleted(serviceJid, nodeName, id);
+			}
+		}
+		if (removed == null || removed.length < limit) {
+			purgeFinished(before);
+		}
+		return removed;
+	}
+
+	@Override
+	public synchronized void purgeStarted(Date before) {
+		if (purgeBefore == null || purgeBefore.before(before)) {
+			purgeBefore = before;
+		}
+		purgeSurvivors = new HashSet<>();
+		// none of the existing items is visible any more, so the cache is empty and complete
+		invalidateCache();
+		if (cacheCapacity > 0 && cacheBudget != null) {
+			cachedItems = new LinkedHashMap<>();
+			allItemsCached = true;
+		}
+	}
+
+	@Override
+	public synchronized void purgeAborted(Date before) {
+		if (purgeBefore != null && !before.before(purgeBefore)) {
+			purgeBefore = null;
+			purgeSurvivors = null;
+			// cache was emptied when the purge was started, but remaining items are still in the database
+			invalidateCache();
+		}
+	}
+
+	/**
+	 * Checks if item was published before the purge of the node in progress and should not be returned.
+	 */
+	synchronized boolean isHidden(String id) {
+		return purgeBefore != null && !purgeSurvivors.contains(id);
+	}
+
+	synchronized boolean isPurgeInProgress() {
+		return purgeBefore != null;
+	}
+
 	@Override
 	public void writeItem(String id, String publisher, Element item, String uuid)
 			throws RepositoryException, PubSubException {
@@ -121,11 +344,231 @@ public class Items<T>
 				log.log(Level.FINEST,
 						"writeItem, serviceJid: {0}, nodeId: {1}, dao: {2}, id: {3}, publisher: {4}, item: {5}", new Object[]{serviceJid, nodeId, dao, id, publisher, item});
 			}
-			this.dao.writeItem(serviceJid, nodeId, System.currentTimeMillis(), id, publisher, item, uuid);
+			long timestamp = System.currentTimeMillis();
+			this.dao.writeItem(serviceJid, nodeId, timestamp, id, publisher, item, uuid);
+			itemWrittenToCache(id, item, uuid, timestamp);
 			itemsListener.itemWritten(serviceJid, nodeName, id, publisher, item, uuid);
 		} else {
 			throw new PubSubException(Authorization.FORBIDDEN, "Provided item did not pass validation");
 		}
 	}
 
+	protected boolean isCacheEnabled() throws RepositoryException {
+		if (cacheCapacity <= 0 || cacheBudget == null) {
+			return false;
+		}
+		long counter;
+		CompletableFuture<Void> loading;
+		synchronized (this) {
+			if (cachedItems != null) {
+				return true;
+			}
+			if (cacheLoadFailedAt == modificationsCounter) {
+				return false;
+			}
+			counter = modificationsCounter;
+			loading = cacheLoading;
+			if (loading == null) {
+				cacheLoading = new CompletableFuture<>();
+			}
+		}
+		if (loading != null) {
+			// cache is already being loaded by other thread
+			try {
+				loading.join();
+			} catch (CompletionException | CancellationException ex) {
+				// failure is reported to the thread loading the cache, this one will use the database
+			}
+			return true;
+		}
+		try {
+			loadCache(counter);
+			completeCacheLoading(null);
+		} catch (RepositoryException | RuntimeException ex) {
+			completeCacheLoading(ex);
+			throw ex;
+		}
+		return true;
+	}
+
+	private synchronized void completeCacheLoading(Throwable ex) {
+		CompletableFuture<Void> loading = cacheLoading;
+		cacheLoading = null;
+		if (ex == null) {
+			loading.complete(null);
+		} else {
+			loading.completeExceptionally(ex);
+		}
+	}
+
+	private void loadCache(long counter) throws RepositoryException {
+		int capacity = cacheCapacity;
+		// single query for the most recent items, one more item is requested to know if all items fit in the cache
+		RSM rsm = new RSM();
+		rsm.setMax(capacity + 1);
+		rsm.setHasBefore(true);
+		List<IItem> loaded;
+		try {
+			loaded = this.dao.getItems(serviceJid, Collections.singletonList(nodeId), null, null, rsm,
+									   CollectionItemsOrdering.byUpdateDate);
+		} catch (RepositoryException ex) {
+			throw ex;
+		} catch (ComponentException ex) {
+			// not expected, as no item is passed as after or before
+			throw new RepositoryException(ex.getMessage(), ex);
+		}
+		if (loaded == null) {
+			synchronized (this) {
+				cacheLoadFailedAt = counter;
+			}
+			return;
+		}
+		LinkedHashMap<String, CachedItem> items = new LinkedHashMap<>();
+		long bytes = 0;
+		for (int i = Math.max(0, loaded.size() - capacity); i < loaded.size(); i++) {
+			IItem item = loaded.get(i);
+			if (isHidden(item.getId())) {
+				continue;
+			}
+			Element element = item.getItem();
+			if (element == null) {
+				continue;
+			}
+			CachedItem cached = new CachedItem(item.getId(), item.getUUID(), element, CachedItem.UNKNOWN);
+			items.put(cached.id, cached);
+			bytes += cached.size;
+		}
+		synchronized (this) {
+			if (cachedItems != null || counter != modificationsCounter || capacity != cacheCapacity) {
+				// items were modified in the meantime
+				return;
+			}
+			if (!cacheBudget.tryAllocate(bytes)) {
+				cacheLoadFailedAt = counter;
+				return;
+			}
+			cachedItems = items;
+			cachedBytes = bytes;
+			allItemsCached = loaded.size() <= capacity;
+			unknownCreationTimes = items.size();
+		}
+	}
+
+	private synchronized void purgeFinished(Date before) {
+		if (purgeBefore != null && !before.before(purgeBefore)) {
+			purgeBefore = null;
+			purgeSurvivors = null;
+		}
+	}
+
+	private String[] filterHidden(String[] ids) {
+		if (ids == null || !isPurgeInProgress()) {
+			return ids;
+		}
+		return Arrays.stream(ids).filter(id -> !isHidden(id)).toArray(String[]::new);
+	}
+
+	private boolean isOrderKnown(CollectionItemsOrdering order) {
+		return order != CollectionItemsOrdering.byCreationDate || unknownCreationTimes == 0;
+	}
+
+	private String[] getCachedItemsIds(CollectionItemsOrdering order) {
+		if (order == CollectionItemsOrdering.byCreationDate) {
+			return cachedItems.values()
+					.stream()
+					.sorted(Comparator.comparingLong(item -> item.creationTime))
+					.map(item -> item.id)
+					.toArray(String[]::new);
+		}
+		return cachedItems.keySet().toArray(new String[0]);
+	}
+
+	private synchronized void invalidateCache() {
+		modificationsCounter++;
+		if (cachedItems != null) {
+			cacheBudget.release(cachedBytes);
+			cachedItems = null;
+			cachedBytes = 0;
+			unknownCreationTimes = 0;
+		}
+	}
+
+	private synchronized void itemDeletedFromCache(String id) {
+		modificationsCounter++;
+		if (purgeSurvivors != null) {
+			purgeSurvivors.remove(id);
+		}
+		if (cachedItems != null) {
+			removeFromCache(cachedItems.remove(id));
+		}
+	}
+
+	private synchronized void itemWrittenToCache(String id, Element item, String uuid, long timestamp) {
+		modificationsCounter++;
+		if (purgeSurvivors != null) {
+			purgeSurvivors.add(id);
+		}
+		if (cachedItems == null) {
+			if (cacheCapacity <= 0 || cacheBudget == null) {
+				return;
+			}
+			// written item is the most recent one, so it may start the cache without loading older items
+			cachedItems = new LinkedHashMap<>();
+			allItemsCached = false;
+		}
+		CachedItem previous = cachedItems.remove(id);
+		removeFromCache(previous);
+		CachedItem cached = new CachedItem(id, uuid, item, previous != null ? previous.creationTime : timestamp);
+		if (!cacheBudget.tryAllocate(cached.size)) {
+			// the newest item cannot be cached, so cache would not contain the most recent items
+			invalidateCache();
+			return;
+		}
+		cachedItems.put(id, cached);
+		cachedBytes += cached.size;
+		if (cached.creationTime == CachedItem.UNKNOWN) {
+			unknownCreationTimes++;
+		}
+		while (cachedItems.size() > cacheCapacity) {
+			String eldest = cachedItems.keySet().iterator().next();
+			removeFromCache(cachedItems.remove(eldest));
+			allItemsCached = false;
+		}
+	}
+
+	private void removeFromCache(CachedItem removed) {
+		if (removed == null) {
+			return;
+		}
+		cachedBytes -= removed.size;
+		cacheBudget.release(removed.size);
+		if (removed.creationTime == CachedItem.UNKNOWN) {
+			unknownCreationTimes--;
+		}
+	}
+
+	private static class CachedItem {
+
+		private static final long UNKNOWN = -1;
+
+		private final long creationTime;
+		private final String id;
+		private final Element item;
+		private final long size;
+		private final String uuid;
+
+		CachedItem(String id, String uuid, Element item, long creationTime) {
+			this.id = id;
+			this.uuid = uuid;
+			// item is copied as element passed to or returned from the repository may be modified later
+			this.item = item.clone();
+			this.creationTime = creationTime;
+			this.size = ElementSize.estimate(this.item);
+		}
+
+		IItem toItem(String nodeName) {
+			return new Item(nodeName, id, uuid, item.clone());
+		}
+	}
+
 }
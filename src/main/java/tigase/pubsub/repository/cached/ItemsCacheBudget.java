@@ -0,0 +1,60 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository.cached;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory budget shared by in-memory caches of last items of all cached nodes.
+ * <br>
+ * Memory used by the cache of a node is released when the node is removed from the nodes cache.
+ */
+public class ItemsCacheBudget {
+
+	private final long maxBytes;
+	private final AtomicLong usedBytes = new AtomicLong();
+
+	public ItemsCacheBudget(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	public boolean tryAllocate(long bytes) {
+		while (true) {
+			long used = usedBytes.get();
+			if (used + bytes > maxBytes) {
+				return false;
+			}
+			if (usedBytes.compareAndSet(used, used + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	public void release(long bytes) {
+		usedBytes.addAndGet(-bytes);
+	}
+
+}
@@ -17,10 +17,16 @@
  */
 package tigase.pubsub.repository.cached;
 
+import tigase.form.Form;
 import tigase.pubsub.AbstractNodeConfig;
+import tigase.pubsub.Affiliation;
+import tigase.pubsub.Subscription;
 import tigase.pubsub.repository.IItems;
 import tigase.pubsub.repository.INodeMeta;
+import tigase.pubsub.repository.stateless.UsersAffiliation;
+import tigase.pubsub.repository.stateless.UsersSubscription;
 import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
 
 import java.util.Date;
 import java.util.List;
@@ -35,6 +41,8 @@ public class Node<T>
 	private final Date creationTime;
 	private final BareJID creator;
 	private CopyOnWriteArrayList<String> childNodes;
+	private volatile JID[] deliveryList;
+	private long deliveryListVersion = 0;
 	// private boolean affNeedsWriting = false;
 	private boolean conNeedsWriting = false;
 	private boolean deleted = false;
@@ -43,7 +51,7 @@ public class Node<T>
 
 	// private Long nodeAffiliationsChangeTimestamp;
 
-	private AbstractNodeConfig nodeConfig;
+	private volatile AbstractNodeConfig nodeConfig;
 	private final T nodeId;
 	private ISubscriptionsCached nodeSubscriptions;
 	private IItems nodeItems;
@@ -65,6 +73,7 @@ public class Node<T>
 
 		this.nodeId = nodeId;
 		this.serviceJid = serviceJid;
+		nodeConfig.setReadOnly();
 		this.nodeConfig = nodeConfig;
 		this.nodeAffiliations = nodeAffiliations;
 		this.nodeSubscriptions = nodeSubscriptions;
@@ -76,6 +85,7 @@ public class Node<T>
 
 	protected void affiliationsMerge() {
 		nodeAffiliations.merge();
+		invalidateDeliveryList();
 	}
 
 	protected boolean affiliationsNeedsWriting() {
@@ -89,11 +99,29 @@ public class Node<T>
 
 	public void configCopyFrom(AbstractNodeConfig nodeConfig) {
 		synchronized (this) {
-			this.nodeConfig.copyFrom(nodeConfig);
+			// node configuration is shared by readers, so changes are applied to a new copy
+			AbstractNodeConfig newConfig = this.nodeConfig.copy();
+			newConfig.copyFrom(nodeConfig);
+			newConfig.setReadOnly();
+			this.nodeConfig = newConfig;
 			conNeedsWriting = true;
 		}
 	}
 
+	/**
+	 * Replaces values of the node configuration with values from the form, without marking configuration as
+	 * requiring to be written to the repository.
+	 * @param form data form with configuration values
+	 */
+	public void configCopyFromForm(Form form) {
+		synchronized (this) {
+			AbstractNodeConfig newConfig = this.nodeConfig.copy();
+			newConfig.copyFromForm(form);
+			newConfig.setReadOnly();
+			this.nodeConfig = newConfig;
+		}
+	}
+
 	public boolean configNeedsWriting() {
 		return conNeedsWriting;
 	}
@@ -148,6 +176,53 @@ public class Node<T>
 	// return nodeConfigChangeTimestamp;
 	// }
 
+	/**
+	 * Returns list of JIDs of subscribers which are not outcasts.
+	 * <br>
+	 * List is calculated on first use and kept until subscriptions or affiliations of the node are merged. If current
+	 * thread has any not merged changes, list is calculated without caching it to reflect those changes.
+	 *
+	 * @return array of JIDs
+	 */
+	public JID[] getDeliveryList() {
+		if (nodeSubscriptions.isChanged() || nodeAffiliations.isChanged()) {
+			return calculateDeliveryList();
+		}
+		JID[] list = deliveryList;
+		if (list == null) {
+			long version;
+			synchronized (this) {
+				version = deliveryListVersion;
+			}
+			list = calculateDeliveryList();
+			synchronized (this) {
+				if (version == deliveryListVersion) {
+					deliveryList = list;
+				}
+			}
+		}
+		return list;
+	}
+
+	public void invalidateDeliveryList() {
+		synchronized (this) {
+			deliveryListVersion++;
+			deliveryList = null;
+		}
+	}
+
+	protected JID[] calculateDeliveryList() {
+		return nodeSubscriptions.getSubscriptionsForPublish()
+				.filter(subscription -> subscription.getSubscription() == Subscription.subscribed)
+				.map(UsersSubscription::getJid)
+				.filter(jid -> {
+					UsersAffiliation affiliation = nodeAffiliations.getSubscriberAffiliation(jid);
+					return affiliation == null || affiliation.getAffiliation() != Affiliation.outcast;
+				})
+				.map(JID::jidInstance)
+				.toArray(JID[]::new);
+	}
+
 	public T getNodeId() {
 		return nodeId;
 	}
@@ -199,6 +274,7 @@ public class Node<T>
 
 	public void subscriptionsMerge() {
 		nodeSubscriptions.merge();
+		invalidateDeliveryList();
 	}
 
 	// public void setNodeAffiliationsChangeTimestamp() {
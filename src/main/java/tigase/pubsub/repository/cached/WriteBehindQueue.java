@@ -0,0 +1,488 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository.cached;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.Affiliation;
+import tigase.pubsub.Subscription;
+import tigase.pubsub.repository.IPubSubDAO;
+import tigase.pubsub.repository.stateless.UsersAffiliation;
+import tigase.pubsub.repository.stateless.UsersSubscription;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind queue for changes of affiliations and subscriptions of nodes.
+ * <br>
+ * Changes are kept in memory per node and per JID, so repeated changes of the affiliation or subscription of the same
+ * JID are coalesced and only the latest one is written. Pending changes are written to the database by a separate
+ * thread after <code>delay</code> milliseconds, up to <code>batchSize</code> changes at once. Each change is still
+ * written by a separate request to the database, the queue only reduces number of writes by coalescing changes and
+ * moves them out of the request processing. If writing fails, changes are put back to the queue (unless there is a
+ * newer change for the same JID) and retried up to <code>maxRetries</code> times.
+ * <br>
+ * Nodes loaded from the database while some of their changes are still pending are updated with those changes.
+ * Copy of pending changes is taken (ie. by <code>getPendingAffiliations()</code>) before the database is read and
+ * applied to the data read (ie. by <code>applyAffiliations()</code>), so a change which is written and no longer
+ * pending when the read completes is still visible. Affiliations and subscriptions of a user read from the database
+ * are updated in the same way.
+ */
+public class WriteBehindQueue<T> {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getCanonicalName());
+
+	private final IPubSubDAO<T, ?, ?> dao;
+	private final long delay;
+	private final int batchSize;
+	private final int maxRetries;
+	private final LinkedHashMap<T, NodeChanges<T>> pending = new LinkedHashMap<>();
+	// changes which are being written at the moment
+	private final HashMap<T, NodeChanges<T>> inFlight = new HashMap<>();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private int pendingCount = 0;
+	private volatile boolean stopped = false;
+	private Thread thread;
+
+	public WriteBehindQueue(IPubSubDAO<T, ?, ?> dao, long delay, int batchSize, int maxRetries) {
+		this.dao = dao;
+		this.delay = delay;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxRetries = maxRetries;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		stopped = false;
+		thread = new Thread(this::run, "pubsub-write-behind");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the queue. All pending changes are written before the worker thread exits.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			stopped = true;
+			thread = this.thread;
+			this.thread = null;
+		}
+		if (thread != null) {
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+			try {
+				thread.join(60 * 1000);
+			} catch (InterruptedException ex) {
+				log.log(Level.FINEST, "interrupted while waiting for pending changes to be written", ex);
+			}
+		}
+	}
+
+	public void addAffiliations(BareJID serviceJid, T nodeId, String nodeName,
+								Map<BareJID, UsersAffiliation> affiliations) {
+		synchronized (pending) {
+			NodeChanges<T> changes = pending.computeIfAbsent(nodeId,
+															 id -> new NodeChanges<>(serviceJid, nodeId, nodeName));
+			for (UsersAffiliation affiliation : affiliations.values()) {
+				if (changes.affiliations.put(affiliation.getJid(),
+											 new UsersAffiliation(affiliation.getJid(), affiliation.getAffiliation())) ==
+						null) {
+					pendingCount++;
+				}
+			}
+			pending.notifyAll();
+		}
+	}
+
+	public void addSubscriptions(BareJID serviceJid, T nodeId, String nodeName,
+								 Map<BareJID, UsersSubscription> subscriptions) {
+		synchronized (pending) {
+			NodeChanges<T> changes = pending.computeIfAbsent(nodeId,
+															 id -> new NodeChanges<>(serviceJid, nodeId, nodeName));
+			for (UsersSubscription subscription : subscriptions.values()) {
+				if (changes.subscriptions.put(subscription.getJid(),
+											  new UsersSubscription(subscription.getJid(), subscription.getSubid(),
+																	subscription.getSubscription())) == null) {
+					pendingCount++;
+				}
+			}
+			pending.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns copy of pending (and being written) changes of affiliations of the node, latest change for each JID.
+	 * It has to be taken before affiliations are read from the database and applied to them with
+	 * {@link #applyAffiliations(Map, Map)}, as changes written in the meantime are no longer pending.
+	 */
+	public Map<BareJID, UsersAffiliation> getPendingAffiliations(T nodeId) {
+		synchronized (pending) {
+			Map<BareJID, UsersAffiliation> result = new HashMap<>();
+			for (NodeChanges<T> changes : getChanges(nodeId)) {
+				for (UsersAffiliation affiliation : changes.affiliations.values()) {
+					result.put(affiliation.getJid(),
+							   new UsersAffiliation(affiliation.getJid(), affiliation.getAffiliation()));
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Returns copy of pending (and being written) changes of subscriptions of the node, latest change for each JID.
+	 * It has to be taken before subscriptions are read from the database and applied to them with
+	 * {@link #applySubscriptions(Map, Map)}.
+	 */
+	public Map<BareJID, UsersSubscription> getPendingSubscriptions(T nodeId) {
+		synchronized (pending) {
+			Map<BareJID, UsersSubscription> result = new HashMap<>();
+			for (NodeChanges<T> changes : getChanges(nodeId)) {
+				for (UsersSubscription subscription : changes.subscriptions.values()) {
+					result.put(subscription.getJid(),
+							   new UsersSubscription(subscription.getJid(), subscription.getSubid(),
+													 subscription.getSubscription()));
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Returns copy of pending (and being written) changes of affiliations of the user (by node name). It has to be
+	 * taken before affiliations of the user are read from the database and applied to them with
+	 * {@link #applyUserAffiliations(Map, Map)}.
+	 */
+	public Map<String, UsersAffiliation> getPendingUserAffiliations(BareJID serviceJid, BareJID jid) {
+		synchronized (pending) {
+			Map<String, UsersAffiliation> result = new HashMap<>();
+			for (NodeChanges<T> changes : getChanges(serviceJid)) {
+				UsersAffiliation affiliation = changes.affiliations.get(jid);
+				if (affiliation != null) {
+					result.put(changes.nodeName, new UsersAffiliation(jid, affiliation.getAffiliation()));
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Returns copy of pending (and being written) changes of subscriptions of the user (by node name). It has to be
+	 * taken before subscriptions of the user are read from the database and applied to them with
+	 * {@link #applyUserSubscriptions(Map, Map)}.
+	 */
+	public Map<String, UsersSubscription> getPendingUserSubscriptions(BareJID serviceJid, BareJID jid) {
+		synchronized (pending) {
+			Map<String, UsersSubscription> result = new HashMap<>();
+			for (NodeChanges<T> changes : getChanges(serviceJid)) {
+				UsersSubscription subscription = changes.subscriptions.get(jid);
+				if (subscription != null) {
+					result.put(changes.nodeName, new UsersSubscription(jid, subscription.getSubid(),
+																	   subscription.getSubscription()));
+				}
+			}
+			return result;
+		}
+	}
+
+	public static Map<BareJID, UsersAffiliation> applyAffiliations(Map<BareJID, UsersAffiliation> affiliations,
+																   Map<BareJID, UsersAffiliation> pendingChanges) {
+		return apply(affiliations, pendingChanges, affiliation -> affiliation.getAffiliation() == Affiliation.none);
+	}
+
+	public static Map<BareJID, UsersSubscription> applySubscriptions(Map<BareJID, UsersSubscription> subscriptions,
+																	 Map<BareJID, UsersSubscription> pendingChanges) {
+		return apply(subscriptions, pendingChanges,
+					 subscription -> subscription.getSubscription() == Subscription.none);
+	}
+
+	public static Map<String, UsersAffiliation> applyUserAffiliations(Map<String, UsersAffiliation> affiliations,
+																	  Map<String, UsersAffiliation> pendingChanges) {
+		return apply(affiliations, pendingChanges, affiliation -> affiliation.getAffiliation() == Affiliation.none);
+	}
+
+	public static Map<String, UsersSubscription> applyUserSubscriptions(Map<String, UsersSubscription> subscriptions,
+																		Map<String, UsersSubscription> pendingChanges) {
+		return apply(subscriptions, pendingChanges,
+					 subscription -> subscription.getSubscription() == Subscription.none);
+	}
+
+	private static <K, V> Map<K, V> apply(Map<K, V> stored, Map<K, V> pendingChanges, Predicate<V> isRemoval) {
+		if (pendingChanges.isEmpty()) {
+			return stored;
+		}
+		Map<K, V> result = stored == null ? new HashMap<>() : new HashMap<>(stored);
+		for (Map.Entry<K, V> e : pendingChanges.entrySet()) {
+			if (isRemoval.test(e.getValue())) {
+				result.remove(e.getKey());
+			} else {
+				result.put(e.getKey(), e.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drops pending changes of the removed node.
+	 */
+	public void nodeRemoved(T nodeId) {
+		synchronized (pending) {
+			inFlight.remove(nodeId);
+			NodeChanges<T> changes = pending.remove(nodeId);
+			if (changes != null) {
+				pendingCount -= changes.size();
+			}
+		}
+	}
+
+	/**
+	 * Drops pending changes of nodes of the removed service.
+	 */
+	public void serviceRemoved(BareJID serviceJid) {
+		synchronized (pending) {
+			inFlight.values().removeIf(changes -> serviceJid.equals(changes.serviceJid));
+			Iterator<NodeChanges<T>> it = pending.values().iterator();
+			while (it.hasNext()) {
+				NodeChanges<T> changes = it.next();
+				if (serviceJid.equals(changes.serviceJid)) {
+					pendingCount -= changes.size();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pendingCount;
+		}
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public long getFailuresCount() {
+		return failures.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private List<NodeChanges<T>> getChanges(T nodeId) {
+		List<NodeChanges<T>> result = new ArrayList<>(2);
+		// changes being written are older than pending ones
+		NodeChanges<T> changes = inFlight.get(nodeId);
+		if (changes != null) {
+			result.add(changes);
+		}
+		changes = pending.get(nodeId);
+		if (changes != null) {
+			result.add(changes);
+		}
+		return result;
+	}
+
+	private List<NodeChanges<T>> getChanges(BareJID serviceJid) {
+		List<NodeChanges<T>> result = new ArrayList<>();
+		// changes being written are older than pending ones
+		for (NodeChanges<T> changes : inFlight.values()) {
+			if (serviceJid.equals(changes.serviceJid)) {
+				result.add(changes);
+			}
+		}
+		for (NodeChanges<T> changes : pending.values()) {
+			if (serviceJid.equals(changes.serviceJid)) {
+				result.add(changes);
+			}
+		}
+		return result;
+	}
+
+	protected void run() {
+		while (true) {
+			List<NodeChanges<T>> batch;
+			try {
+				synchronized (pending) {
+					while (pending.isEmpty() && !stopped) {
+						pending.wait();
+					}
+					if (pending.isEmpty()) {
+						return;
+					}
+					if (!stopped && delay > 0) {
+						// waiting for more changes to coalesce them
+						pending.wait(delay);
+					}
+				}
+				batch = takeBatch();
+			} catch (InterruptedException ex) {
+				continue;
+			} catch (Throwable ex) {
+				log.log(Level.WARNING, "Taking changes to write failed", ex);
+				continue;
+			}
+			boolean success;
+			try {
+				success = writeBatch(batch);
+			} catch (Throwable ex) {
+				log.log(Level.WARNING, "Writing changes failed", ex);
+				success = false;
+			}
+			if (!success && !stopped) {
+				try {
+					Thread.sleep(Math.max(delay, 1000));
+				} catch (InterruptedException ex) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
+	protected List<NodeChanges<T>> takeBatch() {
+		List<NodeChanges<T>> batch = new ArrayList<>();
+		synchronized (pending) {
+			int size = 0;
+			Iterator<NodeChanges<T>> it = pending.values().iterator();
+			while (it.hasNext() && size < batchSize) {
+				NodeChanges<T> changes = it.next();
+				it.remove();
+				size += changes.size();
+				batch.add(changes);
+				inFlight.put(changes.nodeId, changes);
+			}
+			pendingCount -= size;
+		}
+		return batch;
+	}
+
+	/**
+	 * Writes changes and returns <code>false</code> if any of them failed.
+	 */
+	protected boolean writeBatch(List<NodeChanges<T>> batch) {
+		boolean success = true;
+		for (NodeChanges<T> changes : batch) {
+			try {
+				writeChanges(changes);
+				synchronized (pending) {
+					inFlight.remove(changes.nodeId, changes);
+				}
+			} catch (Throwable ex) {
+				success = false;
+				failures.incrementAndGet();
+				requeue(changes, ex);
+			}
+		}
+		return success;
+	}
+
+	protected void writeChanges(NodeChanges<T> changes) throws RepositoryException {
+		Iterator<UsersAffiliation> affIt = changes.affiliations.values().iterator();
+		while (affIt.hasNext()) {
+			dao.updateNodeAffiliation(changes.serviceJid, changes.nodeId, changes.nodeName, affIt.next());
+			synchronized (pending) {
+				affIt.remove();
+			}
+			written.incrementAndGet();
+		}
+		Iterator<UsersSubscription> subIt = changes.subscriptions.values().iterator();
+		while (subIt.hasNext()) {
+			UsersSubscription subscription = subIt.next();
+			if (subscription.getSubscription() == Subscription.none) {
+				dao.removeNodeSubscription(changes.serviceJid, changes.nodeId, subscription.getJid());
+			} else {
+				dao.updateNodeSubscription(changes.serviceJid, changes.nodeId, changes.nodeName, subscription);
+			}
+			synchronized (pending) {
+				subIt.remove();
+			}
+			written.incrementAndGet();
+		}
+	}
+
+	protected void requeue(NodeChanges<T> failed, Throwable ex) {
+		synchronized (pending) {
+			if (!inFlight.remove(failed.nodeId, failed)) {
+				// node was removed in the meantime
+				return;
+			}
+			if (++failed.attempts > maxRetries) {
+				dropped.addAndGet(failed.size());
+				log.log(Level.WARNING, "Dropping " + failed.size() + " changes of node " + failed.nodeName + " at " +
+						failed.serviceJid + " after " + failed.attempts + " failed attempts to write them", ex);
+				return;
+			}
+			log.log(Level.FINE, "Writing changes of node " + failed.nodeName + " at " + failed.serviceJid +
+					" failed, will retry", ex);
+			NodeChanges<T> changes = pending.get(failed.nodeId);
+			if (changes == null) {
+				pending.put(failed.nodeId, failed);
+				pendingCount += failed.size();
+				return;
+			}
+			// newer changes for the same JID take precedence
+			for (Map.Entry<BareJID, UsersAffiliation> e : failed.affiliations.entrySet()) {
+				if (changes.affiliations.putIfAbsent(e.getKey(), e.getValue()) == null) {
+					pendingCount++;
+				}
+			}
+			for (Map.Entry<BareJID, UsersSubscription> e : failed.subscriptions.entrySet()) {
+				if (changes.subscriptions.putIfAbsent(e.getKey(), e.getValue()) == null) {
+					pendingCount++;
+				}
+			}
+			changes.attempts = Math.max(changes.attempts, failed.attempts);
+		}
+	}
+
+	protected static class NodeChanges<T> {
+
+		private final LinkedHashMap<BareJID, UsersAffiliation> affiliations = new LinkedHashMap<>();
+		private final T nodeId;
+		private final String nodeName;
+		private final BareJID serviceJid;
+		private final LinkedHashMap<BareJID, UsersSubscription> subscriptions = new LinkedHashMap<>();
+		private int attempts = 0;
+
+		private NodeChanges(BareJID serviceJid, T nodeId, String nodeName) {
+			this.serviceJid = serviceJid;
+			this.nodeId = nodeId;
+			this.nodeName = nodeName;
+		}
+
+		private int size() {
+			return affiliations.size() + subscriptions.size();
+		}
+	}
+}
@@ -17,12 +17,15 @@
  */
 package tigase.pubsub.repository.derby;
 
+import tigase.pubsub.repository.PubSubDAOJDBC;
 import tigase.util.Algorithms;
 
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -363,6 +366,30 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubGetItems(Long nodeId, String itemsIds, ResultSet[] data) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			String[] ids = splitIds(itemsIds);
+			PreparedStatement ps = conn.prepareStatement(
+					"select pi.id, pi.data, pn.name, pi.uuid " + "from tig_pubsub_items pi " +
+							"inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id " +
+							"where pi.node_id = ? and pi.id in (" + placeholders(ids.length) + ")");
+			ps.setLong(1, nodeId);
+			for (int i = 0; i < ids.length; i++) {
+				ps.setString(i + 2, ids[i]);
+			}
+			data[0] = ps.executeQuery();
+		} catch (SQLException e) {
+			// log.log(Level.SEVERE, "SP error", e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void tigPubSubGetNodeAffiliations(Long nodeId, ResultSet[] data) throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
 
@@ -439,6 +466,27 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubGetNodeLastItem(Long nodeId, Integer order, ResultSet[] data) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			PreparedStatement ps = conn.prepareStatement(
+					"select pi.id, pi.data, pn.name, pi.uuid " + "from tig_pubsub_items pi " +
+							"inner join tig_pubsub_nodes pn on pn.node_id = pi.node_id " + "where pi.node_id = ? " +
+							(order == 1 ? "order by pi.creation_date desc" : "order by pi.update_date desc") +
+							" fetch first 1 rows only");
+			ps.setLong(1, nodeId);
+			data[0] = ps.executeQuery();
+		} catch (SQLException e) {
+			// log.log(Level.SEVERE, "SP error", e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void tigPubSubGetNodeItemIdsSince(Long nodeId, Integer order, java.sql.Timestamp since, ResultSet[] data)
 			throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
@@ -502,6 +550,32 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubGetNodeMetas(String serviceJid, String nodesNames, ResultSet[] data)
+			throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			String[] names = splitIds(nodesNames);
+			PreparedStatement ps = conn.prepareStatement(
+					"select n.node_id, n.name, n.configuration, cj.jid, n.creation_date " + "from tig_pubsub_nodes n " +
+							"inner join tig_pubsub_service_jids sj on n.service_id = sj.service_id " +
+							"inner join tig_pubsub_jids cj on cj.jid_id = n.creator_id " +
+							"where sj.service_jid_sha1 = ? and n.name in (" + placeholders(names.length) + ")");
+			ps.setString(1, sha1OfLower(serviceJid));
+			for (int i = 0; i < names.length; i++) {
+				ps.setString(i + 2, names[i]);
+			}
+			data[0] = ps.executeQuery();
+		} catch (SQLException e) {
+			// log.log(Level.SEVERE, "SP error", e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void tigPubSubGetNodeSubscriptions(Long nodeId, ResultSet[] data) throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
 
@@ -719,6 +793,94 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubMamQueryItemsSeek(Long nodeId, Timestamp since, Timestamp to, String afterUuid,
+												  String beforeUuid, Integer backward, Integer limit,
+												  ResultSet[] data) throws SQLException {
+		String dir = backward == 1 ? " desc" : " asc";
+
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			// if after or before item does not exist, comparison with null timestamp returns no rows
+			Timestamp afterTs = afterUuid == null ? null : getMamItemTimestamp(conn, nodeId, afterUuid);
+			Timestamp beforeTs = beforeUuid == null ? null : getMamItemTimestamp(conn, nodeId, beforeUuid);
+
+			StringBuilder query = new StringBuilder("select pm.uuid, pm.ts, pm.data from tig_pubsub_mam pm" +
+															" where pm.node_id = ?");
+			if (since != null) {
+				query.append(" and pm.ts >= ?");
+			}
+			if (to != null) {
+				query.append(" and pm.ts <= ?");
+			}
+			if (afterUuid != null) {
+				query.append(" and (pm.ts > ? or (pm.ts = ? and pm.uuid > ?))");
+			}
+			if (beforeUuid != null) {
+				query.append(" and (pm.ts < ? or (pm.ts = ? and pm.uuid < ?))");
+			}
+			query.append(" order by pm.ts").append(dir).append(", pm.uuid").append(dir);
+			query.append(" fetch first ? rows only");
+
+			PreparedStatement st = conn.prepareStatement(query.toString());
+			int i = 1;
+			st.setLong(i++, nodeId);
+			if (since != null) {
+				st.setTimestamp(i++, since);
+			}
+			if (to != null) {
+				st.setTimestamp(i++, to);
+			}
+			if (afterUuid != null) {
+				st.setTimestamp(i++, afterTs);
+				st.setTimestamp(i++, afterTs);
+				st.setString(i++, afterUuid);
+			}
+			if (beforeUuid != null) {
+				st.setTimestamp(i++, beforeTs);
+				st.setTimestamp(i++, beforeTs);
+				st.setString(i++, beforeUuid);
+			}
+			st.setInt(i++, limit);
+
+			data[0] = st.executeQuery();
+		} finally {
+			conn.close();
+		}
+	}
+
+	public static void tigPubSubGetBlobReferences(String prefix, ResultSet[] data) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			PreparedStatement ps = conn.prepareStatement(
+					"select data from tig_pubsub_items where data like ?" +
+							" union all select data from tig_pubsub_mam where data like ?");
+			ps.setString(1, prefix);
+			ps.setString(2, prefix);
+			data[0] = ps.executeQuery();
+		} finally {
+			conn.close();
+		}
+	}
+
+	private static Timestamp getMamItemTimestamp(Connection conn, Long nodeId, String uuid) throws SQLException {
+		PreparedStatement st = conn.prepareStatement("select ts from tig_pubsub_mam where node_id = ? and uuid = ?");
+		st.setLong(1, nodeId);
+		st.setString(2, uuid);
+		ResultSet rs = st.executeQuery();
+		try {
+			return rs.next() ? rs.getTimestamp(1) : null;
+		} finally {
+			rs.close();
+			st.close();
+		}
+	}
+
 	public static void tigPubSubMamQueryItemsCount(Long nodeId, Timestamp since, Timestamp to, ResultSet[] data) throws SQLException {
 		String query = "select count(1)" + " from tig_pubsub_mam pm" + " where pm.node_id = ?" +
 				" and (? is null or pm.ts >= ?)" + " and (? is null or pm.ts <= ?)";
@@ -741,6 +903,34 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubPurgeItems(Long nodeId, Timestamp before, Integer limit, ResultSet[] data)
+			throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			PreparedStatement ps = conn.prepareStatement(
+					"select id from tig_pubsub_items where node_id = ? and update_date <= ? fetch first ? rows only");
+			ps.setLong(1, nodeId);
+			ps.setTimestamp(2, before);
+			ps.setInt(3, limit);
+			List<String> ids = new ArrayList<>();
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				ids.add(rs.getString(1));
+			}
+			rs.close();
+
+			data[0] = deleteItems(conn, nodeId, ids);
+		} catch (SQLException e) {
+			// log.log(Level.SEVERE, "SP error", e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void tigPubSubQueryItemPosition(String nodesIds, Timestamp since, Timestamp to,
 													 Integer order, Long nodeId, String itemId, ResultSet[] data)
 			throws SQLException {
@@ -829,6 +1019,63 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubQueryItemsSeek(String nodesIds, Timestamp since, Timestamp to, Integer order,
+											   Long nodeId, String itemId, Integer backward, Integer limit,
+											   ResultSet[] data) throws SQLException {
+		String ts = order == 2 ? "update_date" : "creation_date";
+		String cmp = backward == 1 ? "<" : ">";
+		String dir = backward == 1 ? " desc" : " asc";
+
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			Timestamp cursorTs = null;
+			if (itemId != null) {
+				PreparedStatement st = conn.prepareStatement(
+						"select " + ts + " from tig_pubsub_items where node_id = ? and id = ?");
+				st.setLong(1, nodeId);
+				st.setString(2, itemId);
+				ResultSet rs = st.executeQuery();
+				if (rs.next()) {
+					cursorTs = rs.getTimestamp(1);
+				}
+				rs.close();
+			}
+
+			// if cursor item does not exist, comparison with null cursor returns no rows
+			String cursorFilter = itemId == null
+								  ? ""
+								  : (" and (pi." + ts + " " + cmp + " ? or (pi." + ts + " = ? and (pi.node_id " + cmp +
+										  " ? or (pi.node_id = ? and pi.id " + cmp + " ?))))");
+			String query = "select pn.name, pi.node_id, pi.id, pi.uuid, pi.data" + " from tig_pubsub_items pi" +
+					" inner join tig_pubsub_nodes pn on pi.node_id = pn.node_id" + " where pi.node_id in (" + nodesIds +
+					")" + " and (? is null or pi." + ts + " >= ?)" + " and (? is null or pi." + ts + " <= ?)" +
+					cursorFilter + " order by pi." + ts + dir + ", pi.node_id" + dir + ", pi.id" + dir +
+					" fetch first ? rows only";
+
+			PreparedStatement st = conn.prepareStatement(query);
+			int i = 1;
+			st.setTimestamp(i++, since);
+			st.setTimestamp(i++, since);
+			st.setTimestamp(i++, to);
+			st.setTimestamp(i++, to);
+			if (itemId != null) {
+				st.setTimestamp(i++, cursorTs);
+				st.setTimestamp(i++, cursorTs);
+				st.setLong(i++, nodeId);
+				st.setLong(i++, nodeId);
+				st.setString(i++, itemId);
+			}
+			st.setInt(i++, limit);
+
+			data[0] = st.executeQuery();
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void tigPubSubRemoveNode(Long nodeId, ResultSet[] data) throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
 
@@ -1023,6 +1270,35 @@ public class StoredProcedures {
 		}
 	}
 
+	public static void tigPubSubTrimItems(Long nodeId, Integer maxItems, Integer order, ResultSet[] data)
+			throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			PreparedStatement ps = conn.prepareStatement(
+					"select id from tig_pubsub_items where node_id = ? " +
+							(order == 1 ? "order by creation_date desc" : "order by update_date desc") +
+							" offset ? rows");
+			ps.setLong(1, nodeId);
+			ps.setInt(2, maxItems);
+			List<String> ids = new ArrayList<>();
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				ids.add(rs.getString(1));
+			}
+			rs.close();
+
+			data[0] = deleteItems(conn, nodeId, ids);
+		} catch (SQLException e) {
+			// log.log(Level.SEVERE, "SP error", e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void tigPubSubWriteItem(Long nodeId, String itemId, String publisher, String itemData, Timestamp ts, String uuid,
 										  ResultSet[] data) throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
@@ -1131,4 +1407,63 @@ public class StoredProcedures {
 			conn.close();
 		}
 	}
+
+	private static String[] splitIds(String ids) {
+		return ids.split(String.valueOf(PubSubDAOJDBC.IDS_SEPARATOR), -1);
+	}
+
+	private static String placeholders(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append('?');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Removes items and returns result set with ids of removed items. Ids are staged in a session temporary table, as
+	 * result set returned from the procedure is read after the items are already removed.
+	 */
+	private static ResultSet deleteItems(Connection conn, Long nodeId, List<String> ids) throws SQLException {
+		if (ids.isEmpty()) {
+			return conn.prepareStatement("select id from tig_pubsub_items where 1 = 0").executeQuery();
+		}
+
+		try {
+			conn.createStatement()
+					.execute("declare global temporary table session.tig_pubsub_removed_ids (id varchar(1024)) " +
+									 "on commit preserve rows not logged");
+		} catch (SQLException ex) {
+			// table already declared in this session
+			if (!"X0Y32".equals(ex.getSQLState())) {
+				throw ex;
+			}
+			conn.createStatement().executeUpdate("delete from session.tig_pubsub_removed_ids");
+		}
+
+		PreparedStatement deleteItem = conn.prepareStatement(
+				"delete from tig_pubsub_items where node_id = ? and id = ?");
+		PreparedStatement updateMam = conn.prepareStatement(
+				"update tig_pubsub_mam set data = null where node_id = ? and item_id = ?");
+		PreparedStatement removed = conn.prepareStatement(
+				"insert into session.tig_pubsub_removed_ids (id) values (?)");
+		for (String id : ids) {
+			deleteItem.setLong(1, nodeId);
+			deleteItem.setString(2, id);
+			deleteItem.addBatch();
+			updateMam.setLong(1, nodeId);
+			updateMam.setString(2, id);
+			updateMam.addBatch();
+			removed.setString(1, id);
+			removed.addBatch();
+		}
+		deleteItem.executeBatch();
+		updateMam.executeBatch();
+		removed.executeBatch();
+
+		return conn.prepareStatement("select id from session.tig_pubsub_removed_ids").executeQuery();
+	}
 }
@@ -24,8 +24,7 @@ import tigase.pubsub.repository.IPubSubDAO;
 import tigase.xml.Element;
 import tigase.xmpp.jid.BareJID;
 
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 
 class Items
 		implements IItems {
@@ -54,6 +53,25 @@ class Items
 	public IItem getItem(String id) throws RepositoryException {
 		return this.dao.getItem(serviceJid, nodeId, id);
 	}
+
+	@Override
+	public List<IItem> getItems(List<String> ids) throws RepositoryException {
+		List<IItem> loaded = this.dao.getItems(serviceJid, nodeId, ids);
+		Map<String, IItem> found = new HashMap<>();
+		if (loaded != null) {
+			for (IItem item : loaded) {
+				found.put(item.getId(), item);
+			}
+		}
+		List<IItem> result = new ArrayList<>();
+		for (String id : ids) {
+			IItem item = found.get(id);
+			if (item != null) {
+				result.add(item);
+			}
+		}
+		return result;
+	}
 	
 	@Override
 	public String[] getItemsIds(CollectionItemsOrdering order) throws RepositoryException {
@@ -72,11 +90,17 @@ class Items
 
 	@Override
 	public IItem getLastItem(CollectionItemsOrdering order) throws RepositoryException {
-		String[] itemIds = this.getItemsIds(order);
-		if (itemIds != null && itemIds.length > 0) {
-			return getItem(itemIds[itemIds.length - 1]);
-		}
-		return null;
+		return this.dao.getLastItem(serviceJid, nodeId, order);
+	}
+
+	@Override
+	public String[] trimItems(int maxItems, CollectionItemsOrdering order) throws RepositoryException {
+		return this.dao.trimItems(serviceJid, nodeId, maxItems, order);
+	}
+
+	@Override
+	public String[] purgeItems(Date before, int limit) throws RepositoryException {
+		return this.dao.purgeItems(serviceJid, nodeId, before, limit);
 	}
 
 	@Override
@@ -20,6 +20,7 @@ package tigase.pubsub.utils;
 import tigase.stats.StatisticHolder;
 
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 public interface Cache<K,V> extends StatisticHolder {
@@ -36,6 +37,15 @@ public interface Cache<K,V> extends StatisticHolder {
 	int size();
 	void setMaxSize(int maxSize);
 
+	/**
+	 * Sets listener called (outside of any lock of the cache) for each entry removed from the cache, either
+	 * explicitly or due to exceeding of the max size of the cache. It is not called when a value is replaced.
+	 * @param listener called with key and value of the removed entry
+	 */
+	default void setRemovalListener(BiConsumer<K, V> listener) {
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
 	@FunctionalInterface
 	interface CacheSupplier<V> {
 		V get() throws CacheException;
@@ -382,7 +382,10 @@ public class DefaultPubSubLogic
 		
 		IAffiliations nodeAffiliations = getRepository().getNodeAffiliations(serviceJid, nodeName);
 		ISubscriptions nodesSubscriptions = getRepository().getNodeSubscriptions(serviceJid, nodeName);
-		Stream<JID> stream = getActiveSubscribers(nodesSubscriptions, nodeAffiliations);
+		JID[] deliveryList = getRepository().getNodeDeliveryList(serviceJid, nodeName);
+		Stream<JID> stream = deliveryList != null
+							 ? Arrays.stream(deliveryList)
+							 : getActiveSubscribers(nodesSubscriptions, nodeAffiliations);
 
 		if (nodeConfig.isPresenceExpired()) {
 			final AtomicBoolean updateSubscriptions = new AtomicBoolean(false);
@@ -422,8 +425,10 @@ public class DefaultPubSubLogic
 																							   "+notify").stream());
 						break;
 					case roster:
-						String[] allowedGroups = nodeConfig.getRosterGroupsAllowed();
-						if (allowedGroups != null && allowedGroups.length > 0) {
+						String[] groups = nodeConfig.getRosterGroupsAllowed();
+						if (groups != null && groups.length > 0) {
+							// sorted copy, as array of the configuration may be shared with other threads
+							final String[] allowedGroups = groups.clone();
 							Arrays.sort(allowedGroups);
 							List<JID> jids = this.presenceCollectorModule.getAllAvailableJidsWithFeature(serviceJid,
 																										 nodeConfig.getNodeName() +
@@ -0,0 +1,58 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils;
+
+import tigase.xml.Element;
+
+import java.util.List;
+import java.util.Map;
+
+public final class ElementSize {
+
+	/**
+	 * Estimates amount of memory used by the element by walking its tree, without serializing it.
+	 *
+	 * @param element element to estimate
+	 *
+	 * @return estimated size in bytes
+	 */
+	public static long estimate(Element element) {
+		long size = 64 + 2L * element.getName().length();
+		Map<String, String> attributes = element.getAttributes();
+		if (attributes != null) {
+			for (Map.Entry<String, String> e : attributes.entrySet()) {
+				size += 64 + 2L * (e.getKey().length() + e.getValue().length());
+			}
+		}
+		String cdata = element.getCData();
+		if (cdata != null) {
+			size += 2L * cdata.length();
+		}
+		List<Element> children = element.getChildren();
+		if (children != null) {
+			for (Element child : children) {
+				size += estimate(child);
+			}
+		}
+		return size;
+	}
+
+	private ElementSize() {
+	}
+
+}
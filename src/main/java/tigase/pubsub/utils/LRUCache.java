@@ -22,6 +22,7 @@ import tigase.stats.StatisticsList;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -48,6 +49,7 @@ public class LRUCache<K,V> implements Cache<K,V> {
 	private final Map<K,Node<K,V>> cache;
 	private final AtomicInteger size = new AtomicInteger(0);
 	private int maxSize;
+	private volatile BiConsumer<K,V> removalListener;
 
 	private final Node<K,V> head;
 	private final Node<K,V> tail;
@@ -70,24 +72,27 @@ public class LRUCache<K,V> implements Cache<K,V> {
 	}
 
 	public V computeIfAbsent(K key, CacheSupplier<V> supplier) throws CacheException {
-		synchronized (this) {
-			requestsCounter.inc();
-			Node<K,V> node = cache.get(key);
-			if (node != null) {
-				removeFromQueue(node);
-				appendToQueue(node);
-				hitsCounter.inc();
-				return node.value;
-			} else {
-				Node<K,V> newNode = newNode(key, supplier.get());
-				cache.put(key, newNode);
-				appendToQueue(newNode);
-				size.incrementAndGet();
-				while (size.get() > maxSize) {
-					removeFirst();
+		List<Node<K,V>> removed = null;
+		try {
+			synchronized (this) {
+				requestsCounter.inc();
+				Node<K,V> node = cache.get(key);
+				if (node != null) {
+					removeFromQueue(node);
+					appendToQueue(node);
+					hitsCounter.inc();
+					return node.value;
+				} else {
+					Node<K,V> newNode = newNode(key, supplier.get());
+					cache.put(key, newNode);
+					appendToQueue(newNode);
+					size.incrementAndGet();
+					removed = removeExceeding();
+					return newNode.value;
 				}
-				return newNode.value;
 			}
+		} finally {
+			notifyRemoved(removed);
 		}
 	}
 	
@@ -108,63 +113,71 @@ public class LRUCache<K,V> implements Cache<K,V> {
 
 	public V put(K key, V value) {
 		Node<K,V> newNode = newNode(key, value);
+		Node<K,V> oldNode;
+		List<Node<K,V>> removed;
 		synchronized (this) {
-			Node<K,V> oldNode = cache.put(key, newNode);
+			oldNode = cache.put(key, newNode);
 			if (oldNode != null) {
 				removeFromQueue(oldNode);
 			} else {
 				size.incrementAndGet();
 			}
 			appendToQueue(newNode);
-			while (size.get() > maxSize) {
-				removeFirst();
-			}
-			return oldNode == null ? null : oldNode.value;
+			removed = removeExceeding();
 		}
+		notifyRemoved(removed);
+		return oldNode == null ? null : oldNode.value;
 	}
 
 	@Override
 	public V putIfAbsent(K key, V value) {
 		Node<K,V> newNode = newNode(key, value);
+		Node<K,V> oldNode;
+		List<Node<K,V>> removed = null;
 		synchronized (this) {
 			requestsCounter.inc();
-			Node<K,V> oldNode = cache.putIfAbsent(key, newNode);
+			oldNode = cache.putIfAbsent(key, newNode);
 			if (oldNode == null) {
 				appendToQueue(newNode);
 				size.incrementAndGet();
-				while (size.get() > maxSize) {
-					removeFirst();
-				}
-				return null;
+				removed = removeExceeding();
+			} else {
+				hitsCounter.inc();
 			}
-			hitsCounter.inc();
-			return oldNode.value;
 		}
+		notifyRemoved(removed);
+		return oldNode == null ? null : oldNode.value;
 	}
 
 	public V remove(K key) {
+		Node<K, V> node;
 		synchronized (this) {
-			Node<K, V> node = cache.remove(key);
+			node = cache.remove(key);
 			if (node != null) {
 				removeFromQueue(node);
 				size.decrementAndGet();
 			}
-			return node == null ? null : node.value;
 		}
+		if (node == null) {
+			return null;
+		}
+		notifyRemoved(Collections.singletonList(node));
+		return node.value;
 	}
 
 	public boolean remove(K key, V value) {
+		Node<K, V> node;
 		synchronized (this) {
-			Node<K, V> node = cache.get(key);
-			if (node != null && node.value == value) {
-				cache.remove(key, node);
-				removeFromQueue(node);
-				size.decrementAndGet();
-				return true;
-			} else {
+			node = cache.get(key);
+			if (node == null || node.value != value) {
 				return false;
 			}
+			cache.remove(key, node);
+			removeFromQueue(node);
+			size.decrementAndGet();
 		}
+		notifyRemoved(Collections.singletonList(node));
+		return true;
 	}
 
 	@Override
@@ -188,12 +201,17 @@ public class LRUCache<K,V> implements Cache<K,V> {
 	}
 
 	public void setMaxSize(int size) {
+		List<Node<K,V>> removed;
 		synchronized (this) {
 			this.maxSize = size;
-			while (this.size.get() > maxSize) {
-				removeFirst();
-			}
+			removed = removeExceeding();
 		}
+		notifyRemoved(removed);
+	}
+
+	@Override
+	public void setRemovalListener(BiConsumer<K,V> listener) {
+		this.removalListener = listener;
 	}
 
 	@Override
@@ -255,14 +273,40 @@ public class LRUCache<K,V> implements Cache<K,V> {
 		next.prev = prev;
 	}
 
-	private void removeFirst() {
+	private Node<K,V> removeFirst() {
 		Node<K,V> node = head.next;
 		if (node == tail) {
-			return;
+			return null;
 		}
 		removeFromQueue(node);
 		cache.remove(node.key);
 		size.decrementAndGet();
+		return node;
+	}
+
+	private List<Node<K,V>> removeExceeding() {
+		List<Node<K,V>> removed = null;
+		while (size.get() > maxSize) {
+			Node<K,V> node = removeFirst();
+			if (node == null) {
+				break;
+			}
+			if (removed == null) {
+				removed = new ArrayList<>();
+			}
+			removed.add(node);
+		}
+		return removed;
+	}
+
+	private void notifyRemoved(List<Node<K,V>> removed) {
+		BiConsumer<K,V> listener = removalListener;
+		if (listener == null || removed == null) {
+			return;
+		}
+		for (Node<K,V> node : removed) {
+			listener.accept(node.key, node.value);
+		}
 	}
 
 	private Node<K,V> newNode(K key, V value) {
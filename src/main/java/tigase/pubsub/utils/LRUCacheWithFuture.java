@@ -24,6 +24,7 @@ import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 /**
@@ -172,6 +173,19 @@ public class LRUCacheWithFuture<K,V> implements Cache<K,V> {
 		cache.setMaxSize(size);
 	}
 
+	@Override
+	public void setRemovalListener(BiConsumer<K,V> listener) {
+		// values which are not computed yet or failed were never visible, so listener is not notified about them
+		cache.setRemovalListener(listener == null ? null : (key, future) -> {
+			if (future.isDone() && !future.isCompletedExceptionally() && !future.isCancelled()) {
+				V value = future.join();
+				if (value != null) {
+					listener.accept(key, value);
+				}
+			}
+		});
+	}
+
 	@Override
 	public void everyHour() {
 		cache.everyHour();
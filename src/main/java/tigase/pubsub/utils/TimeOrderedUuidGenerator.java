@@ -0,0 +1,72 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time-ordered ids following layout of version 7 UUIDs: 48 bits of Unix time in milliseconds, version, 12
+ * bits of a counter of ids generated within the same millisecond and 62 random bits. Ids generated by a single
+ * instance are strictly increasing (compared as numbers or as strings), even if more than 4096 ids are generated
+ * within a millisecond or the system clock goes back, as timestamp of an id is then moved forward.
+ */
+public class TimeOrderedUuidGenerator {
+
+	private static final int COUNTER_BITS = 12;
+	private static final long VERSION = 0x7000L;
+
+	private final AtomicLong lastTimeAndCounter = new AtomicLong();
+
+	/**
+	 * Returns time of creation of a time-ordered id.
+	 *
+	 * @param uuid id as a string
+	 *
+	 * @return time of creation or <code>null</code> if it is not a time-ordered id
+	 */
+	public static Date getTimestamp(String uuid) {
+		if (uuid == null || uuid.length() != 36 || uuid.charAt(14) != '7') {
+			return null;
+		}
+		try {
+			return new Date(UUID.fromString(uuid).getMostSignificantBits() >>> 16);
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	public UUID generate() {
+		return generate(System.currentTimeMillis());
+	}
+
+	public String generateString() {
+		return generate().toString();
+	}
+
+	protected UUID generate(long currentTimeMillis) {
+		long candidate = currentTimeMillis << COUNTER_BITS;
+		long timeAndCounter = lastTimeAndCounter.updateAndGet(last -> candidate > last ? candidate : last + 1);
+		long msb = ((timeAndCounter >>> COUNTER_BITS) << 16) | VERSION |
+				(timeAndCounter & ((1L << COUNTER_BITS) - 1));
+		long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
+	}
+}
@@ -25,24 +25,38 @@ import tigase.kernel.beans.UnregisterAware;
 public class AbstractQueuingExecutor implements Executor, UnregisterAware {
 
 	protected final ExecutionQueue queue = new ExecutionQueue();
+	private final QueueMonitor monitor = new QueueMonitor();
 
 	@Override
 	public boolean isOverloaded() {
-		// TODO: maybe different value should be used but queue size is limited to Integer.MAX_VALUE
-		// so after using half of the capacity we should stop processing new publications
-		// TODO: should we consider also the amount of free heap?
-		return queue.totalSize() > Integer.MAX_VALUE;
+		// queue is not bounded, limits of queued notifications, memory and delay are checked by AdmissionController
+		return false;
 	}
 
 	@Override
 	public void submit(Priority priority, Runnable runnable) {
 		try {
-			queue.put(priority, runnable);
+			queue.put(priority, monitor.enqueue(runnable));
 		} catch (InterruptedException ex) {
 			// handle exception somehow..
 		}
 	}
 
+	@Override
+	public long getQueuedWeight() {
+		return monitor.getQueuedWeight();
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		return monitor.getQueuedBytes();
+	}
+
+	@Override
+	public long getQueueDelay() {
+		return monitor.getQueueDelay();
+	}
+
 	@Override
 	public void beforeUnregister() {
 		synchronized (queue) {
@@ -52,13 +66,42 @@ public class AbstractQueuingExecutor implements Executor, UnregisterAware {
 
 	/**
 	 * Method called by subclass to execute a single task from the queue or wait for any task to appear.
+	 * @return weight of the executed task
 	 * @throws InterruptedException
 	 */
-	protected void execute() throws InterruptedException {
-		Runnable run = queue.take();
+	protected int execute() throws InterruptedException {
+		Runnable run = take();
 		if (run != null) {
 			run.run();
+			if (run instanceof QueueMonitor.QueuedTask) {
+				return ((QueueMonitor.QueuedTask) run).weight;
+			}
 		}
+		return 1;
+	}
+
+	/**
+	 * Method called by subclass to take a single task from the queue (or wait for any task to appear) without
+	 * executing it.
+	 * @return task to execute
+	 * @throws InterruptedException
+	 */
+	protected Runnable take() throws InterruptedException {
+		Runnable run = queue.take();
+		if (run instanceof QueueMonitor.QueuedTask) {
+			monitor.dequeued((QueueMonitor.QueuedTask) run);
+		}
+		return run;
+	}
+
+	/**
+	 * Returns ordering key of the task taken from the queue.
+	 * @param run task taken from the queue
+	 * @return ordering key or <code>null</code> if task does not require ordering
+	 */
+	protected static Object getOrderingKey(Runnable run) {
+		Runnable task = run instanceof QueueMonitor.QueuedTask ? ((QueueMonitor.QueuedTask) run).task : run;
+		return task instanceof OrderedTask ? ((OrderedTask) task).getOrderingKey() : null;
 	}
 
 }
@@ -0,0 +1,204 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.pubsub.PubSubComponent;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.stats.Counter;
+import tigase.stats.StatisticHolder;
+import tigase.stats.StatisticsList;
+import tigase.sys.TigaseRuntime;
+import tigase.xmpp.Authorization;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class decides if new publications should be accepted, based on the state of <code>publishExecutor</code> and
+ * usage of the heap.
+ * <br>
+ * Publication is rejected with <code>resource-constraint</code> error if any of the following limits is exceeded:
+ * <ul>
+ *     <li>number of notifications waiting for delivery</li>
+ *     <li>estimated amount of memory retained by notifications waiting for delivery</li>
+ *     <li>heap usage</li>
+ *     <li>time for which notifications are waiting for delivery</li>
+ * </ul>
+ * Setting any of the limits to <code>0</code> disables it.
+ */
+@Bean(name = "admissionController", parent = PubSubComponent.class, active = true, exportable = true)
+public class AdmissionController
+		implements StatisticHolder {
+
+	private static final Logger log = Logger.getLogger(AdmissionController.class.getCanonicalName());
+
+	@ConfigField(desc = "Max number of notifications waiting for delivery")
+	private long maxQueuedNotifications = 1000000;
+	@ConfigField(desc = "Max estimated size of notifications waiting for delivery (in bytes)")
+	private long maxQueuedBytes = Runtime.getRuntime().maxMemory() / 10;
+	@ConfigField(desc = "Max heap usage (in percents)")
+	private float maxHeapUsage = 95.0f;
+	@ConfigField(desc = "Max time for which notifications are waiting for delivery (in milliseconds)")
+	private long maxQueueDelay = 60 * 1000;
+
+	@Inject(bean = "publishExecutor")
+	private Executor publishExecutor;
+
+	private final Counter rejectedCounter = new Counter("admission/rejected publications", Level.FINE);
+	private volatile State state = State.accepting;
+
+	public AdmissionController() {
+	}
+
+	public AdmissionController(Executor publishExecutor) {
+		this.publishExecutor = publishExecutor;
+	}
+
+	/**
+	 * Checks if new publication may be accepted.
+	 * @throws PubSubException with <code>resource-constraint</code> error if publication should be rejected
+	 */
+	public void checkAdmission() throws PubSubException {
+		State state = calculateState();
+		if (state != this.state) {
+			if (log.isLoggable(Level.CONFIG)) {
+				log.log(Level.CONFIG, "admission control state changed from " + this.state + " to " + state);
+			}
+			this.state = state;
+		}
+		if (state != State.accepting) {
+			rejectedCounter.inc();
+			throw new PubSubException(Authorization.RESOURCE_CONSTRAINT, state.getDescription());
+		}
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getMaxQueuedNotifications() {
+		return maxQueuedNotifications;
+	}
+
+	public void setMaxQueuedNotifications(long maxQueuedNotifications) {
+		this.maxQueuedNotifications = maxQueuedNotifications;
+	}
+
+	public long getMaxQueuedBytes() {
+		return maxQueuedBytes;
+	}
+
+	public void setMaxQueuedBytes(long maxQueuedBytes) {
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	public float getMaxHeapUsage() {
+		return maxHeapUsage;
+	}
+
+	public void setMaxHeapUsage(float maxHeapUsage) {
+		this.maxHeapUsage = maxHeapUsage;
+	}
+
+	public long getMaxQueueDelay() {
+		return maxQueueDelay;
+	}
+
+	public void setMaxQueueDelay(long maxQueueDelay) {
+		this.maxQueueDelay = maxQueueDelay;
+	}
+
+	@Override
+	public void everyHour() {
+		rejectedCounter.everyHour();
+	}
+
+	@Override
+	public void everyMinute() {
+		rejectedCounter.everyMinute();
+	}
+
+	@Override
+	public void everySecond() {
+		rejectedCounter.everySecond();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		State state = calculateState();
+		this.state = state;
+		list.add(compName, "admission/state", state.name(), state == State.accepting ? Level.FINEST : Level.INFO);
+		list.add(compName, "admission/queued notifications", publishExecutor.getQueuedWeight(), Level.FINE);
+		list.add(compName, "admission/queued bytes", publishExecutor.getQueuedBytes(), Level.FINE);
+		list.add(compName, "admission/queue delay [ms]", publishExecutor.getQueueDelay(), Level.FINE);
+		rejectedCounter.getStatistics(compName, list);
+	}
+
+	@Override
+	public void setStatisticsPrefix(String prefix) {
+	}
+
+	@Override
+	public void statisticExecutedIn(long executionTime) {
+	}
+
+	protected float getHeapUsage() {
+		return TigaseRuntime.getTigaseRuntime().getHeapMemUsage();
+	}
+
+	protected State calculateState() {
+		if (publishExecutor.isOverloaded()) {
+			return State.executorOverloaded;
+		}
+		if (maxQueuedNotifications > 0 && publishExecutor.getQueuedWeight() > maxQueuedNotifications) {
+			return State.queueSizeExceeded;
+		}
+		if (maxQueuedBytes > 0 && publishExecutor.getQueuedBytes() > maxQueuedBytes) {
+			return State.queuedBytesExceeded;
+		}
+		if (maxQueueDelay > 0 && publishExecutor.getQueueDelay() > maxQueueDelay) {
+			return State.queueDelayExceeded;
+		}
+		if (maxHeapUsage > 0 && getHeapUsage() > maxHeapUsage) {
+			return State.heapUsageExceeded;
+		}
+		return State.accepting;
+	}
+
+	public enum State {
+		accepting(null),
+		executorOverloaded("Publication executor is overloaded"),
+		queueSizeExceeded("Too many notifications waiting for delivery"),
+		queuedBytesExceeded("Too much memory used by notifications waiting for delivery"),
+		queueDelayExceeded("Notifications delivery is delayed"),
+		heapUsageExceeded("Memory usage is too high");
+
+		private final String description;
+
+		State(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+}
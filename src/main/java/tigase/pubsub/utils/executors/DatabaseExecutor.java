@@ -0,0 +1,62 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.pubsub.PubSubComponent;
+
+/**
+ * Executor running repository calls submitted by {@link tigase.pubsub.repository.AsyncPubSubRepository}, so that
+ * threads of the component are not blocked by the database.
+ * <br>
+ * Number of repository calls executed concurrently is limited by <code>maxConcurrentTasks</code>, which should be
+ * set according to the size of the database connections pool, and number of queued calls is limited by
+ * <code>maxQueueSize</code>. Calls related to the same node are executed in order of submission.
+ * <br>
+ * It is not active by default and has to be enabled (together with <code>asyncRepository</code>) when
+ * <code>async-publish</code> of <code>publishItemModule</code> is set.
+ * <br>
+ * <b>Limitation:</b> repository calls are executed on virtual threads (on Java 21 or newer), but database access is
+ * synchronized on prepared statements, which pins the virtual thread to its carrier thread on JVMs older than 24.
+ * On such JVMs <code>maxConcurrentTasks</code> should not exceed the number of carrier threads.
+ */
+@Bean(name = "databaseExecutor", parent = PubSubComponent.class, active = false, exportable = true)
+public class DatabaseExecutor
+		extends VirtualThreadExecutor {
+
+	@ConfigField(desc = "Max number of queued repository calls (0 - unlimited)")
+	private int maxQueueSize = 10000;
+
+	public DatabaseExecutor() {
+		setMaxConcurrentTasks(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	@Override
+	public boolean isOverloaded() {
+		return maxQueueSize > 0 && queue.totalSize() >= maxQueueSize;
+	}
+}
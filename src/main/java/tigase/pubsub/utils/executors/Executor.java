@@ -36,6 +36,82 @@ public interface Executor {
 	 */
 	void submit(Priority priority, Runnable runnable);
 
+	/**
+	 * Returns number of simple tasks waiting for execution, ie. sum of weights of queued tasks.
+	 * @return number of queued simple tasks
+	 */
+	default long getQueuedWeight() {
+		return 0;
+	}
+
+	/**
+	 * Returns estimated amount of memory retained by queued tasks.
+	 * @return estimated size in bytes
+	 */
+	default long getQueuedBytes() {
+		return 0;
+	}
+
+	/**
+	 * Returns estimated time for which tasks are waiting in the queue before being executed.
+	 * @return time in milliseconds
+	 */
+	default long getQueueDelay() {
+		return 0;
+	}
+
+	/**
+	 * Task which single execution stands for many executions of simple tasks, ie. delivery of a notification to
+	 * a chunk of recipients. Executors limiting rate of executions should use its weight instead of counting it
+	 * as a single execution.
+	 */
+	interface WeightedTask extends Runnable {
+
+		/**
+		 * Returns number of simple tasks which will be done during next execution of this task.
+		 * @return weight of the task
+		 */
+		int getWeight();
+
+		/**
+		 * Returns number of simple tasks which are still to be done by this task, including its next execution, ie.
+		 * number of recipients to which notification is not delivered yet. Executors should use it to report number
+		 * of queued simple tasks, as weight of the task covers only its next execution.
+		 * @return remaining weight of the task
+		 */
+		default long getRemainingWeight() {
+			return getWeight();
+		}
+
+	}
+
+	/**
+	 * Task which is able to estimate amount of memory retained by it while waiting for execution.
+	 */
+	interface SizedTask extends Runnable {
+
+		/**
+		 * Returns estimated amount of memory retained by this task.
+		 * @return estimated size in bytes
+		 */
+		long getEstimatedSize();
+
+	}
+
+	/**
+	 * Task which has to be executed in order of submission with other tasks with the same ordering key.
+	 * Executors processing tasks concurrently should execute such tasks sequentially.
+	 */
+	interface OrderedTask extends Runnable {
+
+		/**
+		 * Returns key of the task. Tasks with equal keys are executed in order of submission.
+		 * @return ordering key
+		 */
+		Object getOrderingKey();
+
+	}
+
 	public enum Priority{
 		high,
 		normal,
@@ -0,0 +1,104 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.pubsub.PubSubComponent;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class implements an executor running submitted tasks on a fixed number of threads, executing tasks with higher
+ * priority first.
+ * <br>
+ * By default it is used for tasks sending last published items on presence and CAPS changes.
+ */
+@Bean(name = "lastPublishedItemExecutor", parent = PubSubComponent.class, active = true, exportable = true)
+public class FixedThreadPoolExecutor
+		extends AbstractQueuingExecutor
+		implements Initializable {
+
+	private static final Logger log = Logger.getLogger(FixedThreadPoolExecutor.class.getCanonicalName());
+
+	@ConfigField(desc = "Number of threads")
+	private int threads = Runtime.getRuntime().availableProcessors() * 4;
+
+	private final String threadNamePrefix;
+	private final int threadPriority;
+	private Thread[] workers;
+	private volatile boolean stopped = false;
+
+	public FixedThreadPoolExecutor() {
+		this("last-published-item-executor-", Thread.NORM_PRIORITY);
+	}
+
+	protected FixedThreadPoolExecutor(String threadNamePrefix, int threadPriority) {
+		this.threadNamePrefix = threadNamePrefix;
+		this.threadPriority = threadPriority;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	@Override
+	public synchronized void initialize() {
+		if (workers != null) {
+			return;
+		}
+		stopped = false;
+		workers = new Thread[Math.max(1, threads)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(this::run, threadNamePrefix + i);
+			workers[i].setDaemon(true);
+			workers[i].setPriority(threadPriority);
+			workers[i].start();
+		}
+	}
+
+	@Override
+	public synchronized void beforeUnregister() {
+		stopped = true;
+		if (workers != null) {
+			for (Thread worker : workers) {
+				worker.interrupt();
+			}
+			workers = null;
+		}
+		super.beforeUnregister();
+	}
+
+	private void run() {
+		while (!stopped) {
+			try {
+				execute();
+			} catch (InterruptedException ex) {
+				// executor is being stopped
+			} catch (Throwable ex) {
+				log.log(Level.WARNING, "Execution of task failed", ex);
+			}
+		}
+	}
+}
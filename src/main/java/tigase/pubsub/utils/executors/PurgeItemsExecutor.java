@@ -0,0 +1,37 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import tigase.kernel.beans.Bean;
+import tigase.pubsub.PubSubComponent;
+
+/**
+ * Executor removing items of purged nodes in background.
+ * <br>
+ * It uses a single low priority thread by default, so removal of items does not compete with delivery of
+ * notifications and last published items.
+ */
+@Bean(name = "purgeItemsExecutor", parent = PubSubComponent.class, active = true, exportable = true)
+public class PurgeItemsExecutor
+		extends FixedThreadPoolExecutor {
+
+	public PurgeItemsExecutor() {
+		super("purge-items-executor-", Thread.MIN_PRIORITY);
+		setThreads(1);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class tracks state of tasks queued by an executor: weight and estimated size of queued tasks and time for which
+ * they wait for execution.
+ * <br>
+ * Queued weight is a sum of remaining weights of the tasks, so a broadcast delivered in chunks is counted with all
+ * of its undelivered notifications, while weight of the task (single chunk) is kept for limiting rate of executions.
+ */
+class QueueMonitor {
+
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final AtomicLong queuedWeight = new AtomicLong();
+	private volatile long lastDelay = 0;
+	private volatile long lastDequeueTime = System.currentTimeMillis();
+
+	/**
+	 * Wraps task which is about to be queued.
+	 * @param task to queue
+	 * @return task which should be put in the queue
+	 */
+	QueuedTask enqueue(Runnable task) {
+		int weight = 1;
+		long remainingWeight = 1;
+		if (task instanceof Executor.WeightedTask) {
+			weight = Math.max(1, ((Executor.WeightedTask) task).getWeight());
+			remainingWeight = Math.max(weight, ((Executor.WeightedTask) task).getRemainingWeight());
+		}
+		long size = task instanceof Executor.SizedTask ? ((Executor.SizedTask) task).getEstimatedSize() : 0;
+		long now = System.currentTimeMillis();
+		if (queuedWeight.getAndAdd(remainingWeight) == 0) {
+			// queue was empty, so we should not count time when it was idle
+			lastDequeueTime = now;
+		}
+		queuedBytes.addAndGet(size);
+		return new QueuedTask(task, weight, remainingWeight, size, now);
+	}
+
+	/**
+	 * Method needs to be called when task is removed from the queue.
+	 * @param task removed from the queue
+	 */
+	void dequeued(QueuedTask task) {
+		long now = System.currentTimeMillis();
+		queuedWeight.addAndGet(-task.remainingWeight);
+		queuedBytes.addAndGet(-task.size);
+		lastDelay = now - task.enqueueTime;
+		lastDequeueTime = now;
+	}
+
+	long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	long getQueuedWeight() {
+		return queuedWeight.get();
+	}
+
+	/**
+	 * Returns time for which last executed task waited in the queue or time since last task was taken from
+	 * the queue (if it is bigger and queue is not empty).
+	 * @return time in milliseconds
+	 */
+	long getQueueDelay() {
+		if (queuedWeight.get() <= 0) {
+			return 0;
+		}
+		return Math.max(lastDelay, System.currentTimeMillis() - lastDequeueTime);
+	}
+
+	static final class QueuedTask
+			implements Runnable {
+
+		final Runnable task;
+		final int weight;
+		final long remainingWeight;
+		final long size;
+		final long enqueueTime;
+
+		QueuedTask(Runnable task, int weight, long remainingWeight, long size, long enqueueTime) {
+			this.task = task;
+			this.weight = weight;
+			this.remainingWeight = remainingWeight;
+			this.size = size;
+			this.enqueueTime = enqueueTime;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+	}
+}
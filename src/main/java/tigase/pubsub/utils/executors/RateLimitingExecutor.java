@@ -66,11 +66,12 @@ public class RateLimitingExecutor extends AbstractQueuingExecutor
 			long sleepTime = getSleepTime();
 			MemoryUsage memoryUsage = currentMemoryUsage();
 			long permissions = getPermissions(sleepTime, memoryUsage);
-			for (int i=0; i<permissions; i++) {
+			for (long i=0; i<permissions;) {
 				try {
-					execute();
+					i += execute();
 				} catch (InterruptedException ex) {
 					// handle exception somehow..
+					i++;
 				}
 			}
 			long end = System.currentTimeMillis();
@@ -152,23 +153,27 @@ public class RateLimitingExecutor extends AbstractQueuingExecutor
 	}
 
 	public MemoryUsage currentMemoryUsage() {
-		float usage = TigaseRuntime.getTigaseRuntime().getHeapMemUsage();
-		if (usage < highMemoryUsageLimit) {
-			return MemoryUsage.normal;
-		}
-		if (usage > criticalMemoryUsageLimit) {
-			return MemoryUsage.critical;
-		}
-		if (usage > (criticalMemoryUsageLimit + highMemoryUsageLimit) / 2) {
-			return MemoryUsage.veryHigh;
-		}
-		return MemoryUsage.high;
+		return MemoryUsage.valueOf(TigaseRuntime.getTigaseRuntime().getHeapMemUsage(), highMemoryUsageLimit,
+								   criticalMemoryUsageLimit);
 	}
 
 	public enum MemoryUsage {
 		normal,
 		high,
 		veryHigh,
-		critical
+		critical;
+
+		public static MemoryUsage valueOf(float usage, float highMemoryUsageLimit, float criticalMemoryUsageLimit) {
+			if (usage < highMemoryUsageLimit) {
+				return MemoryUsage.normal;
+			}
+			if (usage > criticalMemoryUsageLimit) {
+				return MemoryUsage.critical;
+			}
+			if (usage > (criticalMemoryUsageLimit + highMemoryUsageLimit) / 2) {
+				return MemoryUsage.veryHigh;
+			}
+			return MemoryUsage.high;
+		}
 	}
 }
@@ -0,0 +1,316 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.sys.TigaseRuntime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class implements an executor running submitted tasks on many threads while limiting number of executions of
+ * submitted tasks per second.
+ * <br>
+ * Each worker thread has its own queue (stripe) so workers do not contend on a single queue. Tasks implementing
+ * {@link Executor.OrderedTask} with equal ordering keys are always placed in the same stripe, so they are executed
+ * in order of submission. Rate of executions is limited by a token bucket shared by all workers and is reduced
+ * when memory usage is high, in the same way as in {@link RateLimitingExecutor}.
+ * <br>
+ * To use this executor instead of the default one, set class of <code>publishExecutor</code> bean of PubSub
+ * component to this class.
+ */
+public class StripedRateLimitingExecutor
+		implements Executor, Initializable, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(StripedRateLimitingExecutor.class.getCanonicalName());
+
+	private static final long MEMORY_CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long REFILL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@ConfigField(desc = "Limit of tasks executed per second")
+	private long limit = Runtime.getRuntime().availableProcessors() * 5000;
+	@ConfigField(desc = "Number of worker threads")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@ConfigField(desc = "Limit of amount of used memory that increases throttling")
+	private float highMemoryUsageLimit = 90.0f;
+	@ConfigField(desc = "Limit of amount of used memory that stops publication")
+	private float criticalMemoryUsageLimit = 98.0f;
+
+	private final AtomicInteger nextStripe = new AtomicInteger();
+	private final AtomicLong tokens = new AtomicLong();
+	private final AtomicLong lastRefill = new AtomicLong(System.nanoTime());
+	private volatile long lastMemoryCheck = 0;
+	private volatile RateLimitingExecutor.MemoryUsage memoryUsage = RateLimitingExecutor.MemoryUsage.normal;
+	private volatile Stripe[] stripes;
+	private volatile boolean stopped = false;
+	private boolean throttling = false;
+
+	public StripedRateLimitingExecutor() {
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	@Override
+	public boolean isOverloaded() {
+		// queues are not bounded, limits of queued notifications, memory and delay are checked by AdmissionController
+		return false;
+	}
+
+	@Override
+	public void submit(Priority priority, Runnable runnable) {
+		Stripe[] stripes = this.stripes;
+		if (stripes == null) {
+			stripes = createStripes();
+		}
+		Stripe stripe;
+		if (runnable instanceof OrderedTask) {
+			Object key = ((OrderedTask) runnable).getOrderingKey();
+			stripe = stripes[Math.floorMod(key == null ? 0 : key.hashCode(), stripes.length)];
+		} else {
+			stripe = stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)];
+		}
+		try {
+			stripe.queue.put(priority, stripe.monitor.enqueue(runnable));
+		} catch (InterruptedException ex) {
+			// handle exception somehow..
+		}
+	}
+
+	@Override
+	public void initialize() {
+		Stripe[] stripes = createStripes();
+		for (Stripe stripe : stripes) {
+			stripe.start();
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		stopped = true;
+		Stripe[] stripes = this.stripes;
+		if (stripes != null) {
+			for (Stripe stripe : stripes) {
+				stripe.stop();
+			}
+		}
+	}
+
+	@Override
+	public long getQueuedWeight() {
+		long weight = 0;
+		for (Stripe stripe : getStripes()) {
+			weight += stripe.monitor.getQueuedWeight();
+		}
+		return weight;
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		long bytes = 0;
+		for (Stripe stripe : getStripes()) {
+			bytes += stripe.monitor.getQueuedBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public long getQueueDelay() {
+		long delay = 0;
+		for (Stripe stripe : getStripes()) {
+			delay = Math.max(delay, stripe.monitor.getQueueDelay());
+		}
+		return delay;
+	}
+
+	public int getQueueSize() {
+		Stripe[] stripes = this.stripes;
+		int size = 0;
+		if (stripes != null) {
+			for (Stripe stripe : stripes) {
+				size += stripe.queue.totalSize();
+			}
+		}
+		return size;
+	}
+
+	public RateLimitingExecutor.MemoryUsage currentMemoryUsage() {
+		return RateLimitingExecutor.MemoryUsage.valueOf(TigaseRuntime.getTigaseRuntime().getHeapMemUsage(),
+														highMemoryUsageLimit, criticalMemoryUsageLimit);
+	}
+
+	/**
+	 * Waits until token bucket contains enough tokens to execute task with passed weight.
+	 * Bucket may go into debt if weight is bigger than number of available tokens, so tasks heavier than the bucket
+	 * capacity are still executed (and following tasks wait longer).
+	 * @param weight of the task
+	 */
+	protected void acquire(int weight) {
+		while (!stopped) {
+			refill();
+			long available = tokens.get();
+			if (available > 0) {
+				if (tokens.compareAndSet(available, available - weight)) {
+					return;
+				}
+			} else {
+				LockSupport.parkNanos(REFILL_INTERVAL);
+			}
+		}
+	}
+
+	protected long getRate(RateLimitingExecutor.MemoryUsage memoryUsage) {
+		switch (memoryUsage) {
+			case normal:
+				return limit;
+			case high:
+				return (long) Math.ceil((limit * 2.0) / 3.0);
+			case veryHigh:
+				return (long) Math.ceil(limit / 3.0);
+			case critical:
+				return 0;
+		}
+		return limit;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		long last = lastRefill.get();
+		long elapsed = now - last;
+		if (elapsed < REFILL_INTERVAL || !lastRefill.compareAndSet(last, now)) {
+			return;
+		}
+
+		if (now - lastMemoryCheck > MEMORY_CHECK_INTERVAL) {
+			lastMemoryCheck = now;
+			updateMemoryUsage(currentMemoryUsage());
+		}
+
+		long rate = getRate(memoryUsage);
+		// capacity of the bucket allows for burst of executions planned for 10ms
+		long capacity = Math.max(1, limit / 100);
+		long add = (long) (((double) elapsed * rate) / TimeUnit.SECONDS.toNanos(1));
+		if (add > 0) {
+			tokens.accumulateAndGet(add, (current, toAdd) -> Math.min(capacity, current + toAdd));
+		}
+	}
+
+	private void updateMemoryUsage(RateLimitingExecutor.MemoryUsage usage) {
+		this.memoryUsage = usage;
+		if (log.isLoggable(Level.CONFIG)) {
+			if (usage != RateLimitingExecutor.MemoryUsage.normal) {
+				if (!throttling) {
+					log.log(Level.CONFIG, "throttling executions started at rate " + getRate(usage) +
+							" per second, current queue size " + getQueueSize() + ", memory usage " + usage.name());
+					throttling = true;
+				}
+			} else {
+				if (throttling) {
+					log.log(Level.CONFIG, "throttling executions ended");
+				}
+				throttling = false;
+			}
+		}
+	}
+
+	private Stripe[] getStripes() {
+		Stripe[] stripes = this.stripes;
+		return stripes == null ? new Stripe[0] : stripes;
+	}
+
+	private synchronized Stripe[] createStripes() {
+		if (stripes == null) {
+			Stripe[] stripes = new Stripe[Math.max(1, threads)];
+			for (int i = 0; i < stripes.length; i++) {
+				stripes[i] = new Stripe(i);
+			}
+			this.stripes = stripes;
+		}
+		return stripes;
+	}
+
+	private class Stripe
+			implements Runnable {
+
+		private final ExecutionQueue queue = new ExecutionQueue();
+		private final QueueMonitor monitor = new QueueMonitor();
+		private final int idx;
+		private Thread thread;
+
+		private Stripe(int idx) {
+			this.idx = idx;
+		}
+
+		@Override
+		public void run() {
+			while (!stopped) {
+				try {
+					Runnable run = queue.take();
+					if (!(run instanceof QueueMonitor.QueuedTask)) {
+						continue;
+					}
+					QueueMonitor.QueuedTask task = (QueueMonitor.QueuedTask) run;
+					acquire(task.weight);
+					monitor.dequeued(task);
+					task.run();
+				} catch (InterruptedException ex) {
+					// executor is being stopped
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "Execution of task failed", ex);
+				}
+			}
+		}
+
+		private synchronized void start() {
+			if (thread != null) {
+				return;
+			}
+			thread = new Thread(this, "publish-executor-" + idx);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private synchronized void stop() {
+			if (thread != null) {
+				thread.interrupt();
+				thread = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.config.ConfigField;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class implements an executor running each submitted task on a separate virtual thread.
+ * <br>
+ * Tasks are queued with their priorities and a dispatcher thread starts them in order of priority, while limiting
+ * number of tasks executed concurrently. Thanks to that, tasks blocked by repository calls do not block platform
+ * threads and tasks with higher priority are started first when executor is saturated. Tasks implementing
+ * {@link Executor.OrderedTask} with equal ordering keys are executed sequentially in order of submission.
+ * <br>
+ * Virtual threads are available since Java 21, on older JVMs this executor falls back to a pool of at most
+ * <code>platformThreads</code> reused platform threads, which also limits the number of concurrently executed tasks.
+ * <br>
+ * <strong>Limitation:</strong> repository calls of <code>PubSubDAOJDBC</code> (and of the data repository of Tigase
+ * XMPP Server) are executed within <code>synchronized</code> blocks guarding prepared statements. On Java 21 - 23
+ * a virtual thread blocked within a <code>synchronized</code> block pins its carrier thread, so tasks waiting for
+ * the database still block platform threads (at most as many as there are CPU cores). Benefits of this executor
+ * for database bound tasks are available only on Java 24 or newer, where virtual threads are not pinned by monitors.
+ * <br>
+ * To use this executor, set class of <code>publishExecutor</code> or <code>lastPublishedItemExecutor</code> bean of
+ * PubSub component to this class.
+ */
+public class VirtualThreadExecutor
+		extends AbstractQueuingExecutor
+		implements Initializable {
+
+	private static final Logger log = Logger.getLogger(VirtualThreadExecutor.class.getCanonicalName());
+
+	@ConfigField(desc = "Max number of tasks executed concurrently")
+	private int maxConcurrentTasks = 1024;
+	@ConfigField(desc = "Max number of platform threads used if virtual threads are not available")
+	private int platformThreads = Runtime.getRuntime().availableProcessors() * 4;
+	@ConfigField(desc = "Use virtual threads if supported by JVM")
+	private boolean useVirtualThreads = true;
+
+	private final Map<Object, ArrayDeque<Runnable>> runningKeys = new HashMap<>();
+	private final AtomicLong threadsCounter = new AtomicLong();
+	private Thread dispatcher;
+	private Semaphore permits;
+	private ThreadPoolExecutor platformPool;
+	private volatile boolean stopped = false;
+	private ThreadFactory threadFactory;
+
+	/**
+	 * Creates factory of virtual threads using reflection, as this code needs to run on Java 17.
+	 * @param prefix of threads names
+	 * @return factory of virtual threads or <code>null</code> if virtual threads are not supported
+	 */
+	protected static ThreadFactory createVirtualThreadFactory(String prefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	public VirtualThreadExecutor() {
+	}
+
+	public int getMaxConcurrentTasks() {
+		return maxConcurrentTasks;
+	}
+
+	public void setMaxConcurrentTasks(int maxConcurrentTasks) {
+		this.maxConcurrentTasks = maxConcurrentTasks;
+	}
+
+	public int getPlatformThreads() {
+		return platformThreads;
+	}
+
+	public void setPlatformThreads(int platformThreads) {
+		this.platformThreads = platformThreads;
+	}
+
+	public boolean isUseVirtualThreads() {
+		return useVirtualThreads;
+	}
+
+	public void setUseVirtualThreads(boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	public boolean isUsingVirtualThreads() {
+		return threadFactory != null && platformPool == null;
+	}
+
+	@Override
+	public synchronized void initialize() {
+		if (dispatcher != null) {
+			return;
+		}
+		stopped = false;
+		int concurrency = Math.max(1, maxConcurrentTasks);
+		threadFactory = useVirtualThreads ? createVirtualThreadFactory("pubsub-virtual-executor-") : null;
+		if (threadFactory == null) {
+			if (useVirtualThreads) {
+				log.log(Level.WARNING, "Virtual threads are not supported by this JVM, using platform threads instead");
+			}
+			// platform threads are expensive, so they are reused and their number is limited
+			concurrency = Math.min(concurrency, Math.max(1, platformThreads));
+			threadFactory = new PlatformThreadFactory();
+			platformPool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+												  new LinkedBlockingQueue<>(), threadFactory);
+			platformPool.allowCoreThreadTimeOut(true);
+		} else if (Runtime.version().feature() < 24) {
+			log.log(Level.CONFIG, "Virtual threads blocked on database calls within synchronized blocks pin " +
+					"carrier threads on Java " + Runtime.version().feature() + ", Java 24 or newer is recommended");
+		}
+		permits = new Semaphore(concurrency);
+		dispatcher = new Thread(this::dispatch, "pubsub-virtual-executor-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	@Override
+	public synchronized void beforeUnregister() {
+		stopped = true;
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+			dispatcher = null;
+		}
+		if (platformPool != null) {
+			platformPool.shutdown();
+			platformPool = null;
+		}
+		super.beforeUnregister();
+	}
+
+	private void dispatch() {
+		while (!stopped) {
+			boolean acquired = false;
+			try {
+				permits.acquire();
+				acquired = true;
+				Runnable run = take();
+				if (run == null) {
+					continue;
+				}
+				Object key = getOrderingKey(run);
+				if (key != null) {
+					synchronized (runningKeys) {
+						ArrayDeque<Runnable> pending = runningKeys.get(key);
+						if (pending != null) {
+							// task with the same key is running, it will execute this task when it is finished
+							pending.offer(run);
+							continue;
+						}
+						runningKeys.put(key, new ArrayDeque<>());
+					}
+				}
+				start(() -> runTasks(key, run));
+				acquired = false;
+			} catch (InterruptedException ex) {
+				// executor is being stopped
+			} catch (Throwable ex) {
+				log.log(Level.WARNING, "Dispatching of task failed", ex);
+			} finally {
+				if (acquired) {
+					permits.release();
+				}
+			}
+		}
+	}
+
+	private void start(Runnable task) {
+		ThreadPoolExecutor platformPool = this.platformPool;
+		if (platformPool != null) {
+			// number of permits does not exceed size of the pool, so the task is started immediately
+			platformPool.execute(task);
+		} else {
+			threadFactory.newThread(task).start();
+		}
+	}
+
+	private void runTasks(Object key, Runnable run) {
+		try {
+			while (run != null) {
+				try {
+					run.run();
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "Execution of task failed", ex);
+				}
+				run = key == null ? null : nextTask(key);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private Runnable nextTask(Object key) {
+		synchronized (runningKeys) {
+			ArrayDeque<Runnable> pending = runningKeys.get(key);
+			Runnable next = pending == null ? null : pending.poll();
+			if (next == null) {
+				runningKeys.remove(key);
+			}
+			return next;
+		}
+	}
+
+	private class PlatformThreadFactory
+			implements ThreadFactory {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "pubsub-virtual-executor-" + threadsCounter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
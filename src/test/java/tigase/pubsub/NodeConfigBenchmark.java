@@ -0,0 +1,100 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tigase.form.Form;
+import tigase.xmpp.StanzaType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cost of reading node configuration values used during a single publication when values are parsed from
+ * the data form on every call and when they are read from the typed snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeConfigBenchmark {
+
+	private LeafNodeConfig nodeConfig;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(NodeConfigBenchmark.class.getSimpleName())
+				.addProfiler("gc")
+				.build();
+		new Runner(opt).run();
+	}
+
+	@Setup
+	public void setup() {
+		nodeConfig = new LeafNodeConfig("node-1");
+		nodeConfig.setValue("pubsub#access_model", AccessModel.presence.name());
+		nodeConfig.setDomains("example.com", "example.net");
+		nodeConfig.setValue("pubsub#presence_based_delivery", true);
+	}
+
+	@Benchmark
+	public void parseForm(Blackhole blackhole) {
+		Form form = nodeConfig.form;
+		// checkPermission
+		blackhole.consume(AccessModel.valueOf(form.getAsString("pubsub#access_model")));
+		blackhole.consume(form.getAsStrings("pubsub#domains"));
+		blackhole.consume(PublisherModel.valueOf(form.getAsString("pubsub#publish_model")));
+		// publishItems
+		blackhole.consume(form.getAsString("pubsub#max_items"));
+		blackhole.consume(form.getAsBoolean("pubsub#persist_items"));
+		blackhole.consume(form.getAsString("pubsub#collection"));
+		blackhole.consume(StanzaType.valueOf(form.getAsString("pubsub#notification_type")));
+		blackhole.consume(
+				CollectionItemsOrdering.valueOf(form.getAsString(AbstractNodeConfig.TIGASE + "collection_items_odering")));
+		// subscribersOfNotifications
+		blackhole.consume(form.getAsBoolean(AbstractNodeConfig.TIGASE + "presence_expired"));
+		blackhole.consume(form.getAsBoolean("pubsub#presence_based_delivery"));
+		blackhole.consume(AccessModel.valueOf(form.getAsString("pubsub#access_model")));
+		blackhole.consume(form.getAsStrings("pubsub#roster_groups_allowed"));
+	}
+
+	@Benchmark
+	public void snapshot(Blackhole blackhole) {
+		// checkPermission
+		blackhole.consume(nodeConfig.getNodeAccessModel());
+		blackhole.consume(nodeConfig.getDomains());
+		blackhole.consume(nodeConfig.getPublisherModel());
+		// publishItems
+		blackhole.consume(nodeConfig.getMaxItems());
+		blackhole.consume(nodeConfig.isPersistItem());
+		blackhole.consume(nodeConfig.getCollection());
+		blackhole.consume(nodeConfig.getNotificationType());
+		blackhole.consume(nodeConfig.getCollectionItemsOrdering());
+		// subscribersOfNotifications
+		blackhole.consume(nodeConfig.isPresenceExpired());
+		blackhole.consume(nodeConfig.isDeliverPresenceBased());
+		blackhole.consume(nodeConfig.getNodeAccessModel());
+		blackhole.consume(nodeConfig.getRosterGroupsAllowed());
+	}
+
+}
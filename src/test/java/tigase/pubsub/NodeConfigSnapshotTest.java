@@ -0,0 +1,61 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub;
+
+import org.junit.Test;
+import tigase.form.Form;
+
+import static org.junit.Assert.*;
+
+public class NodeConfigSnapshotTest {
+
+	@Test
+	public void testSnapshotReused() {
+		LeafNodeConfig config = new LeafNodeConfig("node-1");
+		assertSame(config.getSnapshot(), config.getSnapshot());
+		assertEquals(AccessModel.open, config.getNodeAccessModel());
+		assertEquals(NodeType.leaf, config.getNodeType());
+		assertEquals(0, config.getDomains().length);
+	}
+
+	@Test
+	public void testSnapshotInvalidatedOnChange() {
+		LeafNodeConfig config = new LeafNodeConfig("node-1");
+		assertEquals(AccessModel.open, config.getNodeAccessModel());
+
+		config.setValue("pubsub#access_model", AccessModel.whitelist.name());
+		assertEquals(AccessModel.whitelist, config.getNodeAccessModel());
+
+		config.setValue("pubsub#max_items", "5");
+		assertEquals(5, config.getMaxItems().getValue());
+
+		LeafNodeConfig other = new LeafNodeConfig("node-2");
+		other.setValue("pubsub#access_model", AccessModel.presence.name());
+		config.copyFrom(other);
+		assertEquals(AccessModel.presence, config.getNodeAccessModel());
+
+		Form form = config.getForm();
+		form.get("pubsub#presence_based_delivery").setValues(new String[]{"1"});
+		assertTrue(config.isDeliverPresenceBased());
+
+		config.reset();
+		assertEquals(AccessModel.open, config.getNodeAccessModel());
+		assertFalse(config.isDeliverPresenceBased());
+	}
+
+}
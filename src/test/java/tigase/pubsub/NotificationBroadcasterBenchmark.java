@@ -0,0 +1,100 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cost of preparing notifications for all subscribers of a node when the notification is cloned for each
+ * subscriber and when its payload is shared between subscribers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationBroadcasterBenchmark {
+
+	@Param({"100", "10000"})
+	private int subscribers;
+
+	@Param({"10", "100"})
+	private int payloadSize;
+
+	private Element message;
+	private JID sender;
+	private JID[] recipients;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(NotificationBroadcasterBenchmark.class.getSimpleName())
+				.addProfiler("gc")
+				.build();
+		new Runner(opt).run();
+	}
+
+	@Setup
+	public void setup() {
+		sender = JID.jidInstanceNS("pubsub.example.com");
+		recipients = new JID[subscribers];
+		for (int i = 0; i < subscribers; i++) {
+			recipients[i] = JID.jidInstanceNS("user-" + i + "@example.com/resource");
+		}
+
+		Element entry = new Element("entry", new String[]{"xmlns"}, new String[]{"http://www.w3.org/2005/Atom"});
+		for (int i = 0; i < payloadSize; i++) {
+			entry.addChild(new Element("field", "value-" + i, new String[]{"name"}, new String[]{"field-" + i}));
+		}
+		Element item = new Element("item", new String[]{"id"}, new String[]{"item-1"});
+		item.addChild(entry);
+		Element items = new Element("items", new String[]{"node"}, new String[]{"node-1"});
+		items.addChild(item);
+		Element event = new Element("event", new String[]{"xmlns"},
+									new String[]{"http://jabber.org/protocol/pubsub#event"});
+		event.addChild(items);
+		message = new Element("message", new String[]{"xmlns", "from", "id"},
+							  new String[]{Packet.CLIENT_XMLNS, sender.toString(), "1"});
+		message.addChild(event);
+	}
+
+	@Benchmark
+	public void clonePerSubscriber(Blackhole blackhole) {
+		for (JID recipient : recipients) {
+			blackhole.consume(Packet.packetInstance(message.clone(), sender, recipient));
+		}
+	}
+
+	@Benchmark
+	public void sharedPayload(Blackhole blackhole) {
+		for (JID recipient : recipients) {
+			blackhole.consume(
+					Packet.packetInstance(NotificationBroadcaster.shallowCopy(message), sender, recipient));
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub;
+
+import org.junit.Test;
+import tigase.pubsub.utils.executors.Executor;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class NotificationBroadcasterTest {
+
+	@Test
+	public void testChunkedFanOut() throws Exception {
+		Queue<Runnable> queue = new ArrayDeque<>();
+		List<JID> delivered = new ArrayList<>();
+		NotificationBroadcaster broadcaster = new NotificationBroadcaster() {
+			@Override
+			protected void deliver(Element message, JID senderJid, JID recipientJid) {
+				delivered.add(recipientJid);
+			}
+		};
+		setPublishExecutor(broadcaster, new Executor() {
+			@Override
+			public boolean isOverloaded() {
+				return false;
+			}
+
+			@Override
+			public void submit(Priority priority, Runnable runnable) {
+				queue.offer(runnable);
+			}
+		});
+		broadcaster.setFanOutChunkSize(10);
+
+		JID[] recipients = new JID[25];
+		for (int i = 0; i < recipients.length; i++) {
+			recipients[i] = JID.jidInstanceNS("user-" + i + "@example.com/res");
+		}
+		Element message = new Element("message");
+		queue.offer(broadcaster.new FanOutTask(Executor.Priority.normal, "node", message,
+											   JID.jidInstanceNS("pubsub.example.com"), recipients));
+
+		List<Integer> weights = new ArrayList<>();
+		List<Long> remainingWeights = new ArrayList<>();
+		Runnable task;
+		while ((task = queue.poll()) != null) {
+			weights.add(((Executor.WeightedTask) task).getWeight());
+			remainingWeights.add(((Executor.WeightedTask) task).getRemainingWeight());
+			task.run();
+		}
+
+		assertEquals(List.of(10, 10, 5), weights);
+		assertEquals(List.of(25L, 15L, 5L), remainingWeights);
+		assertArrayEquals(recipients, delivered.toArray(new JID[0]));
+	}
+
+	@Test
+	public void testSplitIntoLanes() {
+		NotificationBroadcaster broadcaster = new NotificationBroadcaster();
+		broadcaster.setFanOutLanes(4);
+
+		JID[] recipients = new JID[100];
+		for (int i = 0; i < recipients.length; i++) {
+			recipients[i] = JID.jidInstanceNS("user-" + i + "@example.com/res");
+		}
+		JID[][] lanes = broadcaster.splitIntoLanes(recipients);
+		assertEquals(4, lanes.length);
+
+		int total = 0;
+		for (int lane = 0; lane < lanes.length; lane++) {
+			assertTrue(lanes[lane].length < recipients.length);
+			for (JID jid : lanes[lane]) {
+				assertEquals(lane, Math.floorMod(jid.hashCode(), lanes.length));
+			}
+			total += lanes[lane].length;
+		}
+		assertEquals(recipients.length, total);
+
+		// lane of a recipient does not depend on other recipients
+		JID[][] single = broadcaster.splitIntoLanes(new JID[]{recipients[7]});
+		assertArrayEquals(new JID[]{recipients[7]}, single[Math.floorMod(recipients[7].hashCode(), 4)]);
+	}
+
+	@Test
+	public void testSharedPayload() {
+		Element payload = new Element("event", new String[]{"xmlns"},
+									  new String[]{"http://jabber.org/protocol/pubsub#event"});
+		Element message = new Element("message", new String[]{"from", "id"}, new String[]{"pubsub.example.com", "1"});
+		message.addChild(payload);
+
+		Element copy = NotificationBroadcaster.shallowCopy(message);
+		copy.setAttribute("to", "user@example.com");
+
+		assertNull(message.getAttributeStaticStr("to"));
+		assertEquals("1", copy.getAttributeStaticStr("id"));
+		assertSame(payload, copy.getChild("event"));
+	}
+
+	private static void setPublishExecutor(NotificationBroadcaster broadcaster, Executor executor)
+			throws NoSuchFieldException, IllegalAccessException {
+		Field f = NotificationBroadcaster.class.getDeclaredField("publishExecutor");
+		f.setAccessible(true);
+		f.set(broadcaster, executor);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.modules;
+
+import org.junit.Test;
+import tigase.pubsub.LeafNodeConfig;
+import tigase.xml.Element;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class XsltToolTest {
+
+	private static final String XSLT =
+			"<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' " +
+					"xmlns:a='http://www.w3.org/2005/Atom' exclude-result-prefixes='a'>" +
+					"<xsl:output method='xml' omit-xml-declaration='yes'/>" +
+					"<xsl:template match='/item'><body xmlns='jabber:client'>Entry: <xsl:value-of select='a:entry/a:title'/></body></xsl:template>" +
+					"</xsl:stylesheet>";
+
+	@Test
+	public void testTransform() throws Exception {
+		XsltTool tool = new XsltTool();
+		LeafNodeConfig nodeConfig = new LeafNodeConfig("node");
+		nodeConfig.setBodyXsltEmbedded(XSLT);
+
+		List<Element> result = tool.transform(createItem("Test & check"), nodeConfig);
+		assertNotNull(result);
+		assertEquals(1, result.size());
+		Element body = result.get(0);
+		assertEquals("body", body.getName());
+		assertEquals("jabber:client", body.getXMLNS());
+		assertEquals("<body xmlns=\"jabber:client\">Entry: Test &amp; check</body>", body.toString());
+
+		assertSame(tool.getTemplates(nodeConfig), tool.getTemplates(nodeConfig));
+	}
+
+	@Test
+	public void testReloadOfTransformationFromUrl() throws Exception {
+		File file = File.createTempFile("pubsub-xslt-", ".xsl");
+		file.deleteOnExit();
+		Files.writeString(file.toPath(), XSLT);
+
+		XsltTool tool = new XsltTool();
+		LeafNodeConfig nodeConfig = new LeafNodeConfig("node");
+		nodeConfig.setValue("pubsub#body_xslt", file.toURI().toString());
+
+		assertSame(tool.getTemplates(nodeConfig), tool.getTemplates(nodeConfig));
+		assertEquals("<body xmlns=\"jabber:client\">Entry: Title</body>",
+					 tool.transform(createItem("Title"), nodeConfig).get(0).toString());
+
+		Files.writeString(file.toPath(), XSLT.replace("Entry: ", "Changed: "));
+		tool.setTemplatesCacheExpiration(Duration.ZERO);
+		assertEquals("<body xmlns=\"jabber:client\">Changed: Title</body>",
+					 tool.transform(createItem("Title"), nodeConfig).get(0).toString());
+	}
+
+	@Test
+	public void testMemoization() throws Exception {
+		XsltTool tool = new XsltTool();
+		LeafNodeConfig nodeConfig = new LeafNodeConfig("node");
+		nodeConfig.setBodyXsltEmbedded(XSLT);
+		Element item = createItem("Title");
+
+		tool.startMemoization();
+		try {
+			List<Element> result1 = tool.transform(item, nodeConfig);
+			List<Element> result2 = tool.transform(item, nodeConfig);
+			assertSame(result1.get(0), result2.get(0));
+		} finally {
+			tool.stopMemoization();
+		}
+
+		List<Element> result3 = tool.transform(item, nodeConfig);
+		List<Element> result4 = tool.transform(item, nodeConfig);
+		assertNotSame(result3.get(0), result4.get(0));
+		assertEquals(result3.get(0).toString(), result4.get(0).toString());
+	}
+
+	@Test
+	public void testNoTransformation() throws Exception {
+		XsltTool tool = new XsltTool();
+		assertNull(tool.transform(createItem("Title"), new LeafNodeConfig("node")));
+	}
+
+	private Element createItem(String title) {
+		Element entry = new Element("entry", new String[]{"xmlns"}, new String[]{"http://www.w3.org/2005/Atom"});
+		entry.addChild(new Element("title", title.replace("&", "&amp;")));
+		Element item = new Element("item", new String[]{"id"}, new String[]{"item-1"});
+		item.addChild(entry);
+		return item;
+	}
+
+}
@@ -32,10 +32,13 @@ import tigase.pubsub.modules.mam.Query;
 import tigase.pubsub.repository.stateless.UsersAffiliation;
 import tigase.pubsub.repository.stateless.UsersSubscription;
 import tigase.xml.Element;
+import tigase.xmpp.Authorization;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
+import tigase.xmpp.rsm.RSM;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -161,6 +164,115 @@ public abstract class AbstractPubSubDAOTest<DS extends DataSource> extends Abstr
 		assertNotNull(meta.getCreationTime());
 	}
 
+	@Test
+	public void test06_getNodeMetas() throws RepositoryException {
+		String otherNodeName = "test-node-2";
+		dao.createNode(serviceJid, otherNodeName, senderJid.getBareJID(), new LeafNodeConfig(otherNodeName),
+					   NodeType.leaf, null, true);
+		try {
+			Map<String, INodeMeta> metas = dao.getNodeMetas(serviceJid,
+															Arrays.asList(nodeName, otherNodeName, "missing-node"));
+			assertEquals(2, metas.size());
+			assertEquals(dao.getNodeMeta(serviceJid, nodeName).getNodeId(), metas.get(nodeName).getNodeId());
+			assertEquals(nodeName, metas.get(nodeName).getNodeConfig().getNodeName());
+			assertEquals(senderJid.getBareJID(), metas.get(nodeName).getCreator());
+			assertEquals(dao.getNodeMeta(serviceJid, otherNodeName).getNodeId(),
+						 metas.get(otherNodeName).getNodeId());
+		} finally {
+			dao.deleteNode(serviceJid, dao.getNodeMeta(serviceJid, otherNodeName).getNodeId());
+		}
+	}
+
+	@Test
+	public void test07_nodeGetItems() throws RepositoryException {
+		INodeMeta node = dao.getNodeMeta(serviceJid, nodeName);
+		Assert.assertNotNull("Could not fined nodeId", node);
+
+		Map<String, Element> items = new HashMap<>();
+		for (int i = 1; i <= 3; i++) {
+			String itemId = "item-" + i;
+			Element item = new Element("item", new String[]{"id"}, new String[]{itemId});
+			item.addChild(new Element("payload", "payload-" + i, new String[]{"xmlns"}, new String[]{"test-xmlns"}));
+			dao.writeItem(serviceJid, node.getNodeId(), System.currentTimeMillis(), itemId, nodeNameWithoutEmoji,
+						  item, null);
+			items.put(itemId, item);
+		}
+
+		List<IItems.IItem> result = dao.getItems(serviceJid, node.getNodeId(),
+												 Arrays.asList("item-1", "item-3", "missing-item"));
+		assertEquals(2, result.size());
+		for (IItems.IItem item : result) {
+			assertEquals(nodeName, item.getNode());
+			assertEquals(items.get(item.getId()), item.getItem());
+		}
+		assertEquals(new HashSet<>(Arrays.asList("item-1", "item-3")),
+					 result.stream().map(IItems.IItem::getId).collect(Collectors.toSet()));
+
+		for (String itemId : items.keySet()) {
+			dao.deleteItem(serviceJid, node.getNodeId(), itemId);
+		}
+		assertTrue(dao.getItems(serviceJid, node.getNodeId(), items.keySet()).isEmpty());
+	}
+
+	@Test
+	public void test07_nodeItemsKeysetPagination() throws RepositoryException, ComponentException {
+		INodeMeta node = dao.getNodeMeta(serviceJid, nodeName);
+		Assert.assertNotNull("Could not fined nodeId", node);
+		List nodesIds = Collections.singletonList(node.getNodeId());
+
+		long ts = System.currentTimeMillis() - 10000;
+		for (int i = 1; i <= 5; i++) {
+			String itemId = "item-" + i;
+			Element item = new Element("item", new String[]{"id"}, new String[]{itemId});
+			dao.writeItem(serviceJid, node.getNodeId(), ts + i * 1000, itemId, nodeNameWithoutEmoji, item, null);
+		}
+
+		RSM rsm = new RSM();
+		rsm.setMax(2);
+		assertItemIds(new String[]{"item-1", "item-2"},
+					  dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate));
+		assertNull(rsm.getCount());
+		rsm.setAfter(rsm.getLast());
+		assertItemIds(new String[]{"item-3", "item-4"},
+					  dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate));
+		rsm.setAfter(rsm.getLast());
+		assertItemIds(new String[]{"item-5"},
+					  dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate));
+
+		rsm = new RSM();
+		rsm.setMax(2);
+		rsm.setHasBefore(true);
+		assertItemIds(new String[]{"item-4", "item-5"},
+					  dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate));
+		rsm.setBefore(rsm.getFirst());
+		assertItemIds(new String[]{"item-2", "item-3"},
+					  dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate));
+
+		rsm = new RSM();
+		rsm.setMax(2);
+		rsm.setAfter(node.getNodeId() + "#item-missing");
+		try {
+			dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate);
+			fail("Query for items after missing item should fail");
+		} catch (ComponentException ex) {
+			assertEquals(Authorization.ITEM_NOT_FOUND, ex.getErrorCondition());
+		}
+
+		rsm = new RSM();
+		rsm.setMax(0);
+		assertTrue(dao.getItems(serviceJid, nodesIds, null, null, rsm, CollectionItemsOrdering.byCreationDate)
+						   .isEmpty());
+		assertEquals(Integer.valueOf(5), rsm.getCount());
+
+		for (int i = 1; i <= 5; i++) {
+			dao.deleteItem(serviceJid, node.getNodeId(), "item-" + i);
+		}
+	}
+
+	private static void assertItemIds(String[] expected, List<IItems.IItem> items) {
+		assertArrayEquals(expected, items.stream().map(IItems.IItem::getId).toArray(String[]::new));
+	}
+
 	@Test
 	public void test07_nodeItems() throws RepositoryException {
 		String itemId = "item-1";
@@ -186,6 +298,90 @@ public abstract class AbstractPubSubDAOTest<DS extends DataSource> extends Abstr
 		assertNull("Element still available in store after removal", el);
 	}
 	
+	@Test
+	public void test07_nodeLastItem() throws RepositoryException {
+		INodeMeta node = dao.getNodeMeta(serviceJid, nodeName);
+		Assert.assertNotNull("Could not fined nodeId", node);
+		assertNull(dao.getLastItem(serviceJid, node.getNodeId(), CollectionItemsOrdering.byUpdateDate));
+
+		long ts = System.currentTimeMillis() - 10000;
+		for (int i = 1; i <= 3; i++) {
+			String itemId = "item-" + i;
+			Element item = new Element("item", new String[]{"id"}, new String[]{itemId});
+			dao.writeItem(serviceJid, node.getNodeId(), ts + i * 1000, itemId, nodeNameWithoutEmoji, item, null);
+		}
+		Element item = new Element("item", new String[]{"id"}, new String[]{"item-1"});
+		item.addChild(new Element("payload", "updated", new String[]{"xmlns"}, new String[]{"test-xmlns"}));
+		dao.writeItem(serviceJid, node.getNodeId(), ts + 5000, "item-1", nodeNameWithoutEmoji, item, null);
+
+		IItems.IItem lastItem = dao.getLastItem(serviceJid, node.getNodeId(), CollectionItemsOrdering.byUpdateDate);
+		assertNotNull(lastItem);
+		assertEquals("item-1", lastItem.getId());
+		assertEquals(item, lastItem.getItem());
+
+		lastItem = dao.getLastItem(serviceJid, node.getNodeId(), CollectionItemsOrdering.byCreationDate);
+		assertNotNull(lastItem);
+		assertEquals("item-3", lastItem.getId());
+
+		for (int i = 1; i <= 3; i++) {
+			dao.deleteItem(serviceJid, node.getNodeId(), "item-" + i);
+		}
+		assertNull(dao.getLastItem(serviceJid, node.getNodeId(), CollectionItemsOrdering.byCreationDate));
+	}
+
+	@Test
+	public void test07_nodeTrimItems() throws RepositoryException {
+		INodeMeta node = dao.getNodeMeta(serviceJid, nodeName);
+		Assert.assertNotNull("Could not fined nodeId", node);
+
+		long ts = System.currentTimeMillis() - 10000;
+		for (int i = 1; i <= 5; i++) {
+			String itemId = "item-" + i;
+			Element item = new Element("item", new String[]{"id"}, new String[]{itemId});
+			dao.writeItem(serviceJid, node.getNodeId(), ts + i * 1000, itemId, nodeNameWithoutEmoji, item, null);
+		}
+
+		String[] removed = dao.trimItems(serviceJid, node.getNodeId(), 2, CollectionItemsOrdering.byCreationDate);
+		Arrays.sort(removed);
+		assertArrayEquals(new String[]{"item-1", "item-2", "item-3"}, removed);
+		assertArrayEquals(new String[]{"item-4", "item-5"},
+						  dao.getItemsIds(serviceJid, node.getNodeId(), CollectionItemsOrdering.byCreationDate));
+
+		removed = dao.trimItems(serviceJid, node.getNodeId(), 2, CollectionItemsOrdering.byCreationDate);
+		assertEquals(0, removed.length);
+
+		removed = dao.trimItems(serviceJid, node.getNodeId(), 0, CollectionItemsOrdering.byUpdateDate);
+		Arrays.sort(removed);
+		assertArrayEquals(new String[]{"item-4", "item-5"}, removed);
+		assertEquals(0, dao.getItemsIds(serviceJid, node.getNodeId(), CollectionItemsOrdering.byUpdateDate).length);
+	}
+
+	@Test
+	public void test07_nodePurgeItems() throws RepositoryException {
+		INodeMeta node = dao.getNodeMeta(serviceJid, nodeName);
+		Assert.assertNotNull("Could not fined nodeId", node);
+
+		long ts = System.currentTimeMillis() - 10000;
+		for (int i = 1; i <= 5; i++) {
+			String itemId = "item-" + i;
+			Element item = new Element("item", new String[]{"id"}, new String[]{itemId});
+			dao.writeItem(serviceJid, node.getNodeId(), ts + i * 1000, itemId, nodeNameWithoutEmoji, item, null);
+		}
+
+		Date before = new Date(ts + 4500);
+		String[] removed = dao.purgeItems(serviceJid, node.getNodeId(), before, 3);
+		assertEquals(3, removed.length);
+		removed = dao.purgeItems(serviceJid, node.getNodeId(), before, 3);
+		assertEquals(1, removed.length);
+		removed = dao.purgeItems(serviceJid, node.getNodeId(), before, 3);
+		assertEquals(0, removed.length);
+		assertArrayEquals(new String[]{"item-5"},
+						  dao.getItemsIds(serviceJid, node.getNodeId(), CollectionItemsOrdering.byCreationDate));
+
+		removed = dao.purgeItems(serviceJid, node.getNodeId(), new Date(), Integer.MAX_VALUE);
+		assertArrayEquals(new String[]{"item-5"}, removed);
+	}
+
 	@Test
 	public void test09_subscribeNodeRemoval() throws RepositoryException {
 		INodeMeta node = dao.getNodeMeta(serviceJid, nodeName);
@@ -329,6 +525,53 @@ public abstract class AbstractPubSubDAOTest<DS extends DataSource> extends Abstr
 			assertEquals(publishedItems.get(i + 10), item.getMessage());
 		}
 
+		query.getRsm().setBefore(results.get(0).getId());
+		results.clear();
+		dao.queryItems(query, node.getNodeId(), (query1, item) -> {
+			results.add((IPubSubRepository.Item) item);
+		});
+
+		assertEquals(10, results.size());
+		for (int i = 0; i < 10; i++) {
+			IPubSubRepository.Item item = results.get(i);
+			assertEquals(uuids.get(publishedItemIds[i]), item.getId());
+			assertEquals(publishedItems.get(i), item.getMessage());
+		}
+		// position of the first page is known
+		assertEquals(Integer.valueOf(0), query.getRsm().getIndex());
+		assertEquals(Integer.valueOf(20), query.getRsm().getCount());
+
+		query = new Query();
+		query.setComponentJID(JID.jidInstance(serviceJid));
+		query.setQuestionerJID(senderJid);
+		query.getRsm().setMax(10);
+		query.getRsm().setAfter(uuids.get(publishedItemIds[9]));
+		results.clear();
+		dao.queryItems(query, node.getNodeId(), (query1, item) -> {
+			results.add((IPubSubRepository.Item) item);
+		});
+
+		assertEquals(10, results.size());
+		assertEquals(uuids.get(publishedItemIds[10]), results.get(0).getId());
+		// position of the last page is known
+		assertEquals(Integer.valueOf(10), query.getRsm().getIndex());
+		assertEquals(Integer.valueOf(20), query.getRsm().getCount());
+
+		query = new Query();
+		query.setComponentJID(JID.jidInstance(serviceJid));
+		query.setQuestionerJID(senderJid);
+		query.getRsm().setMax(10);
+		query.getRsm().setBefore(UUID.randomUUID().toString());
+		try {
+			dao.queryItems(query, node.getNodeId(), (query1, item) -> {
+				results.add((IPubSubRepository.Item) item);
+			});
+			fail("Query for items before missing item should fail");
+		} catch (ComponentException ex) {
+			assertEquals(Authorization.ITEM_NOT_FOUND, ex.getErrorCondition());
+		}
+		query.getRsm().setBefore(null);
+
 		String[] itemsIds = dao.getItemsIds(serviceJid, node.getNodeId(), CollectionItemsOrdering.byUpdateDate);
 		Arrays.sort(itemsIds);
 		String[] tmp = Arrays.copyOf(publishedItemIds, publishedItemIds.length);
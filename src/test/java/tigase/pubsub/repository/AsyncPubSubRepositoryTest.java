@@ -0,0 +1,77 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.junit.Test;
+import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.pubsub.utils.executors.DatabaseExecutor;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncPubSubRepositoryTest {
+
+	private final BareJID serviceJid = BareJID.bareJIDInstanceNS("pubsub.example.com");
+
+	@Test
+	public void testExecute() throws Exception {
+		DatabaseExecutor executor = new DatabaseExecutor();
+		executor.initialize();
+		try {
+			AsyncPubSubRepository repository = new AsyncPubSubRepository(null, executor);
+			assertEquals("result", repository.execute(AsyncPubSubRepository.nodeKey(serviceJid, "node"),
+													  repo -> "result").get(5, TimeUnit.SECONDS));
+
+			CompletableFuture<Object> failed = repository.execute(null, repo -> {
+				throw new RepositoryException("failure");
+			});
+			try {
+				failed.get(5, TimeUnit.SECONDS);
+				fail("call should fail");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof RepositoryException);
+			}
+		} finally {
+			executor.beforeUnregister();
+		}
+	}
+
+	@Test
+	public void testRejectedWhenOverloaded() throws Exception {
+		// executor is not initialized, so submitted calls stay in the queue
+		DatabaseExecutor executor = new DatabaseExecutor();
+		executor.setMaxQueueSize(1);
+		AsyncPubSubRepository repository = new AsyncPubSubRepository(null, executor);
+
+		assertFalse(repository.execute(null, repo -> null).isDone());
+		CompletableFuture<Object> rejected = repository.execute(null, repo -> null);
+		try {
+			rejected.get(5, TimeUnit.SECONDS);
+			fail("call should be rejected");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof PubSubException);
+			assertEquals(Authorization.RESOURCE_CONSTRAINT, ((PubSubException) ex.getCause()).getErrorCondition());
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.junit.Test;
+import tigase.xml.Element;
+
+import static org.junit.Assert.*;
+
+public class CompactItemDataCodecTest {
+
+	public static Element createItem() {
+		Element item = new Element("item", new String[]{"id"}, new String[]{"current"});
+		Element entry = new Element("entry", new String[]{"xmlns"}, new String[]{"http://www.w3.org/2005/Atom"});
+		entry.addChild(new Element("title", "Test &amp; title", new String[]{"type"}, new String[]{"text"}));
+		entry.addChild(new Element("summary", "Zażółć gęślą jaźń 😀", null, null));
+		entry.addChild(new Element("link", new String[]{"rel", "href"},
+								   new String[]{"alternate", "http://example.com/?a=1&amp;b=2"}));
+		entry.addChild(new Element("custom-element", new String[]{"custom-attr"}, new String[]{"1"}));
+		entry.addChild(new Element("custom-element", new String[]{"custom-attr"}, new String[]{"2"}));
+		entry.addChild(new Element("empty"));
+		item.addChild(entry);
+		return item;
+	}
+
+	@Test
+	public void testEncodeDecode() {
+		Element item = createItem();
+		String data = CompactItemDataCodec.encode(item);
+		assertNotNull(data);
+		assertTrue(CompactItemDataCodec.isEncoded(data));
+		assertTrue(data.length() < item.toString().length());
+		assertFalse(data.contains("\u0000"));
+
+		Element decoded = CompactItemDataCodec.decode(data);
+		assertEquals(item.toString(), decoded.toString());
+		assertEquals("http://www.w3.org/2005/Atom", decoded.getChild("entry").getXMLNS());
+		assertSame("custom-element", decoded.getChild("entry").getChildren().get(3).getName());
+	}
+
+	@Test
+	public void testLongValues() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append((char) ('a' + (i % 26)));
+		}
+		Element item = new Element("item", new String[]{"id"}, new String[]{"1"});
+		item.addChild(new Element("data", sb.toString(), new String[]{"xmlns"}, new String[]{"urn:xmpp:avatar:data"}));
+
+		Element decoded = CompactItemDataCodec.decode(CompactItemDataCodec.encode(item));
+		assertEquals(item.toString(), decoded.toString());
+	}
+
+	@Test
+	public void testMixedContentNotEncoded() {
+		Element body = new Element("body", "Hello ", null, null);
+		body.addChild(new Element("b", "world", null, null));
+		Element item = new Element("item", new String[]{"id"}, new String[]{"1"});
+		item.addChild(body);
+
+		assertNull(CompactItemDataCodec.encode(item));
+	}
+
+	@Test
+	public void testXmlNotEncoded() {
+		assertFalse(CompactItemDataCodec.isEncoded(createItem().toString()));
+		try {
+			CompactItemDataCodec.decode(createItem().toString());
+			fail("XML should not be decoded");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class FileSystemBlobStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStoreAndLoad() throws IOException {
+		FileSystemBlobStore store = new FileSystemBlobStore(folder.getRoot().toPath());
+		String data = CompactItemDataCodecTest.createItem().toString();
+
+		String reference = store.store(data);
+		assertTrue(FileSystemBlobStore.isReference(reference));
+		assertFalse(FileSystemBlobStore.isReference(data));
+		assertFalse(CompactItemDataCodec.isEncoded(reference));
+		assertEquals(data, store.load(reference));
+	}
+
+	@Test
+	public void testDeduplication() throws IOException {
+		FileSystemBlobStore store = new FileSystemBlobStore(folder.getRoot().toPath());
+		String data = CompactItemDataCodecTest.createItem().toString();
+
+		assertEquals(store.store(data), store.store(data));
+		assertNotEquals(store.store(data), store.store(data + " "));
+		try (Stream<Path> files = Files.walk(folder.getRoot().toPath())) {
+			assertEquals(2, files.filter(Files::isRegularFile).count());
+		}
+	}
+
+	@Test
+	public void testRemoveUnreferenced() throws IOException {
+		FileSystemBlobStore store = new FileSystemBlobStore(folder.getRoot().toPath());
+		String referenced = store.store("<item id='1'/>");
+		String unreferenced = store.store("<item id='2'/>");
+		String referencedHash = referenced.substring(FileSystemBlobStore.MARKER.length());
+		String unreferencedHash = unreferenced.substring(FileSystemBlobStore.MARKER.length());
+
+		// recently stored files are kept
+		assertEquals(0, store.removeUnreferenced(Collections.singleton(referencedHash),
+												 System.currentTimeMillis() - 60 * 1000));
+
+		Files.setLastModifiedTime(store.getPath(unreferencedHash), FileTime.fromMillis(0));
+		Files.setLastModifiedTime(store.getPath(referencedHash), FileTime.fromMillis(0));
+		assertEquals(1, store.removeUnreferenced(Collections.singleton(referencedHash),
+												 System.currentTimeMillis() - 60 * 1000));
+		assertFalse(Files.exists(store.getPath(unreferencedHash)));
+		assertEquals("<item id='1'/>", store.load(referenced));
+
+		// storing the same content again marks the file as recently used
+		store.store("<item id='1'/>");
+		assertEquals(0, store.removeUnreferenced(Collections.emptySet(), System.currentTimeMillis() - 60 * 1000));
+		assertEquals("<item id='1'/>", store.load(referenced));
+	}
+
+	@Test
+	public void testRemoveRestoresReusedTombstone() throws IOException {
+		FileSystemBlobStore store = new FileSystemBlobStore(folder.getRoot().toPath());
+		String reference = store.store("<item id='1'/>");
+		Path path = store.getPath(reference.substring(FileSystemBlobStore.MARKER.length()));
+		Path tombstone = store.getTombstonePath(path);
+
+		// file reused after it was renamed to a tombstone is restored
+		Files.move(path, tombstone);
+		assertFalse(store.remove(path, true, System.currentTimeMillis() - 60 * 1000));
+		assertTrue(Files.exists(path));
+		assertFalse(Files.exists(tombstone));
+
+		// tombstone left by interrupted removal of unused file is removed
+		Files.setLastModifiedTime(path, FileTime.fromMillis(0));
+		Files.move(path, tombstone);
+		assertEquals(1, store.removeUnreferenced(Collections.emptySet(), System.currentTimeMillis() - 60 * 1000));
+		assertFalse(Files.exists(path));
+		assertFalse(Files.exists(tombstone));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingBlob() throws IOException {
+		FileSystemBlobStore store = new FileSystemBlobStore(folder.getRoot().toPath());
+		String reference = store.store("<item id='1'/>");
+		Files.delete(store.getPath(reference.substring(FileSystemBlobStore.MARKER.length())));
+		store.load(reference);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidReference() throws IOException {
+		FileSystemBlobStore store = new FileSystemBlobStore(folder.getRoot().toPath());
+		store.load(FileSystemBlobStore.MARKER + "../../etc/passwd");
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitQueueTest {
+
+	@Test
+	public void testGrouping() throws Exception {
+		List<List<Integer>> groups = Collections.synchronizedList(new ArrayList<>());
+		GroupCommitStatistics statistics = new GroupCommitStatistics();
+		GroupCommitQueue<Integer> queue = new GroupCommitQueue<>(200, 3, entries -> groups.add(new ArrayList<>(entries)),
+																  statistics::flushed);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(queue.submit(i));
+		}
+		queue.start("test-group-commit");
+		try {
+			for (CompletableFuture<Void> future : futures) {
+				future.get(5, TimeUnit.SECONDS);
+			}
+		} finally {
+			queue.stop();
+		}
+
+		assertEquals(2, groups.size());
+		assertEquals(List.of(0, 1, 2), groups.get(0));
+		assertEquals(List.of(3, 4), groups.get(1));
+		assertEquals(2, statistics.getTotalFlushes());
+		assertEquals(5, statistics.getTotalItems());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		GroupCommitQueue<Integer> queue = new GroupCommitQueue<>(10, 10, entries -> {
+			throw new IllegalStateException("failed");
+		}, null);
+		queue.start("test-group-commit");
+		try {
+			CompletableFuture<Void> future = queue.submit(1);
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("flush should fail");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof IllegalStateException);
+			}
+		} finally {
+			queue.stop();
+		}
+	}
+
+	@Test
+	public void testFailureOfSingleRequestInGroup() throws Exception {
+		List<List<Integer>> groups = Collections.synchronizedList(new ArrayList<>());
+		GroupCommitQueue<Integer> queue = new GroupCommitQueue<>(200, 3, entries -> {
+			groups.add(new ArrayList<>(entries));
+			if (entries.contains(1)) {
+				throw new IllegalStateException("failed");
+			}
+		}, null);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(queue.submit(i));
+		}
+		queue.start("test-group-commit");
+		try {
+			futures.get(0).get(5, TimeUnit.SECONDS);
+			futures.get(2).get(5, TimeUnit.SECONDS);
+			try {
+				futures.get(1).get(5, TimeUnit.SECONDS);
+				fail("flush should fail");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof IllegalStateException);
+			}
+		} finally {
+			queue.stop();
+		}
+
+		assertEquals(List.of(List.of(0, 1, 2), List.of(0), List.of(1), List.of(2)), groups);
+	}
+
+	@Test
+	public void testStopFlushesCollectedGroup() throws Exception {
+		List<List<Integer>> groups = Collections.synchronizedList(new ArrayList<>());
+		GroupCommitQueue<Integer> queue = new GroupCommitQueue<>(60000, 10,
+																  entries -> groups.add(new ArrayList<>(entries)), null);
+		queue.start("test-group-commit");
+		CompletableFuture<Void> future = queue.submit(1);
+		// let worker thread start collecting the group
+		Thread.sleep(100);
+		queue.stop();
+
+		future.get(5, TimeUnit.SECONDS);
+		assertEquals(List.of(List.of(1)), groups);
+	}
+
+	@Test
+	public void testStopped() {
+		GroupCommitQueue<Integer> queue = new GroupCommitQueue<>(10, 10, entries -> {
+		}, null);
+		queue.start("test-group-commit");
+		queue.stop();
+		assertTrue(queue.submit(1).isCompletedExceptionally());
+	}
+}
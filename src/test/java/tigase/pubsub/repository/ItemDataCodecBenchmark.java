@@ -0,0 +1,88 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cost of serialization and deserialization of stored items when they are stored as XML and when they are
+ * stored using {@link CompactItemDataCodec}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemDataCodecBenchmark {
+
+	private final SimpleParser parser = SingletonFactory.getParserInstance();
+	private Element item;
+	private String xmlData;
+	private String compactData;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(ItemDataCodecBenchmark.class.getSimpleName())
+				.addProfiler("gc")
+				.build();
+		new Runner(opt).run();
+	}
+
+	@Setup
+	public void setup() {
+		item = CompactItemDataCodecTest.createItem();
+		xmlData = item.toString();
+		compactData = CompactItemDataCodec.encode(item);
+		System.out.println("XML size: " + xmlData.length() + ", compact size: " + compactData.length());
+	}
+
+	@Benchmark
+	public void xmlEncode(Blackhole blackhole) {
+		blackhole.consume(item.toString());
+	}
+
+	@Benchmark
+	public void compactEncode(Blackhole blackhole) {
+		blackhole.consume(CompactItemDataCodec.encode(item));
+	}
+
+	@Benchmark
+	public void xmlDecode(Blackhole blackhole) {
+		char[] data = xmlData.toCharArray();
+		DomBuilderHandler domHandler = new DomBuilderHandler();
+		parser.parse(domHandler, data, 0, data.length);
+		blackhole.consume(domHandler.getParsedElements().element());
+	}
+
+	@Benchmark
+	public void compactDecode(Blackhole blackhole) {
+		blackhole.consume(CompactItemDataCodec.decode(compactData));
+	}
+
+}
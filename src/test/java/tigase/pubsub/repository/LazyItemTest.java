@@ -0,0 +1,79 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.junit.Test;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class LazyItemTest {
+
+	private final AtomicInteger parsed = new AtomicInteger();
+	private final Function<String, Element> parser = data -> {
+		parsed.incrementAndGet();
+		if (CompactItemDataCodec.isEncoded(data)) {
+			return CompactItemDataCodec.decode(data);
+		}
+		SimpleParser simpleParser = SingletonFactory.getParserInstance();
+		DomBuilderHandler domHandler = new DomBuilderHandler();
+		char[] chars = data.toCharArray();
+		simpleParser.parse(domHandler, chars, 0, chars.length);
+		return domHandler.getParsedElements().poll();
+	};
+
+	@Test
+	public void testXmlNotParsed() {
+		Element item = CompactItemDataCodecTest.createItem();
+		String data = item.toString();
+		IItems.LazyItem lazyItem = new IItems.LazyItem("node", "current", "uuid", data, parser);
+
+		assertSame(data, lazyItem.getItemXml());
+		assertEquals(0, parsed.get());
+
+		assertEquals(item, lazyItem.getItem());
+		assertSame(lazyItem.getItem(), lazyItem.getItem());
+		assertEquals(1, parsed.get());
+	}
+
+	@Test
+	public void testCompactEncodingDecoded() {
+		Element item = CompactItemDataCodecTest.createItem();
+		String data = CompactItemDataCodec.encode(item);
+		IItems.LazyItem lazyItem = new IItems.LazyItem("node", "current", "uuid", data, parser);
+
+		assertEquals(item.toString(), lazyItem.getItemXml());
+		assertEquals(1, parsed.get());
+	}
+
+	@Test
+	public void testNoData() {
+		IItems.LazyItem lazyItem = new IItems.LazyItem("node", "current", "uuid", null, parser);
+
+		assertNull(lazyItem.getItem());
+		assertNull(lazyItem.getItemXml());
+		assertEquals(0, parsed.get());
+	}
+
+}
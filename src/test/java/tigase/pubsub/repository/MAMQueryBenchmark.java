@@ -0,0 +1,216 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.sql.*;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cost of retrieving a page of MAM items from an archive of a single node using offset pagination (count,
+ * position of the after item and offset query) and keyset pagination (single seek query), for a page deep in the
+ * archive and for the latest page. Archive is stored in an embedded Derby database using the same stored procedures
+ * as the component, created in <code>target/mam-benchmark-&lt;archiveSize&gt;</code> and reused by the next runs, as
+ * filling archive of 10M entries takes a few minutes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MAMQueryBenchmark {
+
+	private static final long NODE_ID = 1;
+	private static final int PAGE_SIZE = 50;
+
+	@Param({"100000", "10000000"})
+	private int archiveSize;
+	private String afterUuid;
+	private Connection conn;
+	private CallableStatement countSt;
+	private CallableStatement positionSt;
+	private CallableStatement querySt;
+	private CallableStatement seekSt;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(MAMQueryBenchmark.class.getSimpleName()).build();
+		new Runner(opt).run();
+	}
+
+	private static String uuid(int i) {
+		return new UUID(NODE_ID, i).toString();
+	}
+
+	@Setup
+	public void setup() throws SQLException {
+		File dir = new File("target", "mam-benchmark-" + archiveSize);
+		boolean exists = dir.exists();
+		conn = DriverManager.getConnection("jdbc:derby:" + dir.getPath() + ";create=true");
+		if (!exists) {
+			createArchive();
+		}
+		countSt = conn.prepareCall("{ call TigPubSubMamQueryItemsCount(?,?,?) }");
+		positionSt = conn.prepareCall("{ call TigPubSubMamQueryItemPosition(?,?,?,?) }");
+		querySt = conn.prepareCall("{ call TigPubSubMamQueryItems(?,?,?,?,?) }");
+		seekSt = conn.prepareCall("{ call TigPubSubMamQueryItemsSeek(?,?,?,?,?,?,?) }");
+		afterUuid = uuid(archiveSize - archiveSize / 10);
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	@Benchmark
+	public void offsetDeepPage(Blackhole blackhole) throws SQLException {
+		int count = count();
+		int position = position(afterUuid);
+		blackhole.consume(count);
+		query(blackhole, PAGE_SIZE, position);
+	}
+
+	@Benchmark
+	public void seekDeepPage(Blackhole blackhole) throws SQLException {
+		seek(blackhole, afterUuid, false);
+	}
+
+	@Benchmark
+	public void offsetLatestPage(Blackhole blackhole) throws SQLException {
+		int count = count();
+		query(blackhole, PAGE_SIZE, Math.max(0, count - PAGE_SIZE));
+	}
+
+	@Benchmark
+	public void seekLatestPage(Blackhole blackhole) throws SQLException {
+		seek(blackhole, null, true);
+	}
+
+	private int count() throws SQLException {
+		countSt.setLong(1, NODE_ID);
+		countSt.setNull(2, Types.TIMESTAMP);
+		countSt.setNull(3, Types.TIMESTAMP);
+		try (ResultSet rs = countSt.executeQuery()) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	private int position(String uuid) throws SQLException {
+		positionSt.setLong(1, NODE_ID);
+		positionSt.setNull(2, Types.TIMESTAMP);
+		positionSt.setNull(3, Types.TIMESTAMP);
+		positionSt.setString(4, uuid);
+		try (ResultSet rs = positionSt.executeQuery()) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	private void query(Blackhole blackhole, int limit, int offset) throws SQLException {
+		querySt.setLong(1, NODE_ID);
+		querySt.setNull(2, Types.TIMESTAMP);
+		querySt.setNull(3, Types.TIMESTAMP);
+		querySt.setInt(4, limit);
+		querySt.setInt(5, offset);
+		consume(blackhole, querySt);
+	}
+
+	private void seek(Blackhole blackhole, String afterUuid, boolean backward) throws SQLException {
+		seekSt.setLong(1, NODE_ID);
+		seekSt.setNull(2, Types.TIMESTAMP);
+		seekSt.setNull(3, Types.TIMESTAMP);
+		if (afterUuid == null) {
+			seekSt.setNull(4, Types.VARCHAR);
+		} else {
+			seekSt.setString(4, afterUuid);
+		}
+		seekSt.setNull(5, Types.VARCHAR);
+		seekSt.setInt(6, backward ? 1 : 0);
+		seekSt.setInt(7, PAGE_SIZE);
+		consume(blackhole, seekSt);
+	}
+
+	private void consume(Blackhole blackhole, CallableStatement st) throws SQLException {
+		int rows = 0;
+		try (ResultSet rs = st.executeQuery()) {
+			while (rs.next()) {
+				blackhole.consume(rs.getString(1));
+				blackhole.consume(rs.getTimestamp(2));
+				blackhole.consume(rs.getString(3));
+				rows++;
+			}
+		}
+		if (rows != PAGE_SIZE) {
+			throw new IllegalStateException("Retrieved " + rows + " items instead of " + PAGE_SIZE);
+		}
+	}
+
+	private void createArchive() throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("create table tig_pubsub_mam (node_id bigint not null, uuid varchar(36) not null," +
+								 " item_id varchar(1024), ts timestamp not null, data varchar(32672)," +
+								 " primary key ( node_id, uuid ))");
+			stmt.execute("create index tig_pubsub_mam_node_id_ts_uuid on tig_pubsub_mam ( node_id, ts, uuid )");
+			createProcedure(stmt, "TigPubSubMamQueryItems",
+							"node_id bigint, since timestamp, \"to\" timestamp, \"limit\" int, \"offset\" int");
+			createProcedure(stmt, "TigPubSubMamQueryItemPosition",
+							"node_id bigint, since timestamp, \"to\" timestamp, \"uuid\" varchar(36)");
+			createProcedure(stmt, "TigPubSubMamQueryItemsCount", "node_id bigint, since timestamp, \"to\" timestamp");
+			createProcedure(stmt, "TigPubSubMamQueryItemsSeek",
+							"node_id bigint, since timestamp, \"to\" timestamp, after_uuid varchar(36)," +
+									" before_uuid varchar(36), backward int, \"limit\" int");
+		}
+
+		conn.setAutoCommit(false);
+		long ts = System.currentTimeMillis() - archiveSize;
+		try (PreparedStatement st = conn.prepareStatement(
+				"insert into tig_pubsub_mam (node_id, uuid, item_id, ts, data) values (?, ?, ?, ?, ?)")) {
+			for (int i = 0; i < archiveSize; i++) {
+				st.setLong(1, NODE_ID);
+				st.setString(2, uuid(i));
+				st.setString(3, "item-" + i);
+				st.setTimestamp(4, new Timestamp(ts + i));
+				st.setString(5, "<item id=\"item-" + i + "\"><payload xmlns=\"test\">" + i + "</payload></item>");
+				st.addBatch();
+				if (i % 1000 == 999) {
+					st.executeBatch();
+				}
+				if (i % 100000 == 99999) {
+					conn.commit();
+				}
+			}
+			st.executeBatch();
+			conn.commit();
+		}
+		conn.setAutoCommit(true);
+	}
+
+	private void createProcedure(Statement stmt, String name, String params) throws SQLException {
+		stmt.execute("create procedure " + name + "(" + params + ") PARAMETER STYLE JAVA LANGUAGE JAVA" +
+							 " READS SQL DATA DYNAMIC RESULT SETS 1 EXTERNAL NAME" +
+							 " 'tigase.pubsub.repository.derby.StoredProcedures." + Character.toLowerCase(name.charAt(0)) +
+							 name.substring(1) + "'");
+	}
+}
@@ -21,6 +21,13 @@ import org.junit.Test;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -44,4 +51,48 @@ public class PresenceCollectorRepositoryTest {
 		assertTrue(caps2 == null);
 	}
 
+	@Test
+	public void testCapsIndex() {
+		BareJID service = BareJID.bareJIDInstanceNS("service@example.com");
+		JID jid1 = JID.jidInstanceNS("user-1@example.com/res-1");
+		JID jid2 = JID.jidInstanceNS("user-2@example.com/res-1");
+		JID jid3 = JID.jidInstanceNS("user-2@example.com/res-2");
+		Set<String> capsNodes = new HashSet<>(Arrays.asList("caps-1", "caps-2"));
+
+		repository.add(service, jid1, "caps-1");
+		repository.add(service, jid2, "caps-2");
+		repository.add(service, jid3, "caps-3");
+		assertEquals(new HashSet<>(Arrays.asList(jid1, jid2)), getJidsWithCaps(service, capsNodes));
+		assertEquals(Collections.singleton(jid3), getJidsWithCaps(service, Collections.singleton("caps-3")));
+
+		// caps change
+		repository.add(service, jid2, "caps-3");
+		assertEquals(Collections.singleton(jid1), getJidsWithCaps(service, capsNodes));
+		assertEquals(new HashSet<>(Arrays.asList(jid2, jid3)), getJidsWithCaps(service, Collections.singleton("caps-3")));
+
+		// resource removal
+		repository.remove(service, jid1);
+		assertTrue(getJidsWithCaps(service, capsNodes).isEmpty());
+
+		// removal of all resources of the user
+		repository.remove(service, jid2.copyWithoutResource());
+		assertTrue(getJidsWithCaps(service, Collections.singleton("caps-3")).isEmpty());
+		assertTrue(getJidsWithCaps(BareJID.bareJIDInstanceNS("other@example.com"), capsNodes).isEmpty());
+	}
+
+	@Test
+	public void testCapsIndexWithRemovalOfOldestResource() {
+		BareJID service = BareJID.bareJIDInstanceNS("service@example.com");
+		for (int i = 0; i < 25; i++) {
+			repository.add(service, JID.jidInstanceNS("user@example.com/res-" + i), "caps");
+		}
+		List<JID> available = repository.getAllAvailableResources(service,
+																  BareJID.bareJIDInstanceNS("user@example.com"));
+		assertEquals(new HashSet<>(available), getJidsWithCaps(service, Collections.singleton("caps")));
+	}
+
+	private Set<JID> getJidsWithCaps(BareJID service, Set<String> capsNodes) {
+		return repository.getAllAvailableJidsWithCaps(service, capsNodes).collect(Collectors.toSet());
+	}
+
 }
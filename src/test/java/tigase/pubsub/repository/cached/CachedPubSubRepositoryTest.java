@@ -36,6 +36,7 @@ import tigase.pubsub.repository.stateless.UsersSubscription;
 import tigase.pubsub.utils.PubSubLogic;
 import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
+import tigase.xmpp.impl.roster.RosterElement;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 import tigase.xmpp.mam.MAMRepository;
@@ -44,6 +45,7 @@ import tigase.xmpp.rsm.RSM;
 import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
@@ -190,6 +192,48 @@ public class CachedPubSubRepositoryTest {
 		assertNull(dao.getChildNodes(serviceJid, null));
 	}
 
+	@Test
+	public void test_userRosterCache() throws Exception {
+		AtomicInteger rosterLoads = new AtomicInteger();
+		DummyPubSubDAO dao = new DummyPubSubDAO() {
+			@Override
+			public Map<BareJID, RosterElement> getUserRoster(BareJID owner) throws RepositoryException {
+				rosterLoads.incrementAndGet();
+				return new HashMap<>();
+			}
+		};
+		CachedPubSubRepository cachedPubSubRepository = createCachedPubSubRepository(dao);
+		setRosterCacheSize(cachedPubSubRepository, 10);
+
+		BareJID owner = BareJID.bareJIDInstanceNS("user-" + UUID.randomUUID() + "@example.com");
+		cachedPubSubRepository.getUserRoster(owner);
+		cachedPubSubRepository.getUserRoster(owner);
+		assertEquals(1, rosterLoads.get());
+
+		cachedPubSubRepository.invalidateUserRoster(owner);
+		cachedPubSubRepository.getUserRoster(owner);
+		assertEquals(2, rosterLoads.get());
+	}
+
+	@Test
+	public void test_userRosterCacheDisabled() throws Exception {
+		AtomicInteger rosterLoads = new AtomicInteger();
+		DummyPubSubDAO dao = new DummyPubSubDAO() {
+			@Override
+			public Map<BareJID, RosterElement> getUserRoster(BareJID owner) throws RepositoryException {
+				rosterLoads.incrementAndGet();
+				return new HashMap<>();
+			}
+		};
+		CachedPubSubRepository cachedPubSubRepository = createCachedPubSubRepository(dao);
+		assertNull(cachedPubSubRepository.rosters);
+
+		BareJID owner = BareJID.bareJIDInstanceNS("user-" + UUID.randomUUID() + "@example.com");
+		cachedPubSubRepository.getUserRoster(owner);
+		cachedPubSubRepository.getUserRoster(owner);
+		assertEquals(2, rosterLoads.get());
+	}
+
 	protected CachedPubSubRepository createCachedPubSubRepository(PubSubDAO dao) {
 		kernel.registerBean("pubsubDao").asInstance(dao).exec();
 		kernel.registerBean("logic").asInstance(new PubSubLogic() {
@@ -262,6 +306,15 @@ public class CachedPubSubRepositoryTest {
 		f.set(cachedPubSubRepository, value);
 	}
 
+	protected void setRosterCacheSize(CachedPubSubRepository cachedPubSubRepository, int value)
+			throws NoSuchFieldException, IllegalAccessException {
+		Field f = CachedPubSubRepository.class.getDeclaredField("rosterCacheSize");
+		f.setAccessible(true);
+		f.set(cachedPubSubRepository, value);
+		// caches are created during initialization
+		cachedPubSubRepository.initialize();
+	}
+
 	public static class DummyPubSubDAO
 			extends PubSubDAO {
 
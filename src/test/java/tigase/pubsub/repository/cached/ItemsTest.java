@@ -0,0 +1,332 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository.cached;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.CollectionItemsOrdering;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.pubsub.repository.IItems;
+import tigase.pubsub.repository.IPubSubRepository;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.rsm.RSM;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ItemsTest {
+
+	private final BareJID serviceJid = BareJID.bareJIDInstanceNS("pubsub.example.com");
+	private ItemsDAO dao;
+	private ItemsCacheBudget budget;
+
+	@Before
+	public void setUp() {
+		dao = new ItemsDAO();
+		budget = new ItemsCacheBudget(1024 * 1024);
+	}
+
+	@Test
+	public void testLastItemsServedFromCache() throws Exception {
+		dao.addItem("old", 1000);
+		dao.addItem("newer", 2000);
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 2);
+
+		assertEquals("newer", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		// cache is loaded with a single query
+		assertEquals(1, dao.getLastItemsCalls.get());
+		assertEquals(0, dao.getItemCalls.get());
+
+		items.writeItem("item-1", "publisher@example.com", new Element("item", new String[]{"id"}, new String[]{"item-1"}), null);
+		assertEquals("item-1", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertEquals("item-1", items.getItem("item-1").getId());
+		assertEquals("newer", items.getItem("newer").getId());
+		assertEquals(0, dao.getItemCalls.get());
+
+		// evicted item is loaded from the database
+		assertEquals("old", items.getItem("old").getId());
+		assertEquals(1, dao.getItemCalls.get());
+		assertEquals(1, dao.getLastItemsCalls.get());
+
+		items.deleteItem("item-1");
+		assertNull(items.getItem("item-1"));
+		assertEquals("newer", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertTrue(budget.getUsedBytes() > 0);
+		assertEquals(items.getCachedBytes(), budget.getUsedBytes());
+	}
+
+	@Test
+	public void testAllItemsCached() throws Exception {
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 10);
+		assertNull(items.getLastItem(CollectionItemsOrdering.byCreationDate));
+		items.writeItem("item-1", "publisher@example.com", new Element("item"), null);
+		items.writeItem("item-2", "publisher@example.com", new Element("item"), null);
+		// update of the item changes only update date
+		items.writeItem("item-1", "publisher@example.com", new Element("item"), null);
+
+		assertArrayEquals(new String[]{"item-2", "item-1"}, items.getItemsIds(CollectionItemsOrdering.byUpdateDate));
+		assertEquals(2, items.getItemsIds(CollectionItemsOrdering.byCreationDate).length);
+		assertNull(items.getItem("item-3"));
+		assertEquals(0, dao.getItemsIdsCalls.get());
+		assertEquals(0, dao.getItemCalls.get());
+	}
+
+	@Test
+	public void testCacheStartedByWrite() throws Exception {
+		dao.addItem("old", 1000);
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 10);
+		items.writeItem("item-1", "publisher@example.com", new Element("item", new String[]{"id"}, new String[]{"item-1"}), null);
+
+		assertEquals("item-1", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertEquals(0, dao.getLastItemsCalls.get());
+		// older items are not cached
+		assertEquals("old", items.getItem("old").getId());
+		assertEquals(2, items.getItemsIds(CollectionItemsOrdering.byUpdateDate).length);
+		assertEquals(0, dao.getLastItemsCalls.get());
+	}
+
+	@Test
+	public void testConcurrentLoadOfCache() throws Exception {
+		dao.addItem("item-1", 1000);
+		CountDownLatch loadStarted = new CountDownLatch(1);
+		CountDownLatch loadAllowed = new CountDownLatch(1);
+		dao.beforeLoad = () -> {
+			loadStarted.countDown();
+			try {
+				loadAllowed.await();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		};
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 10);
+
+		List<String> results = Collections.synchronizedList(new ArrayList<>());
+		Runnable reader = () -> {
+			try {
+				results.add(items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+			} catch (RepositoryException ex) {
+				throw new RuntimeException(ex);
+			}
+		};
+		Thread first = new Thread(reader);
+		first.start();
+		loadStarted.await();
+		Thread second = new Thread(reader);
+		second.start();
+		Thread.sleep(50);
+		loadAllowed.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(List.of("item-1", "item-1"), results);
+		assertEquals(1, dao.getLastItemsCalls.get());
+		assertEquals(0, dao.getItemCalls.get());
+	}
+
+	@Test
+	public void testCachedItemIsCopied() throws Exception {
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 10);
+		items.getLastItem(CollectionItemsOrdering.byUpdateDate);
+		Element item = new Element("item", new String[]{"id"}, new String[]{"item-1"});
+		items.writeItem("item-1", "publisher@example.com", item, null);
+		item.addChild(new Element("modified"));
+		items.getItem("item-1").getItem().addChild(new Element("modified"));
+		assertNull(items.getItem("item-1").getItem().getChild("modified"));
+	}
+
+	@Test
+	public void testTrimItems() throws Exception {
+		Listener listener = new Listener();
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, listener, budget, 10);
+		for (int i = 1; i <= 4; i++) {
+			dao.addItem("item-" + i, i * 1000);
+		}
+
+		String[] removed = items.trimItems(1, CollectionItemsOrdering.byCreationDate);
+		assertArrayEquals(new String[]{"item-1", "item-2", "item-3"}, removed);
+		assertEquals(Arrays.asList(removed), listener.deleted);
+		assertArrayEquals(new String[]{"item-4"}, items.getItemsIds(CollectionItemsOrdering.byCreationDate));
+		assertNull(items.getItem("item-1"));
+	}
+
+	@Test
+	public void testItemsHiddenDuringPurge() throws Exception {
+		testItemsHiddenDuringPurge(10);
+	}
+
+	@Test
+	public void testItemsHiddenDuringPurgeWithoutCache() throws Exception {
+		testItemsHiddenDuringPurge(0);
+	}
+
+	private void testItemsHiddenDuringPurge(int cacheCapacity) throws Exception {
+		dao.addItem("item-1", 1000);
+		dao.addItem("item-2", 2000);
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, cacheCapacity);
+		assertEquals("item-2", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+
+		Date before = new Date(5000);
+		items.purgeStarted(before);
+		assertNull(items.getItem("item-1"));
+		assertNull(items.getLastItem(CollectionItemsOrdering.byUpdateDate));
+		assertEquals(0, items.getItemsIds(CollectionItemsOrdering.byUpdateDate).length);
+		assertTrue(items.getItemsMeta().isEmpty());
+
+		items.writeItem("item-3", "publisher@example.com", new Element("item", new String[]{"id"}, new String[]{"item-3"}), null);
+		assertArrayEquals(new String[]{"item-3"}, items.getItemsIds(CollectionItemsOrdering.byCreationDate));
+		assertEquals("item-3", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertEquals(1, items.getItems(Arrays.asList("item-1", "item-2", "item-3")).size());
+
+		assertEquals(1, items.purgeItems(before, 1).length);
+		assertNull(items.getItem("item-2"));
+		assertEquals(1, items.purgeItems(before, 1).length);
+		assertEquals(0, items.purgeItems(before, 1).length);
+		assertFalse(items.isPurgeInProgress());
+		assertArrayEquals(new String[]{"item-3"}, items.getItemsIds(CollectionItemsOrdering.byUpdateDate));
+	}
+
+	@Test
+	public void testItemsVisibleAfterPurgeAborted() throws Exception {
+		dao.addItem("item-1", 1000);
+		dao.addItem("item-2", 2000);
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 10);
+
+		Date before = new Date(5000);
+		items.purgeStarted(before);
+		assertEquals(0, items.getItemsIds(CollectionItemsOrdering.byUpdateDate).length);
+
+		items.purgeAborted(before);
+		assertFalse(items.isPurgeInProgress());
+		assertEquals("item-2", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertEquals(2, items.getItemsIds(CollectionItemsOrdering.byUpdateDate).length);
+	}
+
+	@Test
+	public void testMemoryBudget() throws Exception {
+		dao.addItem("item-1", 1000);
+		budget = new ItemsCacheBudget(10);
+		Items<Long> items = new Items<>(1L, serviceJid, "node", dao, new Listener(), budget, 10);
+
+		assertEquals("item-1", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertEquals("item-1", items.getLastItem(CollectionItemsOrdering.byUpdateDate).getId());
+		assertEquals(0, items.getCachedBytes());
+		assertEquals(0, budget.getUsedBytes());
+		assertTrue(dao.getItemsIdsCalls.get() >= 2);
+	}
+
+	private static class Listener
+			implements IItems.IListnener {
+
+		private final List<String> deleted = new ArrayList<>();
+
+		@Override
+		public void itemWritten(BareJID serviceJID, String node, String id, String publisher, Element item,
+								String uuid) {
+		}
+
+		@Override
+		public void itemDeleted(BareJID serviceJID, String node, String id) {
+			deleted.add(id);
+		}
+
+		@Override
+		public boolean validateItem(BareJID serviceJID, String node, String id, String publisher, Element item)
+				throws PubSubException {
+			return true;
+		}
+	}
+
+	private static class ItemsDAO
+			extends CachedPubSubRepositoryTest.DummyPubSubDAO {
+
+		private final AtomicInteger getItemCalls = new AtomicInteger();
+		private final AtomicInteger getItemsIdsCalls = new AtomicInteger();
+		private final AtomicInteger getLastItemsCalls = new AtomicInteger();
+		private volatile Runnable beforeLoad;
+		private final Map<String, IItems.ItemMeta> metas = new LinkedHashMap<>();
+		private final Map<String, Element> items = new HashMap<>();
+
+		void addItem(String id, long timestamp) {
+			metas.put(id, new IItems.ItemMeta("node", id, new Date(timestamp), new Date(timestamp), null));
+			items.put(id, new Element("item", new String[]{"id"}, new String[]{id}));
+		}
+
+		@Override
+		public void deleteItem(BareJID serviceJid, Object nodeId, String id) throws RepositoryException {
+			metas.remove(id);
+			items.remove(id);
+		}
+
+		@Override
+		public IItems.IItem getItem(BareJID serviceJid, Object nodeId, String id) throws RepositoryException {
+			getItemCalls.incrementAndGet();
+			Element item = items.get(id);
+			return item == null ? null : new IItems.Item("node", id, null, item.clone());
+		}
+
+		@Override
+		public List<IPubSubRepository.Item> getItems(BareJID serviceJid, List nodeIds, Date after, Date before,
+													 RSM rsm, CollectionItemsOrdering ordering)
+				throws RepositoryException {
+			getLastItemsCalls.incrementAndGet();
+			Runnable beforeLoad = this.beforeLoad;
+			if (beforeLoad != null) {
+				beforeLoad.run();
+			}
+			// only request for the last page is supported
+			String[] ids = getItemsIds(serviceJid, null, ordering);
+			getItemsIdsCalls.decrementAndGet();
+			List result = new ArrayList();
+			for (int i = Math.max(0, ids.length - rsm.getMax()); i < ids.length; i++) {
+				result.add(new IItems.Item("node", ids[i], null, items.get(ids[i]).clone()));
+			}
+			return result;
+		}
+
+		@Override
+		public String[] getItemsIds(BareJID serviceJid, Object nodeId, CollectionItemsOrdering order)
+				throws RepositoryException {
+			getItemsIdsCalls.incrementAndGet();
+			List<IItems.ItemMeta> list = new ArrayList<>(metas.values());
+			list.sort(Comparator.comparing(order == CollectionItemsOrdering.byCreationDate
+										   ? IItems.ItemMeta::getCreationDate
+										   : IItems.ItemMeta::getItemUpdateDate));
+			return list.stream().map(IItems.ItemMeta::getId).toArray(String[]::new);
+		}
+
+		@Override
+		public List<IItems.ItemMeta> getItemsMeta(BareJID serviceJid, Object nodeId, String nodeName)
+				throws RepositoryException {
+			return new ArrayList<>(metas.values());
+		}
+
+		@Override
+		public void writeItem(BareJID serviceJid, Object nodeId, long timeInMilis, String id, String publisher,
+							  Element item, String uuid) throws RepositoryException {
+			IItems.ItemMeta old = metas.remove(id);
+			metas.put(id, new IItems.ItemMeta("node", id, old == null ? new Date(timeInMilis) : old.getCreationDate(),
+											  new Date(timeInMilis), uuid));
+			items.put(id, item.clone());
+		}
+	}
+}
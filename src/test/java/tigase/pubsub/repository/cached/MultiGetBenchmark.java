@@ -0,0 +1,133 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository.cached;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.LeafNodeConfig;
+import tigase.pubsub.repository.INodeMeta;
+import tigase.pubsub.repository.stateless.NodeMeta;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares cost of loading configurations of all child nodes of a collection with 1000 child nodes, which are not
+ * cached, when they are loaded one by one and when they are loaded using a single request to the DAO. Each request
+ * to the DAO takes at least <code>roundTripNanos</code> to simulate latency of the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiGetBenchmark {
+
+	private static final int CHILDREN = 1000;
+
+	@Param({"0", "100000"})
+	private long roundTripNanos;
+	private List<String> childNodes;
+	private RoundTripPubSubDAO dao;
+	private CachedPubSubRepository repository;
+	private BareJID serviceJid;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(MultiGetBenchmark.class.getSimpleName()).build();
+		new Runner(opt).run();
+	}
+
+	@Setup
+	public void setup() {
+		serviceJid = BareJID.bareJIDInstanceNS("pubsub.example.com");
+		dao = new RoundTripPubSubDAO(roundTripNanos);
+		childNodes = new ArrayList<>();
+		for (int i = 0; i < CHILDREN; i++) {
+			String nodeName = "node-" + i;
+			childNodes.add(nodeName);
+			dao.nodes.put(nodeName, new NodeMeta<>((long) i, new LeafNodeConfig(nodeName), serviceJid, new Date()));
+		}
+		CachedPubSubRepositoryTest test = new CachedPubSubRepositoryTest();
+		test.setUp();
+		repository = test.createCachedPubSubRepository(dao);
+	}
+
+	@Setup(Level.Invocation)
+	public void clearCache() {
+		for (Object key : new ArrayList<>(repository.nodes.keySet())) {
+			repository.nodes.remove((CachedPubSubRepository.NodeKey) key);
+		}
+	}
+
+	@Benchmark
+	public void oneByOne(Blackhole blackhole) throws RepositoryException {
+		for (String nodeName : childNodes) {
+			blackhole.consume(repository.getNodeConfig(serviceJid, nodeName));
+		}
+	}
+
+	@Benchmark
+	public void multiGet(Blackhole blackhole) throws RepositoryException {
+		blackhole.consume(repository.getNodeConfigs(serviceJid, childNodes));
+	}
+
+	public static class RoundTripPubSubDAO
+			extends CachedPubSubRepositoryTest.DummyPubSubDAO {
+
+		private final Map<String, INodeMeta> nodes = new HashMap<>();
+		private final long roundTripNanos;
+
+		public RoundTripPubSubDAO(long roundTripNanos) {
+			this.roundTripNanos = roundTripNanos;
+		}
+
+		@Override
+		public INodeMeta getNodeMeta(BareJID serviceJid, String nodeName) throws RepositoryException {
+			roundTrip();
+			return nodes.get(nodeName);
+		}
+
+		@Override
+		public Map getNodeMetas(BareJID serviceJid, Collection nodeNames) throws RepositoryException {
+			roundTrip();
+			Map<String, INodeMeta> result = new HashMap<>();
+			for (Object nodeName : nodeNames) {
+				INodeMeta nodeMeta = nodes.get(nodeName);
+				if (nodeMeta != null) {
+					result.put((String) nodeName, nodeMeta);
+				}
+			}
+			return result;
+		}
+
+		private void roundTrip() {
+			if (roundTripNanos > 0) {
+				LockSupport.parkNanos(roundTripNanos);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository.cached;
+
+import org.junit.Test;
+import tigase.pubsub.AbstractNodeConfig;
+import tigase.pubsub.AccessModel;
+import tigase.pubsub.Affiliation;
+import tigase.pubsub.LeafNodeConfig;
+import tigase.pubsub.Subscription;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class NodeTest {
+
+	@Test
+	public void testDeliveryList() {
+		BareJID serviceJid = BareJID.bareJIDInstanceNS("pubsub.example.com");
+		BareJID user1 = BareJID.bareJIDInstanceNS("user1@example.com");
+		BareJID user2 = BareJID.bareJIDInstanceNS("user2@example.com");
+		NodeSubscriptions subscriptions = new NodeSubscriptions();
+		NodeAffiliations affiliations = new NodeAffiliations();
+		Node<Long> node = new Node<>(1l, serviceJid, new LeafNodeConfig("node"), affiliations, subscriptions, null,
+									 serviceJid, new Date());
+
+		subscriptions.addSubscriberJid(user1, Subscription.subscribed);
+		// not merged changes of the current thread are visible but not cached
+		assertArrayEquals(new JID[]{JID.jidInstance(user1)}, node.getDeliveryList());
+		node.subscriptionsMerge();
+
+		JID[] list = node.getDeliveryList();
+		assertArrayEquals(new JID[]{JID.jidInstance(user1)}, list);
+		assertSame(list, node.getDeliveryList());
+
+		subscriptions.addSubscriberJid(user2, Subscription.subscribed);
+		node.subscriptionsMerge();
+		assertEquals(2, node.getDeliveryList().length);
+
+		affiliations.changeAffiliation(user2, Affiliation.outcast);
+		node.affiliationsMerge();
+		assertArrayEquals(new JID[]{JID.jidInstance(user1)}, node.getDeliveryList());
+	}
+
+	@Test
+	public void testConfigCopyOnWrite() {
+		BareJID serviceJid = BareJID.bareJIDInstanceNS("pubsub.example.com");
+		Node<Long> node = new Node<>(1l, serviceJid, new LeafNodeConfig("node"), new NodeAffiliations(),
+									 new NodeSubscriptions(), null, serviceJid, new Date());
+
+		AbstractNodeConfig config = node.getNodeConfig();
+		assertTrue(config.isReadOnly());
+		try {
+			config.setValue("pubsub#access_model", AccessModel.whitelist.name());
+			fail("Read-only configuration was modified");
+		} catch (UnsupportedOperationException ex) {
+			// expected
+		}
+		try {
+			config.getForm().get("pubsub#access_model").setValues(new String[]{AccessModel.whitelist.name()});
+			fail("Form of read-only configuration was returned");
+		} catch (UnsupportedOperationException ex) {
+			// expected
+		}
+		assertEquals(AccessModel.open, config.getNodeAccessModel());
+		assertEquals(AccessModel.open.name(), config.copy().getForm().get("pubsub#access_model").getValue());
+
+		AbstractNodeConfig newConfig = config.copy();
+		assertFalse(newConfig.isReadOnly());
+		newConfig.setValue("pubsub#access_model", AccessModel.whitelist.name());
+		node.configCopyFrom(newConfig);
+
+		assertNotSame(config, node.getNodeConfig());
+		assertTrue(node.getNodeConfig().isReadOnly());
+		assertTrue(node.configNeedsWriting());
+		assertEquals(AccessModel.whitelist, node.getNodeConfig().getNodeAccessModel());
+		assertEquals(AccessModel.open, config.getNodeAccessModel());
+	}
+
+}
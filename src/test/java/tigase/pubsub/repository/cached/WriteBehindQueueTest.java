@@ -0,0 +1,184 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.repository.cached;
+
+import org.junit.Test;
+import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.Affiliation;
+import tigase.pubsub.Subscription;
+import tigase.pubsub.repository.stateless.UsersAffiliation;
+import tigase.pubsub.repository.stateless.UsersSubscription;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+
+	private final BareJID serviceJid = BareJID.bareJIDInstanceNS("pubsub.example.com");
+	private final BareJID jid1 = BareJID.bareJIDInstanceNS("user1@example.com");
+	private final BareJID jid2 = BareJID.bareJIDInstanceNS("user2@example.com");
+
+	@Test
+	public void testCoalescingAndPendingChanges() throws Exception {
+		WritesDAO dao = new WritesDAO();
+		WriteBehindQueue<Long> queue = new WriteBehindQueue<>(dao, 10, 100, 3);
+
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid1, Subscription.subscribed));
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid2, Subscription.subscribed));
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid1, Subscription.none));
+		queue.addAffiliations(serviceJid, 1L, "node", affiliations(jid2, Affiliation.publisher));
+		assertEquals(3, queue.getPendingCount());
+
+		Map<BareJID, UsersSubscription> stored = new HashMap<>();
+		stored.put(jid1, new UsersSubscription(jid1, "1", Subscription.subscribed));
+		Map<BareJID, UsersSubscription> subscriptions = WriteBehindQueue.applySubscriptions(stored,
+																							queue.getPendingSubscriptions(1L));
+		assertFalse(subscriptions.containsKey(jid1));
+		assertEquals(Subscription.subscribed, subscriptions.get(jid2).getSubscription());
+		assertEquals(Affiliation.publisher,
+					 WriteBehindQueue.applyAffiliations(new HashMap<>(), queue.getPendingAffiliations(1L))
+							 .get(jid2)
+							 .getAffiliation());
+		assertSame(stored, WriteBehindQueue.applySubscriptions(stored, queue.getPendingSubscriptions(2L)));
+
+		queue.start();
+		queue.stop();
+
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(3, queue.getWrittenCount());
+		assertEquals(Arrays.asList("affiliation:" + jid2 + ":publisher", "remove:" + jid1,
+								   "subscription:" + jid2 + ":subscribed"), dao.writes);
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		WritesDAO dao = new WritesDAO();
+		dao.failures.set(1);
+		WriteBehindQueue<Long> queue = new WriteBehindQueue<>(dao, 10, 100, 3);
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid1, Subscription.subscribed));
+
+		queue.start();
+		queue.stop();
+
+		assertEquals(1, queue.getFailuresCount());
+		assertEquals(0, queue.getDroppedCount());
+		assertEquals(Collections.singletonList("subscription:" + jid1 + ":subscribed"), dao.writes);
+	}
+
+	@Test
+	public void testRetryAfterRuntimeException() throws Exception {
+		WritesDAO dao = new WritesDAO();
+		dao.runtimeFailures.set(1);
+		WriteBehindQueue<Long> queue = new WriteBehindQueue<>(dao, 10, 100, 3);
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid1, Subscription.subscribed));
+
+		queue.start();
+		queue.stop();
+
+		assertEquals(1, queue.getFailuresCount());
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(Collections.singletonList("subscription:" + jid1 + ":subscribed"), dao.writes);
+	}
+
+	@Test
+	public void testPendingUserChanges() throws Exception {
+		WritesDAO dao = new WritesDAO();
+		WriteBehindQueue<Long> queue = new WriteBehindQueue<>(dao, 10, 100, 3);
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid1, Subscription.none));
+		queue.addSubscriptions(serviceJid, 2L, "node-2", subscriptions(jid1, Subscription.subscribed));
+		queue.addAffiliations(serviceJid, 2L, "node-2", affiliations(jid1, Affiliation.publisher));
+
+		Map<String, UsersSubscription> stored = new HashMap<>();
+		stored.put("node", new UsersSubscription(jid1, "1", Subscription.subscribed));
+		Map<String, UsersSubscription> subscriptions = WriteBehindQueue.applyUserSubscriptions(stored,
+																							   queue.getPendingUserSubscriptions(
+																									   serviceJid, jid1));
+		assertEquals(Collections.singleton("node-2"), subscriptions.keySet());
+		assertEquals(Affiliation.publisher, WriteBehindQueue.applyUserAffiliations(null,
+																				   queue.getPendingUserAffiliations(
+																						   serviceJid, jid1))
+				.get("node-2")
+				.getAffiliation());
+		assertSame(stored, WriteBehindQueue.applyUserSubscriptions(stored,
+																   queue.getPendingUserSubscriptions(serviceJid, jid2)));
+	}
+
+	@Test
+	public void testNodeRemoved() throws Exception {
+		WritesDAO dao = new WritesDAO();
+		WriteBehindQueue<Long> queue = new WriteBehindQueue<>(dao, 10, 100, 3);
+		queue.addSubscriptions(serviceJid, 1L, "node", subscriptions(jid1, Subscription.subscribed));
+		queue.addSubscriptions(serviceJid, 2L, "node-2", subscriptions(jid1, Subscription.subscribed));
+		queue.nodeRemoved(1L);
+		assertEquals(1, queue.getPendingCount());
+		queue.serviceRemoved(serviceJid);
+		assertEquals(0, queue.getPendingCount());
+
+		queue.start();
+		queue.stop();
+		assertTrue(dao.writes.isEmpty());
+	}
+
+	private Map<BareJID, UsersSubscription> subscriptions(BareJID jid, Subscription subscription) {
+		return Collections.singletonMap(jid, new UsersSubscription(jid, "1", subscription));
+	}
+
+	private Map<BareJID, UsersAffiliation> affiliations(BareJID jid, Affiliation affiliation) {
+		return Collections.singletonMap(jid, new UsersAffiliation(jid, affiliation));
+	}
+
+	private static class WritesDAO
+			extends CachedPubSubRepositoryTest.DummyPubSubDAO {
+
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicInteger runtimeFailures = new AtomicInteger();
+		private final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void removeNodeSubscription(BareJID serviceJid, Object nodeId, BareJID jid) throws RepositoryException {
+			checkFailure();
+			writes.add("remove:" + jid);
+		}
+
+		@Override
+		public void updateNodeAffiliation(BareJID serviceJid, Object nodeId, String nodeName,
+										  UsersAffiliation userAffiliation) throws RepositoryException {
+			checkFailure();
+			writes.add("affiliation:" + userAffiliation.getJid() + ":" + userAffiliation.getAffiliation());
+		}
+
+		@Override
+		public void updateNodeSubscription(BareJID serviceJid, Object nodeId, String nodeName,
+										   UsersSubscription userSubscription) throws RepositoryException {
+			checkFailure();
+			writes.add("subscription:" + userSubscription.getJid() + ":" + userSubscription.getSubscription());
+		}
+
+		private void checkFailure() throws RepositoryException {
+			if (failures.getAndDecrement() > 0) {
+				throw new RepositoryException("failure");
+			}
+			if (runtimeFailures.getAndDecrement() > 0) {
+				throw new IllegalStateException("failure");
+			}
+		}
+	}
+}
@@ -24,7 +24,10 @@ import tigase.stats.StatisticsList;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xmpp.jid.BareJID;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
@@ -71,6 +74,28 @@ public class CacheTest {
 		assertNull(cache.get(nodeKey));
 	}
 
+	@Test
+	public void testLRUCacheRemovalListener() throws Cache.CacheException {
+		testRemovalListener(new LRUCache<>(2));
+	}
+
+	@Test
+	public void testLRUCacheWithFutureRemovalListener() throws Cache.CacheException {
+		testRemovalListener(new LRUCacheWithFuture<>(2));
+	}
+
+	private void testRemovalListener(Cache<CachedPubSubRepository.NodeKey,String> cache) throws Cache.CacheException {
+		List<String> removed = new ArrayList<>();
+		cache.setRemovalListener((key, value) -> removed.add(value));
+		cache.put(newNodeKey("test-1"), "value-1");
+		cache.computeIfAbsent(newNodeKey("test-2"), () -> "value-2");
+		cache.put(newNodeKey("test-2"), "value-3");
+		assertEquals(Collections.emptyList(), removed);
+		cache.putIfAbsent(newNodeKey("test-3"), "value-4");
+		cache.remove(newNodeKey("test-2"));
+		assertEquals(Arrays.asList("value-1", "value-3"), removed);
+	}
+
 	private CachedPubSubRepository.NodeKey newNodeKey(String node) {
 		BareJID serviceJid = BareJID.bareJIDInstanceNS("test@test.com");
 		return new CachedPubSubRepository.NodeKey(serviceJid, node);
@@ -0,0 +1,60 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TimeOrderedUuidGeneratorTest {
+
+	@Test
+	public void testLayout() {
+		long now = System.currentTimeMillis();
+		UUID uuid = new TimeOrderedUuidGenerator().generate(now);
+		assertEquals(7, uuid.version());
+		assertEquals(2, uuid.variant());
+		assertEquals(new Date(now), TimeOrderedUuidGenerator.getTimestamp(uuid.toString()));
+	}
+
+	@Test
+	public void testMonotonic() {
+		TimeOrderedUuidGenerator generator = new TimeOrderedUuidGenerator();
+		long now = System.currentTimeMillis();
+		String last = generator.generate(now).toString();
+		// more ids than counter can hold within a single millisecond and clock moved back
+		for (int i = 0; i < 10000; i++) {
+			String uuid = generator.generate(i < 5000 ? now : now - 1000).toString();
+			assertTrue(uuid + " is not after " + last, uuid.compareTo(last) > 0);
+			last = uuid;
+		}
+		String uuid = generator.generate(now + 1000).toString();
+		assertTrue(uuid.compareTo(last) > 0);
+		assertEquals(new Date(now + 1000), TimeOrderedUuidGenerator.getTimestamp(uuid));
+	}
+
+	@Test
+	public void testTimestampOfOtherIds() {
+		assertNull(TimeOrderedUuidGenerator.getTimestamp(UUID.randomUUID().toString()));
+		assertNull(TimeOrderedUuidGenerator.getTimestamp("item-1"));
+		assertNull(TimeOrderedUuidGenerator.getTimestamp(null));
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import org.junit.Test;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.xmpp.Authorization;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+
+	@Test
+	public void testLimits() throws PubSubException {
+		TestExecutor executor = new TestExecutor();
+		TestAdmissionController controller = new TestAdmissionController(executor);
+		controller.setMaxQueuedNotifications(100);
+		controller.setMaxQueuedBytes(1000);
+		controller.setMaxQueueDelay(1000);
+		controller.setMaxHeapUsage(90);
+
+		controller.checkAdmission();
+		assertEquals(AdmissionController.State.accepting, controller.getState());
+
+		executor.queuedWeight = 101;
+		assertRejected(controller, AdmissionController.State.queueSizeExceeded);
+		executor.queuedWeight = 0;
+
+		executor.queuedBytes = 1001;
+		assertRejected(controller, AdmissionController.State.queuedBytesExceeded);
+		executor.queuedBytes = 0;
+
+		executor.queueDelay = 1001;
+		assertRejected(controller, AdmissionController.State.queueDelayExceeded);
+		executor.queueDelay = 0;
+
+		controller.heapUsage = 91;
+		assertRejected(controller, AdmissionController.State.heapUsageExceeded);
+		controller.heapUsage = 0;
+
+		executor.overloaded = true;
+		assertRejected(controller, AdmissionController.State.executorOverloaded);
+		executor.overloaded = false;
+
+		controller.checkAdmission();
+		assertEquals(AdmissionController.State.accepting, controller.getState());
+	}
+
+	@Test
+	public void testDisabledLimits() throws PubSubException {
+		TestExecutor executor = new TestExecutor();
+		TestAdmissionController controller = new TestAdmissionController(executor);
+		controller.setMaxQueuedNotifications(0);
+		controller.setMaxQueuedBytes(0);
+		controller.setMaxQueueDelay(0);
+		controller.setMaxHeapUsage(0);
+
+		executor.queuedWeight = Long.MAX_VALUE;
+		executor.queuedBytes = Long.MAX_VALUE;
+		executor.queueDelay = Long.MAX_VALUE;
+		controller.heapUsage = 100;
+
+		controller.checkAdmission();
+		assertEquals(AdmissionController.State.accepting, controller.getState());
+	}
+
+	private static void assertRejected(AdmissionController controller, AdmissionController.State expectedState) {
+		try {
+			controller.checkAdmission();
+			fail("Publication should be rejected");
+		} catch (PubSubException ex) {
+			assertEquals(Authorization.RESOURCE_CONSTRAINT, ex.getErrorCondition());
+			assertEquals(expectedState, controller.getState());
+		}
+	}
+
+	private static class TestAdmissionController
+			extends AdmissionController {
+
+		private float heapUsage = 0;
+
+		TestAdmissionController(Executor executor) {
+			super(executor);
+		}
+
+		@Override
+		protected float getHeapUsage() {
+			return heapUsage;
+		}
+	}
+
+	private static class TestExecutor
+			implements Executor {
+
+		private boolean overloaded = false;
+		private long queuedWeight = 0;
+		private long queuedBytes = 0;
+		private long queueDelay = 0;
+
+		@Override
+		public boolean isOverloaded() {
+			return overloaded;
+		}
+
+		@Override
+		public void submit(Priority priority, Runnable runnable) {
+			runnable.run();
+		}
+
+		@Override
+		public long getQueuedWeight() {
+			return queuedWeight;
+		}
+
+		@Override
+		public long getQueuedBytes() {
+			return queuedBytes;
+		}
+
+		@Override
+		public long getQueueDelay() {
+			return queueDelay;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedRateLimitingExecutorTest {
+
+	@Test
+	public void testOrderOfTasksWithSameKey() throws InterruptedException {
+		StripedRateLimitingExecutor executor = new StripedRateLimitingExecutor();
+		executor.setLimit(1000000);
+		executor.setThreads(4);
+		executor.initialize();
+
+		int keys = 10;
+		int tasksPerKey = 1000;
+		CountDownLatch latch = new CountDownLatch(keys * tasksPerKey);
+		List<List<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < keys; i++) {
+			results.add(new ArrayList<>());
+		}
+
+		try {
+			for (int i = 0; i < tasksPerKey; i++) {
+				for (int key = 0; key < keys; key++) {
+					final int k = key;
+					final int value = i;
+					executor.submit(Executor.Priority.normal, new Executor.OrderedTask() {
+						@Override
+						public Object getOrderingKey() {
+							return k;
+						}
+
+						@Override
+						public void run() {
+							results.get(k).add(value);
+							latch.countDown();
+						}
+					});
+				}
+			}
+
+			assertTrue(latch.await(30, TimeUnit.SECONDS));
+		} finally {
+			executor.beforeUnregister();
+		}
+
+		for (List<Integer> result : results) {
+			assertEquals(tasksPerKey, result.size());
+			for (int i = 0; i < tasksPerKey; i++) {
+				assertEquals(i, (int) result.get(i));
+			}
+		}
+	}
+
+}
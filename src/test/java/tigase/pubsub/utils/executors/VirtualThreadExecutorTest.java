@@ -0,0 +1,142 @@
+/*
+ * Tigase PubSub - Publish Subscribe component for Tigase
+ * Copyright (C) 2008 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.pubsub.utils.executors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadExecutorTest {
+
+	@Test
+	public void testOrderOfTasksWithSameKey() throws InterruptedException {
+		VirtualThreadExecutor executor = new VirtualThreadExecutor();
+		executor.setMaxConcurrentTasks(16);
+		executor.initialize();
+
+		int keys = 10;
+		int tasksPerKey = 1000;
+		CountDownLatch latch = new CountDownLatch(keys * tasksPerKey);
+		List<List<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < keys; i++) {
+			results.add(new ArrayList<>());
+		}
+
+		try {
+			for (int i = 0; i < tasksPerKey; i++) {
+				for (int key = 0; key < keys; key++) {
+					final int k = key;
+					final int value = i;
+					executor.submit(Executor.Priority.normal, new Executor.OrderedTask() {
+						@Override
+						public Object getOrderingKey() {
+							return k;
+						}
+
+						@Override
+						public void run() {
+							results.get(k).add(value);
+							latch.countDown();
+						}
+					});
+				}
+			}
+
+			assertTrue(latch.await(30, TimeUnit.SECONDS));
+		} finally {
+			executor.beforeUnregister();
+		}
+
+		for (List<Integer> result : results) {
+			assertEquals(tasksPerKey, result.size());
+			for (int i = 0; i < tasksPerKey; i++) {
+				assertEquals(i, (int) result.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testMaxConcurrentTasks() throws InterruptedException {
+		VirtualThreadExecutor executor = new VirtualThreadExecutor();
+		executor.setMaxConcurrentTasks(4);
+		executor.initialize();
+
+		int tasks = 100;
+		CountDownLatch latch = new CountDownLatch(tasks);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		try {
+			for (int i = 0; i < tasks; i++) {
+				executor.submit(Executor.Priority.normal, () -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException ex) {
+						// ignoring
+					}
+					running.decrementAndGet();
+					latch.countDown();
+				});
+			}
+
+			assertTrue(latch.await(30, TimeUnit.SECONDS));
+		} finally {
+			executor.beforeUnregister();
+		}
+
+		assertTrue(maxRunning.get() <= 4);
+	}
+
+	@Test
+	public void testPlatformThreadsReused() throws InterruptedException {
+		VirtualThreadExecutor executor = new VirtualThreadExecutor();
+		executor.setUseVirtualThreads(false);
+		executor.setPlatformThreads(2);
+		executor.initialize();
+
+		int tasks = 100;
+		CountDownLatch latch = new CountDownLatch(tasks);
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		try {
+			assertFalse(executor.isUsingVirtualThreads());
+			for (int i = 0; i < tasks; i++) {
+				executor.submit(Executor.Priority.normal, () -> {
+					threads.add(Thread.currentThread());
+					latch.countDown();
+				});
+			}
+
+			assertTrue(latch.await(30, TimeUnit.SECONDS));
+		} finally {
+			executor.beforeUnregister();
+		}
+
+		assertTrue(threads.size() <= 2);
+	}
+
+}